@@ -1,22 +1,27 @@
 package org.andresoviedo.app.model3D.demo;
 
-import android.app.ProgressDialog;
 import android.net.Uri;
 import android.os.SystemClock;
 import android.util.Log;
 
+import org.andresoviedo.android_3d_model_engine.animation.ParallelAnimator;
+import org.andresoviedo.android_3d_model_engine.collision.OctreeBuilder;
+import org.andresoviedo.android_3d_model_engine.collision.RayCaster;
+import org.andresoviedo.android_3d_model_engine.collision.SceneBVH;
 import org.andresoviedo.android_3d_model_engine.model.Camera;
 import org.andresoviedo.android_3d_model_engine.services.Object3DBuilder;
 import org.andresoviedo.android_3d_model_engine.model.Object3DData;
 import org.andresoviedo.android_3d_model_engine.services.LoaderTask;
+import org.andresoviedo.android_3d_model_engine.services.ParallelLoader;
 import org.andresoviedo.app.model3D.view.ModelActivity;
+import org.andresoviedo.app.model3D.view.ModelRenderer;
 import org.andresoviedo.util.android.ContentUtils;
-import org.andresoviedo.util.io.IOUtils;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * This class loads a 3D scena as an example of what can be done with the app
@@ -37,6 +42,18 @@ public class SceneLoader implements LoaderTask.Callback {
      * List of data objects containing info for building the opengl objects
      */
     private List<Object3DData> objects = new ArrayList<Object3DData>();
+    /**
+     * Objects loaded in background that will be added to the scene in the next frame
+     */
+    private final Queue<Object3DData> pendingObjects = new ConcurrentLinkedQueue<>();
+    /**
+     * Loads the models of the scene in parallel
+     */
+    private ParallelLoader parallelLoader;
+    /**
+     * Builds the octrees of the models in background once they are loaded, so they can be touched
+     */
+    private final OctreeBuilder octreeBuilder = new OctreeBuilder();
     /**
      * Point of view camera
      */
@@ -89,6 +106,17 @@ public class SceneLoader implements LoaderTask.Callback {
      * Object selected by the user
      */
     private Object3DData selectedObject = null;
+    /**
+     * Tree of the objects of the scene, to find the visible and the touched objects
+     */
+    private final SceneBVH sceneBVH = new SceneBVH();
+    /**
+     * Finds the object touched by the user. The ray and the matrix are reused on every touch
+     */
+    private final RayCaster rayCaster = new RayCaster();
+    private final float[] inverseProjectionViewMatrix = new float[16];
+    private final float[] rayOrigin = new float[3];
+    private final float[] rayDirection = new float[3];
     /**
      * Initial light position
      */
@@ -98,8 +126,9 @@ public class SceneLoader implements LoaderTask.Callback {
      */
     private final Object3DData lightPoint = Object3DBuilder.buildPoint(lightPosition).setId("light");
     /**
-     * Animator
+     * Animator. Calculates the poses of the animated models in background while the previous frame is drawn
      */
+    private final ParallelAnimator animator = new ParallelAnimator();
     /**
      * Did the user touched the model for the first time?
      */
@@ -123,44 +152,41 @@ public class SceneLoader implements LoaderTask.Callback {
         }
 
         startTime = SystemClock.uptimeMillis();
-        ProgressDialog dialog = new ProgressDialog(parent);
-        List<Exception> errors = new ArrayList<>();
-
-        try {
-            // Set up ContentUtils so referenced materials and/or textures could be find
-            ContentUtils.setThreadActivity(parent);
-            ContentUtils.provideAssets(parent);
-
-            // test loading object
-            try {
-                String fileName;
-                for (int i = 11; i < 47; i++) {
-                    fileName = new String("teeth" + i + ".obj");
-                    addNewObject(fileName);
-                }
-                addNewObject("gum_and_tongue.obj");
-            } catch (Exception ex) {
-                errors.add(ex);
-            }
 
-        } catch (Exception ex) {
-            errors.add(ex);
-        } finally{
-            ContentUtils.setThreadActivity(null);
-            ContentUtils.clearDocumentsProvided();
+        // Set up ContentUtils so referenced materials and/or textures could be find
+        // (documents are cleared once all models are loaded, or the load is cancelled by dispose())
+        ContentUtils.provideAssets(parent);
+
+        List<Uri> uris = new ArrayList<>();
+        for (int i = 11; i < 47; i++) {
+            uris.add(Uri.parse("assets://assets/models/teeth" + i + ".obj"));
         }
+        uris.add(Uri.parse("assets://assets/models/gum_and_tongue.obj"));
+
+        // parse & build all models at the same time. Each one is drawn as soon as it's ready
+        // scans share most of their vertices, so draw them indexed
+        parallelLoader = new ParallelLoader(parent).setIndexedGeometry(true);
+        parallelLoader.load(uris, new ParallelLoader.Callback() {
+            @Override
+            public void onLoad(Object3DData data) {
+                data.setColor(new float[]{1.0f, 1.0f, 1.0f, 1.0f});
+                pendingObjects.add(data);
+                requestRender();
+                octreeBuilder.build(data);
+            }
 
-    }
+            @Override
+            public void onLoadError(Uri uri, Exception ex) {
+                Log.e("SceneLoader", "Problem loading model '" + uri + "': " + ex.getMessage(), ex);
+            }
 
-    private void addNewObject(String name) {
-        try {
-            Object3DData box11 = Object3DBuilder.loadV5(parent, Uri.parse("assets://assets/models/" + name));
-            float[] a = box11.getDimensions().getCenter3f();
-            box11.setColor(new float[]{1.0f, 1.0f, 1.0f, 1.0f});
-            addObject(box11);
-        } catch (Exception e) {
-            return;
-        }
+            @Override
+            public void onLoadComplete(int loaded, int failed) {
+                ContentUtils.clearDocumentsProvided();
+                Log.i("SceneLoader", "Loaded " + loaded + " models (" + failed + " errors) in "
+                        + (SystemClock.uptimeMillis() - startTime) + " ms");
+            }
+        });
     }
 
     public Camera getCamera() {
@@ -180,6 +206,17 @@ public class SceneLoader implements LoaderTask.Callback {
      */
     public void onDrawFrame() {
 
+        // add objects loaded in background (a single copy of the list per frame)
+        if (!pendingObjects.isEmpty()) {
+            addPendingObjects();
+        }
+
+        // objects added, loaded or moved
+        sceneBVH.update(getObjects());
+
+        // publish the poses of the animated models and start the next ones
+        animator.update(getObjects());
+
 //        animateLight();
 
         // smooth camera transition
@@ -206,6 +243,15 @@ public class SceneLoader implements LoaderTask.Callback {
         camera.translateCamera(0.0025f, 0f);
     }
 
+    private synchronized void addPendingObjects() {
+        List<Object3DData> newList = new ArrayList<Object3DData>(objects);
+        Object3DData obj;
+        while ((obj = pendingObjects.poll()) != null) {
+            newList.add(obj);
+        }
+        this.objects = newList;
+    }
+
     synchronized void addObject(Object3DData obj) {
         List<Object3DData> newList = new ArrayList<Object3DData>(objects);
         newList.add(obj);
@@ -213,6 +259,34 @@ public class SceneLoader implements LoaderTask.Callback {
         requestRender();
     }
 
+    /**
+     * Remove the object from the scene, cancelling the build of its octree if it's not finished yet
+     *
+     * @param obj the object to remove
+     */
+    public synchronized void removeObject(Object3DData obj) {
+        octreeBuilder.cancel(obj);
+        List<Object3DData> newList = new ArrayList<Object3DData>(objects);
+        newList.remove(obj);
+        this.objects = newList;
+        if (selectedObject == obj) {
+            selectedObject = null;
+        }
+        requestRender();
+    }
+
+    /**
+     * Stop loading the models, building their octrees and animating them. To be called when the scene is not going
+     * to be used anymore
+     */
+    public void dispose() {
+        if (parallelLoader != null) {
+            parallelLoader.cancel();
+        }
+        octreeBuilder.shutdown();
+        animator.shutdown();
+    }
+
     private void requestRender() {
         // request render only if GL view is already initialized
         if (parent.getGLView() != null) {
@@ -256,6 +330,43 @@ public class SceneLoader implements LoaderTask.Callback {
         return isAnaglyph;
     }
 
+    /**
+     * @return the tree of the objects of the scene, updated in every frame
+     */
+    public SceneBVH getSceneBVH() {
+        return sceneBVH;
+    }
+
+    /**
+     * Select the nearest object under the screen point. To be called in the render thread, i.e. with
+     * {@link android.opengl.GLSurfaceView#queueEvent(Runnable)}, because the scene tree is updated there
+     *
+     * @param x x screen coordinate, in pixels
+     * @param y y screen coordinate, in pixels
+     * @return the object selected, or <code>null</code> if there is no object there
+     */
+    public Object3DData selectObject(float x, float y) {
+        if (parent.getGLView() == null) {
+            return null;
+        }
+        ModelRenderer renderer = parent.getGLView().getModelRenderer();
+        if (!renderer.getInverseProjectionViewMatrix(inverseProjectionViewMatrix)) {
+            return null;
+        }
+        rayCaster.unproject(x, y, renderer.getWidth(), renderer.getHeight(), inverseProjectionViewMatrix,
+                rayOrigin, rayDirection);
+        RayCaster.Hit hit = rayCaster.cast(sceneBVH, rayOrigin, rayDirection);
+        selectedObject = hit != null ? hit.getObject() : null;
+        if (hit != null) {
+            Log.i("SceneLoader", "Selected object: " + hit);
+        }
+        return selectedObject;
+    }
+
+    public Object3DData getSelectedObject() {
+        return selectedObject;
+    }
+
     @Override
     public void onStart(){
         ContentUtils.setThreadActivity(parent);
@@ -267,10 +378,8 @@ public class SceneLoader implements LoaderTask.Callback {
         for (Object3DData data : datas) {
             if (data.getTextureData() == null && data.getTextureFile() != null) {
                 Log.i("LoaderTask","Loading texture... "+data.getTextureFile());
-                try (InputStream stream = ContentUtils.getInputStream(data.getTextureFile())){
-                    if (stream != null) {
-                        data.setTextureData(IOUtils.read(stream));
-                    }
+                try {
+                    data.setTextureData(ContentUtils.getByteBuffer(data.getTextureFile()));
                 } catch (IOException ex) {
                     data.addError("Problem loading texture " + data.getTextureFile());
                 }
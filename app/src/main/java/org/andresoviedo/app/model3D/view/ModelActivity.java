@@ -145,6 +145,15 @@ public class ModelActivity extends Activity {
 
 
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // stop the background work of the scene
+        if (scene != null) {
+            scene.dispose();
+        }
+    }
+
     @Override
 
     public void onWindowFocusChanged(boolean hasFocus) {
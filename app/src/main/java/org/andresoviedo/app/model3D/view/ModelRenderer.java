@@ -1,19 +1,26 @@
 package org.andresoviedo.app.model3D.view;
 
+import android.net.Uri;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import android.util.Log;
 
+import org.andresoviedo.android_3d_model_engine.collision.SceneBVH;
 import org.andresoviedo.android_3d_model_engine.drawer.DrawerFactory;
 import org.andresoviedo.android_3d_model_engine.model.Camera;
 import org.andresoviedo.android_3d_model_engine.model.Object3D;
 import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.model.TextureGroup;
 import org.andresoviedo.android_3d_model_engine.drawer.Object3DImpl;
+import org.andresoviedo.android_3d_model_engine.drawer.RenderQueue;
+import org.andresoviedo.android_3d_model_engine.drawer.TextureManager;
 import org.andresoviedo.app.model3D.demo.SceneLoader;
+import org.andresoviedo.dddmodel2.BuildConfig;
+import org.andresoviedo.util.android.ContentUtils;
 import org.andresoviedo.util.android.GLUtil;
 
-import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -37,10 +44,12 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 	private static final float far = 100f;
 
 	private DrawerFactory drawer;
+	// objects of the current frame, sorted to minimize state changes
+	private final RenderQueue renderQueue = new RenderQueue();
 	// The wireframe associated shape (it should be made of lines only)
 	private Map<Object3DData, Object3DData> wireframes = new HashMap<Object3DData, Object3DData>();
-	// The loaded textures
-	private Map<byte[], Integer> textures = new HashMap<byte[], Integer>();
+	// objects of the scene whose buffers and textures are in use
+	private List<Object3DData> sceneObjects;
 	// The corresponding opengl bounding boxes and drawer
 	private Map<Object3DData, Object3DData> boundingBoxes = new HashMap<Object3DData, Object3DData>();
 	// The corresponding opengl bounding boxes
@@ -59,6 +68,11 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 	 * Whether the info of the model has been written to console log
 	 */
 	private boolean infoLogged = false;
+	/**
+	 * Objects drawn and culled in the last frame
+	 */
+	private int visibleCount;
+	private int culledCount;
 
 	/**
 	 * Construct a new renderer for the specified surface view
@@ -78,6 +92,22 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 		return far;
 	}
 
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @param inverse the inverse of the projection x view matrix (output), to convert screen points to world space
+	 * @return <code>false</code> if the matrix can't be inverted, i.e. the surface is not ready yet
+	 */
+	public boolean getInverseProjectionViewMatrix(float[] inverse) {
+		return width > 0 && height > 0 && Matrix.invertM(inverse, 0, mvpMatrix, 0);
+	}
+
 	@Override
 	public void onSurfaceCreated(GL10 unused, EGLConfig config) {
 		// Set the background frame color
@@ -95,6 +125,16 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 		GLES20.glEnable(GLES20.GL_BLEND);
 		GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
 
+		// check for OpenGL errors only while developing
+		GLUtil.setDebug(BuildConfig.DEBUG);
+
+		// buffers of the previous context were already released together with the context
+		if (drawer != null) {
+			drawer.getBufferObjects().invalidate();
+			drawer.getTextureManager().invalidate();
+			drawer.getTextureManager().shutdown();
+		}
+
 		// This component will draw the actual models using OpenGL
 		drawer = new DrawerFactory();
 	}
@@ -162,42 +202,80 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 			lightBulbDrawer.draw(scene.getLightBulb(), modelProjectionMatrix, modelViewMatrix, -1, lightPosInEyeSpace);
 		}
 
-		List<Object3DData> objects = scene.getObjects();
-		for (int i=0; i<objects.size(); i++) {
+		// buffers of the objects removed from the scene are deleted and their textures can be evicted
+		if (scene.getObjects() != sceneObjects) {
+			sceneObjects = scene.getObjects();
+			List<Object3DData> drawn = new ArrayList<>(sceneObjects);
+			drawn.add(scene.getLightBulb());
+			drawer.getBufferObjects().retain(drawn);
+			drawer.getTextureManager().retain(getTextureUsers(sceneObjects));
+			Log.d("ModelRenderer", "Buffers: " + drawer.getBufferObjects().size() + ", textures: "
+					+ drawer.getTextureManager());
+		}
+
+		// upload the textures decoded in the background, a few every frame
+		if (drawer.getTextureManager().update()) {
+			drawer.getState().invalidate();
+		}
+
+		// queue the visible objects, so they are drawn sorted by program and texture
+		renderQueue.begin(modelViewMatrix, mvpMatrix);
+		SceneBVH sceneBVH = scene.getSceneBVH();
+		int visible = sceneBVH.cull(renderQueue.getFrustum());
+		for (int i=0; i<visible; i++) {
 			Object3DData objData = null;
 			try {
-				objData = objects.get(i);
-				boolean changed = objData.isChanged();
+				objData = sceneBVH.getVisibleObject(i);
+
+				TextureManager textures = drawer.getTextureManager();
+				int textureId = textures.get(objData, objData.getTextureData());
+				if (textureId == 0 && objData.getTextureData() != null && scene.isDrawTextures()) {
+					// the texture is loaded in the background. meanwhile the object is drawn without it
+					textureId = textures.acquire(objData, getTextureUri(objData.getTextureFile()),
+							objData.getTextureData());
+				}
+				if (textureId != 0 && objData.getTextureGroups() != null) {
+					// the other textures of the object. the drawer binds them when drawing every group
+					for (TextureGroup group : objData.getTextureGroups()) {
+						if (group.getTextureData() != null) {
+							textures.acquire(group, getTextureUri(group.getTextureFile()), group.getTextureData());
+						}
+					}
+				}
 
-				Object3D drawerObject = drawer.getDrawer(objData, scene.isDrawTextures(), scene.isDrawLighting(),
-                        scene.isDrawAnimation());
+				Object3D drawerObject = drawer.getDrawer(objData, scene.isDrawTextures() && textureId != 0,
+						scene.isDrawLighting(), scene.isDrawAnimation());
 
 				if (!infoLogged) {
 					Log.i("ModelRenderer","Using drawer "+drawerObject.getClass());
 					infoLogged = true;
 				}
 
-				Integer textureId = textures.get(objData.getTextureData());
-				if (textureId == null && objData.getTextureData() != null) {
-					Log.i("ModelRenderer","Loading GL Texture...");
-					ByteArrayInputStream textureIs = new ByteArrayInputStream(objData.getTextureData());
-					textureId = GLUtil.loadTexture(textureIs);
-					textureIs.close();
-					textures.put(objData.getTextureData(), textureId);
+				if (objData.getDrawMode() == GLES20.GL_POINTS){
+					drawerObject = drawer.getPointDrawer();
 				}
+				renderQueue.add(objData, drawerObject, textureId != 0 ? textureId : -1);
+			} catch (Exception ex) {
+				Log.e("ModelRenderer","There was a problem rendering the object '"+objData.getId()+"':"+ex.getMessage(),ex);
+			}
+		}
+		renderQueue.sort();
+
+		for (int i=0; i<renderQueue.size(); i++) {
+			Object3DData objData = renderQueue.getObject(i);
+			try {
+				Object3D drawerObject = renderQueue.getDrawer(i);
+				int textureId = renderQueue.getTexture(i);
 
 				if (objData.getDrawMode() == GLES20.GL_POINTS){
-					Object3DImpl lightBulbDrawer = (Object3DImpl) drawer.getPointDrawer();
-					lightBulbDrawer.draw(objData,modelProjectionMatrix, modelViewMatrix, GLES20.GL_POINTS,lightPosInEyeSpace);
+					drawerObject.draw(objData,modelProjectionMatrix, modelViewMatrix, GLES20.GL_POINTS,lightPosInEyeSpace);
 				} else if (scene.isAnaglyph()){
 				// TODO: implement anaglyph
 				} else if (scene.isDrawPoints() || objData.getFaces() == null || !objData.getFaces().loaded()){
 					drawerObject.draw(objData, modelProjectionMatrix, modelViewMatrix
-							,GLES20.GL_POINTS, objData.getDrawSize(),
-							textureId != null ? textureId : -1, lightPosInEyeSpace);
+							,GLES20.GL_POINTS, objData.getDrawSize(), textureId, lightPosInEyeSpace);
 				} else {
-					drawerObject.draw(objData, modelProjectionMatrix, modelViewMatrix,
-							textureId != null ? textureId : -1, lightPosInEyeSpace);
+					drawerObject.draw(objData, modelProjectionMatrix, modelViewMatrix, textureId, lightPosInEyeSpace);
 				}
 
 				// TODO: enable this only when user wants it
@@ -206,6 +284,51 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 				Log.e("ModelRenderer","There was a problem rendering the object '"+objData.getId()+"':"+ex.getMessage(),ex);
 			}
 		}
+		renderQueue.clear();
+
+		if (sceneBVH.getVisibleCount() != visibleCount || sceneBVH.getCulledCount() != culledCount) {
+			visibleCount = sceneBVH.getVisibleCount();
+			culledCount = sceneBVH.getCulledCount();
+			Log.d("ModelRenderer", "Visible objects: " + visibleCount + ", culled: " + culledCount);
+		}
+	}
+
+	/**
+	 * @return the URI the texture was loaded from, or its file name if it's not known
+	 */
+	private static String getTextureUri(String textureFile) {
+		if (textureFile == null) {
+			return null;
+		}
+		Uri uri = ContentUtils.getUri(textureFile);
+		return uri != null ? uri.toString() : textureFile;
+	}
+
+	/**
+	 * @return the objects and their texture groups, which are the users of the textures
+	 */
+	private static List<Object> getTextureUsers(List<Object3DData> objects) {
+		List<Object> users = new ArrayList<>(objects);
+		for (Object3DData obj : objects) {
+			if (obj.getTextureGroups() != null) {
+				users.addAll(obj.getTextureGroups());
+			}
+		}
+		return users;
+	}
+
+	/**
+	 * @return number of objects drawn in the last frame
+	 */
+	public int getVisibleCount() {
+		return visibleCount;
+	}
+
+	/**
+	 * @return number of objects not drawn in the last frame because they were out of the camera
+	 */
+	public int getCulledCount() {
+		return culledCount;
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
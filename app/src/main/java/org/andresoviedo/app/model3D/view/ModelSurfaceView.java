@@ -1,6 +1,10 @@
 package org.andresoviedo.app.model3D.view;
 
 import android.opengl.GLSurfaceView;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+
+import org.andresoviedo.app.model3D.demo.SceneLoader;
 
 
 /**
@@ -13,6 +17,7 @@ public class ModelSurfaceView extends GLSurfaceView {
 
 	private ModelActivity parent;
 	private ModelRenderer mRenderer;
+	private GestureDetector gestureDetector;
 
 	public ModelSurfaceView(ModelActivity parent) {
 		super(parent);
@@ -30,12 +35,37 @@ public class ModelSurfaceView extends GLSurfaceView {
 		// Render the view only when there is a change in the drawing data
 		// TODO: enable this?
 		// setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+
+		// a tap selects the object under the finger
+		gestureDetector = new GestureDetector(parent, new GestureDetector.SimpleOnGestureListener() {
+			@Override
+			public boolean onDown(MotionEvent e) {
+				return true;
+			}
+
+			@Override
+			public boolean onSingleTapUp(MotionEvent e) {
+				final float x = e.getX();
+				final float y = e.getY();
+				// the ray is cast in the render thread, where the scene tree is updated
+				queueEvent(new Runnable() {
+					@Override
+					public void run() {
+						SceneLoader scene = getModelActivity().getScene();
+						if (scene != null) {
+							scene.selectObject(x, y);
+						}
+					}
+				});
+				return true;
+			}
+		});
 	}
 
-//	@Override
-//	public boolean onTouchEvent(MotionEvent event) {
-//		return touchHandler.onTouchEvent(event);
-//	}
+	@Override
+	public boolean onTouchEvent(MotionEvent event) {
+		return gestureDetector.onTouchEvent(event) || super.onTouchEvent(event);
+	}
 
 	public ModelActivity getModelActivity() {
 		return parent;
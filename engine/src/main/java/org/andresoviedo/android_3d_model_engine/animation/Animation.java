@@ -15,7 +15,6 @@ public class Animation {
 
 	private final float length;//in seconds
 	private final KeyFrame[] keyFrames;
-	private boolean initialized;
 
 	/**
 	 * @param lengthInSeconds
@@ -29,14 +28,6 @@ public class Animation {
 		this.length = lengthInSeconds;
 	}
 
-	public void setInitialized(boolean initialized){
-		this.initialized = initialized;
-	}
-
-	public boolean isInitialized(){
-		return initialized;
-	}
-
 	/**
 	 * @return The length of the animation in seconds.
 	 */
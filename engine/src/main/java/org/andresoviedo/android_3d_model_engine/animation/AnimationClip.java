@@ -0,0 +1,460 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
+import org.andresoviedo.util.math.Quaternion;
+
+/**
+ * The key frames of an {@link Animation} stored by joint index in flat arrays, so the pose can be sampled without
+ * maps, strings or allocating memory.
+ * <p>
+ * Every joint has its own channel: the times of its keys, with the translation and rotation at every key. Channels
+ * are independent, so a joint only has keys where the animation has a transform for it. Between the last key and the
+ * first key of a channel the transform is interpolated across the loop.
+ * <p>
+ * Joints are indexed in the order of the array used to create the clip.
+ * <p>
+ * A clip can be compressed with {@link #compress(float, float)}: keys that can be interpolated from their neighbours
+ * are removed, rotations are stored with the "smallest three" components of the quaternion in 15 bits each, and
+ * translations in 16 bits relative to the bounds of their channel. Compressed keys are decoded while sampling.
+ *
+ * @author andresoviedo
+ */
+public final class AnimationClip {
+
+    /**
+     * Keys checked after the cursor before searching the whole channel
+     */
+    private static final int CURSOR_STEPS = 4;
+    /**
+     * Max keys removed in a row when compressing, so the compression time is bounded for long clips
+     */
+    private static final int MAX_REMOVED_KEYS = 256;
+    private static final float SQRT2 = (float) Math.sqrt(2);
+
+    private final float length;
+    private final int jointCount;
+    // first key of every channel. the keys of channel j are [channelStart[j], channelStart[j+1])
+    private final int[] channelStart;
+    // time of every key
+    private final float[] times;
+    // x,y,z of every key. null if the clip is compressed
+    private final float[] translations;
+    // x,y,z,w of every key. null if the clip is compressed
+    private final float[] rotations;
+
+    // x,y,z of every key, in 16 bits relative to the bounds of the channel. null if the clip is not compressed
+    private final short[] packedTranslations;
+    // min x,y,z and step x,y,z of the translations of every channel
+    private final float[] translationBounds;
+    // rotation of every key: index of the largest component (2 bits) and the other 3 components (15 bits each)
+    private final long[] packedRotations;
+
+    private AnimationClip(float length, int jointCount, int keyCount) {
+        this(length, new int[jointCount + 1], new float[keyCount], new float[keyCount * 3], new float[keyCount * 4],
+                null, null, null);
+    }
+
+    private AnimationClip(float length, int[] channelStart, float[] times, float[] translations, float[] rotations,
+                          short[] packedTranslations, float[] translationBounds, long[] packedRotations) {
+        this.length = length;
+        this.jointCount = channelStart.length - 1;
+        this.channelStart = channelStart;
+        this.times = times;
+        this.translations = translations;
+        this.rotations = rotations;
+        this.packedTranslations = packedTranslations;
+        this.translationBounds = translationBounds;
+        this.packedRotations = packedRotations;
+    }
+
+    /**
+     * @param animation the animation
+     * @param joints    the joints of the skeleton. The clip uses the same indices
+     * @return the clip
+     */
+    public static AnimationClip create(Animation animation, Joint[] joints) {
+        final KeyFrame[] frames = animation.getKeyFrames();
+        int keyCount = 0;
+        for (KeyFrame frame : frames) {
+            for (Joint joint : joints) {
+                if (frame.getJointKeyFrames().containsKey(joint.getName())) {
+                    keyCount++;
+                }
+            }
+        }
+        final AnimationClip ret = new AnimationClip(animation.getLength(), joints.length, keyCount);
+        int key = 0;
+        for (int j = 0; j < joints.length; j++) {
+            ret.channelStart[j] = key;
+            for (KeyFrame frame : frames) {
+                JointTransform transform = frame.getJointKeyFrames().get(joints[j].getName());
+                if (transform != null) {
+                    ret.set(key++, frame.getTimeStamp(), transform);
+                }
+            }
+        }
+        ret.channelStart[joints.length] = key;
+        return ret;
+    }
+
+    private void set(int key, float time, JointTransform transform) {
+        times[key] = time;
+        translations[key * 3] = transform.getPosition().x;
+        translations[key * 3 + 1] = transform.getPosition().y;
+        translations[key * 3 + 2] = transform.getPosition().z;
+        Quaternion rotation = transform.getRotation();
+        rotations[key * 4] = rotation.getX();
+        rotations[key * 4 + 1] = rotation.getY();
+        rotations[key * 4 + 2] = rotation.getZ();
+        rotations[key * 4 + 3] = rotation.getW();
+    }
+
+    /**
+     * Create a compressed copy of this clip. The first and last keys of every channel are always kept, and the keys
+     * in between are removed when interpolating the kept keys gives the same transform within the tolerances. Then
+     * the keys are quantized, which adds a small error (around 1/65535 of the translation range of the channel)
+     *
+     * @param translationTolerance max distance between a removed translation and its interpolation
+     * @param rotationTolerance    max angle in radians between a removed rotation and its interpolation
+     * @return the compressed clip
+     */
+    public AnimationClip compress(float translationTolerance, float rotationTolerance) {
+        if (isCompressed()) {
+            throw new IllegalStateException("Clip already compressed");
+        }
+        final boolean[] keep = new boolean[times.length];
+        final float minDot = (float) Math.cos(rotationTolerance / 2);
+        final float[] rotation = new float[4];
+        int keyCount = 0;
+        for (int j = 0; j < jointCount; j++) {
+            keyCount += reduce(channelStart[j], channelStart[j + 1], translationTolerance, minDot, keep, rotation);
+        }
+
+        final int[] newChannelStart = new int[jointCount + 1];
+        final float[] newTimes = new float[keyCount];
+        final short[] newTranslations = new short[keyCount * 3];
+        final float[] bounds = new float[jointCount * 6];
+        final long[] newRotations = new long[keyCount];
+        int key = 0;
+        for (int j = 0; j < jointCount; j++) {
+            newChannelStart[j] = key;
+            for (int axis = 0; axis < 3; axis++) {
+                float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+                for (int k = channelStart[j]; k < channelStart[j + 1]; k++) {
+                    if (keep[k]) {
+                        min = Math.min(min, translations[k * 3 + axis]);
+                        max = Math.max(max, translations[k * 3 + axis]);
+                    }
+                }
+                bounds[j * 6 + axis] = min;
+                bounds[j * 6 + 3 + axis] = (max - min) / 65535f;
+            }
+            for (int k = channelStart[j]; k < channelStart[j + 1]; k++) {
+                if (!keep[k]) {
+                    continue;
+                }
+                newTimes[key] = times[k];
+                for (int axis = 0; axis < 3; axis++) {
+                    float step = bounds[j * 6 + 3 + axis];
+                    newTranslations[key * 3 + axis] = (short) (step > 0 ?
+                            Math.round((translations[k * 3 + axis] - bounds[j * 6 + axis]) / step) : 0);
+                }
+                newRotations[key] = packRotation(rotations, k * 4);
+                key++;
+            }
+        }
+        newChannelStart[jointCount] = key;
+        return new AnimationClip(length, newChannelStart, newTimes, null, null, newTranslations, bounds,
+                newRotations);
+    }
+
+    /**
+     * Mark the keys of the channel to be kept
+     *
+     * @return the number of keys kept
+     */
+    private int reduce(int start, int end, float translationTolerance, float minDot, boolean[] keep,
+                       float[] rotation) {
+        if (start == end) {
+            return 0;
+        }
+        keep[start] = true;
+        int ret = 1;
+        int previous = start;
+        while (previous < end - 1) {
+            int next = previous + 1;
+            while (next + 1 < end && next - previous < MAX_REMOVED_KEYS
+                    && isInterpolated(previous, next + 1, translationTolerance, minDot, rotation)) {
+                next++;
+            }
+            keep[next] = true;
+            ret++;
+            previous = next;
+        }
+        return ret;
+    }
+
+    /**
+     * @return <code>true</code> if all the keys between the 2 keys are the interpolation of them, within the
+     * tolerances
+     */
+    private boolean isInterpolated(int previous, int next, float translationTolerance, float minDot,
+                                   float[] rotation) {
+        final float totalTime = times[next] - times[previous];
+        for (int k = previous + 1; k < next; k++) {
+            float progression = totalTime > 0 ? (times[k] - times[previous]) / totalTime : 0;
+            float distance2 = 0;
+            for (int axis = 0; axis < 3; axis++) {
+                float t0 = translations[previous * 3 + axis], t1 = translations[next * 3 + axis];
+                float error = t0 + (t1 - t0) * progression - translations[k * 3 + axis];
+                distance2 += error * error;
+            }
+            if (distance2 > translationTolerance * translationTolerance) {
+                return false;
+            }
+            nlerp(rotations, previous * 4, rotations, next * 4, progression, rotation, 0);
+            float dot = rotation[0] * rotations[k * 4] + rotation[1] * rotations[k * 4 + 1]
+                    + rotation[2] * rotations[k * 4 + 2] + rotation[3] * rotations[k * 4 + 3];
+            if (Math.abs(dot) < minDot) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Store the unit quaternion in 47 bits: the index of its largest component, and the other 3 components in 15
+     * bits each. The largest component is rebuilt from the others, and it's always positive because q and -q are the
+     * same rotation
+     */
+    static long packRotation(float[] quaternion, int offset) {
+        int largest = 0;
+        for (int i = 1; i < 4; i++) {
+            if (Math.abs(quaternion[offset + i]) > Math.abs(quaternion[offset + largest])) {
+                largest = i;
+            }
+        }
+        final float sign = quaternion[offset + largest] < 0 ? -1 : 1;
+        long ret = largest;
+        for (int i = 0; i < 4; i++) {
+            if (i != largest) {
+                // the other components are between -1/sqrt(2) and 1/sqrt(2)
+                int value = Math.round((quaternion[offset + i] * sign * SQRT2 + 1) / 2 * 32767);
+                ret = (ret << 15) | Math.max(0, Math.min(32767, value));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Decode a quaternion stored with {@link #packRotation(float[], int)}
+     */
+    static void unpackRotation(long packed, float[] quaternion, int offset) {
+        final int largest = (int) (packed >>> 45);
+        float sum = 0;
+        int shift = 30;
+        for (int i = 0; i < 4; i++) {
+            if (i != largest) {
+                float value = (((packed >>> shift) & 0x7FFF) / 32767f * 2 - 1) / SQRT2;
+                quaternion[offset + i] = value;
+                sum += value * value;
+                shift -= 15;
+            }
+        }
+        quaternion[offset + largest] = (float) Math.sqrt(Math.max(0, 1 - sum));
+    }
+
+    /**
+     * @return <code>true</code> if the keys are compressed
+     */
+    public boolean isCompressed() {
+        return rotations == null;
+    }
+
+    /**
+     * @return the memory used by the keys, in bytes
+     */
+    public int getMemorySize() {
+        int ret = channelStart.length * 4 + times.length * 4;
+        if (isCompressed()) {
+            ret += packedTranslations.length * 2 + translationBounds.length * 4 + packedRotations.length * 8;
+        } else {
+            ret += translations.length * 4 + rotations.length * 4;
+        }
+        return ret;
+    }
+
+    /**
+     * @return the length of the animation in seconds
+     */
+    public float getLength() {
+        return length;
+    }
+
+    public int getJointCount() {
+        return jointCount;
+    }
+
+    /**
+     * @return the number of keys of all the channels
+     */
+    public int getKeyCount() {
+        return times.length;
+    }
+
+    /**
+     * @return the number of keys of the joint
+     */
+    public int getKeyCount(int joint) {
+        return channelStart[joint + 1] - channelStart[joint];
+    }
+
+    /**
+     * @return <code>true</code> if the joint has keys, <code>false</code> if it keeps its bind transform
+     */
+    public boolean isAnimated(int joint) {
+        return channelStart[joint + 1] > channelStart[joint];
+    }
+
+    /**
+     * Find the last key of the joint at or before the time. Playback moves forward, so the keys just after the cursor
+     * are checked first, and the channel is only searched when the time jumps (seek or loop)
+     *
+     * @param joint  the joint
+     * @param time   the time in seconds
+     * @param cursor the key found the previous time, or -1
+     * @return the key, or -1 if the time is before the first key of the joint
+     */
+    public int findKey(int joint, float time, int cursor) {
+        final int start = channelStart[joint];
+        final int end = channelStart[joint + 1];
+        if (cursor >= start && cursor < end && times[cursor] <= time) {
+            for (int i = 0; i < CURSOR_STEPS; i++, cursor++) {
+                if (cursor + 1 == end || times[cursor + 1] > time) {
+                    return cursor;
+                }
+            }
+        }
+        // binary search of the last key <= time
+        int low = start, high = end - 1, ret = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] <= time) {
+                ret = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Calculate the local transform of the joint at the time
+     *
+     * @param joint  the joint, with keys
+     * @param time   the time in seconds, between 0 and the length of the animation
+     * @param key    the key of the joint at or before the time, as returned by {@link #findKey(int, float, int)}
+     * @param matrix the local transform of the joint, translation x rotation (output)
+     * @param offset offset of the transform in the matrix array
+     */
+    public void getLocalTransform(int joint, float time, int key, float[] matrix, int offset) {
+        final int start = channelStart[joint];
+        final int end = channelStart[joint + 1];
+        int previous = key, next = key + 1;
+        float previousTime, nextTime;
+        if (previous < start) {
+            // before the first key: coming from the last key of the previous loop
+            previous = end - 1;
+            next = start;
+            previousTime = times[previous] - length;
+            nextTime = times[next];
+        } else if (next == end) {
+            // after the last key: going to the first key of the next loop
+            next = start;
+            previousTime = times[previous];
+            nextTime = times[next] + length;
+        } else {
+            previousTime = times[previous];
+            nextTime = times[next];
+        }
+        float progression = nextTime > previousTime ? (time - previousTime) / (nextTime - previousTime) : 0;
+        progression = Math.max(0, Math.min(1, progression));
+
+        final int t0 = previous * 3, t1 = next * 3;
+        if (!isCompressed()) {
+            // rotation goes in the first 4 floats of the matrix until it's converted
+            nlerp(rotations, previous * 4, rotations, next * 4, progression, matrix, offset);
+            toRotationMatrix(matrix[offset], matrix[offset + 1], matrix[offset + 2], matrix[offset + 3], matrix,
+                    offset);
+            matrix[offset + 12] = translations[t0] + (translations[t1] - translations[t0]) * progression;
+            matrix[offset + 13] = translations[t0 + 1] + (translations[t1 + 1] - translations[t0 + 1]) * progression;
+            matrix[offset + 14] = translations[t0 + 2] + (translations[t1 + 2] - translations[t0 + 2]) * progression;
+            return;
+        }
+
+        // both rotations are decoded in the matrix until it's converted
+        unpackRotation(packedRotations[previous], matrix, offset);
+        unpackRotation(packedRotations[next], matrix, offset + 4);
+        nlerp(matrix, offset, matrix, offset + 4, progression, matrix, offset);
+        toRotationMatrix(matrix[offset], matrix[offset + 1], matrix[offset + 2], matrix[offset + 3], matrix, offset);
+        final int b = joint * 6;
+        for (int axis = 0; axis < 3; axis++) {
+            final float min = translationBounds[b + axis], step = translationBounds[b + 3 + axis];
+            float v0 = min + (packedTranslations[t0 + axis] & 0xFFFF) * step;
+            float v1 = min + (packedTranslations[t1 + axis] & 0xFFFF) * step;
+            matrix[offset + 12 + axis] = v0 + (v1 - v0) * progression;
+        }
+    }
+
+    /**
+     * Normalized linear interpolation of 2 quaternions, like {@link Quaternion#interpolate(Quaternion, Quaternion,
+     * float)}. The output can be one of the inputs
+     */
+    static void nlerp(float[] a, int aOffset, float[] b, int bOffset, float blend, float[] out, int outOffset) {
+        float dot = a[aOffset] * b[bOffset] + a[aOffset + 1] * b[bOffset + 1] + a[aOffset + 2] * b[bOffset + 2]
+                + a[aOffset + 3] * b[bOffset + 3];
+        float blendI = 1f - blend;
+        float blendB = dot < 0 ? -blend : blend;
+        float x = blendI * a[aOffset] + blendB * b[bOffset];
+        float y = blendI * a[aOffset + 1] + blendB * b[bOffset + 1];
+        float z = blendI * a[aOffset + 2] + blendB * b[bOffset + 2];
+        float w = blendI * a[aOffset + 3] + blendB * b[bOffset + 3];
+        float mag = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        out[outOffset] = x / mag;
+        out[outOffset + 1] = y / mag;
+        out[outOffset + 2] = z / mag;
+        out[outOffset + 3] = w / mag;
+    }
+
+    /**
+     * Same as {@link Quaternion#toRotationMatrix(float[])}, writing the matrix at the offset
+     */
+    static void toRotationMatrix(float x, float y, float z, float w, float[] matrix, int offset) {
+        final float xy = x * y;
+        final float xz = x * z;
+        final float xw = x * w;
+        final float yz = y * z;
+        final float yw = y * w;
+        final float zw = z * w;
+        final float xSquared = x * x;
+        final float ySquared = y * y;
+        final float zSquared = z * z;
+        matrix[offset] = 1 - 2 * (ySquared + zSquared);
+        matrix[offset + 1] = 2 * (xy - zw);
+        matrix[offset + 2] = 2 * (xz + yw);
+        matrix[offset + 3] = 0;
+        matrix[offset + 4] = 2 * (xy + zw);
+        matrix[offset + 5] = 1 - 2 * (xSquared + zSquared);
+        matrix[offset + 6] = 2 * (yz - xw);
+        matrix[offset + 7] = 0;
+        matrix[offset + 8] = 2 * (xz - yw);
+        matrix[offset + 9] = 2 * (yz + xw);
+        matrix[offset + 10] = 1 - 2 * (xSquared + ySquared);
+        matrix[offset + 11] = 0;
+        matrix[offset + 12] = 0;
+        matrix[offset + 13] = 0;
+        matrix[offset + 14] = 0;
+        matrix[offset + 15] = 1;
+    }
+}
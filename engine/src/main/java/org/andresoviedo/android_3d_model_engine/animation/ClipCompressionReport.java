@@ -0,0 +1,149 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.andresoviedo.util.math.Math3DUtils;
+
+import java.util.Locale;
+
+/**
+ * Memory saved by a compressed {@link AnimationClip} and the error it introduces. The error is measured sampling both
+ * clips with the skeleton: the max distance between the model-space positions of the joints, and the max angle between
+ * the local rotations of the joints.
+ *
+ * @author andresoviedo
+ */
+public final class ClipCompressionReport {
+
+    private final int originalKeys;
+    private final int compressedKeys;
+    private final int originalSize;
+    private final int compressedSize;
+    private final float maxPositionError;
+    private final float maxRotationError;
+
+    private ClipCompressionReport(int originalKeys, int compressedKeys, int originalSize, int compressedSize,
+                                  float maxPositionError, float maxRotationError) {
+        this.originalKeys = originalKeys;
+        this.compressedKeys = compressedKeys;
+        this.originalSize = originalSize;
+        this.compressedSize = compressedSize;
+        this.maxPositionError = maxPositionError;
+        this.maxRotationError = maxRotationError;
+    }
+
+    /**
+     * Compare the clips sampling them along the animation
+     *
+     * @param skeleton   the skeleton of the clips
+     * @param original   the uncompressed clip
+     * @param compressed the compressed clip
+     * @param samples    the number of times the clips are sampled
+     * @return the report
+     */
+    public static ClipCompressionReport create(Skeleton skeleton, AnimationClip original, AnimationClip compressed,
+                                               int samples) {
+        final int jointCount = skeleton.getJointCount();
+        final float[] originalLocal = new float[jointCount * 16];
+        final float[] compressedLocal = new float[jointCount * 16];
+        final float[] originalModel = new float[jointCount * 16];
+        final float[] compressedModel = new float[jointCount * 16];
+        float maxPositionError = 0;
+        float maxRotationError = 0;
+        for (int s = 0; s < samples; s++) {
+            final float time = original.getLength() * s / samples;
+            calculatePose(skeleton, original, time, originalLocal, originalModel);
+            calculatePose(skeleton, compressed, time, compressedLocal, compressedModel);
+            for (int j = 0; j < jointCount; j++) {
+                final int o = j * 16;
+                float dx = originalModel[o + 12] - compressedModel[o + 12];
+                float dy = originalModel[o + 13] - compressedModel[o + 13];
+                float dz = originalModel[o + 14] - compressedModel[o + 14];
+                maxPositionError = Math.max(maxPositionError, (float) Math.sqrt(dx * dx + dy * dy + dz * dz));
+                if (original.isAnimated(j)) {
+                    maxRotationError = Math.max(maxRotationError, angle(originalLocal, compressedLocal, o));
+                }
+            }
+        }
+        return new ClipCompressionReport(original.getKeyCount(), compressed.getKeyCount(), original.getMemorySize(),
+                compressed.getMemorySize(), maxPositionError, maxRotationError);
+    }
+
+    /**
+     * Same as the {@link Animator}, without the joint transforms
+     */
+    private static void calculatePose(Skeleton skeleton, AnimationClip clip, float time, float[] localTransforms,
+                                      float[] modelTransforms) {
+        final int[] parents = skeleton.getParents();
+        for (int i = 0; i < parents.length; i++) {
+            final int offset = i * 16;
+            if (clip.isAnimated(i)) {
+                clip.getLocalTransform(i, time, clip.findKey(i, time, -1), localTransforms, offset);
+            } else {
+                System.arraycopy(skeleton.getBindLocalTransforms(), offset, localTransforms, offset, 16);
+            }
+            if (parents[i] < 0) {
+                System.arraycopy(localTransforms, offset, modelTransforms, offset, 16);
+            } else {
+                Math3DUtils.multiplyMM(modelTransforms, offset, modelTransforms, parents[i] * 16, localTransforms,
+                        offset);
+            }
+        }
+    }
+
+    /**
+     * @return the angle in radians between the rotations of 2 transforms
+     */
+    private static float angle(float[] a, float[] b, int offset) {
+        // trace of transpose(a) x b
+        float trace = 0;
+        for (int column = 0; column < 3; column++) {
+            for (int row = 0; row < 3; row++) {
+                trace += a[offset + column * 4 + row] * b[offset + column * 4 + row];
+            }
+        }
+        return (float) Math.acos(Math.max(-1, Math.min(1, (trace - 1) / 2)));
+    }
+
+    public int getOriginalKeys() {
+        return originalKeys;
+    }
+
+    public int getCompressedKeys() {
+        return compressedKeys;
+    }
+
+    /**
+     * @return memory used by the uncompressed keys, in bytes
+     */
+    public int getOriginalSize() {
+        return originalSize;
+    }
+
+    /**
+     * @return memory used by the compressed keys, in bytes
+     */
+    public int getCompressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * @return max distance between the model-space positions of the joints
+     */
+    public float getMaxPositionError() {
+        return maxPositionError;
+    }
+
+    /**
+     * @return max angle in radians between the local rotations of the joints
+     */
+    public float getMaxRotationError() {
+        return maxRotationError;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "keys: %d -> %d, memory: %d -> %d bytes (%.1f%% saved), "
+                        + "max joint error: position %.6f, rotation %.6f rad", originalKeys, compressedKeys,
+                originalSize, compressedSize, 100f * (originalSize - compressedSize) / Math.max(1, originalSize),
+                maxPositionError, maxRotationError);
+    }
+}
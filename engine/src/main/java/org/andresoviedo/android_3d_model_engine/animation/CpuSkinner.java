@@ -0,0 +1,276 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Skins the vertices of an animated model in the CPU, so it can be drawn with the shaders of the static models. This
+ * is an alternative to the skeleton shaders for rigs with more joints than the shader uniforms can hold.
+ * <p>
+ * The vertices are copied once into struct-of-arrays (one array per component of the positions, normals, joint
+ * indices and weights), and every frame are transformed into the same output buffers. Every vertex is influenced by 3
+ * joints, like in the skeleton shaders. The position is divided by the sum of the weights, which is what the
+ * perspective division does to the position calculated by the shaders. Normals are also skinned and normalized.
+ * <p>
+ * Big meshes are split in chunks skinned by a pool of worker threads shared by all the skinners, with the calling
+ * thread skinning chunks too.
+ *
+ * @author andresoviedo
+ */
+public final class CpuSkinner {
+
+    // meshes with less vertices than this are skinned by the calling thread only
+    private static final int MIN_VERTICES_PER_CHUNK = 4096;
+
+    private static final int THREADS = Math.max(0, Runtime.getRuntime().availableProcessors() - 1);
+    private static Executor pool;
+
+    private final int vertexCount;
+    // bind pose
+    private final float[] px, py, pz;
+    private final float[] nx, ny, nz;
+    // joint indices and weights of the 3 joints of every vertex
+    private final int[] j0, j1, j2;
+    private final float[] w0, w1, w2;
+
+    // skinned vertices, 3 floats per vertex
+    private final float[] skinnedPositions;
+    private final float[] skinnedNormals;
+    private final FloatBuffer positionsBuffer;
+    private final FloatBuffer normalsBuffer;
+
+    // chunks of vertices
+    private final int chunkSize;
+    private final int chunks;
+    private final Runnable helper;
+    private final AtomicInteger nextChunk = new AtomicInteger();
+    // transforms of the skin being calculated
+    private volatile float[][] jointTransforms;
+    // helpers not finished yet. guarded by this
+    private int running;
+
+    /**
+     * @param positions the bind pose positions, 3 floats per vertex
+     * @param normals   the bind pose normals, 3 floats per vertex, or null if the model has no normals
+     * @param jointIds  the indices of the 3 joints of every vertex
+     * @param weights   the weights of the 3 joints of every vertex
+     */
+    public CpuSkinner(FloatBuffer positions, FloatBuffer normals, FloatBuffer jointIds, FloatBuffer weights) {
+        this.vertexCount = Math.min(positions.capacity(), Math.min(jointIds.capacity(), weights.capacity())) / 3;
+        this.px = new float[vertexCount];
+        this.py = new float[vertexCount];
+        this.pz = new float[vertexCount];
+        this.j0 = new int[vertexCount];
+        this.j1 = new int[vertexCount];
+        this.j2 = new int[vertexCount];
+        this.w0 = new float[vertexCount];
+        this.w1 = new float[vertexCount];
+        this.w2 = new float[vertexCount];
+        for (int v = 0, i = 0; v < vertexCount; v++, i += 3) {
+            px[v] = positions.get(i);
+            py[v] = positions.get(i + 1);
+            pz[v] = positions.get(i + 2);
+            j0[v] = (int) jointIds.get(i);
+            j1[v] = (int) jointIds.get(i + 1);
+            j2[v] = (int) jointIds.get(i + 2);
+            w0[v] = weights.get(i);
+            w1[v] = weights.get(i + 1);
+            w2[v] = weights.get(i + 2);
+        }
+        this.skinnedPositions = new float[vertexCount * 3];
+        this.positionsBuffer = createFloatBuffer(vertexCount * 3);
+
+        if (normals != null && normals.capacity() >= vertexCount * 3) {
+            this.nx = new float[vertexCount];
+            this.ny = new float[vertexCount];
+            this.nz = new float[vertexCount];
+            for (int v = 0, i = 0; v < vertexCount; v++, i += 3) {
+                nx[v] = normals.get(i);
+                ny[v] = normals.get(i + 1);
+                nz[v] = normals.get(i + 2);
+            }
+            this.skinnedNormals = new float[vertexCount * 3];
+            this.normalsBuffer = createFloatBuffer(vertexCount * 3);
+        } else {
+            this.nx = this.ny = this.nz = null;
+            this.skinnedNormals = null;
+            this.normalsBuffer = null;
+        }
+
+        this.chunks = THREADS == 0 ? 1 : Math.max(1, Math.min(THREADS + 1, vertexCount / MIN_VERTICES_PER_CHUNK));
+        this.chunkSize = (vertexCount + chunks - 1) / chunks;
+        this.helper = chunks == 1 ? null : new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    skinChunks();
+                } finally {
+                    finished();
+                }
+            }
+        };
+    }
+
+    private static FloatBuffer createFloatBuffer(int floats) {
+        return ByteBuffer.allocateDirect(floats * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    private static synchronized Executor getPool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "CpuSkinner-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return pool;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * Skin the vertices with the transforms of the joints
+     *
+     * @param jointTransforms the transforms of the joints, by joint index, as loaded up to the skeleton shaders
+     */
+    public void skin(float[][] jointTransforms) {
+        this.jointTransforms = jointTransforms;
+        nextChunk.set(0);
+        if (helper != null) {
+            synchronized (this) {
+                running = chunks - 1;
+            }
+            final Executor pool = getPool();
+            for (int i = 1; i < chunks; i++) {
+                pool.execute(helper);
+            }
+        }
+        skinChunks();
+        if (helper != null) {
+            await();
+        }
+        this.jointTransforms = null;
+
+        positionsBuffer.position(0);
+        positionsBuffer.put(skinnedPositions);
+        positionsBuffer.position(0);
+        if (normalsBuffer != null) {
+            normalsBuffer.position(0);
+            normalsBuffer.put(skinnedNormals);
+            normalsBuffer.position(0);
+        }
+    }
+
+    private void skinChunks() {
+        final float[][] transforms = jointTransforms;
+        for (int c = nextChunk.getAndIncrement(); c < chunks; c = nextChunk.getAndIncrement()) {
+            final int start = c * chunkSize;
+            skinPositions(transforms, start, Math.min(vertexCount, start + chunkSize));
+            if (skinnedNormals != null) {
+                skinNormals(transforms, start, Math.min(vertexCount, start + chunkSize));
+            }
+        }
+    }
+
+    private void skinPositions(float[][] transforms, int start, int end) {
+        final float[] out = skinnedPositions;
+        for (int v = start; v < end; v++) {
+            final float[] a = transforms[j0[v]];
+            final float[] b = transforms[j1[v]];
+            final float[] c = transforms[j2[v]];
+            final float wa = w0[v], wb = w1[v], wc = w2[v];
+            final float x = px[v], y = py[v], z = pz[v];
+            // joint transforms are column-major and affine
+            final float sx = wa * (a[0] * x + a[4] * y + a[8] * z + a[12])
+                    + wb * (b[0] * x + b[4] * y + b[8] * z + b[12])
+                    + wc * (c[0] * x + c[4] * y + c[8] * z + c[12]);
+            final float sy = wa * (a[1] * x + a[5] * y + a[9] * z + a[13])
+                    + wb * (b[1] * x + b[5] * y + b[9] * z + b[13])
+                    + wc * (c[1] * x + c[5] * y + c[9] * z + c[13]);
+            final float sz = wa * (a[2] * x + a[6] * y + a[10] * z + a[14])
+                    + wb * (b[2] * x + b[6] * y + b[10] * z + b[14])
+                    + wc * (c[2] * x + c[6] * y + c[10] * z + c[14]);
+            final float w = wa + wb + wc;
+            final float inv = w != 0 ? 1 / w : 1;
+            final int i = v * 3;
+            out[i] = sx * inv;
+            out[i + 1] = sy * inv;
+            out[i + 2] = sz * inv;
+        }
+    }
+
+    private void skinNormals(float[][] transforms, int start, int end) {
+        final float[] out = skinnedNormals;
+        for (int v = start; v < end; v++) {
+            final float[] a = transforms[j0[v]];
+            final float[] b = transforms[j1[v]];
+            final float[] c = transforms[j2[v]];
+            final float wa = w0[v], wb = w1[v], wc = w2[v];
+            final float x = nx[v], y = ny[v], z = nz[v];
+            final float sx = wa * (a[0] * x + a[4] * y + a[8] * z)
+                    + wb * (b[0] * x + b[4] * y + b[8] * z)
+                    + wc * (c[0] * x + c[4] * y + c[8] * z);
+            final float sy = wa * (a[1] * x + a[5] * y + a[9] * z)
+                    + wb * (b[1] * x + b[5] * y + b[9] * z)
+                    + wc * (c[1] * x + c[5] * y + c[9] * z);
+            final float sz = wa * (a[2] * x + a[6] * y + a[10] * z)
+                    + wb * (b[2] * x + b[6] * y + b[10] * z)
+                    + wc * (c[2] * x + c[6] * y + c[10] * z);
+            final float length = (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+            final float inv = length != 0 ? 1 / length : 0;
+            final int i = v * 3;
+            out[i] = sx * inv;
+            out[i + 1] = sy * inv;
+            out[i + 2] = sz * inv;
+        }
+    }
+
+    private void await() {
+        boolean interrupted = false;
+        synchronized (this) {
+            while (running > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void finished() {
+        if (running > 0 && --running == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the skinned positions, 3 floats per vertex. The buffer is reused by every call to {@link #skin(float[][])}
+     */
+    public FloatBuffer getPositions() {
+        return positionsBuffer;
+    }
+
+    /**
+     * @return the skinned normals, 3 floats per vertex, or null if the model has no normals. The buffer is reused by
+     * every call to {@link #skin(float[][])}
+     */
+    public FloatBuffer getNormals() {
+        return normalsBuffer;
+    }
+}
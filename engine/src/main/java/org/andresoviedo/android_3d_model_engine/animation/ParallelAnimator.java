@@ -0,0 +1,166 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Animates all the models of the scene in a pool of worker threads. The poses of the models are independent, so
+ * every worker takes the next model until all of them are done.
+ * <p>
+ * The poses of a frame are calculated while the previous frame is drawn: {@link #update(List)} waits for the poses
+ * started in the previous call, publishes them (swapping the double buffered joint transforms of every model), and
+ * starts the poses of the next frame. So the GL thread only loads up finished joint transforms to the shader.
+ *
+ * @author andresoviedo
+ */
+public final class ParallelAnimator {
+
+    private final Animator animator = new Animator();
+    private final ExecutorService executor;
+    private final Runnable[] workers;
+
+    // models being animated by the workers
+    private final List<AnimatedModel> models = new ArrayList<>();
+    // next model to be animated
+    private final AtomicInteger nextModel = new AtomicInteger();
+    // time of the poses being calculated
+    private volatile long uptimeMillis;
+    // workers not finished yet. guarded by this
+    private int running;
+
+    /**
+     * Create an animator with a worker for every processor but one, which is left for the GL thread
+     */
+    public ParallelAnimator() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * @param threads number of worker threads
+     */
+    public ParallelAnimator(int threads) {
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ParallelAnimator-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.workers = new Runnable[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        animateModels();
+                    } finally {
+                        finished();
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Publish the poses calculated since the previous call and start calculating the poses of the next frame. To be
+     * called by the GL thread before drawing the frame
+     *
+     * @param objects the objects of the scene. Only the animated ones are updated
+     */
+    public void update(List<Object3DData> objects) {
+        update(objects, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Publish the poses calculated since the previous call and start calculating the poses at the specified time
+     *
+     * @param objects      the objects of the scene. Only the animated ones are updated
+     * @param uptimeMillis the current time in milliseconds, to advance the clock of every model
+     */
+    public void update(List<Object3DData> objects, long uptimeMillis) {
+        await();
+        for (int i = 0; i < objects.size(); i++) {
+            Object3DData obj = objects.get(i);
+            if (obj instanceof AnimatedModel && ((AnimatedModel) obj).getAnimation() != null
+                    && ((AnimatedModel) obj).getPose() != null) {
+                models.add((AnimatedModel) obj);
+            }
+        }
+        if (models.isEmpty() || executor.isShutdown()) {
+            models.clear();
+            return;
+        }
+        this.uptimeMillis = uptimeMillis;
+        nextModel.set(0);
+        synchronized (this) {
+            running = workers.length;
+        }
+        for (Runnable worker : workers) {
+            executor.execute(worker);
+        }
+    }
+
+    /**
+     * Wait for the poses being calculated and publish them
+     */
+    public void await() {
+        boolean interrupted = false;
+        synchronized (this) {
+            while (running > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        for (int i = 0; i < models.size(); i++) {
+            models.get(i).getPose().swap();
+        }
+        models.clear();
+    }
+
+    private void animateModels() {
+        for (int i = nextModel.getAndIncrement(); i < models.size(); i = nextModel.getAndIncrement()) {
+            AnimatedModel model = models.get(i);
+            try {
+                animator.evaluate(model, model.getPose().tick(uptimeMillis));
+            } catch (Exception ex) {
+                Log.e("ParallelAnimator", "Problem animating '" + model.getId() + "': " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    private synchronized void finished() {
+        if (running > 0 && --running == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stop the workers. Poses being calculated are not published
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        synchronized (this) {
+            running = 0;
+            notifyAll();
+        }
+    }
+}
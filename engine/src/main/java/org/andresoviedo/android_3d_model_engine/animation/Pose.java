@@ -0,0 +1,123 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import java.util.Arrays;
+
+/**
+ * The animation state of one {@link org.andresoviedo.android_3d_model_engine.model.AnimatedModel}: its clock and the
+ * transforms of the joints in the current pose. The joint hierarchy and the animation data are in the shared
+ * {@link Skeleton}, so every model only needs the memory of its pose.
+ * <p>
+ * The joint transforms are double buffered: the pose is calculated in the back buffer, maybe in another thread, while
+ * the front buffer is loaded up to the shader. {@link #swap()} publishes the new pose.
+ *
+ * @author andresoviedo
+ */
+public final class Pose {
+
+    private final Skeleton skeleton;
+    // local-space transform of every joint (16 floats per joint, depth first)
+    final float[] localTransforms;
+    // model-space transform of every joint (16 floats per joint, depth first)
+    final float[] modelTransforms;
+    // transforms loaded up to the shader, by joint index. front and back buffer
+    private final float[][][] jointTransforms;
+    private int front;
+    // the clip the cursors belong to
+    AnimationClip clip;
+    // key of every joint found in the last update
+    final int[] cursors;
+
+    // clock
+    private long lastUptime = -1;
+    private float clock;
+    private float speed = 1f;
+    private float time;
+
+    public Pose(Skeleton skeleton) {
+        this.skeleton = skeleton;
+        this.localTransforms = new float[skeleton.getJointCount() * 16];
+        this.modelTransforms = new float[skeleton.getJointCount() * 16];
+        this.jointTransforms = new float[2][skeleton.getBoneCount()][16];
+        this.cursors = new int[skeleton.getJointCount()];
+    }
+
+    public Skeleton getSkeleton() {
+        return skeleton;
+    }
+
+    /**
+     * Use the clip, resetting the cursors if it's a different one
+     */
+    void setClip(AnimationClip clip) {
+        if (this.clip != clip) {
+            this.clip = clip;
+            Arrays.fill(cursors, -1);
+        }
+    }
+
+    /**
+     * Advance the clock of this model with the time elapsed since the previous call, at the speed of the model
+     *
+     * @param uptimeMillis the current time in milliseconds
+     * @return the time of the clock in seconds
+     */
+    public float tick(long uptimeMillis) {
+        if (lastUptime >= 0) {
+            clock += (uptimeMillis - lastUptime) / 1000f * speed;
+        }
+        lastUptime = uptimeMillis;
+        return clock;
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @param speed the speed of the animation. 1 is the normal speed
+     */
+    public void setSpeed(float speed) {
+        this.speed = speed;
+    }
+
+    /**
+     * @return the time of the current pose in seconds, between 0 and the length of the animation
+     */
+    public float getTime() {
+        return time;
+    }
+
+    void setTime(float time) {
+        this.time = time;
+    }
+
+    /**
+     * @return the model-space transforms of all the joints in the last calculated pose, 16 floats per joint, in depth
+     * first order
+     */
+    public float[] getModelTransforms() {
+        return modelTransforms;
+    }
+
+    /**
+     * @return the transforms of the joints used by the vertices in the last published pose, by joint index. These are
+     * the transforms loaded up to the shader
+     */
+    public float[][] getJointTransforms() {
+        return jointTransforms[front];
+    }
+
+    /**
+     * @return the buffer where the next pose is calculated
+     */
+    float[][] getBackJointTransforms() {
+        return jointTransforms[1 - front];
+    }
+
+    /**
+     * Publish the pose calculated in the back buffer. It must not be called while the pose is being calculated
+     */
+    void swap() {
+        front = 1 - front;
+    }
+}
@@ -0,0 +1,163 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import android.util.Log;
+
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The joint hierarchy of an animated model, with the animation clips sampled for it. It's not modified when animating,
+ * so the same skeleton can be shared by many {@link org.andresoviedo.android_3d_model_engine.model.AnimatedModel}s,
+ * every one with its own {@link Pose}.
+ * <p>
+ * Joints are indexed in depth first order, so a joint always comes after its parent. The hierarchy is also stored as
+ * the index of the parent of every joint, with the transforms of the joints in flat arrays, so a pose can be
+ * calculated with a single loop over the joints.
+ *
+ * @author andresoviedo
+ */
+public final class Skeleton {
+
+    private final Joint rootJoint;
+    private final int boneCount;
+    // joints in depth first order
+    private final Joint[] joints;
+    // parent of every joint, or -1 for the root
+    private final int[] parents;
+    // index of every joint in the shader, or -1 if it's not used by the vertices
+    private final int[] boneIndices;
+    // local bind transform of every joint (16 floats per joint)
+    private final float[] bindLocalTransforms;
+    // inverse model-space bind transform of every joint (16 floats per joint)
+    private final float[] inverseBindTransforms;
+    // clips of the animations played with this skeleton
+    private final Map<Animation, AnimationClip> clips = new IdentityHashMap<>();
+    // tolerances to compress the clips. negative if the clips are not compressed
+    private float translationTolerance = -1;
+    private float rotationTolerance = -1;
+
+    /**
+     * @param rootJoint the root joint, with the inverse bind transforms already calculated
+     * @param boneCount the number of joints used by the vertices (the highest joint index + 1)
+     */
+    public Skeleton(Joint rootJoint, int boneCount) {
+        this.rootJoint = rootJoint;
+        this.boneCount = boneCount;
+        List<Joint> list = new ArrayList<>();
+        List<Integer> parentList = new ArrayList<>();
+        addJointsToList(rootJoint, -1, list, parentList);
+        this.joints = list.toArray(new Joint[list.size()]);
+        this.parents = new int[joints.length];
+        this.boneIndices = new int[joints.length];
+        this.bindLocalTransforms = new float[joints.length * 16];
+        this.inverseBindTransforms = new float[joints.length * 16];
+        for (int i = 0; i < joints.length; i++) {
+            parents[i] = parentList.get(i);
+            boneIndices[i] = joints[i].getIndex();
+            System.arraycopy(joints[i].getBindLocalTransform(), 0, bindLocalTransforms, i * 16, 16);
+            if (joints[i].getInverseBindTransform() != null) {
+                System.arraycopy(joints[i].getInverseBindTransform(), 0, inverseBindTransforms, i * 16, 16);
+            }
+        }
+    }
+
+    private static void addJointsToList(Joint joint, int parent, List<Joint> list, List<Integer> parentList) {
+        final int index = list.size();
+        list.add(joint);
+        parentList.add(parent);
+        for (int i = 0; i < joint.getChildren().size(); i++) {
+            addJointsToList(joint.getChildren().get(i), index, list, parentList);
+        }
+    }
+
+    public Joint getRootJoint() {
+        return rootJoint;
+    }
+
+    /**
+     * @return the number of joints in the hierarchy
+     */
+    public int getJointCount() {
+        return joints.length;
+    }
+
+    /**
+     * @return the number of joints used by the vertices
+     */
+    public int getBoneCount() {
+        return boneCount;
+    }
+
+    /**
+     * @param joint index of the joint in depth first order
+     * @return the joint
+     */
+    public Joint getJoint(int joint) {
+        return joints[joint];
+    }
+
+    /**
+     * @return the parent of every joint, or -1 for the root. A parent always comes before its children
+     */
+    public int[] getParents() {
+        return parents;
+    }
+
+    /**
+     * @return the index of every joint in the shader, or -1 if the joint is not used by the vertices
+     */
+    public int[] getBoneIndices() {
+        return boneIndices;
+    }
+
+    /**
+     * @return the local bind transform of every joint, 16 floats per joint
+     */
+    public float[] getBindLocalTransforms() {
+        return bindLocalTransforms;
+    }
+
+    /**
+     * @return the inverse model-space bind transform of every joint, 16 floats per joint
+     */
+    public float[] getInverseBindTransforms() {
+        return inverseBindTransforms;
+    }
+
+    /**
+     * Compress the clips created from now on, to save memory
+     *
+     * @param translationTolerance max distance between a removed translation key and its interpolation
+     * @param rotationTolerance    max angle in radians between a removed rotation key and its interpolation
+     * @see AnimationClip#compress(float, float)
+     */
+    public synchronized void setClipCompression(float translationTolerance, float rotationTolerance) {
+        this.translationTolerance = translationTolerance;
+        this.rotationTolerance = rotationTolerance;
+    }
+
+    /**
+     * Get the clip of the animation for this skeleton. It's created the first time and then shared by all the models
+     * with this skeleton
+     *
+     * @param animation the animation
+     * @return the clip
+     */
+    public synchronized AnimationClip getClip(Animation animation) {
+        AnimationClip clip = clips.get(animation);
+        if (clip == null) {
+            clip = AnimationClip.create(animation, joints);
+            if (translationTolerance >= 0 && rotationTolerance >= 0) {
+                AnimationClip compressed = clip.compress(translationTolerance, rotationTolerance);
+                Log.i("Skeleton", "Clip compressed. " + ClipCompressionReport.create(this, clip, compressed, 100));
+                clip = compressed;
+            }
+            clips.put(animation, clip);
+        }
+        return clip;
+    }
+}
@@ -1,158 +1,325 @@
 package org.andresoviedo.android_3d_model_engine.collision;
 
-import android.opengl.Matrix;
 import android.util.Log;
 
-import org.andresoviedo.android_3d_model_engine.model.BoundingBox;
 import org.andresoviedo.android_3d_model_engine.model.Object3DData;
-import org.andresoviedo.util.math.Math3DUtils;
 
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.concurrent.CancellationException;
 
 /**
+ * Spatial index of the triangles of an object, in object space, so it's still valid when the object is moved, rotated
+ * or scaled.
+ * <p>
+ * Every node splits its triangles in 8 octants around the middle of their centroids, so every triangle belongs to
+ * exactly one leaf and the bounds of every node are the tight bounds of its triangles. Nodes are stored in flat arrays,
+ * and the triangles are stored in a single <code>float[]</code> sorted so the triangles of every node (including
+ * the ones of its children) are a contiguous range. There is no object per node or per triangle.
+ * <p>
  * Created by Andres on 21/12/2017.
  */
+public final class Octree {
 
-public class Octree {
-    final BoundingBox boundingBox;
-    private final List<float[]> pending = new ArrayList<>();
-    private final List<float[]> triangles = new ArrayList<>();
-    private final Octree[] children = new Octree[8];
+    /**
+     * Floats per triangle: 3 vertices (x,y,z)
+     */
+    public static final int TRIANGLE_SIZE = 9;
+    /**
+     * Nodes with this number of triangles or less are not split
+     */
+    private static final int LEAF_SIZE = 16;
+    /**
+     * Nodes smaller than this fraction of the whole object are not split
+     */
+    private static final float MIN_NODE_SIZE = 1e-4f;
+    private static final int MAX_DEPTH = 24;
 
-    private Octree(BoundingBox box){
-        this.boundingBox = box;
-    }
-
-    private void addChild(int octant, BoundingBox boundingBox, float[] triangle){
-        if (children[octant] == null){
-            children[octant] = new Octree(boundingBox);
-        }
-        children[octant].pending.add(triangle);
-    }
+    // triangles sorted by node
+    private final float[] triangles;
+    // index of every triangle in the object
+    private final int[] triangleIds;
+    private final int triangleCount;
 
-    public Octree[] getChildren(){
-        return children;
-    }
+    // nodes. 0 is the root
+    private int nodeCount;
+    // min x,y,z max x,y,z of every node
+    private float[] bounds;
+    private int[] firstChild;
+    private int[] childCount;
+    private int[] firstTriangle;
+    private int[] nodeTriangleCount;
 
-    public List<float[]> getTriangles(){
-        return triangles;
+    private Octree(float[] triangles) {
+        this.triangles = triangles;
+        this.triangleCount = triangles.length / TRIANGLE_SIZE;
+        this.triangleIds = new int[triangleCount];
+        // every node but the leaves has at least 2 children
+        int capacity = Math.max(1, 2 * triangleCount / LEAF_SIZE + 1);
+        this.bounds = new float[capacity * 6];
+        this.firstChild = new int[capacity];
+        this.childCount = new int[capacity];
+        this.firstTriangle = new int[capacity];
+        this.nodeTriangleCount = new int[capacity];
     }
 
-    private void subdivide(){
-        for (Octree child : children){
-            if (child != null){
-                subdivide(child);
-            }
-        }
+    /**
+     * Build the octree of the object. It can take a while for big objects, so it's normally built in background
+     * with {@link OctreeBuilder}
+     *
+     * @param object the object
+     * @return the octree
+     * @throws CancellationException if the thread was interrupted while building
+     */
+    public static Octree build(Object3DData object) {
+        Log.i("Octree", "Building octree for " + object.getId());
+        long start = System.currentTimeMillis();
+        Octree ret = new Builder(getTriangles(object)).build();
+        Log.i("Octree", "Octree of '" + object.getId() + "' built in " + (System.currentTimeMillis() - start) + " ms. "
+                + "Triangles: " + ret.triangleCount + ", nodes: " + ret.nodeCount);
+        return ret;
     }
 
-    static Octree build(Object3DData object){
-        Log.i("Octree", "Building octree for "+object.getId());
-        final Octree ret = new Octree(object.getBoundingBox());
+    /**
+     * @return the triangles of the object
+     */
+    private static float[] getTriangles(Object3DData object) {
+        final float[] ret;
         if (object.getDrawOrder() == null) {
             // vertex array contains vertex in sequence
             final FloatBuffer buffer = object.getVertexArrayBuffer().asReadOnlyBuffer();
-            final List<float[]> triangles = new ArrayList<>(buffer.capacity() / 3 * 4);
-            final float[] modelMatrix = object.getModelMatrix();
-            for (int i = 0; i < buffer.capacity(); i += 9) {
-                float[] triangle = new float[]{buffer.get(), buffer.get(), buffer.get(), 1,
-                        buffer.get(), buffer.get(), buffer.get(), 1,
-                        buffer.get(), buffer.get(), buffer.get(), 1
-                };
-                Matrix.multiplyMV(triangle, 0, modelMatrix, 0, triangle, 0);
-                Matrix.multiplyMV(triangle, 4, modelMatrix, 0, triangle, 4);
-                Matrix.multiplyMV(triangle, 8, modelMatrix, 0, triangle, 8);
-                triangles.add(triangle);
-            }
-            ret.pending.addAll(triangles);
+            ret = new float[buffer.capacity() / TRIANGLE_SIZE * TRIANGLE_SIZE];
+            buffer.position(0);
+            buffer.get(ret);
         } else {
             // faces are built
             final IntBuffer drawOrder = object.getDrawOrder().asReadOnlyBuffer();
             final FloatBuffer buffer = object.getVertexBuffer().asReadOnlyBuffer();
-            final List<float[]> triangles = new ArrayList<>(drawOrder.capacity() / 3 * 4);
-            final float[] modelMatrix = object.getModelMatrix();
-            for (int i = 0; i < drawOrder.capacity(); i += 3) {
-                float[] triangle = new float[]{
-                        buffer.get(drawOrder.get(i)), buffer.get(drawOrder.get(i)+1), buffer.get(drawOrder.get(i)+2), 1,
-                        buffer.get(drawOrder.get(i+1)), buffer.get(drawOrder.get(i+1)+1), buffer.get(drawOrder.get(i+1)+2), 1,
-                        buffer.get(drawOrder.get(i+2)), buffer.get(drawOrder.get(i+2)+1), buffer.get(drawOrder.get(i+2)+2), 1,
-                };
-                Matrix.multiplyMV(triangle, 0, modelMatrix, 0, triangle, 0);
-                Matrix.multiplyMV(triangle, 4, modelMatrix, 0, triangle, 4);
-                Matrix.multiplyMV(triangle, 8, modelMatrix, 0, triangle, 8);
-                triangles.add(triangle);
+            ret = new float[drawOrder.capacity() / 3 * TRIANGLE_SIZE];
+            for (int i = 0; i < ret.length / 3; i++) {
+                int vertex = drawOrder.get(i) * 3;
+                ret[i * 3] = buffer.get(vertex);
+                ret[i * 3 + 1] = buffer.get(vertex + 1);
+                ret[i * 3 + 2] = buffer.get(vertex + 2);
             }
-            ret.pending.addAll(triangles);
         }
-        subdivide(ret);
         return ret;
     }
 
-    private static void subdivide(Octree octree){
-        Log.d("Octree", "Subdividing octree ("+octree.boundingBox+"): "+octree.pending.size());
-        float[] min = octree.boundingBox.getMin();
-        float[] max = octree.boundingBox.getMax();
-        float[] mid = Math3DUtils.divide(Math3DUtils.add(max,min),2);
-        BoundingBox[] octant = new BoundingBox[8];
-        float xMin,yMin,zMin,xMax,yMax,zMax;
-        xMin = min[0]; yMin = min[1]; zMin = min[2];
-        xMax = mid[0]; yMax = mid[1]; zMax = mid[2];
-        octant[0] = new BoundingBox("octree0",xMin,xMax,yMin,yMax,zMin,zMax);
-        xMin = mid[0]; yMin = min[1]; zMin = min[2];
-        xMax = max[0]; yMax = mid[1]; zMax = mid[2];
-        octant[1] = new BoundingBox("octree1",xMin,xMax,yMin,yMax,zMin,zMax);
-        xMin = min[0]; yMin = mid[1]; zMin = min[2];
-        xMax = mid[0]; yMax = max[1]; zMax = mid[2];
-        octant[2] = new BoundingBox("octree2",xMin,xMax,yMin,yMax,zMin,zMax);
-        xMin = mid[0]; yMin = mid[1]; zMin = min[2];
-        xMax = max[0]; yMax = max[1]; zMax = mid[2];
-        octant[3] = new BoundingBox("octree3",xMin,xMax,yMin,yMax,zMin,zMax);
-        xMin = min[0]; yMin = min[1]; zMin = mid[2];
-        xMax = mid[0]; yMax = mid[1]; zMax = max[2];
-        octant[4] = new BoundingBox("octree4",xMin,xMax,yMin,yMax,zMin,zMax);
-        xMin = mid[0]; yMin = min[1]; zMin = mid[2];
-        xMax = max[0]; yMax = mid[1]; zMax = max[2];
-        octant[5] = new BoundingBox("octree5",xMin,xMax,yMin,yMax,zMin,zMax);
-        xMin = min[0]; yMin = mid[1]; zMin = mid[2];
-        xMax = mid[0]; yMax = max[1]; zMax = max[2];
-        octant[6] = new BoundingBox("octree6",xMin,xMax,yMin,yMax,zMin,zMax);
-        xMin = mid[0]; yMin = mid[1]; zMin = mid[2];
-        xMax = max[0]; yMax = max[1]; zMax = max[2];
-        octant[7] = new BoundingBox("octree7",xMin,xMax,yMin,yMax,zMin,zMax);
-        boolean anyInOctant = false;
-        for (Iterator<float[]> it = octree.pending.iterator(); it.hasNext(); ) {
-            float[] triangle = it.next();
-            boolean inOctant = false;
-            for (int i = 0; i < 8; i++) {
-                int inside = octant[i].insideBounds(triangle[0], triangle[1], triangle[2]) ? 1 : 0;
-                inside += octant[i].insideBounds(triangle[4], triangle[5], triangle[6]) ? 1 : 0;
-                inside += octant[i].insideBounds(triangle[8], triangle[9], triangle[10]) ? 1 : 0;
-                if (inside == 3) {
-                    inOctant = true;
-                    octree.addChild(i, octant[i], triangle);
-                    anyInOctant = true;
+    /**
+     * @return the triangles, {@link #TRIANGLE_SIZE} floats each, sorted by node
+     */
+    public float[] getTriangles() {
+        return triangles;
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    /**
+     * @param triangle position of the triangle in {@link #getTriangles()}
+     * @return index of the triangle in the object, i.e. the face drawn
+     */
+    public int getTriangleId(int triangle) {
+        return triangleIds[triangle];
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return bounds of all the nodes: min x,y,z and max x,y,z of every node
+     */
+    public float[] getBounds() {
+        return bounds;
+    }
+
+    public boolean isLeaf(int node) {
+        return childCount[node] == 0;
+    }
+
+    /**
+     * @return the index of the first child. Children of a node are consecutive
+     */
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    public int getChildCount(int node) {
+        return childCount[node];
+    }
+
+    /**
+     * @return the index of the first triangle of the node or its children
+     */
+    public int getFirstTriangle(int node) {
+        return firstTriangle[node];
+    }
+
+    /**
+     * @return number of triangles of the node, including its children
+     */
+    public int getTriangleCount(int node) {
+        return nodeTriangleCount[node];
+    }
+
+    private int addNode(int first, int count) {
+        if (nodeCount == firstChild.length) {
+            int capacity = nodeCount * 2;
+            bounds = copyOf(bounds, capacity * 6);
+            firstChild = copyOf(firstChild, capacity);
+            childCount = copyOf(childCount, capacity);
+            firstTriangle = copyOf(firstTriangle, capacity);
+            nodeTriangleCount = copyOf(nodeTriangleCount, capacity);
+        }
+        firstTriangle[nodeCount] = first;
+        nodeTriangleCount[nodeCount] = count;
+        return nodeCount++;
+    }
+
+    private static float[] copyOf(float[] array, int length) {
+        float[] ret = new float[length];
+        System.arraycopy(array, 0, ret, 0, Math.min(array.length, length));
+        return ret;
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] ret = new int[length];
+        System.arraycopy(array, 0, ret, 0, Math.min(array.length, length));
+        return ret;
+    }
+
+    /**
+     * Sorts the triangles in place while creating the nodes. Temporary arrays are allocated once
+     */
+    private static final class Builder {
+
+        private final float[] source;
+        private final int count;
+        // triangle index at every position
+        private final int[] order;
+        private final int[] tmpOrder;
+        private final float[] centroids;
+        private final byte[] octants;
+        private Octree octree;
+        private float minNodeSize;
+
+        private Builder(float[] source) {
+            this.source = source;
+            this.count = source.length / TRIANGLE_SIZE;
+            this.order = new int[count];
+            this.tmpOrder = new int[count];
+            this.centroids = new float[count * 3];
+            this.octants = new byte[count];
+            for (int t = 0; t < count; t++) {
+                order[t] = t;
+                for (int axis = 0; axis < 3; axis++) {
+                    int i = t * TRIANGLE_SIZE + axis;
+                    centroids[t * 3 + axis] = (source[i] + source[i + 3] + source[i + 6]) / 3;
                 }
             }
-            if (!inOctant){
-                octree.triangles.add(triangle);
+        }
+
+        private Octree build() {
+            octree = new Octree(new float[count * TRIANGLE_SIZE]);
+            int root = octree.addNode(0, count);
+            updateBounds(root);
+            float[] b = octree.bounds;
+            float size = Math.max(b[3] - b[0], Math.max(b[4] - b[1], b[5] - b[2]));
+            minNodeSize = size * MIN_NODE_SIZE;
+            split(root, 0);
+
+            // copy the triangles in node order
+            for (int i = 0; i < count; i++) {
+                octree.triangleIds[i] = order[i];
+                System.arraycopy(source, order[i] * TRIANGLE_SIZE, octree.triangles, i * TRIANGLE_SIZE,
+                        TRIANGLE_SIZE);
             }
-            it.remove();
+            return octree;
         }
-        if (anyInOctant){
-            // subdivide if big enough (>=0.02)
-            if ((mid[0]+min[0])/2 > 0.01 && (mid[1]+min[1])/2 > 0.01 && (mid[2]+min[2])/2 > 0.01) {
-                octree.subdivide();
+
+        private void split(int node, int depth) {
+            final int first = octree.firstTriangle[node];
+            final int n = octree.nodeTriangleCount[node];
+            if (n <= LEAF_SIZE || depth >= MAX_DEPTH) {
+                return;
             }
-            else{
-                for (Octree child : octree.children) {
-                    if (child == null) continue;
-                    child.triangles.addAll(child.pending);
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Octree build cancelled");
+            }
+
+            // split around the middle of the centroids
+            float[] mid = new float[3];
+            float extent = 0;
+            for (int axis = 0; axis < 3; axis++) {
+                float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+                for (int i = first; i < first + n; i++) {
+                    float c = centroids[order[i] * 3 + axis];
+                    min = Math.min(min, c);
+                    max = Math.max(max, c);
+                }
+                mid[axis] = (min + max) / 2;
+                extent = Math.max(extent, max - min);
+            }
+            if (extent <= minNodeSize) {
+                return;
+            }
+
+            // counting sort by octant
+            int[] octantCount = new int[8];
+            for (int i = first; i < first + n; i++) {
+                int t = order[i];
+                int octant = (centroids[t * 3] > mid[0] ? 1 : 0) | (centroids[t * 3 + 1] > mid[1] ? 2 : 0)
+                        | (centroids[t * 3 + 2] > mid[2] ? 4 : 0);
+                octants[t] = (byte) octant;
+                octantCount[octant]++;
+            }
+            int[] octantStart = new int[8];
+            for (int octant = 1; octant < 8; octant++) {
+                octantStart[octant] = octantStart[octant - 1] + octantCount[octant - 1];
+            }
+            int[] next = octantStart.clone();
+            for (int i = first; i < first + n; i++) {
+                int t = order[i];
+                tmpOrder[first + next[octants[t]]++] = t;
+            }
+            System.arraycopy(tmpOrder, first, order, first, n);
+
+            // children are allocated together, then split
+            int children = 0;
+            for (int octant = 0; octant < 8; octant++) {
+                if (octantCount[octant] == 0) continue;
+                int child = octree.addNode(first + octantStart[octant], octantCount[octant]);
+                if (children++ == 0) {
+                    octree.firstChild[node] = child;
+                }
+                updateBounds(child);
+            }
+            octree.childCount[node] = children;
+            int firstChild = octree.firstChild[node];
+            for (int child = firstChild; child < firstChild + children; child++) {
+                split(child, depth + 1);
+            }
+        }
+
+        private void updateBounds(int node) {
+            float[] b = octree.bounds;
+            int o = node * 6;
+            b[o] = b[o + 1] = b[o + 2] = Float.MAX_VALUE;
+            b[o + 3] = b[o + 4] = b[o + 5] = -Float.MAX_VALUE;
+            int first = octree.firstTriangle[node];
+            for (int i = first; i < first + octree.nodeTriangleCount[node]; i++) {
+                int t = order[i] * TRIANGLE_SIZE;
+                for (int v = 0; v < TRIANGLE_SIZE; v += 3) {
+                    for (int axis = 0; axis < 3; axis++) {
+                        float value = source[t + v + axis];
+                        b[o + axis] = Math.min(b[o + axis], value);
+                        b[o + 3 + axis] = Math.max(b[o + 3 + axis], value);
+                    }
                 }
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,105 @@
+package org.andresoviedo.android_3d_model_engine.collision;
+
+import android.util.Log;
+
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the octrees of the objects in background, so they are ready when the user touches the screen. Every octree
+ * is set to its object once it's completely built.
+ * <p>
+ * Builds run in a single low priority thread, so they don't slow down loading or drawing. A build can be cancelled,
+ * i.e. when its object is removed from the scene.
+ *
+ * @author andresoviedo
+ */
+public final class OctreeBuilder {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "OctreeBuilder-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+    /**
+     * Builds not finished yet
+     */
+    private final Map<Object3DData, Future<?>> pending = new IdentityHashMap<>();
+
+    /**
+     * Build the octree of the object in background. This method returns immediately
+     *
+     * @param object the object, already loaded
+     */
+    public synchronized void build(final Object3DData object) {
+        if (object.getOctree() != null || pending.containsKey(object) || executor.isShutdown()) {
+            return;
+        }
+        pending.put(object, executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Octree octree = Octree.build(object);
+                    synchronized (OctreeBuilder.this) {
+                        // the object could have been removed just after the build finished
+                        if (pending.remove(object) != null) {
+                            object.setOctree(octree);
+                        }
+                    }
+                } catch (CancellationException ex) {
+                    Log.i("OctreeBuilder", "Octree of '" + object.getId() + "' cancelled");
+                } catch (Exception ex) {
+                    Log.e("OctreeBuilder", "Problem building octree of '" + object.getId() + "': "
+                            + ex.getMessage(), ex);
+                    synchronized (OctreeBuilder.this) {
+                        pending.remove(object);
+                    }
+                }
+            }
+        }));
+    }
+
+    /**
+     * @return <code>true</code> if the octree of the object is still being built
+     */
+    public synchronized boolean isPending(Object3DData object) {
+        return pending.containsKey(object);
+    }
+
+    /**
+     * Cancel the build of the octree of the object, if it's not finished yet
+     *
+     * @param object the object
+     */
+    public synchronized void cancel(Object3DData object) {
+        Future<?> future = pending.remove(object);
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Cancel all the builds and stop the worker
+     */
+    public synchronized void shutdown() {
+        for (Future<?> future : pending.values()) {
+            future.cancel(true);
+        }
+        pending.clear();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,397 @@
+package org.andresoviedo.android_3d_model_engine.collision;
+
+import android.opengl.GLES20;
+
+import org.andresoviedo.android_3d_model_engine.model.BoundingBox;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+
+import java.util.List;
+
+/**
+ * Finds the nearest triangle hit by a ray, i.e. to select the object touched by the user.
+ * <p>
+ * The octree of every object is walked testing the ray against the bounds of the nodes (slab test) and then against
+ * the triangles of the leaves (Möller–Trumbore). Nodes further than the nearest hit found so far are skipped.
+ * Octrees are in object space, so the ray is transformed to the space of every object instead of building them again
+ * when objects move.
+ * <p>
+ * The traversal stack and the result are reused, so casting a ray doesn't allocate memory once the octrees are built.
+ * This class is not thread safe.
+ *
+ * @author andresoviedo
+ */
+public final class RayCaster {
+
+    /**
+     * The nearest triangle hit by the ray
+     */
+    public static final class Hit {
+
+        private Object3DData object;
+        private int triangle = -1;
+        private float distance = Float.POSITIVE_INFINITY;
+        private float u;
+        private float v;
+
+        /**
+         * Forget the last hit, so the next cast finds any triangle
+         */
+        public void reset() {
+            object = null;
+            triangle = -1;
+            distance = Float.POSITIVE_INFINITY;
+            u = 0;
+            v = 0;
+        }
+
+        public Object3DData getObject() {
+            return object;
+        }
+
+        /**
+         * @return index of the triangle in the object, or -1 if the bounding box of the object was hit because its
+         * octree is not built yet
+         */
+        public int getTriangle() {
+            return triangle;
+        }
+
+        /**
+         * @return distance from the ray origin, in units of the ray direction length
+         */
+        public float getDistance() {
+            return distance;
+        }
+
+        /**
+         * @return barycentric coordinate of the hit point for the second vertex of the triangle
+         */
+        public float getU() {
+            return u;
+        }
+
+        /**
+         * @return barycentric coordinate of the hit point for the third vertex of the triangle
+         */
+        public float getV() {
+            return v;
+        }
+
+        /**
+         * @return barycentric coordinate of the hit point for the first vertex of the triangle
+         */
+        public float getW() {
+            return 1 - u - v;
+        }
+
+        @Override
+        public String toString() {
+            return "Hit{object=" + (object != null ? object.getId() : null) + ", triangle=" + triangle
+                    + ", distance=" + distance + ", u=" + u + ", v=" + v + "}";
+        }
+    }
+
+    private final Hit hit = new Hit();
+    // nodes pending to visit, of the octrees and of the scene tree
+    private int[] stack = new int[64];
+    private int[] sceneStack = new int[32];
+    // world to object space
+    private final float[] inverseModelMatrix = new float[16];
+    // barycentric coordinates of the last triangle hit
+    private final float[] uv = new float[2];
+    // unprojected points
+    private final float[] near = new float[4];
+    private final float[] far = new float[4];
+
+    /**
+     * Find the nearest triangle hit by the ray. The octrees of the objects are built the first time they are needed
+     *
+     * @param objects   the objects
+     * @param origin    the origin of the ray, in world space
+     * @param direction the direction of the ray, in world space
+     * @return the nearest hit, or <code>null</code> if the ray doesn't hit any object. The hit is reused by the next
+     * call
+     */
+    public Hit cast(List<Object3DData> objects, float[] origin, float[] direction) {
+        hit.reset();
+        for (int i = 0; i < objects.size(); i++) {
+            cast(objects.get(i), origin, direction, hit);
+        }
+        return hit.object != null ? hit : null;
+    }
+
+    /**
+     * Find the nearest triangle hit by the ray, testing only the objects whose bounds are in the way
+     *
+     * @param scene     the scene tree, already updated
+     * @param origin    the origin of the ray, in world space
+     * @param direction the direction of the ray, in world space
+     * @return the nearest hit, or <code>null</code> if the ray doesn't hit any object. The hit is reused by the next
+     * call
+     */
+    public Hit cast(SceneBVH scene, float[] origin, float[] direction) {
+        hit.reset();
+        if (scene.getNodeCount() == 0) {
+            return null;
+        }
+        final float ox = origin[0], oy = origin[1], oz = origin[2];
+        final float ix = 1 / direction[0], iy = 1 / direction[1], iz = 1 / direction[2];
+        final float[] bounds = scene.getBounds();
+        int top = 0;
+        sceneStack[top++] = 0;
+        while (top > 0) {
+            final int node = sceneStack[--top];
+            final int b = node * 6;
+            if (intersectBox(ox, oy, oz, ix, iy, iz, bounds[b], bounds[b + 1], bounds[b + 2],
+                    bounds[b + 3], bounds[b + 4], bounds[b + 5]) >= hit.distance) {
+                continue;
+            }
+            if (scene.isLeaf(node)) {
+                cast(scene.getObject(node), origin, direction, hit);
+                continue;
+            }
+            if (top + 2 > sceneStack.length) {
+                int[] newStack = new int[sceneStack.length * 2];
+                System.arraycopy(sceneStack, 0, newStack, 0, top);
+                sceneStack = newStack;
+            }
+            sceneStack[top++] = scene.getFirstChild(node);
+            sceneStack[top++] = scene.getFirstChild(node) + 1;
+        }
+        return hit.object != null ? hit : null;
+    }
+
+    /**
+     * Find the nearest triangle of the object hit by the ray, if it's nearer than the current hit
+     *
+     * @param object    the object. If its octree is not built yet, its bounding box is tested instead
+     * @param origin    the origin of the ray, in world space
+     * @param direction the direction of the ray, in world space
+     * @param hit       the nearest hit found so far, updated if a nearer triangle is found
+     * @return <code>true</code> if the hit was updated
+     */
+    public boolean cast(Object3DData object, float[] origin, float[] direction, Hit hit) {
+        if (!isPickable(object)) {
+            return false;
+        }
+        Octree octree = object.getOctree();
+        if (octree == null) {
+            // not built in background yet. building it here would block the caller and race with the builder, so
+            // the object is selected by its bounding box meanwhile
+            BoundingBox box = object.getBoundingBox();
+            float distance = intersectBox(origin[0], origin[1], origin[2], 1 / direction[0], 1 / direction[1],
+                    1 / direction[2], box.getxMin(), box.getyMin(), box.getzMin(), box.getxMax(), box.getyMax(),
+                    box.getzMax());
+            if (distance >= hit.distance) {
+                return false;
+            }
+            hit.object = object;
+            hit.triangle = -1;
+            hit.distance = distance;
+            hit.u = 0;
+            hit.v = 0;
+            return true;
+        }
+        if (octree.getTriangleCount() == 0) {
+            return false;
+        }
+
+        // the octree is in object space, so the ray is transformed instead. Distances along the ray don't change
+        final float[] m = inverseModelMatrix;
+        if (!invertAffine(object.getModelMatrix(), m)) {
+            return false;
+        }
+        final float wx = origin[0], wy = origin[1], wz = origin[2];
+        final float ox = m[0] * wx + m[4] * wy + m[8] * wz + m[12];
+        final float oy = m[1] * wx + m[5] * wy + m[9] * wz + m[13];
+        final float oz = m[2] * wx + m[6] * wy + m[10] * wz + m[14];
+        final float dx = m[0] * direction[0] + m[4] * direction[1] + m[8] * direction[2];
+        final float dy = m[1] * direction[0] + m[5] * direction[1] + m[9] * direction[2];
+        final float dz = m[2] * direction[0] + m[6] * direction[1] + m[10] * direction[2];
+        final float ix = 1 / dx, iy = 1 / dy, iz = 1 / dz;
+
+        final float[] bounds = octree.getBounds();
+        final float[] triangles = octree.getTriangles();
+        boolean found = false;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            final int node = stack[--top];
+            final int b = node * 6;
+            if (intersectBox(ox, oy, oz, ix, iy, iz, bounds[b], bounds[b + 1], bounds[b + 2],
+                    bounds[b + 3], bounds[b + 4], bounds[b + 5]) >= hit.distance) {
+                continue;
+            }
+            if (!octree.isLeaf(node)) {
+                final int first = octree.getFirstChild(node);
+                final int count = octree.getChildCount(node);
+                if (top + count > stack.length) {
+                    int[] newStack = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, newStack, 0, top);
+                    stack = newStack;
+                }
+                for (int child = first; child < first + count; child++) {
+                    stack[top++] = child;
+                }
+                continue;
+            }
+            final int first = octree.getFirstTriangle(node);
+            for (int t = first; t < first + octree.getTriangleCount(node); t++) {
+                float distance = intersectTriangle(triangles, t * Octree.TRIANGLE_SIZE, ox, oy, oz, dx, dy, dz, uv);
+                if (distance < hit.distance) {
+                    hit.object = object;
+                    hit.triangle = octree.getTriangleId(t);
+                    hit.distance = distance;
+                    hit.u = uv[0];
+                    hit.v = uv[1];
+                    found = true;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Calculate the ray that goes through the screen point, from the near plane to the far plane
+     *
+     * @param x                           x screen coordinate, in pixels
+     * @param y                           y screen coordinate, in pixels (top is 0)
+     * @param width                       width of the screen
+     * @param height                      height of the screen
+     * @param inverseProjectionViewMatrix the inverse of the projection x view matrix
+     * @param origin                      the origin of the ray (output)
+     * @param direction                   the direction of the ray (output). Its length is the distance between planes
+     */
+    public void unproject(float x, float y, int width, int height, float[] inverseProjectionViewMatrix,
+                          float[] origin, float[] direction) {
+        float ndcX = 2 * x / width - 1;
+        float ndcY = 1 - 2 * y / height;
+        transform(inverseProjectionViewMatrix, ndcX, ndcY, -1, near);
+        transform(inverseProjectionViewMatrix, ndcX, ndcY, 1, far);
+        for (int i = 0; i < 3; i++) {
+            origin[i] = near[i] / near[3];
+            direction[i] = far[i] / far[3] - origin[i];
+        }
+    }
+
+    private static void transform(float[] m, float x, float y, float z, float[] out) {
+        for (int i = 0; i < 4; i++) {
+            out[i] = m[i] * x + m[4 + i] * y + m[8 + i] * z + m[12 + i];
+        }
+    }
+
+    /**
+     * Invert a matrix without projection, i.e. a model matrix
+     *
+     * @return <code>false</code> if the matrix can't be inverted, i.e. the object is scaled to 0
+     */
+    static boolean invertAffine(float[] m, float[] inverse) {
+        // inverse of the 3x3 part: transposed cofactors divided by the determinant
+        final float c0 = m[5] * m[10] - m[6] * m[9];
+        final float c1 = m[6] * m[8] - m[4] * m[10];
+        final float c2 = m[4] * m[9] - m[5] * m[8];
+        final float det = m[0] * c0 + m[1] * c1 + m[2] * c2;
+        if (det == 0) {
+            return false;
+        }
+        final float invDet = 1 / det;
+        inverse[0] = c0 * invDet;
+        inverse[1] = (m[2] * m[9] - m[1] * m[10]) * invDet;
+        inverse[2] = (m[1] * m[6] - m[2] * m[5]) * invDet;
+        inverse[4] = c1 * invDet;
+        inverse[5] = (m[0] * m[10] - m[2] * m[8]) * invDet;
+        inverse[6] = (m[2] * m[4] - m[0] * m[6]) * invDet;
+        inverse[8] = c2 * invDet;
+        inverse[9] = (m[1] * m[8] - m[0] * m[9]) * invDet;
+        inverse[10] = (m[0] * m[5] - m[1] * m[4]) * invDet;
+        // inverse translation: -inverse(3x3) * translation
+        inverse[12] = -(inverse[0] * m[12] + inverse[4] * m[13] + inverse[8] * m[14]);
+        inverse[13] = -(inverse[1] * m[12] + inverse[5] * m[13] + inverse[9] * m[14]);
+        inverse[14] = -(inverse[2] * m[12] + inverse[6] * m[13] + inverse[10] * m[14]);
+        inverse[3] = inverse[7] = inverse[11] = 0;
+        inverse[15] = 1;
+        return true;
+    }
+
+    /**
+     * Objects still being loaded, or not drawn as triangles, can't be picked
+     */
+    private static boolean isPickable(Object3DData object) {
+        if (object.getDrawMode() != GLES20.GL_TRIANGLES) {
+            return false;
+        }
+        if (object.getFaces() != null && !object.getFaces().loaded()) {
+            return false;
+        }
+        return object.getDrawOrder() != null ? object.getVertexBuffer() != null : object.getVertexArrayBuffer() != null;
+    }
+
+    /**
+     * Slab test
+     *
+     * @return the distance to the box, 0 if the origin is inside, or {@link Float#POSITIVE_INFINITY} if the ray
+     * misses the box
+     */
+    static float intersectBox(float ox, float oy, float oz, float ix, float iy, float iz,
+                              float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        float t1 = (minX - ox) * ix, t2 = (maxX - ox) * ix;
+        float tMin = Math.min(t1, t2), tMax = Math.max(t1, t2);
+        t1 = (minY - oy) * iy;
+        t2 = (maxY - oy) * iy;
+        tMin = Math.max(tMin, Math.min(t1, t2));
+        tMax = Math.min(tMax, Math.max(t1, t2));
+        t1 = (minZ - oz) * iz;
+        t2 = (maxZ - oz) * iz;
+        tMin = Math.max(tMin, Math.min(t1, t2));
+        tMax = Math.min(tMax, Math.max(t1, t2));
+        if (tMax < 0 || tMin > tMax) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return Math.max(tMin, 0);
+    }
+
+    /**
+     * Möller–Trumbore ray-triangle intersection. Both faces of the triangle are hit
+     *
+     * @param triangles the triangles
+     * @param offset    offset of the triangle: 3 vertices (x,y,z)
+     * @param uv        barycentric coordinates of the hit (output)
+     * @return distance to the triangle, in units of the direction length, or {@link Float#POSITIVE_INFINITY} if the
+     * ray doesn't hit the triangle
+     */
+    static float intersectTriangle(float[] triangles, int offset, float ox, float oy, float oz,
+                                   float dx, float dy, float dz, float[] uv) {
+        final float v0x = triangles[offset], v0y = triangles[offset + 1], v0z = triangles[offset + 2];
+        final float e1x = triangles[offset + 3] - v0x, e1y = triangles[offset + 4] - v0y,
+                e1z = triangles[offset + 5] - v0z;
+        final float e2x = triangles[offset + 6] - v0x, e2y = triangles[offset + 7] - v0y,
+                e2z = triangles[offset + 8] - v0z;
+
+        // p = d x e2
+        final float px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+        final float det = e1x * px + e1y * py + e1z * pz;
+        if (det == 0) {
+            // ray parallel to the triangle
+            return Float.POSITIVE_INFINITY;
+        }
+        final float invDet = 1 / det;
+        final float sx = ox - v0x, sy = oy - v0y, sz = oz - v0z;
+        final float u = (sx * px + sy * py + sz * pz) * invDet;
+        if (u < 0 || u > 1) {
+            return Float.POSITIVE_INFINITY;
+        }
+        // q = s x e1
+        final float qx = sy * e1z - sz * e1y, qy = sz * e1x - sx * e1z, qz = sx * e1y - sy * e1x;
+        final float v = (dx * qx + dy * qy + dz * qz) * invDet;
+        if (v < 0 || u + v > 1) {
+            return Float.POSITIVE_INFINITY;
+        }
+        final float t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+        if (t < 0) {
+            return Float.POSITIVE_INFINITY;
+        }
+        uv[0] = u;
+        uv[1] = v;
+        return t;
+    }
+}
@@ -0,0 +1,301 @@
+package org.andresoviedo.android_3d_model_engine.collision;
+
+import android.util.Log;
+
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
+import org.andresoviedo.android_3d_model_engine.model.BoundingBox;
+import org.andresoviedo.android_3d_model_engine.model.Frustum;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+
+import java.util.List;
+
+/**
+ * Bounding volume hierarchy of the objects of the scene, built with their world bounding boxes. It's used to find the
+ * objects visible by the camera and the objects hit by a ray without testing every object.
+ * <p>
+ * The tree is a binary tree with one object per leaf, stored in flat arrays like the {@link Octree}. It's built again
+ * only when objects are added or removed. When an object is moved, rotated or scaled, the bounds of its leaf and its
+ * parents are updated (refit) keeping the same tree.
+ * <p>
+ * Objects without reliable bounds (still being loaded, or animated with a skeleton) are not in the tree: they are
+ * always visible and they can't be picked.
+ *
+ * @author andresoviedo
+ */
+public final class SceneBVH {
+
+    // the objects of the scene
+    private List<Object3DData> objects;
+    // world bounding box of every object when the tree was updated. null if the object is not in the tree
+    private BoundingBox[] boxes = new BoundingBox[0];
+    // objects not in the tree
+    private int[] unbounded = new int[0];
+    private int unboundedCount;
+
+    // nodes. 0 is the root
+    private int nodeCount;
+    // min x,y,z max x,y,z of every node
+    private float[] bounds = new float[0];
+    // first of the 2 children of every node, or -1 if it's a leaf
+    private int[] firstChild = new int[0];
+    // object of every leaf, or -1 if it's not a leaf
+    private int[] object = new int[0];
+    // build
+    private int[] order = new int[0];
+    private float[] centroids = new float[0];
+
+    // result of the last frustum query
+    private int[] visible = new int[0];
+    private int visibleCount;
+    private int[] stack = new int[64];
+
+    /**
+     * Update the tree with the current state of the objects. To be called every frame before querying the tree
+     *
+     * @param objects the objects of the scene
+     */
+    public void update(List<Object3DData> objects) {
+        if (objects != this.objects || objects.size() != boxes.length || boundsChanged()) {
+            build(objects);
+            return;
+        }
+        boolean moved = false;
+        for (int node = 0; node < nodeCount; node++) {
+            int i = object[node];
+            if (i >= 0 && objects.get(i).getBoundingBox() != boxes[i]) {
+                boxes[i] = objects.get(i).getBoundingBox();
+                setBounds(node, boxes[i]);
+                moved = true;
+            }
+        }
+        if (moved) {
+            refit();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if an object was loaded or stopped having bounds since the tree was built
+     */
+    private boolean boundsChanged() {
+        for (int i = 0; i < boxes.length; i++) {
+            if ((boxes[i] != null) != hasBounds(objects.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Objects still being loaded or animated with a skeleton don't have a reliable bounding box
+     */
+    private static boolean hasBounds(Object3DData obj) {
+        if (obj.getVertexBuffer() == null && obj.getVertexArrayBuffer() == null) {
+            return false;
+        }
+        if (obj.getFaces() != null && !obj.getFaces().loaded()) {
+            return false;
+        }
+        return !(obj instanceof AnimatedModel);
+    }
+
+    private void build(List<Object3DData> objects) {
+        this.objects = objects;
+        final int n = objects.size();
+        if (boxes.length != n) {
+            boxes = new BoundingBox[n];
+            unbounded = new int[n];
+            visible = new int[n];
+            order = new int[n];
+            centroids = new float[n * 3];
+            // one object per leaf
+            int capacity = Math.max(1, 2 * n - 1);
+            bounds = new float[capacity * 6];
+            firstChild = new int[capacity];
+            object = new int[capacity];
+        }
+        int count = 0;
+        unboundedCount = 0;
+        for (int i = 0; i < n; i++) {
+            Object3DData obj = objects.get(i);
+            if (!hasBounds(obj)) {
+                boxes[i] = null;
+                unbounded[unboundedCount++] = i;
+                continue;
+            }
+            boxes[i] = obj.getBoundingBox();
+            float[] center = boxes[i].getCenter();
+            System.arraycopy(center, 0, centroids, i * 3, 3);
+            order[count++] = i;
+        }
+        nodeCount = 0;
+        if (count > 0) {
+            nodeCount = 1;
+            split(0, 0, count);
+            refit();
+        }
+        Log.d("SceneBVH", "Scene tree built. Objects: " + count + ", not bounded: " + unboundedCount
+                + ", nodes: " + nodeCount);
+    }
+
+    private void split(int node, int start, int end) {
+        if (end - start == 1) {
+            firstChild[node] = -1;
+            object[node] = order[start];
+            setBounds(node, boxes[order[start]]);
+            return;
+        }
+
+        // split the longest axis of the centroids at the median
+        float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+        float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        for (int i = start; i < end; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                min[axis] = Math.min(min[axis], centroids[order[i] * 3 + axis]);
+                max[axis] = Math.max(max[axis], centroids[order[i] * 3 + axis]);
+            }
+        }
+        int axis = 0;
+        for (int a = 1; a < 3; a++) {
+            if (max[a] - min[a] > max[axis] - min[axis]) {
+                axis = a;
+            }
+        }
+        // insertion sort. scenes are small
+        for (int i = start + 1; i < end; i++) {
+            int entry = order[i];
+            float key = centroids[entry * 3 + axis];
+            int j = i - 1;
+            while (j >= start && centroids[order[j] * 3 + axis] > key) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = entry;
+        }
+
+        // children are allocated together, after their parent
+        int left = nodeCount;
+        nodeCount += 2;
+        firstChild[node] = left;
+        object[node] = -1;
+        int middle = (start + end) / 2;
+        split(left, start, middle);
+        split(left + 1, middle, end);
+    }
+
+    private void setBounds(int node, BoundingBox box) {
+        int o = node * 6;
+        bounds[o] = box.getxMin();
+        bounds[o + 1] = box.getyMin();
+        bounds[o + 2] = box.getzMin();
+        bounds[o + 3] = box.getxMax();
+        bounds[o + 4] = box.getyMax();
+        bounds[o + 5] = box.getzMax();
+    }
+
+    /**
+     * Update the bounds of the inner nodes with the bounds of their children. Children are always after their parent
+     */
+    private void refit() {
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            int child = firstChild[node];
+            if (child < 0) {
+                continue;
+            }
+            int o = node * 6, l = child * 6, r = (child + 1) * 6;
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[o + axis] = Math.min(bounds[l + axis], bounds[r + axis]);
+                bounds[o + 3 + axis] = Math.max(bounds[l + 3 + axis], bounds[r + 3 + axis]);
+            }
+        }
+    }
+
+    /**
+     * Find the objects visible by the camera. Objects not in the tree are always visible
+     *
+     * @param frustum the camera frustum
+     * @return the number of visible objects
+     * @see #getVisibleObject(int)
+     */
+    public int cull(Frustum frustum) {
+        visibleCount = 0;
+        for (int i = 0; i < unboundedCount; i++) {
+            visible[visibleCount++] = unbounded[i];
+        }
+        if (nodeCount == 0) {
+            return visibleCount;
+        }
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            int o = node * 6;
+            if (!frustum.intersects(bounds[o], bounds[o + 1], bounds[o + 2], bounds[o + 3], bounds[o + 4],
+                    bounds[o + 5])) {
+                continue;
+            }
+            if (firstChild[node] < 0) {
+                visible[visibleCount++] = object[node];
+                continue;
+            }
+            if (top + 2 > stack.length) {
+                int[] newStack = new int[stack.length * 2];
+                System.arraycopy(stack, 0, newStack, 0, top);
+                stack = newStack;
+            }
+            stack[top++] = firstChild[node];
+            stack[top++] = firstChild[node] + 1;
+        }
+        return visibleCount;
+    }
+
+    /**
+     * @return number of objects visible in the last frustum query
+     */
+    public int getVisibleCount() {
+        return visibleCount;
+    }
+
+    /**
+     * @return number of objects discarded in the last frustum query because they were out of the camera
+     */
+    public int getCulledCount() {
+        return objects != null ? objects.size() - visibleCount : 0;
+    }
+
+    /**
+     * @param i index of the visible object, lower than {@link #getVisibleCount()}
+     * @return the visible object
+     */
+    public Object3DData getVisibleObject(int i) {
+        return objects.get(visible[i]);
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return bounds of all the nodes: min x,y,z and max x,y,z of every node
+     */
+    public float[] getBounds() {
+        return bounds;
+    }
+
+    public boolean isLeaf(int node) {
+        return firstChild[node] < 0;
+    }
+
+    /**
+     * @return the index of the first child. The second child is the next one
+     */
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    /**
+     * @return the object of the leaf
+     */
+    public Object3DData getObject(int node) {
+        return objects.get(object[node]);
+    }
+}
@@ -0,0 +1,226 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+
+import java.nio.Buffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the geometry of the objects in the GPU. The array buffers of every object are uploaded once into vertex buffer
+ * objects (and its draw order into an index buffer object), so they are not copied by the driver every time the
+ * object is drawn.
+ * <p>
+ * Buffers are uploaded again if the object is marked as changed or if any of its buffers is replaced. Handles are
+ * only valid for the current GL context, so they must be forgotten with {@link #invalidate()} when the surface is
+ * lost.
+ *
+ * @author andresoviedo
+ */
+public final class BufferObjects {
+
+    static final int POSITION = 0;
+    static final int NORMALS = 1;
+    static final int COLORS = 2;
+    static final int TEXTURE_COORDS = 3;
+    static final int INDICES = 4;
+    private static final int COUNT = 5;
+
+    private final GL gl;
+    /**
+     * Uploaded buffers of every object
+     */
+    private final Map<Object3DData, Entry> entries = new HashMap<>();
+
+    public BufferObjects() {
+        this(new GLES20Buffers());
+    }
+
+    public BufferObjects(GL gl) {
+        this.gl = gl;
+    }
+
+    /**
+     * Get the buffer objects of the object, uploading its buffers if they are not already in the GPU or if they
+     * changed.
+     *
+     * @param obj the object to draw
+     * @return the handles indexed by {@link #POSITION}, {@link #NORMALS}, {@link #COLORS}, {@link #TEXTURE_COORDS}
+     * and {@link #INDICES}. Handle is 0 if the object doesn't have that buffer
+     */
+    public int[] getHandles(Object3DData obj) {
+        Entry entry = entries.get(obj);
+        if (entry != null && !obj.isChanged() && entry.isCurrent(obj)) {
+            return entry.handles;
+        }
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(obj, entry);
+        } else {
+            Log.d("BufferObjects", "Uploading again buffers of '" + obj.getId() + "'");
+            delete(entry);
+        }
+        upload(obj, entry);
+        obj.setChanged(false);
+        return entry.handles;
+    }
+
+    /**
+     * @return number of objects having their buffers in the GPU
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Delete the buffers of the object
+     *
+     * @param obj the object that is not going to be drawn anymore
+     */
+    public void release(Object3DData obj) {
+        Entry entry = entries.remove(obj);
+        if (entry != null) {
+            delete(entry);
+        }
+    }
+
+    /**
+     * Delete the buffers of all the objects not in the collection, like the ones removed from the scene
+     *
+     * @param retained the objects still being drawn
+     */
+    public void retain(Collection<?> retained) {
+        Set<Object> set = new HashSet<Object>(retained);
+        for (Iterator<Map.Entry<Object3DData, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Object3DData, Entry> entry = it.next();
+            if (!set.contains(entry.getKey())) {
+                delete(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Delete the buffers of all the objects
+     */
+    public void releaseAll() {
+        for (Entry entry : entries.values()) {
+            delete(entry);
+        }
+        entries.clear();
+    }
+
+    /**
+     * Forget all the buffers without deleting them. To be called when the GL context is lost, since the driver
+     * already released them
+     */
+    public void invalidate() {
+        entries.clear();
+    }
+
+    private void upload(Object3DData obj, Entry entry) {
+        entry.setSources(obj);
+        for (int i = 0; i < COUNT; i++) {
+            Buffer source = entry.sources[i];
+            if (source == null) {
+                entry.handles[i] = 0;
+                continue;
+            }
+            int target = i == INDICES ? GLES20.GL_ELEMENT_ARRAY_BUFFER : GLES20.GL_ARRAY_BUFFER;
+            int handle = gl.genBuffer();
+            gl.bindBuffer(target, handle);
+            // floats and ints are both 4 bytes
+            source.position(0);
+            gl.bufferData(target, source.capacity() * 4, source, GLES20.GL_STATIC_DRAW);
+            gl.bindBuffer(target, 0);
+            entry.handles[i] = handle;
+        }
+    }
+
+    private void delete(Entry entry) {
+        for (int i = 0; i < COUNT; i++) {
+            if (entry.handles[i] != 0) {
+                gl.deleteBuffer(entry.handles[i]);
+                entry.handles[i] = 0;
+            }
+            entry.sources[i] = null;
+        }
+    }
+
+    private static final class Entry {
+
+        /**
+         * The client buffers that were uploaded. If the object has now different buffers, they must be uploaded again
+         */
+        private final Buffer[] sources = new Buffer[COUNT];
+        private final int[] handles = new int[COUNT];
+
+        private void setSources(Object3DData obj) {
+            // same buffers used by Object3DImpl when drawing with client side arrays
+            sources[POSITION] = obj.getVertexArrayBuffer() != null ? obj.getVertexArrayBuffer() : obj.getVertexBuffer();
+            sources[NORMALS] = obj.getVertexNormalsArrayBuffer() != null ? obj.getVertexNormalsArrayBuffer() :
+                    obj.getNormals();
+            sources[COLORS] = obj.getVertexColorsArrayBuffer();
+            sources[TEXTURE_COORDS] = obj.getTextureCoordsArrayBuffer();
+            sources[INDICES] = obj.isDrawUsingArrays() ? null : obj.getDrawOrder();
+        }
+
+        private boolean isCurrent(Object3DData obj) {
+            return sources[POSITION] == (obj.getVertexArrayBuffer() != null ? obj.getVertexArrayBuffer() :
+                    obj.getVertexBuffer())
+                    && sources[NORMALS] == (obj.getVertexNormalsArrayBuffer() != null ?
+                    obj.getVertexNormalsArrayBuffer() : obj.getNormals())
+                    && sources[COLORS] == obj.getVertexColorsArrayBuffer()
+                    && sources[TEXTURE_COORDS] == obj.getTextureCoordsArrayBuffer()
+                    && sources[INDICES] == (obj.isDrawUsingArrays() ? null : obj.getDrawOrder());
+        }
+    }
+
+    /**
+     * OpenGL calls used to manage the buffer objects
+     */
+    public interface GL {
+
+        int genBuffer();
+
+        void bindBuffer(int target, int buffer);
+
+        void bufferData(int target, int size, Buffer data, int usage);
+
+        void deleteBuffer(int buffer);
+    }
+
+    private static final class GLES20Buffers implements GL {
+
+        private final int[] buffers = new int[1];
+
+        @Override
+        public int genBuffer() {
+            GLES20.glGenBuffers(1, buffers, 0);
+            return buffers[0];
+        }
+
+        @Override
+        public void bindBuffer(int target, int buffer) {
+            GLES20.glBindBuffer(target, buffer);
+        }
+
+        @Override
+        public void bufferData(int target, int size, Buffer data, int usage) {
+            GLES20.glBufferData(target, size, data, usage);
+        }
+
+        @Override
+        public void deleteBuffer(int buffer) {
+            buffers[0] = buffer;
+            GLES20.glDeleteBuffers(1, buffers, 0);
+        }
+    }
+}
@@ -24,6 +24,42 @@ public class DrawerFactory {
     private Object3D object3dv11;
     private Object3D object3dv12;
 
+    /**
+     * Geometry of the objects uploaded to the GPU. Shared by all the drawers
+     */
+    private final BufferObjects bufferObjects = new BufferObjects();
+
+    /**
+     * Textures of the objects uploaded to the GPU
+     */
+    private final TextureManager textureManager = new TextureManager();
+
+    /**
+     * OpenGL state shared by all the drawers
+     */
+    private final GLState state = new GLState();
+
+    /**
+     * @return the geometry of the objects uploaded to the GPU. It must be invalidated when the GL context is lost
+     */
+    public BufferObjects getBufferObjects() {
+        return bufferObjects;
+    }
+
+    /**
+     * @return the textures of the objects uploaded to the GPU. It must be invalidated when the GL context is lost
+     */
+    public TextureManager getTextureManager() {
+        return textureManager;
+    }
+
+    /**
+     * @return the OpenGL state shared by all the drawers, with the counters of the state changes
+     */
+    public GLState getState() {
+        return state;
+    }
+
     public Object3D getBoundingBoxDrawer() {
         return object3dv2;
     }
@@ -34,7 +70,7 @@ public class DrawerFactory {
 
     public Object3D getPointDrawer() {
         if (object3dv1 == null) {
-            object3dv1 = new Object3DV1();
+            object3dv1 = init(new Object3DV1());
         }
         return object3dv1;
     }
@@ -44,24 +80,32 @@ public class DrawerFactory {
         if (object3dv2 == null) {
             try {
                 getPointDrawer();
-                object3dv2 = new Object3DV2();
-                object3dv3 = new Object3DV3();
-                object3dv4 = new Object3DV4();
-                object3dv5 = new Object3DV5();
-                object3dv6 = new Object3DV6();
-                object3dv7 = new Object3DV7();
-                object3dv8 = new Object3DV8();
-                object3dv9 = new Object3DV9();
-                object3dv91 = new Object3DV91();
-                object3dv10 = new Object3DV10();
-                object3dv11 = new Object3DV11();
-                object3dv12 = new Object3DV12();
+                object3dv2 = init(new Object3DV2());
+                object3dv3 = init(new Object3DV3());
+                object3dv4 = init(new Object3DV4());
+                object3dv5 = init(new Object3DV5());
+                object3dv6 = init(new Object3DV6());
+                object3dv7 = init(new Object3DV7());
+                object3dv8 = init(new Object3DV8());
+                object3dv9 = init(new Object3DV9());
+                object3dv91 = init(new Object3DV91());
+                object3dv10 = init(new Object3DV10());
+                object3dv11 = init(new Object3DV11());
+                object3dv12 = init(new Object3DV12());
             } catch (Exception e) {
                 Log.e("Object3DBuilder", "Error creating drawer: " + e.getMessage(), e);
             }
         }
 
         boolean isAnimated = usingAnimation && obj instanceof AnimatedModel && ((AnimatedModel) obj).getAnimation() != null;
+        if (isAnimated && !((AnimatedModel) obj).isCpuSkinning()
+                && ((AnimatedModel) obj).getBoneCount() > Object3DImpl.MAX_JOINTS) {
+            Log.i("Object3DBuilder", "Too many joints for the shader (" + ((AnimatedModel) obj).getBoneCount()
+                    + "). Skinning '" + obj.getId() + "' in the CPU");
+            ((AnimatedModel) obj).setCpuSkinning(true);
+        }
+        // models skinned in the CPU are drawn like the static ones
+        isAnimated = isAnimated && !((AnimatedModel) obj).isCpuSkinning();
         boolean isUsingLights = usingLights && (obj.getNormals() != null || obj.getVertexNormalsArrayBuffer() != null);
         boolean isTextured = usingTextures && obj.getTextureData() != null && obj.getTextureCoordsArrayBuffer() != null;
         boolean isColoured = obj.getVertexColorsArrayBuffer() != null;
@@ -131,4 +175,11 @@ public class DrawerFactory {
             }
         }
     }
+
+    private Object3D init(Object3DImpl drawer) {
+        drawer.setBufferObjects(bufferObjects);
+        drawer.setTextureManager(textureManager);
+        drawer.setState(state);
+        return drawer;
+    }
 }
@@ -0,0 +1,264 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoder and decoder of ETC1 compressed textures (OES_compressed_ETC1_RGB8_texture), in plain java so textures can be
+ * converted offline. Every 4x4 block of pixels is stored in 8 bytes: 2 base colors, one for every half of the block,
+ * and a 2 bit modifier per pixel. ETC1 has no alpha. ETC1 data is also valid ETC2 RGB8 data.
+ * <p>
+ * The encoder tries both modes (individual and differential colors) and both orientations of the halves, using the
+ * average color of every half as its base color, and keeps the one with the lowest error. It's fast and good enough
+ * for model textures, although not as accurate as the encoders searching around the average color.
+ *
+ * @author andresoviedo
+ */
+public final class Etc1 {
+
+    /**
+     * Bytes of every 4x4 block
+     */
+    public static final int BLOCK_SIZE = 8;
+
+    /**
+     * Modifiers of every table: the pixel index 0 means +a, 1 means +b, 2 means -a and 3 means -b
+     */
+    private static final int[][] MODIFIERS = {
+            {2, 8}, {5, 17}, {9, 29}, {13, 42}, {18, 60}, {24, 80}, {33, 106}, {47, 183}
+    };
+
+    private Etc1() {
+    }
+
+    /**
+     * @return the bytes of the image once encoded. The size is rounded up to blocks of 4x4 pixels
+     */
+    public static int getEncodedSize(int width, int height) {
+        return ((width + 3) / 4) * ((height + 3) / 4) * BLOCK_SIZE;
+    }
+
+    /**
+     * @param rgba   the RGBA pixels of the image, 4 bytes per pixel, row by row. Alpha is ignored
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @return the ETC1 blocks, row by row
+     */
+    public static ByteBuffer encode(ByteBuffer rgba, int width, int height) {
+        final ByteBuffer blocks = TextureImage.newBuffer(getEncodedSize(width, height));
+        final int[] block = new int[16 * 3];
+        for (int by = 0; by < height; by += 4) {
+            for (int bx = 0; bx < width; bx += 4) {
+                // pixels out of the image repeat the last row or column
+                for (int y = 0; y < 4; y++) {
+                    for (int x = 0; x < 4; x++) {
+                        int i = (Math.min(by + y, height - 1) * width + Math.min(bx + x, width - 1)) * 4;
+                        int p = (y * 4 + x) * 3;
+                        block[p] = rgba.get(i) & 0xFF;
+                        block[p + 1] = rgba.get(i + 1) & 0xFF;
+                        block[p + 2] = rgba.get(i + 2) & 0xFF;
+                    }
+                }
+                // blocks are big endian
+                final long bits = encodeBlock(block);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    blocks.put((byte) (bits >> shift));
+                }
+            }
+        }
+        blocks.position(0);
+        return blocks;
+    }
+
+    /**
+     * @param blocks the ETC1 blocks, row by row, from the buffer position
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @return the RGBA pixels of the image, with alpha 255
+     */
+    public static ByteBuffer decode(ByteBuffer blocks, int width, int height) {
+        final ByteBuffer rgba = TextureImage.newBuffer(width * height * 4);
+        final int[] block = new int[16 * 3];
+        int offset = blocks.position();
+        for (int by = 0; by < height; by += 4) {
+            for (int bx = 0; bx < width; bx += 4) {
+                long bits = 0;
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    bits = (bits << 8) | (blocks.get(offset++) & 0xFF);
+                }
+                decodeBlock(bits, block);
+                for (int y = 0; y < 4 && by + y < height; y++) {
+                    for (int x = 0; x < 4 && bx + x < width; x++) {
+                        int i = ((by + y) * width + bx + x) * 4;
+                        int p = (y * 4 + x) * 3;
+                        rgba.put(i, (byte) block[p]);
+                        rgba.put(i + 1, (byte) block[p + 1]);
+                        rgba.put(i + 2, (byte) block[p + 2]);
+                        rgba.put(i + 3, (byte) 255);
+                    }
+                }
+            }
+        }
+        return rgba;
+    }
+
+    /**
+     * @param block the RGB of the 16 pixels, row by row
+     * @return the 64 bits of the block
+     */
+    private static long encodeBlock(int[] block) {
+        final int[][] quantized = new int[2][3];
+        final int[] base = new int[3];
+        final int[] tables = new int[2];
+        final int[][] indices = new int[2][8];
+        long bestBits = 0;
+        long bestError = Long.MAX_VALUE;
+        for (int flip = 0; flip < 2; flip++) {
+            for (int diff = 0; diff < 2; diff++) {
+                long error = 0;
+                for (int h = 0; h < 2; h++) {
+                    for (int c = 0; c < 3; c++) {
+                        int sum = 0;
+                        for (int k = 0; k < 8; k++) {
+                            sum += block[pixel(flip, h, k) * 3 + c];
+                        }
+                        // average, quantized to 4 or 5 bits
+                        final int max = diff == 0 ? 15 : 31;
+                        int q = (sum * max + 255 * 4) / (255 * 8);
+                        if (diff == 1 && h == 1) {
+                            // the second color is stored as a 3 bit difference with the first one
+                            q = Math.max(quantized[0][c] - 4, Math.min(quantized[0][c] + 3, q));
+                        }
+                        quantized[h][c] = q;
+                        base[c] = diff == 0 ? q * 17 : (q << 3) | (q >> 2);
+                    }
+                    error += encodeHalf(block, flip, h, base, tables, indices[h]);
+                }
+                if (error < bestError) {
+                    bestError = error;
+                    bestBits = pack(flip, diff, quantized, tables, indices);
+                }
+            }
+        }
+        return bestBits;
+    }
+
+    /**
+     * @return the index in the block of the pixel k of the half h
+     */
+    private static int pixel(int flip, int h, int k) {
+        if (flip == 0) {
+            // 2x4 halves, side by side
+            return (k >> 1) * 4 + h * 2 + (k & 1);
+        }
+        // 4x2 halves, one on top of the other
+        return (h * 2 + (k >> 2)) * 4 + (k & 3);
+    }
+
+    /**
+     * Choose the table and the modifiers of the half, given its base color
+     *
+     * @param tables  where the table of the half is set
+     * @param indices where the modifier of every pixel of the half is set
+     * @return the error of the half
+     */
+    private static long encodeHalf(int[] block, int flip, int h, int[] base, int[] tables, int[] indices) {
+        long bestError = Long.MAX_VALUE;
+        final int[] tableIndices = new int[8];
+        for (int t = 0; t < MODIFIERS.length; t++) {
+            long error = 0;
+            for (int k = 0; k < 8 && error < bestError; k++) {
+                final int p = pixel(flip, h, k) * 3;
+                int bestPixelError = Integer.MAX_VALUE;
+                for (int index = 0; index < 4; index++) {
+                    final int modifier = modifier(t, index);
+                    int pixelError = 0;
+                    for (int c = 0; c < 3; c++) {
+                        int d = clamp(base[c] + modifier) - block[p + c];
+                        pixelError += d * d;
+                    }
+                    if (pixelError < bestPixelError) {
+                        bestPixelError = pixelError;
+                        tableIndices[k] = index;
+                    }
+                }
+                error += bestPixelError;
+            }
+            if (error < bestError) {
+                bestError = error;
+                tables[h] = t;
+                System.arraycopy(tableIndices, 0, indices, 0, 8);
+            }
+        }
+        return bestError;
+    }
+
+    private static long pack(int flip, int diff, int[][] quantized, int[] tables, int[][] indices) {
+        long bits = 0;
+        for (int c = 0; c < 3; c++) {
+            int shift = 56 - c * 8;
+            if (diff == 0) {
+                bits |= (long) quantized[0][c] << (shift + 4);
+                bits |= (long) quantized[1][c] << shift;
+            } else {
+                bits |= (long) quantized[0][c] << (shift + 3);
+                bits |= (long) ((quantized[1][c] - quantized[0][c]) & 7) << shift;
+            }
+        }
+        bits |= (long) tables[0] << 37;
+        bits |= (long) tables[1] << 34;
+        bits |= (long) diff << 33;
+        bits |= (long) flip << 32;
+        for (int h = 0; h < 2; h++) {
+            for (int k = 0; k < 8; k++) {
+                final int p = pixel(flip, h, k);
+                // pixels are numbered by columns
+                final int j = (p & 3) * 4 + (p >> 2);
+                bits |= (long) (indices[h][k] >> 1) << (16 + j);
+                bits |= (long) (indices[h][k] & 1) << j;
+            }
+        }
+        return bits;
+    }
+
+    private static void decodeBlock(long bits, int[] block) {
+        final int flip = (int) (bits >> 32) & 1;
+        final int diff = (int) (bits >> 33) & 1;
+        final int[] table = {(int) (bits >> 37) & 7, (int) (bits >> 34) & 7};
+        final int[][] base = new int[2][3];
+        for (int c = 0; c < 3; c++) {
+            int shift = 56 - c * 8;
+            if (diff == 0) {
+                int c1 = (int) (bits >> (shift + 4)) & 15;
+                int c2 = (int) (bits >> shift) & 15;
+                base[0][c] = c1 * 17;
+                base[1][c] = c2 * 17;
+            } else {
+                int c1 = (int) (bits >> (shift + 3)) & 31;
+                // 3 bits two's complement
+                int c2 = c1 + (((int) (bits >> shift) & 7) << 29 >> 29);
+                base[0][c] = (c1 << 3) | (c1 >> 2);
+                base[1][c] = (c2 << 3) | (c2 >> 2);
+            }
+        }
+        for (int h = 0; h < 2; h++) {
+            for (int k = 0; k < 8; k++) {
+                final int p = pixel(flip, h, k);
+                final int j = (p & 3) * 4 + (p >> 2);
+                final int index = (int) ((bits >> (16 + j)) & 1) << 1 | (int) ((bits >> j) & 1);
+                final int modifier = modifier(table[h], index);
+                for (int c = 0; c < 3; c++) {
+                    block[p * 3 + c] = clamp(base[h][c] + modifier);
+                }
+            }
+        }
+    }
+
+    private static int modifier(int table, int index) {
+        final int value = MODIFIERS[table][index & 1];
+        return index < 2 ? value : -value;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+}
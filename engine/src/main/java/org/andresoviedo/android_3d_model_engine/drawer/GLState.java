@@ -0,0 +1,125 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import android.opengl.GLES20;
+
+/**
+ * Shadow copy of the OpenGL state changed by the drawers. Calls that would set the state to the value it already has
+ * are skipped, so consecutive objects drawn with the same program or texture don't issue the same calls again.
+ * <p>
+ * Vertex attribute arrays are enabled on demand and left enabled after drawing. Before drawing, the arrays that were
+ * enabled for a previous object but not requested for the current one are disabled.
+ * <p>
+ * All the changes to this state must go through this class. Otherwise call {@link #invalidate()}.
+ *
+ * @author andresoviedo
+ */
+public final class GLState {
+
+    private static final int UNKNOWN = -1;
+
+    private int program = UNKNOWN;
+    private int texture = UNKNOWN;
+    // bit mask of the vertex attribute arrays enabled
+    private int enabledAttributes;
+    // bit mask of the vertex attribute arrays requested for the next draw
+    private int requestedAttributes;
+
+    // counters
+    private long changes;
+    private long saved;
+
+    public void useProgram(int program) {
+        if (this.program == program) {
+            saved++;
+            return;
+        }
+        GLES20.glUseProgram(program);
+        this.program = program;
+        changes++;
+    }
+
+    /**
+     * Bind the texture to the texture unit 0, the only one used by the drawers
+     *
+     * @param texture the texture id
+     */
+    public void bindTexture(int texture) {
+        if (this.texture == texture) {
+            saved++;
+            return;
+        }
+        if (this.texture == UNKNOWN) {
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        this.texture = texture;
+        changes++;
+    }
+
+    /**
+     * Request the vertex attribute array for the next draw, enabling it if it's not already enabled
+     *
+     * @param location the attribute location
+     */
+    public void enableVertexAttribArray(int location) {
+        if (location < 0 || location >= 32) {
+            return;
+        }
+        int bit = 1 << location;
+        requestedAttributes |= bit;
+        if ((enabledAttributes & bit) != 0) {
+            saved++;
+            return;
+        }
+        GLES20.glEnableVertexAttribArray(location);
+        enabledAttributes |= bit;
+        changes++;
+    }
+
+    /**
+     * Disable the vertex attribute arrays not requested since the last draw. To be called just before drawing
+     */
+    public void disableUnusedVertexAttribArrays() {
+        int unused = enabledAttributes & ~requestedAttributes;
+        for (int location = 0; unused != 0; location++, unused >>>= 1) {
+            if ((unused & 1) != 0) {
+                GLES20.glDisableVertexAttribArray(location);
+                changes++;
+            }
+        }
+        enabledAttributes = requestedAttributes;
+        requestedAttributes = 0;
+    }
+
+    /**
+     * Forget the current program and texture, i.e. because a texture was bound while loading it
+     */
+    public void invalidate() {
+        program = UNKNOWN;
+        texture = UNKNOWN;
+    }
+
+    /**
+     * @return number of OpenGL calls issued to change the state
+     */
+    public long getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return number of OpenGL calls skipped because the state already had the requested value
+     */
+    public long getSaved() {
+        return saved;
+    }
+
+    public void resetCounters() {
+        changes = 0;
+        saved = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "GLState{changes=" + changes + ", saved=" + saved + "}";
+    }
+}
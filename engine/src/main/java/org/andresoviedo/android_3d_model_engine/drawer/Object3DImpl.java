@@ -5,17 +5,17 @@ import android.opengl.Matrix;
 import android.os.SystemClock;
 import android.util.Log;
 
+import org.andresoviedo.android_3d_model_engine.animation.CpuSkinner;
 import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
 import org.andresoviedo.android_3d_model_engine.model.Object3D;
 import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.model.TextureGroup;
 import org.andresoviedo.util.android.GLUtil;
 
 import java.nio.Buffer;
 import java.nio.FloatBuffer;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Abstract class that implements all calls to opengl to draw objects
@@ -26,6 +26,24 @@ import java.util.Map;
  */
 public abstract class Object3DImpl implements Object3D {
 
+    // shader variables whose location is resolved once the program is linked. attributes go first
+    protected static final int A_POSITION = 0;
+    protected static final int A_COLOR = 1;
+    protected static final int A_NORMAL = 2;
+    protected static final int A_TEX_COORDINATE = 3;
+    protected static final int IN_WEIGHTS = 4;
+    protected static final int IN_JOINT_INDICES = 5;
+    protected static final int U_MVP_MATRIX = 6;
+    protected static final int U_MV_MATRIX = 7;
+    protected static final int U_LIGHT_POS = 8;
+    protected static final int U_TEXTURE = 9;
+    protected static final int V_COLOR = 10;
+    private static final String[] LOCATION_NAMES = {"a_Position", "a_Color", "a_Normal", "a_TexCoordinate",
+            "in_weights", "in_jointIndices", "u_MVPMatrix", "u_MVMatrix", "u_LightPos", "u_Texture", "vColor"};
+    private static final int FIRST_UNIFORM = U_MVP_MATRIX;
+    // size of the jointTransforms uniform of the skeleton shaders
+    static final int MAX_JOINTS = 60;
+
     private final String id;
     // Transformations
     private final float[] mMatrix = new float[16];
@@ -43,7 +61,25 @@ public abstract class Object3DImpl implements Object3D {
     // does the device support drawElements for GL_UNSIGNED_INT or not?
     private boolean drawUsingUnsignedInt = true;
 
-    protected final Map<Integer, String> cache1 = new HashMap<>();
+    // locations of the shader variables, indexed by A_POSITION, A_COLOR...
+    private final int[] locations = new int[LOCATION_NAMES.length];
+    // locations of the jointTransforms[i] uniforms. null if the shader has no skeleton
+    private final int[] jointTransformLocations;
+    // whether drawing elements using GL_UNSIGNED_INT was already checked
+    private boolean drawUsingUnsignedIntChecked;
+
+    // current OpenGL state. shared by all the drawers of the same context
+    private GLState state = new GLState();
+    // buffer objects of the objects in the GPU. null to draw using client side arrays
+    private BufferObjects bufferObjects;
+    // buffer objects of the object being drawn
+    private int[] bufferHandles;
+    // textures of the objects. null to draw all the triangles with the texture of the object
+    private TextureManager textureManager;
+    // texture of the object being drawn. -1 if it's drawn without texture
+    private int textureId = -1;
+    // skinner of the object being drawn, if it's skinned in the CPU
+    private CpuSkinner skinner;
 
     public Object3DImpl(String id, String vertexShaderCode, String fragmentShaderCode, String... variables) {
         this.id = id;
@@ -53,6 +89,78 @@ public abstract class Object3DImpl implements Object3D {
         int fragmentShader = GLUtil.loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode);
         mProgram = GLUtil.createAndLinkProgram(vertexShader, fragmentShader, variables);
         Log.i("Object3DImpl", "Compiled 3D Drawer (" + id + ") with id " + mProgram);
+
+        // resolve the locations now, so there is no need to query the driver on every draw
+        List<String> boundAttributes = Arrays.asList(variables);
+        for (int i = 0; i < LOCATION_NAMES.length; i++) {
+            if (i < FIRST_UNIFORM) {
+                // variables were bound to their index when linking the program
+                locations[i] = boundAttributes.indexOf(LOCATION_NAMES[i]);
+                if (locations[i] == -1) {
+                    locations[i] = GLES20.glGetAttribLocation(mProgram, LOCATION_NAMES[i]);
+                }
+            } else {
+                locations[i] = GLES20.glGetUniformLocation(mProgram, LOCATION_NAMES[i]);
+            }
+        }
+        if (vertexShaderCode.contains("jointTransforms")) {
+            jointTransformLocations = new int[MAX_JOINTS];
+            for (int i = 0; i < MAX_JOINTS; i++) {
+                jointTransformLocations[i] = GLES20.glGetUniformLocation(mProgram, "jointTransforms[" + i + "]");
+            }
+        } else {
+            jointTransformLocations = null;
+        }
+        GLUtil.checkGlError("glGetUniformLocation");
+    }
+
+    /**
+     * @param variable one of {@link #A_POSITION}, {@link #A_COLOR}, {@link #U_MVP_MATRIX}...
+     * @return the location of the variable in the program, or -1 if the program doesn't have it
+     */
+    protected final int getLocation(int variable) {
+        return locations[variable];
+    }
+
+    /**
+     * @param joint index of the joint
+     * @return the location of the <code>jointTransforms[joint]</code> uniform, or -1 if the program doesn't have it
+     */
+    protected final int getJointTransformLocation(int joint) {
+        return jointTransformLocations != null && joint < MAX_JOINTS ? jointTransformLocations[joint] : -1;
+    }
+
+    /**
+     * @param bufferObjects the buffer objects where to upload the geometry of the objects before drawing them
+     */
+    void setBufferObjects(BufferObjects bufferObjects) {
+        this.bufferObjects = bufferObjects;
+    }
+
+    /**
+     * @param textureManager the textures of the objects, so the triangles of every texture group are drawn with
+     *                       their own texture
+     */
+    void setTextureManager(TextureManager textureManager) {
+        this.textureManager = textureManager;
+    }
+
+    /**
+     * @param state the OpenGL state shared with the other drawers
+     */
+    void setState(GLState state) {
+        this.state = state;
+    }
+
+    protected final GLState getState() {
+        return state;
+    }
+
+    /**
+     * @return the OpenGL program of this drawer
+     */
+    public int getProgram() {
+        return mProgram;
     }
 
     @Override
@@ -67,7 +175,23 @@ public abstract class Object3DImpl implements Object3D {
         // Log.d("Object3DImpl", "Drawing '" + obj.getId() + "' using shader '" + id + "'...");
 
         // Add program to OpenGL environment
-        GLES20.glUseProgram(mProgram);
+        state.useProgram(mProgram);
+
+        // objects still being loaded are drawn from the client arrays, since they are still being filled
+        bufferHandles = null;
+        if (bufferObjects != null && (obj.getFaces() == null || obj.getFaces().loaded())) {
+            bufferHandles = bufferObjects.getHandles(obj);
+        }
+
+        // models skinned in the CPU are drawn from their skinned vertices, which change every frame
+        skinner = null;
+        if (obj instanceof AnimatedModel && ((AnimatedModel) obj).isCpuSkinning()
+                && ((AnimatedModel) obj).getPose() != null && (obj.getFaces() == null || obj.getFaces().loaded())) {
+            skinner = ((AnimatedModel) obj).getSkinner();
+            if (skinner != null) {
+                skinner.skin(((AnimatedModel) obj).getJointTransforms());
+            }
+        }
 
         float[] mMatrix = getMMatrix(obj);
         float[] mvMatrix = getMvMatrix(mMatrix, vMatrix);
@@ -75,23 +199,22 @@ public abstract class Object3DImpl implements Object3D {
 
         setMvpMatrix(mvpMatrix);
 
-        int mPositionHandle = setPosition(obj);
+        setPosition(obj);
 
-        int mColorHandle = -1;
         if (supportsColors()) {
-            mColorHandle = setColors(obj);
+            setColors(obj);
         } else {
             setColor(obj);
         }
 
-        int mTextureHandle = -1;
+        this.textureId = -1;
         if (textureId != -1 && supportsTextures()) {
             setTexture(obj, textureId);
+            this.textureId = textureId;
         }
 
-        int mNormalHandle = -1;
         if (supportsNormals()) {
-            mNormalHandle = setNormals(obj);
+            setNormals(obj);
         }
 
         if (supportsMvMatrix()) {
@@ -108,22 +231,16 @@ public abstract class Object3DImpl implements Object3D {
             setLightPos(lightPos);
         }
 
-        drawShape(obj, drawMode, drawSize);
+        // arrays of the previous object are left enabled, unless this one doesn't use them
+        state.disableUnusedVertexAttribArrays();
 
-        // Disable vertex array
-        GLES20.glDisableVertexAttribArray(mPositionHandle);
-
-        if (mColorHandle != -1) {
-            GLES20.glDisableVertexAttribArray(mColorHandle);
-        }
-
-        // Disable vertex array
-        if (mTextureHandle != -1) {
-            GLES20.glDisableVertexAttribArray(mTextureHandle);
-        }
+        drawShape(obj, drawMode, drawSize);
 
-        if (mNormalHandle != -1) {
-            GLES20.glDisableVertexAttribArray(mNormalHandle);
+        if (bufferHandles != null) {
+            // other drawers may still use client side arrays
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+            bufferHandles = null;
         }
     }
 
@@ -158,8 +275,7 @@ public abstract class Object3DImpl implements Object3D {
     protected void setMvpMatrix(float[] mvpMatrix) {
 
         // get handle to shape's transformation matrix
-        int mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "u_MVPMatrix");
-        GLUtil.checkGlError("glGetUniformLocation");
+        int mMVPMatrixHandle = locations[U_MVP_MATRIX];
 
         // Apply the projection and view transformation
         GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrix, 0);
@@ -173,8 +289,7 @@ public abstract class Object3DImpl implements Object3D {
     protected void setColor(Object3DData obj) {
 
         // get handle to fragment shader's vColor member
-        int mColorHandle = GLES20.glGetUniformLocation(mProgram, "vColor");
-        GLUtil.checkGlError("glGetUniformLocation");
+        int mColorHandle = locations[V_COLOR];
 
         // Set color for drawing the triangle
         float[] color = obj.getColor() != null ? obj.getColor() : DEFAULT_COLOR;
@@ -185,15 +300,18 @@ public abstract class Object3DImpl implements Object3D {
     protected int setColors(Object3DData obj) {
 
         // get handle to fragment shader's vColor member
-        int mColorHandle = GLES20.glGetAttribLocation(mProgram, "a_Color");
-        GLUtil.checkGlError("glGetAttribLocation");
+        int mColorHandle = locations[A_COLOR];
 
         // Pass in the color information
-        GLES20.glEnableVertexAttribArray(mColorHandle);
+        state.enableVertexAttribArray(mColorHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
 
-        obj.getVertexColorsArrayBuffer().position(0);
-        GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false, 0, obj.getVertexColorsArrayBuffer());
+        if (bindArrayBuffer(BufferObjects.COLORS)) {
+            GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false, 0, 0);
+        } else {
+            obj.getVertexColorsArrayBuffer().position(0);
+            GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false, 0, obj.getVertexColorsArrayBuffer());
+        }
         GLUtil.checkGlError("glVertexAttribPointer");
 
         return mColorHandle;
@@ -202,18 +320,25 @@ public abstract class Object3DImpl implements Object3D {
     protected int setPosition(Object3DData obj) {
 
         // get handle to vertex shader's a_Position member
-        int mPositionHandle = GLES20.glGetAttribLocation(mProgram, "a_Position");
-        GLUtil.checkGlError("glGetAttribLocation");
+        int mPositionHandle = locations[A_POSITION];
 
         // Enable a handle to the triangle vertices
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
+        state.enableVertexAttribArray(mPositionHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
 
-        FloatBuffer vertexBuffer = obj.getVertexArrayBuffer() != null ? obj.getVertexArrayBuffer()
-                : obj.getVertexBuffer();
-        vertexBuffer.position(0);
-        GLES20.glVertexAttribPointer(mPositionHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, VERTEX_STRIDE,
-                vertexBuffer);
+        if (skinner != null) {
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            GLES20.glVertexAttribPointer(mPositionHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, VERTEX_STRIDE,
+                    skinner.getPositions());
+        } else if (bindArrayBuffer(BufferObjects.POSITION)) {
+            GLES20.glVertexAttribPointer(mPositionHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, VERTEX_STRIDE, 0);
+        } else {
+            FloatBuffer vertexBuffer = obj.getVertexArrayBuffer() != null ? obj.getVertexArrayBuffer()
+                    : obj.getVertexBuffer();
+            vertexBuffer.position(0);
+            GLES20.glVertexAttribPointer(mPositionHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, VERTEX_STRIDE,
+                    vertexBuffer);
+        }
         GLUtil.checkGlError("glVertexAttribPointer");
 
         return mPositionHandle;
@@ -224,16 +349,22 @@ public abstract class Object3DImpl implements Object3D {
     }
 
     protected int setNormals(Object3DData obj) {
-        int mNormalHandle = GLES20.glGetAttribLocation(mProgram, "a_Normal");
-        GLUtil.checkGlError("glGetAttribLocation");
+        int mNormalHandle = locations[A_NORMAL];
 
-        GLES20.glEnableVertexAttribArray(mNormalHandle);
+        state.enableVertexAttribArray(mNormalHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
 
         // Pass in the normal information
-        FloatBuffer buffer = obj.getVertexNormalsArrayBuffer() != null ? obj.getVertexNormalsArrayBuffer() : obj.getNormals();
-        buffer.position(0);
-        GLES20.glVertexAttribPointer(mNormalHandle, 3, GLES20.GL_FLOAT, false, 0, buffer);
+        if (skinner != null && skinner.getNormals() != null) {
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            GLES20.glVertexAttribPointer(mNormalHandle, 3, GLES20.GL_FLOAT, false, 0, skinner.getNormals());
+        } else if (bindArrayBuffer(BufferObjects.NORMALS)) {
+            GLES20.glVertexAttribPointer(mNormalHandle, 3, GLES20.GL_FLOAT, false, 0, 0);
+        } else {
+            FloatBuffer buffer = obj.getVertexNormalsArrayBuffer() != null ? obj.getVertexNormalsArrayBuffer() : obj.getNormals();
+            buffer.position(0);
+            GLES20.glVertexAttribPointer(mNormalHandle, 3, GLES20.GL_FLOAT, false, 0, buffer);
+        }
 
         return mNormalHandle;
     }
@@ -243,7 +374,7 @@ public abstract class Object3DImpl implements Object3D {
     }
 
     protected void setLightPos(float[] lightPosInEyeSpace) {
-        int mLightPosHandle = GLES20.glGetUniformLocation(mProgram, "u_LightPos");
+        int mLightPosHandle = locations[U_LIGHT_POS];
         // Pass in the light position in eye space.
         GLES20.glUniform3f(mLightPosHandle, lightPosInEyeSpace[0], lightPosInEyeSpace[1], lightPosInEyeSpace[2]);
     }
@@ -253,8 +384,7 @@ public abstract class Object3DImpl implements Object3D {
     }
 
     protected void setMvMatrix(float[] mvMatrix) {
-        int mMVMatrixHandle = GLES20.glGetUniformLocation(mProgram, "u_MVMatrix");
-        GLUtil.checkGlError("glGetUniformLocation");
+        int mMVMatrixHandle = locations[U_MV_MATRIX];
 
         // Pass in the modelview matrix.
         GLES20.glUniformMatrix4fv(mMVMatrixHandle, 1, false, mvMatrix, 0);
@@ -266,37 +396,62 @@ public abstract class Object3DImpl implements Object3D {
     }
 
     protected int setTexture(Object3DData obj, int textureId) {
-        int mTextureUniformHandle = GLES20.glGetUniformLocation(mProgram, "u_Texture");
-        GLUtil.checkGlError("glGetUniformLocation");
+        int mTextureUniformHandle = locations[U_TEXTURE];
 
-        // Set the active texture unit to texture unit 0.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLUtil.checkGlError("glActiveTexture");
-
-        // Bind to the texture in OpenGL
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        // Bind to the texture in OpenGL, using the texture unit 0
+        state.bindTexture(textureId);
         GLUtil.checkGlError("glBindTexture");
 
         // Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0.
         GLES20.glUniform1i(mTextureUniformHandle, 0);
         GLUtil.checkGlError("glUniform1i");
 
-        int mTextureCoordinateHandle = GLES20.glGetAttribLocation(mProgram, "a_TexCoordinate");
-        GLUtil.checkGlError("glGetAttribLocation");
+        int mTextureCoordinateHandle = locations[A_TEX_COORDINATE];
 
         // Enable a handle to the triangle vertices
-        GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
+        state.enableVertexAttribArray(mTextureCoordinateHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
 
         // Prepare the triangle coordinate data
-        obj.getTextureCoordsArrayBuffer().position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordinateHandle, 2, GLES20.GL_FLOAT, false, 0,
-                obj.getTextureCoordsArrayBuffer());
+        if (bindArrayBuffer(BufferObjects.TEXTURE_COORDS)) {
+            GLES20.glVertexAttribPointer(mTextureCoordinateHandle, 2, GLES20.GL_FLOAT, false, 0, 0);
+        } else {
+            obj.getTextureCoordsArrayBuffer().position(0);
+            GLES20.glVertexAttribPointer(mTextureCoordinateHandle, 2, GLES20.GL_FLOAT, false, 0,
+                    obj.getTextureCoordsArrayBuffer());
+        }
         GLUtil.checkGlError("glVertexAttribPointer");
 
         return mTextureCoordinateHandle;
     }
 
+    /**
+     * Bind the vertex buffer object of the specified attribute, if the object is in the GPU
+     *
+     * @param attribute one of the {@link BufferObjects} attributes
+     * @return <code>true</code> if the buffer was bound, so the attribute pointer is an offset in the buffer,
+     * <code>false</code> if the client side array must be used
+     */
+    private boolean bindArrayBuffer(int attribute) {
+        int handle = bufferHandles != null ? bufferHandles[attribute] : 0;
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, handle);
+        return handle != 0;
+    }
+
+    /**
+     * Check, only once, whether the last glDrawElements using GL_UNSIGNED_INT failed. This is checked even if
+     * {@link GLUtil#isDebug()} is disabled, since some devices don't support it and short indices must be used
+     */
+    private void checkDrawUsingUnsignedInt() {
+        if (drawUsingUnsignedInt && !drawUsingUnsignedIntChecked) {
+            drawUsingUnsignedIntChecked = true;
+            if (GLUtil.hasGlError("glDrawElements")) {
+                Log.w("Object3DImpl", "glDrawElements using GL_UNSIGNED_INT not supported. Using GL_UNSIGNED_SHORT");
+                drawUsingUnsignedInt = false;
+            }
+        }
+    }
+
     protected void drawShape(Object3DData obj, int drawMode, int drawSize) {
         FloatBuffer vertexBuffer = obj.getVertexArrayBuffer() != null ? obj.getVertexArrayBuffer()
                 : obj.getVertexBuffer();
@@ -314,7 +469,35 @@ public abstract class Object3DImpl implements Object3D {
             drawOrderBuffer = null;
         }
 
-        if (drawModeList != null) {
+        if (drawOrderBuffer != null && drawUsingUnsignedInt && !drawUsingUnsignedIntChecked) {
+            // clear previous errors, so the next check only refers to glDrawElements
+            GLUtil.hasGlError("before glDrawElements");
+        }
+
+        // the index buffer object has the int indices
+        int indexBuffer = bufferHandles != null && drawUsingUnsignedInt ? bufferHandles[BufferObjects.INDICES] : 0;
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+
+        if (drawModeList == null && drawSize <= 0 && drawMode == GLES20.GL_TRIANGLES && textureId != -1
+                && textureManager != null && obj.getTextureGroups() != null) {
+            // a draw call per texture. the triangles are sorted by texture
+            for (TextureGroup group : obj.getTextureGroups()) {
+                int groupTextureId = group.getTextureFile() != null ?
+                        textureManager.get(group, group.getTextureData()) : 0;
+                state.bindTexture(groupTextureId != 0 ? groupTextureId : textureId);
+                if (drawOrderBuffer == null) {
+                    GLES20.glDrawArrays(drawMode, group.getStart(), group.getCount());
+                } else if (indexBuffer != 0) {
+                    GLES20.glDrawElements(drawMode, group.getCount(), drawBufferType, group.getStart() * 4);
+                } else {
+                    drawOrderBuffer.position(group.getStart());
+                    GLES20.glDrawElements(drawMode, group.getCount(), drawBufferType, drawOrderBuffer);
+                }
+            }
+            if (drawOrderBuffer != null) {
+                checkDrawUsingUnsignedInt();
+            }
+        } else if (drawModeList != null) {
             if (drawOrderBuffer == null) {
                 Log.d(obj.getId(), "Drawing single polygons using arrays...");
                 for (int j = 0; j < drawModeList.size(); j++) {
@@ -340,11 +523,13 @@ public abstract class Object3DImpl implements Object3D {
                     int drawModePolygon = drawPart[0];
                     int vertexPos = drawPart[1];
                     int drawSizePolygon = drawPart[2];
-                    drawOrderBuffer.position(vertexPos);
-                    GLES20.glDrawElements(drawModePolygon, drawSizePolygon, drawBufferType, drawOrderBuffer);
-                    if (drawUsingUnsignedInt && GLUtil.checkGlError("glDrawElements")){
-                        drawUsingUnsignedInt = false;
+                    if (indexBuffer != 0) {
+                        GLES20.glDrawElements(drawModePolygon, drawSizePolygon, drawBufferType, vertexPos * 4);
+                    } else {
+                        drawOrderBuffer.position(vertexPos);
+                        GLES20.glDrawElements(drawModePolygon, drawSizePolygon, drawBufferType, drawOrderBuffer);
                     }
+                    checkDrawUsingUnsignedInt();
                 }
             }
         } else {
@@ -352,21 +537,25 @@ public abstract class Object3DImpl implements Object3D {
                 if (drawSize <= 0) {
                     // String mode = drawMode == GLES20.GL_POINTS ? "Points" : drawMode == GLES20.GL_LINES? "Lines": "Triangles?";
                     // Log.v(obj.getId(),"Drawing all elements with mode '"+drawMode+"'...");
-                    drawOrderBuffer.position(0);
-                    GLES20.glDrawElements(drawMode, drawOrderBuffer.capacity(), drawBufferType,
-                            drawOrderBuffer);
-                    if (drawUsingUnsignedInt && GLUtil.checkGlError("glDrawElements")){
-                        drawUsingUnsignedInt = false;
+                    if (indexBuffer != 0) {
+                        GLES20.glDrawElements(drawMode, drawOrderBuffer.capacity(), drawBufferType, 0);
+                    } else {
+                        drawOrderBuffer.position(0);
+                        GLES20.glDrawElements(drawMode, drawOrderBuffer.capacity(), drawBufferType,
+                                drawOrderBuffer);
                     }
+                    checkDrawUsingUnsignedInt();
                 } else {
                     //Log.d(obj.getId(),"Drawing single elements of size '"+drawSize+"'...");
                     for (int i = 0; i < drawOrderBuffer.capacity(); i += drawSize) {
-                        drawOrderBuffer.position(i);
-                        GLES20.glDrawElements(drawMode, drawSize, drawBufferType, drawOrderBuffer);
-                    }
-                    if (drawUsingUnsignedInt && GLUtil.checkGlError("glDrawElements")){
-                        drawUsingUnsignedInt = false;
+                        if (indexBuffer != 0) {
+                            GLES20.glDrawElements(drawMode, drawSize, drawBufferType, i * 4);
+                        } else {
+                            drawOrderBuffer.position(i);
+                            GLES20.glDrawElements(drawMode, drawSize, drawBufferType, drawOrderBuffer);
+                        }
                     }
+                    checkDrawUsingUnsignedInt();
                 }
             } else {
                 if (drawSize <= 0) {
@@ -887,25 +1076,23 @@ class Object3DV10 extends Object3DImpl {
 
         AnimatedModel animatedModel = (AnimatedModel) obj;
 
-        GLES20.glUseProgram(mProgram);
+        getState().useProgram(mProgram);
 
-        int in_weightsHandle = GLES20.glGetAttribLocation(mProgram, "in_weights");
-        GLUtil.checkGlError("glGetAttribLocation");
+        int in_weightsHandle = getLocation(IN_WEIGHTS);
         if (in_weightsHandle < 0) {
             throw new RuntimeException("handle 'in_weights' not found");
         }
-        GLES20.glEnableVertexAttribArray(in_weightsHandle);
+        getState().enableVertexAttribArray(in_weightsHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
         animatedModel.getVertexWeights().position(0);
         GLES20.glVertexAttribPointer(in_weightsHandle, 3, GLES20.GL_FLOAT, false, 0, animatedModel.getVertexWeights());
         GLUtil.checkGlError("glVertexAttribPointer");
 
-        int in_jointIndicesHandle = GLES20.glGetAttribLocation(mProgram, "in_jointIndices");
-        GLUtil.checkGlError("glGetAttribLocation");
+        int in_jointIndicesHandle = getLocation(IN_JOINT_INDICES);
         if (in_jointIndicesHandle < 0) {
             throw new RuntimeException("handle 'in_jointIndicesHandle' not found");
         }
-        GLES20.glEnableVertexAttribArray(in_jointIndicesHandle);
+        getState().enableVertexAttribArray(in_jointIndicesHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
         animatedModel.getJointIds().position(0);
         GLES20.glVertexAttribPointer(in_jointIndicesHandle, 3, GLES20.GL_FLOAT, false, 0, animatedModel.getJointIds());
@@ -915,25 +1102,17 @@ class Object3DV10 extends Object3DImpl {
         float[][] jointTransformsArray = animatedModel.getJointTransforms();
         // get handle to fragment shader's vColor member
 
-        List<Integer> handles = new ArrayList<>();
         for (int i = 0; i < jointTransformsArray.length; i++) {
             float[] jointTransforms = jointTransformsArray[i];
-            int jointTransformsHandle = GLES20.glGetUniformLocation(mProgram, "jointTransforms[" + i + "]");
+            int jointTransformsHandle = getJointTransformLocation(i);
             if (jointTransformsHandle < 0) {
                 throw new RuntimeException("handle 'jointTransformsHandle[" + i + "]' not found");
             }
-            GLUtil.checkGlError("glGetUniformLocation");
             GLES20.glUniformMatrix4fv(jointTransformsHandle, 1, false, jointTransforms, 0);
-            handles.add(jointTransformsHandle);
         }
 
         super.draw(obj, pMatrix, vMatrix, drawMode, drawSize, textureId, lightPos);
 
-        GLES20.glDisableVertexAttribArray(in_weightsHandle);
-        GLES20.glDisableVertexAttribArray(in_jointIndicesHandle);
-        for (int i : handles) {
-            //GLES20.glDisableVertexAttribArray(i);
-        }
     }
 
     @Override
@@ -1041,25 +1220,23 @@ class Object3DV11 extends Object3DImpl {
 
         AnimatedModel animatedModel = (AnimatedModel) obj;
 
-        GLES20.glUseProgram(mProgram);
+        getState().useProgram(mProgram);
 
-        int in_weightsHandle = GLES20.glGetAttribLocation(mProgram, "in_weights");
-        GLUtil.checkGlError("glGetAttribLocation");
+        int in_weightsHandle = getLocation(IN_WEIGHTS);
         if (in_weightsHandle < 0) {
             throw new RuntimeException("handle 'in_weights' not found");
         }
-        GLES20.glEnableVertexAttribArray(in_weightsHandle);
+        getState().enableVertexAttribArray(in_weightsHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
         animatedModel.getVertexWeights().position(0);
         GLES20.glVertexAttribPointer(in_weightsHandle, 3, GLES20.GL_FLOAT, false, 0, animatedModel.getVertexWeights());
         GLUtil.checkGlError("glVertexAttribPointer");
 
-        int in_jointIndicesHandle = GLES20.glGetAttribLocation(mProgram, "in_jointIndices");
-        GLUtil.checkGlError("glGetAttribLocation");
+        int in_jointIndicesHandle = getLocation(IN_JOINT_INDICES);
         if (in_jointIndicesHandle < 0) {
             throw new RuntimeException("handle 'in_jointIndicesHandle' not found");
         }
-        GLES20.glEnableVertexAttribArray(in_jointIndicesHandle);
+        getState().enableVertexAttribArray(in_jointIndicesHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
         animatedModel.getJointIds().position(0);
         GLES20.glVertexAttribPointer(in_jointIndicesHandle, 3, GLES20.GL_FLOAT, false, 0, animatedModel.getJointIds());
@@ -1069,25 +1246,17 @@ class Object3DV11 extends Object3DImpl {
         float[][] jointTransformsArray = animatedModel.getJointTransforms();
         // get handle to fragment shader's vColor member
 
-        List<Integer> handles = new ArrayList<Integer>();
         for (int i = 0; i < jointTransformsArray.length; i++) {
             float[] jointTransforms = jointTransformsArray[i];
-            int jointTransformsHandle = GLES20.glGetUniformLocation(mProgram, "jointTransforms[" + i + "]");
+            int jointTransformsHandle = getJointTransformLocation(i);
             if (jointTransformsHandle < 0) {
                 throw new RuntimeException("handle 'jointTransformsHandle[" + i + "]' not found");
             }
-            GLUtil.checkGlError("glGetUniformLocation");
             GLES20.glUniformMatrix4fv(jointTransformsHandle, 1, false, jointTransforms, 0);
-            handles.add(jointTransformsHandle);
         }
 
         super.draw(obj, pMatrix, vMatrix, drawMode, drawSize, textureId, lightPos);
 
-        GLES20.glDisableVertexAttribArray(in_weightsHandle);
-        GLES20.glDisableVertexAttribArray(in_jointIndicesHandle);
-        for (int i : handles) {
-            //GLES20.glDisableVertexAttribArray(i);
-        }
     }
 
     @Override
@@ -1183,25 +1352,23 @@ class Object3DV12 extends Object3DImpl {
 
         AnimatedModel animatedModel = (AnimatedModel) obj;
 
-        GLES20.glUseProgram(mProgram);
+        getState().useProgram(mProgram);
 
-        int in_weightsHandle = GLES20.glGetAttribLocation(mProgram, "in_weights");
-        GLUtil.checkGlError("glGetAttribLocation");
+        int in_weightsHandle = getLocation(IN_WEIGHTS);
         if (in_weightsHandle < 0) {
             throw new RuntimeException("handle 'in_weights' not found");
         }
-        GLES20.glEnableVertexAttribArray(in_weightsHandle);
+        getState().enableVertexAttribArray(in_weightsHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
         animatedModel.getVertexWeights().position(0);
         GLES20.glVertexAttribPointer(in_weightsHandle, 3, GLES20.GL_FLOAT, false, 0, animatedModel.getVertexWeights());
         GLUtil.checkGlError("glVertexAttribPointer");
 
-        int in_jointIndicesHandle = GLES20.glGetAttribLocation(mProgram, "in_jointIndices");
-        GLUtil.checkGlError("glGetAttribLocation");
+        int in_jointIndicesHandle = getLocation(IN_JOINT_INDICES);
         if (in_jointIndicesHandle < 0) {
             throw new RuntimeException("handle 'in_jointIndicesHandle' not found");
         }
-        GLES20.glEnableVertexAttribArray(in_jointIndicesHandle);
+        getState().enableVertexAttribArray(in_jointIndicesHandle);
         GLUtil.checkGlError("glEnableVertexAttribArray");
         animatedModel.getJointIds().position(0);
         GLES20.glVertexAttribPointer(in_jointIndicesHandle, 3, GLES20.GL_FLOAT, false, 0, animatedModel.getJointIds());
@@ -1211,24 +1378,16 @@ class Object3DV12 extends Object3DImpl {
         float[][] jointTransformsArray = animatedModel.getJointTransforms();
         // get handle to fragment shader's vColor member
 
-        List<Integer> handles = new ArrayList<>();
         for (int i = 0; i < jointTransformsArray.length; i++) {
             float[] jointTransforms = jointTransformsArray[i];
-            int jointTransformsHandle = GLES20.glGetUniformLocation(mProgram, "jointTransforms[" + i + "]");
+            int jointTransformsHandle = getJointTransformLocation(i);
             if (jointTransformsHandle < 0) {
                 throw new RuntimeException("handle 'jointTransformsHandle[" + i + "]' not found");
             }
-            GLUtil.checkGlError("glGetUniformLocation");
             GLES20.glUniformMatrix4fv(jointTransformsHandle, 1, false, jointTransforms, 0);
-            handles.add(jointTransformsHandle);
         }
 
         super.draw(obj, pMatrix, vMatrix, drawMode, drawSize, textureId, lightPos);
 
-        GLES20.glDisableVertexAttribArray(in_weightsHandle);
-        GLES20.glDisableVertexAttribArray(in_jointIndicesHandle);
-        for (int i : handles) {
-            //GLES20.glDisableVertexAttribArray(i);
-        }
     }
 }
\ No newline at end of file
@@ -6,9 +6,6 @@ import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
 import org.andresoviedo.android_3d_model_engine.model.Object3DData;
 import org.andresoviedo.util.android.GLUtil;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Draw using single color, texture and skeleton and light
  *
@@ -107,25 +104,23 @@ class Object3DV9 extends Object3DImpl {
 
 		AnimatedModel animatedModel = (AnimatedModel) obj;
 
-		GLES20.glUseProgram(mProgram);
+		getState().useProgram(mProgram);
 
-		int in_weightsHandle = GLES20.glGetAttribLocation(mProgram, "in_weights");
-		GLUtil.checkGlError("glGetAttribLocation");
+		int in_weightsHandle = getLocation(IN_WEIGHTS);
 		if (in_weightsHandle < 0){
 			throw new RuntimeException("handle 'in_weights' not found");
 		}
-		GLES20.glEnableVertexAttribArray(in_weightsHandle);
+		getState().enableVertexAttribArray(in_weightsHandle);
 		GLUtil.checkGlError("glEnableVertexAttribArray");
 		animatedModel.getVertexWeights().position(0);
 		GLES20.glVertexAttribPointer(in_weightsHandle, 3, GLES20.GL_FLOAT, false, 0, animatedModel.getVertexWeights());
 		GLUtil.checkGlError("glVertexAttribPointer");
 
-		int in_jointIndicesHandle = GLES20.glGetAttribLocation(mProgram, "in_jointIndices");
-		GLUtil.checkGlError("glGetAttribLocation");
+		int in_jointIndicesHandle = getLocation(IN_JOINT_INDICES);
 		if (in_jointIndicesHandle < 0){
 			throw new RuntimeException("handle 'in_jointIndicesHandle' not found");
 		}
-		GLES20.glEnableVertexAttribArray(in_jointIndicesHandle);
+		getState().enableVertexAttribArray(in_jointIndicesHandle);
 		GLUtil.checkGlError("glEnableVertexAttribArray");
 		animatedModel.getJointIds().position(0);
 		GLES20.glVertexAttribPointer(in_jointIndicesHandle, 3, GLES20.GL_FLOAT, false, 0, animatedModel.getJointIds());
@@ -134,26 +129,16 @@ class Object3DV9 extends Object3DImpl {
 
 		float[][] jointTransformsArray = animatedModel.getJointTransforms();
 		// get handle to fragment shader's vColor member
-
-		List<Integer> handles = new ArrayList<>();
 		for (int i=0; i<jointTransformsArray.length; i++){
 			float[] jointTransform = jointTransformsArray[i];
-			int jointTransformsHandle = GLES20.glGetUniformLocation(mProgram, "jointTransforms["+i+"]");
+			int jointTransformsHandle = getJointTransformLocation(i);
 			if (jointTransformsHandle < 0){
 				throw new RuntimeException("handle 'jointTransformsHandle["+i+"]' not found");
 			}
-			GLUtil.checkGlError("glGetUniformLocation");
 			GLES20.glUniformMatrix4fv(jointTransformsHandle, 1, false, jointTransform, 0);
-			handles.add(jointTransformsHandle);
 		}
 
 		super.draw(obj, pMatrix, vMatrix, drawMode, drawSize, textureId, lightPos);
-
-		GLES20.glDisableVertexAttribArray(in_weightsHandle);
-		GLES20.glDisableVertexAttribArray(in_jointIndicesHandle);
-		for (int i:handles) {
-			//GLES20.glDisableVertexAttribArray(i);
-		}
 	}
 
 	@Override
@@ -0,0 +1,167 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import org.andresoviedo.android_3d_model_engine.model.Frustum;
+import org.andresoviedo.android_3d_model_engine.model.Object3D;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+
+/**
+ * Objects to draw in the current frame, sorted to minimize the OpenGL state changes. Opaque objects are drawn first,
+ * grouped by program and texture and then front to back. Transparent objects are drawn after them, back to front.
+ * <p>
+ * The objects outside the camera frustum should be discarded before queuing them, i.e. with
+ * {@link org.andresoviedo.android_3d_model_engine.collision.SceneBVH#cull(Frustum)}.
+ * <p>
+ * The queue is reused every frame, so it doesn't allocate memory once it has grown to the size of the scene.
+ *
+ * @author andresoviedo
+ */
+public final class RenderQueue {
+
+    private static final long TRANSPARENT = 1L << 62;
+    private static final int MASK_15 = 0x7FFF;
+
+    private Object3DData[] objects = new Object3DData[16];
+    private Object3D[] drawers = new Object3D[16];
+    private int[] textures = new int[16];
+    private long[] keys = new long[16];
+    // entries in draw order
+    private int[] order = new int[16];
+    private int size;
+    private float[] viewMatrix;
+    private final Frustum frustum = new Frustum();
+
+    /**
+     * Start a new frame
+     *
+     * @param viewMatrix           the view matrix, used to calculate the depth of the objects
+     * @param projectionViewMatrix the projection x view matrix, used to calculate the camera frustum
+     */
+    public void begin(float[] viewMatrix, float[] projectionViewMatrix) {
+        clear();
+        this.viewMatrix = viewMatrix;
+        this.frustum.update(projectionViewMatrix);
+    }
+
+    /**
+     * @return the camera frustum of the current frame
+     */
+    public Frustum getFrustum() {
+        return frustum;
+    }
+
+    /**
+     * Queue the object
+     *
+     * @param obj       the object to draw
+     * @param drawer    the drawer of the object
+     * @param textureId the texture of the object, or -1 if it has no texture
+     */
+    public void add(Object3DData obj, Object3D drawer, int textureId) {
+        if (size == objects.length) {
+            grow();
+        }
+        objects[size] = obj;
+        drawers[size] = drawer;
+        textures[size] = textureId;
+        int program = drawer instanceof Object3DImpl ? ((Object3DImpl) drawer).getProgram() : 0;
+        boolean transparent = obj.getColor() != null && obj.getColor().length == 4 && obj.getColor()[3] < 1;
+        keys[size] = key(transparent, program, textureId, getDepth(obj));
+        order[size] = size;
+        size++;
+    }
+
+    /**
+     * Sort the objects in draw order
+     */
+    public void sort() {
+        // insertion sort. scenes are small, and this doesn't allocate memory like sorting objects does
+        for (int i = 1; i < size; i++) {
+            int entry = order[i];
+            long key = keys[entry];
+            int j = i - 1;
+            while (j >= 0 && keys[order[j]] > key) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = entry;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i position in draw order
+     * @return the object to draw
+     */
+    public Object3DData getObject(int i) {
+        return objects[order[i]];
+    }
+
+    public Object3D getDrawer(int i) {
+        return drawers[order[i]];
+    }
+
+    public int getTexture(int i) {
+        return textures[order[i]];
+    }
+
+    /**
+     * Release the objects of the last frame
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            objects[i] = null;
+            drawers[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * @return the distance from the camera to the object along the view direction
+     */
+    private float getDepth(Object3DData obj) {
+        if (viewMatrix == null) {
+            return 0;
+        }
+        float x = obj.getPositionX();
+        float y = obj.getPositionY();
+        float z = obj.getPositionZ();
+        // camera looks at -z in eye space
+        return -(viewMatrix[2] * x + viewMatrix[6] * y + viewMatrix[10] * z + viewMatrix[14]);
+    }
+
+    /**
+     * Build the sort key. Opaque objects: program (15 bits), texture (15 bits), depth (32 bits). Transparent objects
+     * go after them: inverted depth (31 bits), program (15 bits), texture (15 bits)
+     */
+    static long key(boolean transparent, int program, int texture, float depth) {
+        // bits of positive floats have the same order than the floats
+        long depthBits = Float.floatToIntBits(Math.max(0f, depth));
+        if (transparent) {
+            return TRANSPARENT | (Integer.MAX_VALUE - depthBits) << 30 | (long) (program & MASK_15) << 15
+                    | (texture & MASK_15);
+        }
+        return (long) (program & MASK_15) << 47 | (long) (texture & MASK_15) << 32 | depthBits;
+    }
+
+    private void grow() {
+        int length = objects.length * 2;
+        Object3DData[] newObjects = new Object3DData[length];
+        Object3D[] newDrawers = new Object3D[length];
+        int[] newTextures = new int[length];
+        long[] newKeys = new long[length];
+        int[] newOrder = new int[length];
+        System.arraycopy(objects, 0, newObjects, 0, size);
+        System.arraycopy(drawers, 0, newDrawers, 0, size);
+        System.arraycopy(textures, 0, newTextures, 0, size);
+        System.arraycopy(keys, 0, newKeys, 0, size);
+        System.arraycopy(order, 0, newOrder, 0, size);
+        objects = newObjects;
+        drawers = newDrawers;
+        textures = newTextures;
+        keys = newKeys;
+        order = newOrder;
+    }
+}
@@ -0,0 +1,284 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads and writes the files of compressed textures, which are uploaded to the GPU without decoding them, so they use
+ * a fraction of the memory of RGBA textures (ETC1 uses 4 bits per pixel instead of 32):
+ * <ul>
+ * <li>KTX 1.1 (Khronos texture): any compressed format, like ETC1, ETC2/EAC or ASTC, with its mip levels</li>
+ * <li>PKM: a single ETC1 or ETC2 level, as written by the Khronos and Mali tools</li>
+ * </ul>
+ * Whether the GPU supports the format is only known when the texture is uploaded. ETC1 is supported by almost every
+ * OpenGL ES 2.0 device, ETC2/EAC by every OpenGL ES 3.0 device and ASTC only by recent devices.
+ *
+ * @author andresoviedo
+ */
+public final class TextureContainer {
+
+    public static final int ETC1_RGB8 = 0x8D64;
+    public static final int ETC2_R11 = 0x9270;
+    public static final int ETC2_SIGNED_R11 = 0x9271;
+    public static final int ETC2_RG11 = 0x9272;
+    public static final int ETC2_SIGNED_RG11 = 0x9273;
+    public static final int ETC2_RGB8 = 0x9274;
+    public static final int ETC2_SRGB8 = 0x9275;
+    public static final int ETC2_RGB8_ALPHA1 = 0x9276;
+    public static final int ETC2_SRGB8_ALPHA1 = 0x9277;
+    public static final int ETC2_RGBA8 = 0x9278;
+    public static final int ETC2_SRGB8_ALPHA8 = 0x9279;
+    /**
+     * The first ASTC format (4x4 blocks). The others go up to 0x93BD (12x12 blocks), and their sRGB versions from
+     * 0x93D0 to 0x93DD
+     */
+    public static final int ASTC_4x4 = 0x93B0;
+
+    private static final byte[] KTX_IDENTIFIER = {
+            (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+    };
+    private static final int KTX_HEADER_SIZE = 64;
+    private static final int KTX_ENDIANNESS = 0x04030201;
+    private static final byte[] PKM_MAGIC = {'P', 'K', 'M', ' '};
+    private static final int PKM_HEADER_SIZE = 16;
+    /**
+     * Format of every PKM data type
+     */
+    private static final int[] PKM_FORMATS = {ETC1_RGB8, ETC2_RGB8, 0, ETC2_RGBA8, ETC2_RGB8_ALPHA1, ETC2_R11,
+            ETC2_RG11, ETC2_SIGNED_R11, ETC2_SIGNED_RG11};
+
+    private static final int GL_RED = 0x1903;
+    private static final int GL_RGB = 0x1907;
+    private static final int GL_RGBA = 0x1908;
+    private static final int GL_RG = 0x8227;
+
+    private TextureContainer() {
+    }
+
+    /**
+     * @param data the contents of a file, from its position
+     * @return true if it is a KTX or a PKM file
+     */
+    public static boolean isContainer(ByteBuffer data) {
+        return startsWith(data, KTX_IDENTIFIER) || startsWith(data, PKM_MAGIC);
+    }
+
+    private static boolean startsWith(ByteBuffer data, byte[] prefix) {
+        if (data.remaining() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data.get(data.position() + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param data the contents of a KTX or PKM file, from its position. If it's a direct buffer (i.e. a memory mapped
+     *             file), the levels of the image are views of it, so they are not copied
+     * @return the compressed image
+     * @throws IllegalArgumentException if it is not a KTX or PKM file, or it has no compressed 2D texture
+     */
+    public static TextureImage read(ByteBuffer data) {
+        if (startsWith(data, KTX_IDENTIFIER)) {
+            return readKtx(data.slice());
+        }
+        if (startsWith(data, PKM_MAGIC)) {
+            return readPkm(data.slice());
+        }
+        throw new IllegalArgumentException("Not a KTX or PKM file");
+    }
+
+    private static TextureImage readKtx(ByteBuffer in) {
+        if (in.remaining() < KTX_HEADER_SIZE) {
+            throw new IllegalArgumentException("Truncated KTX header");
+        }
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        in.position(KTX_IDENTIFIER.length);
+        int endianness = in.getInt();
+        if (endianness != KTX_ENDIANNESS) {
+            in.order(ByteOrder.BIG_ENDIAN);
+            if (Integer.reverseBytes(endianness) != KTX_ENDIANNESS) {
+                throw new IllegalArgumentException("Wrong KTX endianness: " + Integer.toHexString(endianness));
+            }
+        }
+        final int glType = in.getInt();
+        in.getInt(); // type size
+        final int glFormat = in.getInt();
+        final int internalFormat = in.getInt();
+        in.getInt(); // base internal format
+        final int width = in.getInt();
+        final int height = in.getInt();
+        final int depth = in.getInt();
+        final int arrayElements = in.getInt();
+        final int faces = in.getInt();
+        final int levelCount = Math.max(1, in.getInt());
+        final int keyValueBytes = in.getInt();
+        if (glType != 0 || glFormat != 0) {
+            throw new IllegalArgumentException("KTX texture is not compressed: 0x" + Integer.toHexString(internalFormat));
+        }
+        if (width <= 0 || height <= 0 || depth > 1 || arrayElements > 0 || faces != 1) {
+            throw new IllegalArgumentException("KTX texture is not a 2D texture");
+        }
+        in.position(in.position() + keyValueBytes);
+
+        // textures with some mip levels missing can't be drawn in OpenGL ES 2.0. only the first one is used
+        final boolean allLevels = levelCount == 1 || levelCount == TextureImage.getFullLevelCount(width, height);
+        final ByteBuffer[] levels = new ByteBuffer[allLevels ? levelCount : 1];
+        for (int level = 0; level < levels.length; level++) {
+            if (in.remaining() < 4) {
+                throw new IllegalArgumentException("Truncated KTX level " + level);
+            }
+            final int imageSize = in.getInt();
+            if (imageSize < 0 || imageSize > in.remaining()) {
+                throw new IllegalArgumentException("Truncated KTX level " + level);
+            }
+            levels[level] = view(in, in.position(), imageSize);
+            in.position(Math.min(in.limit(), in.position() + imageSize + padding(imageSize)));
+        }
+        return TextureImage.createCompressed(internalFormat, width, height, levels);
+    }
+
+    private static TextureImage readPkm(ByteBuffer in) {
+        if (in.remaining() < PKM_HEADER_SIZE) {
+            throw new IllegalArgumentException("Truncated PKM header");
+        }
+        // PKM is big endian
+        in.order(ByteOrder.BIG_ENDIAN);
+        in.position(PKM_MAGIC.length + 2);
+        final int type = in.getShort() & 0xFFFF;
+        final int extendedWidth = in.getShort() & 0xFFFF;
+        final int extendedHeight = in.getShort() & 0xFFFF;
+        final int width = in.getShort() & 0xFFFF;
+        final int height = in.getShort() & 0xFFFF;
+        final int format = type < PKM_FORMATS.length ? PKM_FORMATS[type] : 0;
+        if (format == 0) {
+            throw new IllegalArgumentException("Unknown PKM data type: " + type);
+        }
+        if (width <= 0 || height <= 0 || extendedWidth < width || extendedHeight < height) {
+            throw new IllegalArgumentException("Wrong PKM size: " + width + "x" + height);
+        }
+        final int size = (extendedWidth + 3) / 4 * ((extendedHeight + 3) / 4) * getBlockSize(format);
+        if (in.limit() < PKM_HEADER_SIZE + size) {
+            throw new IllegalArgumentException("Truncated PKM data");
+        }
+        return TextureImage.createCompressed(format, width, height,
+                new ByteBuffer[]{view(in, PKM_HEADER_SIZE, size)});
+    }
+
+    /**
+     * @return the bytes of every 4x4 block of the ETC1 and ETC2/EAC formats
+     */
+    private static int getBlockSize(int format) {
+        switch (format) {
+            case ETC2_RG11:
+            case ETC2_SIGNED_RG11:
+            case ETC2_RGBA8:
+            case ETC2_SRGB8_ALPHA8:
+                return 16;
+            default:
+                return 8;
+        }
+    }
+
+    /**
+     * @param image a compressed image
+     * @return the contents of the KTX file, with all the levels of the image
+     */
+    public static byte[] writeKtx(TextureImage image) {
+        if (!image.isCompressed()) {
+            throw new IllegalArgumentException("Image is not compressed");
+        }
+        int size = KTX_HEADER_SIZE;
+        for (int level = 0; level < image.getLevelCount(); level++) {
+            final int imageSize = image.getLevel(level).capacity();
+            size += 4 + imageSize + padding(imageSize);
+        }
+        final ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(KTX_IDENTIFIER);
+        out.putInt(KTX_ENDIANNESS);
+        // compressed: no type, type size 1 and no format
+        out.putInt(0).putInt(1).putInt(0);
+        out.putInt(image.getFormat()).putInt(getBaseFormat(image.getFormat()));
+        out.putInt(image.getWidth()).putInt(image.getHeight());
+        // not 3D, not an array, 1 face
+        out.putInt(0).putInt(0).putInt(1);
+        out.putInt(image.getLevelCount());
+        // no key-value data
+        out.putInt(0);
+        for (int level = 0; level < image.getLevelCount(); level++) {
+            final ByteBuffer levelData = image.getLevel(level).duplicate();
+            levelData.clear();
+            out.putInt(levelData.remaining());
+            out.put(levelData);
+            out.position(out.position() + padding(levelData.capacity()));
+        }
+        return out.array();
+    }
+
+    /**
+     * @param image an image compressed with ETC1 or ETC2
+     * @return the contents of the PKM file, with the first level of the image
+     */
+    public static byte[] writePkm(TextureImage image) {
+        int type = -1;
+        for (int i = 0; i < PKM_FORMATS.length; i++) {
+            if (PKM_FORMATS[i] != 0 && PKM_FORMATS[i] == image.getFormat()) {
+                type = i;
+            }
+        }
+        if (type == -1) {
+            throw new IllegalArgumentException("Format not supported by PKM: 0x" + Integer.toHexString(image.getFormat()));
+        }
+        final ByteBuffer levelData = image.getLevel(0).duplicate();
+        levelData.clear();
+        final ByteBuffer out = ByteBuffer.allocate(PKM_HEADER_SIZE + levelData.remaining())
+                .order(ByteOrder.BIG_ENDIAN);
+        out.put(PKM_MAGIC);
+        // version 1.0 is ETC1 only
+        out.put((byte) (type == 0 ? '1' : '2')).put((byte) '0');
+        out.putShort((short) type);
+        out.putShort((short) ((image.getWidth() + 3) & ~3)).putShort((short) ((image.getHeight() + 3) & ~3));
+        out.putShort((short) image.getWidth()).putShort((short) image.getHeight());
+        out.put(levelData);
+        return out.array();
+    }
+
+    private static int getBaseFormat(int format) {
+        switch (format) {
+            case ETC1_RGB8:
+            case ETC2_RGB8:
+            case ETC2_SRGB8:
+                return GL_RGB;
+            case ETC2_R11:
+            case ETC2_SIGNED_R11:
+                return GL_RED;
+            case ETC2_RG11:
+            case ETC2_SIGNED_RG11:
+                return GL_RG;
+            default:
+                return GL_RGBA;
+        }
+    }
+
+    /**
+     * @return a direct buffer with the bytes, as needed by OpenGL. The data is only copied if it's not direct
+     */
+    private static ByteBuffer view(ByteBuffer data, int offset, int length) {
+        ByteBuffer range = data.duplicate();
+        range.limit(offset + length).position(offset);
+        if (range.isDirect()) {
+            return range.slice();
+        }
+        ByteBuffer buffer = TextureImage.newBuffer(length);
+        buffer.put(range);
+        buffer.position(0);
+        return buffer;
+    }
+
+    private static int padding(int length) {
+        return (4 - length % 4) % 4;
+    }
+}
@@ -0,0 +1,159 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts images to ETC1 compressed textures, saved as KTX (with mip levels) or PKM files, so they can be loaded
+ * like any other texture (see {@link TextureContainer}). It runs on any java desktop, so textures can be converted
+ * when packaging the models:
+ * <pre>
+ * java -cp engine-classes org.andresoviedo.android_3d_model_engine.drawer.TextureConverter [-pkm] [-nomipmaps] image...
+ * </pre>
+ * Every image is saved next to the original one, with the .ktx or .pkm extension. Images with mip levels are scaled
+ * to the nearest power of 2 size, like the images decoded on the device. ETC1 has no alpha, so the alpha of the
+ * images is lost.
+ *
+ * @author andresoviedo
+ */
+public final class TextureConverter {
+
+    private TextureConverter() {
+    }
+
+    /**
+     * @param width   the width of the image
+     * @param height  the height of the image
+     * @param rgba    the RGBA pixels of the image, 4 bytes per pixel, row by row
+     * @param mipmaps whether to calculate the mip levels. The image is scaled to the nearest power of 2 size
+     * @return the ETC1 image
+     */
+    public static TextureImage toEtc1(int width, int height, ByteBuffer rgba, boolean mipmaps) {
+        TextureImage image;
+        if (mipmaps) {
+            final int newWidth = TextureImage.toPowerOfTwo(width);
+            final int newHeight = TextureImage.toPowerOfTwo(height);
+            if (newWidth != width || newHeight != height) {
+                rgba = resize(rgba, width, height, newWidth, newHeight);
+            }
+            image = TextureImage.create(newWidth, newHeight, rgba, true);
+        } else {
+            image = TextureImage.create(width, height, rgba, false);
+        }
+        final ByteBuffer[] levels = new ByteBuffer[image.getLevelCount()];
+        for (int level = 0; level < levels.length; level++) {
+            levels[level] = Etc1.encode(image.getLevel(level), image.getWidth(level), image.getHeight(level));
+        }
+        return TextureImage.createCompressed(TextureContainer.ETC1_RGB8, image.getWidth(), image.getHeight(), levels);
+    }
+
+    /**
+     * Scale the image with bilinear filtering
+     */
+    static ByteBuffer resize(ByteBuffer rgba, int width, int height, int newWidth, int newHeight) {
+        final ByteBuffer target = TextureImage.newBuffer(newWidth * newHeight * 4);
+        for (int y = 0; y < newHeight; y++) {
+            // centers of the pixels
+            final float sy = Math.max(0, (y + 0.5f) * height / newHeight - 0.5f);
+            final int y0 = Math.min((int) sy, height - 1);
+            final int y1 = Math.min(y0 + 1, height - 1);
+            final float fy = sy - y0;
+            for (int x = 0; x < newWidth; x++) {
+                final float sx = Math.max(0, (x + 0.5f) * width / newWidth - 0.5f);
+                final int x0 = Math.min((int) sx, width - 1);
+                final int x1 = Math.min(x0 + 1, width - 1);
+                final float fx = sx - x0;
+                for (int c = 0; c < 4; c++) {
+                    final float top = (rgba.get((y0 * width + x0) * 4 + c) & 0xFF) * (1 - fx)
+                            + (rgba.get((y0 * width + x1) * 4 + c) & 0xFF) * fx;
+                    final float bottom = (rgba.get((y1 * width + x0) * 4 + c) & 0xFF) * (1 - fx)
+                            + (rgba.get((y1 * width + x1) * 4 + c) & 0xFF) * fx;
+                    target.put((byte) Math.round(top * (1 - fy) + bottom * fy));
+                }
+            }
+        }
+        target.position(0);
+        return target;
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean pkm = false;
+        boolean mipmaps = true;
+        int converted = 0;
+        for (String arg : args) {
+            if ("-pkm".equals(arg)) {
+                // PKM files have only 1 level
+                pkm = true;
+                mipmaps = false;
+            } else if ("-nomipmaps".equals(arg)) {
+                mipmaps = false;
+            } else {
+                convert(new File(arg), pkm, mipmaps);
+                converted++;
+            }
+        }
+        if (converted == 0) {
+            System.err.println("Usage: TextureConverter [-pkm] [-nomipmaps] image...");
+            System.exit(1);
+        }
+    }
+
+    private static void convert(File file, boolean pkm, boolean mipmaps) throws IOException {
+        final int[] size = new int[2];
+        final ByteBuffer rgba = readImage(file, size);
+        final TextureImage image = toEtc1(size[0], size[1], rgba, mipmaps);
+        final byte[] data = pkm ? TextureContainer.writePkm(image) : TextureContainer.writeKtx(image);
+
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        final File output = new File(file.getParentFile(), (dot > 0 ? name.substring(0, dot) : name)
+                + (pkm ? ".pkm" : ".ktx"));
+        try (OutputStream out = new FileOutputStream(output)) {
+            out.write(data);
+        }
+        System.out.println(file + " (" + size[0] + "x" + size[1] + ") -> " + output + " (" + image.getWidth() + "x"
+                + image.getHeight() + ", " + image.getLevelCount() + " levels): " + data.length + " bytes, "
+                + (image.getWidth() * image.getHeight() * 4) + " bytes as RGBA");
+    }
+
+    /**
+     * Read the image with ImageIO. It's not part of the Android platform, so it's called using reflection
+     *
+     * @param size where the width and height of the image are set
+     * @return the RGBA pixels of the image
+     */
+    private static ByteBuffer readImage(File file, int[] size) throws IOException {
+        try {
+            final Object image = Class.forName("javax.imageio.ImageIO").getMethod("read", File.class)
+                    .invoke(null, file);
+            if (image == null) {
+                throw new IOException("Unknown image format: " + file);
+            }
+            final int width = (Integer) image.getClass().getMethod("getWidth").invoke(image);
+            final int height = (Integer) image.getClass().getMethod("getHeight").invoke(image);
+            final int[] argb = (int[]) image.getClass().getMethod("getRGB", int.class, int.class, int.class,
+                    int.class, int[].class, int.class, int.class).invoke(image, 0, 0, width, height, null, 0, width);
+            final ByteBuffer rgba = TextureImage.newBuffer(width * height * 4);
+            boolean alpha = false;
+            for (int pixel : argb) {
+                rgba.put((byte) (pixel >> 16)).put((byte) (pixel >> 8)).put((byte) pixel).put((byte) (pixel >>> 24));
+                alpha |= (pixel >>> 24) != 0xFF;
+            }
+            if (alpha) {
+                System.err.println("Warning: " + file + " has transparent pixels. ETC1 has no alpha");
+            }
+            rgba.position(0);
+            size[0] = width;
+            size[1] = height;
+            return rgba;
+        } catch (InvocationTargetException ex) {
+            throw new IOException("Couldn't read " + file + ": " + ex.getCause(), ex.getCause());
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException ex) {
+            throw new IOException("ImageIO not available", ex);
+        }
+    }
+}
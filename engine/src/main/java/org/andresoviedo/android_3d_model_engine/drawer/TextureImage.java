@@ -0,0 +1,166 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A decoded texture, ready to be uploaded: the RGBA pixels of every mip level in direct buffers. The levels are
+ * calculated with a box filter, every one half the size of the previous one, down to 1x1.
+ * <p>
+ * Compressed textures (see {@link TextureContainer}) have the compressed blocks of every level instead, which are
+ * uploaded as they are.
+ *
+ * @author andresoviedo
+ */
+public final class TextureImage {
+
+    private final int format;
+    private final int width;
+    private final int height;
+    private final ByteBuffer[] levels;
+
+    private TextureImage(int format, int width, int height, ByteBuffer[] levels) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.levels = levels;
+    }
+
+    /**
+     * @param width   the width of the image
+     * @param height  the height of the image
+     * @param pixels  the RGBA pixels of the image, 4 bytes per pixel, row by row
+     * @param mipmaps whether to calculate the mip levels. The size of the image must be a power of 2
+     * @return the image
+     */
+    public static TextureImage create(int width, int height, ByteBuffer pixels, boolean mipmaps) {
+        if (mipmaps && (!isPowerOfTwo(width) || !isPowerOfTwo(height))) {
+            throw new IllegalArgumentException("Size is not a power of 2: " + width + "x" + height);
+        }
+        final int levelCount = mipmaps ? getFullLevelCount(width, height) : 1;
+        ByteBuffer[] levels = new ByteBuffer[levelCount];
+        levels[0] = pixels;
+        for (int level = 1; level < levelCount; level++) {
+            levels[level] = downsample(levels[level - 1], Math.max(1, width >> (level - 1)),
+                    Math.max(1, height >> (level - 1)));
+        }
+        return new TextureImage(0, width, height, levels);
+    }
+
+    /**
+     * @param format the OpenGL compressed format, like {@link TextureContainer#ETC1_RGB8}
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @param levels the compressed data of every mip level. If there are mip levels, there must be all of them
+     * @return the image
+     */
+    public static TextureImage createCompressed(int format, int width, int height, ByteBuffer[] levels) {
+        if (format == 0) {
+            throw new IllegalArgumentException("No compressed format");
+        }
+        return new TextureImage(format, width, height, levels);
+    }
+
+    /**
+     * @return the number of mip levels of a full chain, down to 1x1
+     */
+    static int getFullLevelCount(int width, int height) {
+        int levelCount = 1;
+        for (int size = Math.max(width, height); size > 1; size >>= 1) {
+            levelCount++;
+        }
+        return levelCount;
+    }
+
+    /**
+     * Average every 2x2 block of pixels. If a side is already 1 pixel, the 2 pixels of the other side are averaged
+     */
+    private static ByteBuffer downsample(ByteBuffer source, int width, int height) {
+        final int newWidth = Math.max(1, width >> 1);
+        final int newHeight = Math.max(1, height >> 1);
+        final int dx = width > 1 ? 4 : 0;
+        final int dy = height > 1 ? width * 4 : 0;
+        final ByteBuffer target = newBuffer(newWidth * newHeight * 4);
+        for (int y = 0; y < newHeight; y++) {
+            int row = (y * (height > 1 ? 2 : 1)) * width * 4;
+            for (int x = 0; x < newWidth; x++) {
+                final int i = row + x * (width > 1 ? 2 : 1) * 4;
+                for (int c = 0; c < 4; c++) {
+                    int sum = (source.get(i + c) & 0xFF) + (source.get(i + dx + c) & 0xFF)
+                            + (source.get(i + dy + c) & 0xFF) + (source.get(i + dx + dy + c) & 0xFF);
+                    target.put((byte) ((sum + 2) >> 2));
+                }
+            }
+        }
+        target.position(0);
+        return target;
+    }
+
+    static ByteBuffer newBuffer(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    static boolean isPowerOfTwo(int value) {
+        return value > 0 && (value & (value - 1)) == 0;
+    }
+
+    /**
+     * @return the nearest power of 2
+     */
+    static int toPowerOfTwo(int value) {
+        int lower = Integer.highestOneBit(Math.max(1, value));
+        return value - lower < lower * 2 - value ? lower : lower * 2;
+    }
+
+    /**
+     * @return the OpenGL compressed format, or 0 if the levels have RGBA pixels
+     */
+    public int getFormat() {
+        return format;
+    }
+
+    public boolean isCompressed() {
+        return format != 0;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the number of levels, 1 if the image has no mipmaps
+     */
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public int getWidth(int level) {
+        return Math.max(1, width >> level);
+    }
+
+    public int getHeight(int level) {
+        return Math.max(1, height >> level);
+    }
+
+    /**
+     * @return the pixels of the level, 4 bytes per pixel, or the compressed data of the level
+     */
+    public ByteBuffer getLevel(int level) {
+        return levels[level];
+    }
+
+    /**
+     * @return memory of all the levels, in bytes
+     */
+    public long getSize() {
+        long size = 0;
+        for (ByteBuffer level : levels) {
+            size += level.capacity();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,757 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import org.andresoviedo.util.io.ByteBufferInputStream;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Keeps the textures of the objects in the GPU. Textures are identified by their resolved URI and a hash of their
+ * content, so objects sharing the same image share the same texture, even if every one has its own copy of the bytes.
+ * The content is hashed in the background, before decoding it: the objects acquiring a copy of an image already loaded
+ * get the shared texture once it's hashed.
+ * <p>
+ * Images are decoded, and their mip levels calculated, in a background thread. The GL thread only uploads the decoded
+ * pixels in {@link #update()}, a few rows every frame, so showing a new texture doesn't stall the frame. A texture
+ * can't be drawn until all its levels are uploaded. Compressed textures (KTX and PKM files, see
+ * {@link TextureContainer}) are uploaded as they are, a level at a time, if the GPU supports their format.
+ * <p>
+ * Every texture counts the objects using it. Textures not used by any object are kept, in case they are needed again,
+ * until the estimated memory of all the textures goes above the budget: then the least recently used ones are
+ * deleted. Handles are only valid for the current GL context, so they must be forgotten with {@link #invalidate()}
+ * when the surface is lost.
+ *
+ * @author andresoviedo
+ */
+public final class TextureManager {
+
+    /**
+     * Default memory budget, in bytes
+     */
+    public static final long DEFAULT_BUDGET = 64 * 1024 * 1024;
+    /**
+     * Default bytes uploaded every frame
+     */
+    public static final int DEFAULT_UPLOAD_BUDGET = 1024 * 1024;
+
+    private final GL gl;
+    private final Decoder decoder;
+    private final Executor executor;
+    private long budget;
+    private int uploadBudget = DEFAULT_UPLOAD_BUDGET;
+    /**
+     * Textures in the GPU or being loaded, in least recently used order. Their content is not known until they are
+     * hashed, so they are their own key
+     */
+    private final Map<Texture, Texture> textures = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Textures by content, added by the background thread when they are hashed
+     */
+    private final ConcurrentMap<Key, Texture> keys = new ConcurrentHashMap<>();
+    /**
+     * Texture used by every object
+     */
+    private final Map<Object, User> users = new HashMap<>();
+    /**
+     * Textures decoded by the background thread, waiting to be uploaded
+     */
+    private final Queue<Texture> decoded = new ConcurrentLinkedQueue<>();
+    /**
+     * Textures being uploaded, the first one partially uploaded
+     */
+    private final Queue<Texture> uploading = new ArrayDeque<>();
+
+    // incremented when the textures are forgotten, so the ones being loaded are discarded
+    private int generation;
+    // estimated memory of the textures in the GPU
+    private long usedBytes;
+    // statistics
+    private int hits;
+    private int misses;
+    private int evictions;
+
+    public TextureManager() {
+        this(DEFAULT_BUDGET, new GLES20Textures(), new BitmapDecoder(), Executors.newSingleThreadExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "TextureDecoder");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }));
+    }
+
+    /**
+     * @param budget   max estimated memory of the textures, in bytes
+     * @param gl       the OpenGL calls
+     * @param decoder  the decoder of the images
+     * @param executor the executor of the decoding, in the background
+     */
+    public TextureManager(long budget, GL gl, Decoder decoder, Executor executor) {
+        this.budget = budget;
+        this.gl = gl;
+        this.decoder = decoder;
+        this.executor = executor;
+    }
+
+    /**
+     * Get the texture already acquired by the object, marking it as recently used
+     *
+     * @param user the object
+     * @param data the texture data of the object
+     * @return the texture handle, or 0 if the object has not acquired a texture for this data or if it's not loaded
+     * yet
+     */
+    public int get(Object user, ByteBuffer data) {
+        User entry = users.get(user);
+        if (entry == null || entry.data != data) {
+            return 0;
+        }
+        // access order
+        textures.get(entry.texture);
+        return entry.texture.ready ? entry.texture.handle : 0;
+    }
+
+    /**
+     * Get the texture for the object, starting to load it if no other object is using the same image. The texture
+     * previously acquired by the object, if any, is released
+     *
+     * @param user the object
+     * @param uri  the resolved URI of the image, or null if unknown
+     * @param data the encoded image, like the memory mapped file (see {@link
+     *             org.andresoviedo.util.android.ContentUtils#getByteBuffer(String)})
+     * @return the texture handle, or 0 if it's not loaded yet
+     */
+    public int acquire(Object user, String uri, ByteBuffer data) {
+        User previous = users.get(user);
+        if (previous != null && previous.data == data) {
+            return get(user, data);
+        }
+        // the same data acquired by other object, i.e. a texture group using the texture of its model
+        Texture texture = null;
+        for (User other : users.values()) {
+            if (other.data == data && (uri == null ? other.texture.uri == null : uri.equals(other.texture.uri))
+                    && textures.containsKey(other.texture)) {
+                texture = other.texture;
+                break;
+            }
+        }
+        if (texture != null) {
+            hits++;
+            textures.get(texture);
+        } else {
+            // other copies of the same image are found when it's hashed in the background
+            texture = new Texture(uri, generation);
+            textures.put(texture, texture);
+            decode(texture, data);
+        }
+        texture.users++;
+        // next lookups of this object are by identity
+        users.put(user, new User(texture, data));
+        if (previous != null) {
+            previous.texture.users--;
+        }
+        evict();
+        return texture.ready ? texture.handle : 0;
+    }
+
+    private void decode(final Texture texture, final ByteBuffer data) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // not hashed in the GL thread: it reads the whole image, and its pages if it's memory mapped
+                    if (texture.key == null && isLoaded(texture, data)) {
+                        decoded.add(texture);
+                        return;
+                    }
+                    texture.image = decoder.decode(data);
+                } catch (Exception ex) {
+                    Log.e("TextureManager", "Problem decoding texture " + texture.uri + ": " + ex.getMessage(), ex);
+                }
+                decoded.add(texture);
+            }
+        });
+    }
+
+    /**
+     * Hash the texture and look for the same image, loaded or being loaded. Called by the background thread
+     *
+     * @return true if the image is already loaded, so the GL thread shares that texture instead (see
+     * {@link #share(Texture, Texture)})
+     */
+    private boolean isLoaded(Texture texture, ByteBuffer data) {
+        texture.key = new Key(texture.uri, hash(data));
+        Texture existing = keys.putIfAbsent(texture.key, texture);
+        if (existing == null) {
+            return false;
+        }
+        if (existing.generation != texture.generation) {
+            // loaded in a lost context
+            keys.put(texture.key, texture);
+            return false;
+        }
+        texture.sameAs = existing;
+        // in case the existing one is evicted before it's shared
+        texture.data = data;
+        return true;
+    }
+
+    /**
+     * Move the objects using the texture to the same texture loaded before
+     */
+    private void share(Texture texture, Texture existing) {
+        textures.remove(texture);
+        for (User user : users.values()) {
+            if (user.texture == texture) {
+                user.texture = existing;
+            }
+        }
+        existing.users += texture.users;
+        textures.get(existing);
+        hits++;
+    }
+
+    /**
+     * Upload the decoded textures, within the upload budget. To be called by the GL thread before drawing the frame
+     *
+     * @return true if any texture was bound, so the bound texture is not known anymore
+     */
+    public boolean update() {
+        for (Texture texture = decoded.poll(); texture != null; texture = decoded.poll()) {
+            if (texture.generation != generation) {
+                // invalidated while decoding
+                continue;
+            }
+            if (texture.sameAs != null) {
+                final Texture existing = texture.sameAs;
+                final ByteBuffer data = texture.data;
+                texture.sameAs = null;
+                texture.data = null;
+                if (textures.containsKey(existing)) {
+                    share(texture, existing);
+                } else if (textures.containsKey(texture)) {
+                    // the existing one was evicted or it failed meanwhile. this one is loaded instead
+                    keys.put(texture.key, texture);
+                    decode(texture, data);
+                }
+                continue;
+            }
+            misses++;
+            if (texture.image == null) {
+                // the objects using it are drawn without texture
+                Log.e("TextureManager", "Texture not loaded: " + texture.uri);
+                remove(texture);
+                continue;
+            }
+            if (texture.image.isCompressed() && !gl.isSupported(texture.image.getFormat())) {
+                Log.e("TextureManager", "Compressed format 0x" + Integer.toHexString(texture.image.getFormat())
+                        + " not supported by the GPU: " + texture.uri);
+                remove(texture);
+                continue;
+            }
+            uploading.add(texture);
+        }
+        boolean bound = false;
+        int remaining = uploadBudget;
+        while (!uploading.isEmpty() && remaining > 0) {
+            Texture texture = uploading.peek();
+            remaining -= upload(texture, remaining);
+            bound = true;
+            if (texture.ready) {
+                uploading.poll();
+                usedBytes += texture.bytes;
+                Log.i("TextureManager", "Texture uploaded: " + texture.uri + " (" + texture.image.getWidth() + "x"
+                        + texture.image.getHeight() + ", " + texture.image.getLevelCount() + " levels), memory: "
+                        + usedBytes + " bytes");
+                // the pixels are in the GPU now
+                texture.image = null;
+                evict();
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Upload the next rows of the texture, or its next level if it's compressed
+     *
+     * @return the bytes uploaded
+     */
+    private int upload(Texture texture, int budget) {
+        final TextureImage image = texture.image;
+        if (texture.handle == 0) {
+            texture.handle = gl.genTexture();
+        }
+        final int width = image.getWidth(texture.level);
+        final int height = image.getHeight(texture.level);
+        if (image.isCompressed()) {
+            // compressed levels can't be uploaded by rows
+            final ByteBuffer data = image.getLevel(texture.level);
+            gl.compressedTexImage2D(texture.handle, texture.level, image.getFormat(), width, height, data);
+            nextLevel(texture);
+            return data.capacity();
+        }
+        if (texture.row == 0) {
+            // allocate the level
+            gl.texImage2D(texture.handle, texture.level, width, height, null);
+        }
+        // at least a row every frame
+        final int rows = Math.min(height - texture.row, Math.max(1, budget / (width * 4)));
+        final ByteBuffer pixels = image.getLevel(texture.level);
+        pixels.position(texture.row * width * 4);
+        gl.texSubImage2D(texture.handle, texture.level, texture.row, width, rows, pixels);
+        pixels.position(0);
+        texture.row += rows;
+        if (texture.row == height) {
+            texture.row = 0;
+            nextLevel(texture);
+        }
+        return rows * width * 4;
+    }
+
+    private void nextLevel(Texture texture) {
+        final TextureImage image = texture.image;
+        texture.level++;
+        if (texture.level == image.getLevelCount()) {
+            // OpenGL ES 2.0 can't repeat nor mipmap textures that are not a power of 2 (only KTX and PKM files)
+            final boolean powerOfTwo = TextureImage.isPowerOfTwo(image.getWidth())
+                    && TextureImage.isPowerOfTwo(image.getHeight());
+            if (!powerOfTwo) {
+                Log.w("TextureManager", "Texture size is not a power of 2: " + texture.uri + " ("
+                        + image.getWidth() + "x" + image.getHeight() + "). Clamped to edge, without mipmaps");
+            }
+            gl.setFilters(texture.handle, image.getLevelCount() > 1 && powerOfTwo, !powerOfTwo);
+            texture.bytes = image.getSize();
+            texture.ready = true;
+        }
+    }
+
+    /**
+     * Stop using the texture of the object. The texture is kept until it's evicted
+     *
+     * @param user the object
+     */
+    public void release(Object user) {
+        User entry = users.remove(user);
+        if (entry != null) {
+            entry.texture.users--;
+            evict();
+        }
+    }
+
+    /**
+     * Release the textures of all the objects not in the collection
+     *
+     * @param retained the objects still using their textures
+     */
+    public void retain(Collection<?> retained) {
+        Set<Object> set = new HashSet<Object>(retained);
+        for (Iterator<Map.Entry<Object, User>> it = users.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Object, User> entry = it.next();
+            if (!set.contains(entry.getKey())) {
+                entry.getValue().texture.users--;
+                it.remove();
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Delete all the textures
+     */
+    public void releaseAll() {
+        for (Texture texture : textures.values()) {
+            if (texture.handle != 0) {
+                gl.deleteTexture(texture.handle);
+            }
+        }
+        invalidate();
+    }
+
+    /**
+     * Forget all the textures without deleting them. To be called when the GL context is lost, since the driver
+     * already released them
+     */
+    public void invalidate() {
+        textures.clear();
+        keys.clear();
+        users.clear();
+        uploading.clear();
+        usedBytes = 0;
+        generation++;
+    }
+
+    /**
+     * Delete the least recently used textures not used by any object until the memory is within the budget. Textures
+     * still loading are not evicted
+     */
+    private void evict() {
+        for (Iterator<Texture> it = textures.keySet().iterator(); it.hasNext() && usedBytes > budget; ) {
+            Texture texture = it.next();
+            if (texture.users <= 0 && texture.ready) {
+                it.remove();
+                keys.remove(texture.key, texture);
+                gl.deleteTexture(texture.handle);
+                usedBytes -= texture.bytes;
+                evictions++;
+                Log.i("TextureManager", "Texture evicted: " + texture.uri + ", memory: " + usedBytes + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Forget a texture that couldn't be loaded, so the next copy of the image is loaded again
+     */
+    private void remove(Texture texture) {
+        textures.remove(texture);
+        if (texture.key != null) {
+            keys.remove(texture.key, texture);
+        }
+    }
+
+    private static byte[] hash(ByteBuffer data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(data.duplicate());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            // all platforms support SHA-1
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Stop the decoding of the textures. To be called when the textures are not going to be used anymore
+     */
+    public void shutdown() {
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @param budget max estimated memory of the textures, in bytes. Textures used by any object are never evicted, so
+     *               it may be exceeded
+     */
+    public void setBudget(long budget) {
+        this.budget = budget;
+        evict();
+    }
+
+    public int getUploadBudget() {
+        return uploadBudget;
+    }
+
+    /**
+     * @param uploadBudget max bytes uploaded in every {@link #update()}. At least a row of pixels, or a level of a
+     *                     compressed texture, is uploaded
+     */
+    public void setUploadBudget(int uploadBudget) {
+        this.uploadBudget = uploadBudget;
+    }
+
+    /**
+     * @return estimated memory of the textures in the GPU, in bytes
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return number of textures in the GPU or being loaded
+     */
+    public int size() {
+        return textures.size();
+    }
+
+    /**
+     * @return number of acquired textures that were already in the GPU or being loaded
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of acquired textures that had to be loaded
+     */
+    public int getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of textures deleted to keep the memory within the budget
+     */
+    public int getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public String toString() {
+        return "TextureManager{textures=" + textures.size() + ", usedBytes=" + usedBytes + ", budget=" + budget
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+
+    private static final class Key {
+
+        private final String uri;
+        private final byte[] hash;
+
+        private Key(String uri, byte[] hash) {
+            this.uri = uri;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return (uri == null ? other.uri == null : uri.equals(other.uri)) && Arrays.equals(hash, other.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (uri != null ? uri.hashCode() : 0) + Arrays.hashCode(hash);
+        }
+    }
+
+    private static final class Texture {
+
+        private final String uri;
+        private final int generation;
+        // content of the image. written by the background thread when it's hashed
+        private volatile Key key;
+        // same image loaded before, and the data in case it's evicted. written by the background thread
+        private Texture sameAs;
+        private ByteBuffer data;
+        // decoded pixels, until they are uploaded. written by the background thread
+        private volatile TextureImage image;
+        private int handle;
+        // next rows to upload
+        private int level;
+        private int row;
+        // whether all the levels are uploaded
+        private boolean ready;
+        private long bytes;
+        // objects using this texture
+        private int users;
+
+        private Texture(String uri, int generation) {
+            this.uri = uri;
+            this.generation = generation;
+        }
+    }
+
+    private static final class User {
+
+        // moved to the shared texture if the image is a copy of one already loaded
+        private Texture texture;
+        // data acquired by the object, to find its texture by identity
+        private final ByteBuffer data;
+
+        private User(Texture texture, ByteBuffer data) {
+            this.texture = texture;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Decodes the images in the background
+     */
+    public interface Decoder {
+
+        /**
+         * @param data the encoded image, from its position. It must not be modified
+         * @return the decoded image, with its mip levels
+         */
+        TextureImage decode(ByteBuffer data);
+    }
+
+    /**
+     * OpenGL calls used to manage the textures
+     */
+    public interface GL {
+
+        int genTexture();
+
+        /**
+         * Bind the texture and allocate the level
+         *
+         * @param pixels the pixels of the level, or null to upload them later
+         */
+        void texImage2D(int texture, int level, int width, int height, Buffer pixels);
+
+        /**
+         * Bind the texture and upload some rows of the level
+         *
+         * @param pixels the pixels of the rows, from the buffer position
+         */
+        void texSubImage2D(int texture, int level, int row, int width, int rows, Buffer pixels);
+
+        /**
+         * Bind the texture and upload a compressed level
+         *
+         * @param data the compressed data of the level
+         */
+        void compressedTexImage2D(int texture, int level, int format, int width, int height, Buffer data);
+
+        /**
+         * @param format the OpenGL compressed format
+         * @return whether the GPU supports the compressed format
+         */
+        boolean isSupported(int format);
+
+        /**
+         * Bind the texture and set its filters and wrap mode, once all the levels are uploaded
+         *
+         * @param mipmaps     whether to use the mip levels
+         * @param clampToEdge whether to clamp the texture coordinates instead of repeating the texture
+         */
+        void setFilters(int texture, boolean mipmaps, boolean clampToEdge);
+
+        void deleteTexture(int texture);
+    }
+
+    /**
+     * Decodes PNG, JPEG and BMP images with the Android {@link BitmapFactory}. Images are scaled to the nearest power
+     * of 2 size, since OpenGL ES 2.0 can't use mipmaps otherwise. KTX and PKM files are read as they are
+     */
+    private static final class BitmapDecoder implements Decoder {
+
+        @Override
+        public TextureImage decode(ByteBuffer data) {
+            if (TextureContainer.isContainer(data)) {
+                return TextureContainer.read(data);
+            }
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            // the texture is used as is. no pre-scaling depending on the screen density
+            options.inScaled = false;
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            // memory mapped files are read without copying them to the heap first
+            Bitmap bitmap = data.hasArray() ?
+                    BitmapFactory.decodeByteArray(data.array(), data.arrayOffset() + data.position(),
+                            data.remaining(), options) :
+                    BitmapFactory.decodeStream(new ByteBufferInputStream(data), null, options);
+            if (bitmap == null) {
+                throw new RuntimeException("couldnt load bitmap");
+            }
+            final int width = TextureImage.toPowerOfTwo(bitmap.getWidth());
+            final int height = TextureImage.toPowerOfTwo(bitmap.getHeight());
+            if (width != bitmap.getWidth() || height != bitmap.getHeight()
+                    || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+                Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+                if (scaled != bitmap) {
+                    bitmap.recycle();
+                }
+                bitmap = scaled;
+            }
+            // RGBA, premultiplied, like GLUtils.texImage2D
+            ByteBuffer pixels = TextureImage.newBuffer(width * height * 4);
+            bitmap.copyPixelsToBuffer(pixels);
+            bitmap.recycle();
+            pixels.position(0);
+            return TextureImage.create(width, height, pixels, true);
+        }
+    }
+
+    private static final class GLES20Textures implements GL {
+
+        private final int[] textures = new int[1];
+        // compressed formats supported by the GPU, queried the first time
+        private int[] compressedFormats;
+
+        @Override
+        public int genTexture() {
+            GLES20.glGenTextures(1, textures, 0);
+            return textures[0];
+        }
+
+        @Override
+        public void texImage2D(int texture, int level, int width, int height, Buffer pixels) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, level, GLES20.GL_RGBA, width, height, 0, GLES20.GL_RGBA,
+                    GLES20.GL_UNSIGNED_BYTE, pixels);
+        }
+
+        @Override
+        public void texSubImage2D(int texture, int level, int row, int width, int rows, Buffer pixels) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+            GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, level, 0, row, width, rows, GLES20.GL_RGBA,
+                    GLES20.GL_UNSIGNED_BYTE, pixels);
+        }
+
+        @Override
+        public void compressedTexImage2D(int texture, int level, int format, int width, int height, Buffer data) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+            GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, level, format, width, height, 0, data.capacity(),
+                    data);
+        }
+
+        @Override
+        public boolean isSupported(int format) {
+            if (compressedFormats == null) {
+                int[] count = new int[1];
+                GLES20.glGetIntegerv(GLES20.GL_NUM_COMPRESSED_TEXTURE_FORMATS, count, 0);
+                compressedFormats = new int[count[0]];
+                if (count[0] > 0) {
+                    GLES20.glGetIntegerv(GLES20.GL_COMPRESSED_TEXTURE_FORMATS, compressedFormats, 0);
+                }
+                Log.i("TextureManager", "Compressed texture formats: " + count[0]);
+            }
+            for (int supported : compressedFormats) {
+                if (supported == format) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void setFilters(int texture, boolean mipmaps, boolean clampToEdge) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                    mipmaps ? GLES20.GL_LINEAR_MIPMAP_LINEAR : GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            final int wrap = clampToEdge ? GLES20.GL_CLAMP_TO_EDGE : GLES20.GL_REPEAT;
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, wrap);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, wrap);
+        }
+
+        @Override
+        public void deleteTexture(int texture) {
+            textures[0] = texture;
+            GLES20.glDeleteTextures(1, textures, 0);
+        }
+    }
+}
@@ -3,6 +3,9 @@ package org.andresoviedo.android_3d_model_engine.model;
 import android.opengl.Matrix;
 
 import org.andresoviedo.android_3d_model_engine.animation.Animation;
+import org.andresoviedo.android_3d_model_engine.animation.CpuSkinner;
+import org.andresoviedo.android_3d_model_engine.animation.Pose;
+import org.andresoviedo.android_3d_model_engine.animation.Skeleton;
 import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
 
 import java.nio.FloatBuffer;
@@ -13,8 +16,9 @@ import java.nio.FloatBuffer;
  * contains the model's VAO which contains the mesh data, the texture, and the
  * root joint of the joint hierarchy, or "skeleton". It also holds an int which
  * represents the number of joints that the model's skeleton contains, and has
- * its own {@link org.andresoviedo.android_3d_model_engine.animation.Animator} instance which can be used to apply animations to
- * this entity.
+ * its own {@link Pose}, which the {@link org.andresoviedo.android_3d_model_engine.animation.Animator}
+ * updates to apply animations to this entity. The skeleton can be shared by
+ * several models, every one playing its animation at its own time.
  * 
  * @author Karl
  *
@@ -22,15 +26,19 @@ import java.nio.FloatBuffer;
 public class AnimatedModel extends Object3DData {
 
 	// skeleton
-	private Joint rootJoint;
+	private Skeleton skeleton;
 	private int jointCount;
 	private int boneCount;
 	private FloatBuffer jointIds;
 	private FloatBuffer vertexWeigths;
 	private Animation animation;
 
-	// cache
-	private float[][] jointMatrices;
+	// current pose of this model
+	private Pose pose;
+
+	// whether the vertices are skinned in the CPU instead of in the shader
+	private boolean cpuSkinning;
+	private CpuSkinner skinner;
 
 	public AnimatedModel(FloatBuffer vertexArrayBuffer){
 		super(vertexArrayBuffer);
@@ -53,16 +61,40 @@ public class AnimatedModel extends Object3DData {
 	 */
 	public AnimatedModel setRootJoint(Joint rootJoint, int jointCount, int boneCount, boolean
 									  recalculateInverseBindTransforms) {
-		this.rootJoint = rootJoint;
-		this.jointCount = jointCount;
-		this.boneCount = boneCount;
         float[] parentTransform = new float[16];
         Matrix.setIdentityM(parentTransform,0);
         rootJoint.calcInverseBindTransform(parentTransform, recalculateInverseBindTransforms);
-        this.jointMatrices = new float[boneCount][16];
+		setSkeleton(new Skeleton(rootJoint, boneCount));
+		this.jointCount = jointCount;
+		return this;
+	}
+
+	/**
+	 * Use the skeleton of another model. The model gets its own pose, so it can
+	 * play animations independently.
+	 *
+	 * @param skeleton
+	 *            - the skeleton, with the inverse bind transforms calculated.
+	 */
+	public AnimatedModel setSkeleton(Skeleton skeleton) {
+		this.skeleton = skeleton;
+		this.jointCount = skeleton.getJointCount();
+		this.boneCount = skeleton.getBoneCount();
+		this.pose = new Pose(skeleton);
 		return this;
 	}
 
+	public Skeleton getSkeleton() {
+		return skeleton;
+	}
+
+	/**
+	 * @return the current pose of this model, or null if it has no skeleton
+	 */
+	public Pose getPose() {
+		return pose;
+	}
+
 	public int getJointCount(){
 		return jointCount;
 	}
@@ -90,6 +122,37 @@ public class AnimatedModel extends Object3DData {
 		return this;
 	}
 
+	/**
+	 * Skin the vertices in the CPU, so the model is drawn with the shaders of
+	 * the static models. Useful for rigs with more joints than the skeleton
+	 * shaders support.
+	 *
+	 * @param cpuSkinning
+	 *            - true to skin in the CPU, false to skin in the shader.
+	 */
+	public AnimatedModel setCpuSkinning(boolean cpuSkinning) {
+		this.cpuSkinning = cpuSkinning;
+		this.skinner = null;
+		return this;
+	}
+
+	public boolean isCpuSkinning() {
+		return cpuSkinning;
+	}
+
+	/**
+	 * @return the skinner of the vertices, created the first time, or null if
+	 *         the model is not skinned in the CPU or its vertices are not
+	 *         loaded yet.
+	 */
+	public CpuSkinner getSkinner() {
+		if (skinner == null && cpuSkinning && getVertexArrayBuffer() != null && jointIds != null
+				&& vertexWeigths != null) {
+			skinner = new CpuSkinner(getVertexArrayBuffer(), getVertexNormalsArrayBuffer(), jointIds, vertexWeigths);
+		}
+		return skinner;
+	}
+
 	public FloatBuffer getVertexWeights(){
 		return vertexWeigths;
 	}
@@ -109,7 +172,7 @@ public class AnimatedModel extends Object3DData {
 	 *         joint.
 	 */
 	public Joint getRootJoint() {
-		return rootJoint;
+		return skeleton != null ? skeleton.getRootJoint() : null;
 	}
 
 	/**
@@ -122,28 +185,6 @@ public class AnimatedModel extends Object3DData {
 	 *         animation pose.
 	 */
 	public float[][] getJointTransforms() {
-		addJointsToArray(rootJoint, jointMatrices);
-		return jointMatrices;
-	}
-
-	/**
-	 * This adds the current model-space transform of a joint (and all of its
-	 * descendants) into an array of transforms. The joint's transform is added
-	 * into the array at the position equal to the joint's index.
-	 * 
-	 * @param headJoint
-	 *            - the current joint being added to the array. This method also
-	 *            adds the transforms of all the descendents of this joint too.
-	 * @param jointMatrices
-	 *            - the array of joint transforms that is being filled.
-	 */
-	private void addJointsToArray(Joint headJoint, float [][] jointMatrices) {
-		if (headJoint.getIndex() >= 0) {
-			jointMatrices[headJoint.getIndex()] = headJoint.getAnimatedTransform();
-		}
-		for (int i=0; i<headJoint.getChildren().size(); i++) {
-			Joint childJoint = headJoint.getChildren().get(i);
-			addJointsToArray(childJoint, jointMatrices);
-		}
+		return pose.getJointTransforms();
 	}
 }
@@ -1,6 +1,6 @@
 package org.andresoviedo.android_3d_model_engine.model;
 
-import android.opengl.Matrix;
+import org.andresoviedo.util.math.Math3DUtils;
 
 import java.nio.FloatBuffer;
 
@@ -21,6 +21,20 @@ public final class BoundingBox {
     private final float[] max;
 
     public static BoundingBox create(String id, FloatBuffer vertexBuffer, float[] modelMatrix) {
+        BoundingBox box = create(id, vertexBuffer);
+        float[] min = box.getMin().clone();
+        float[] max = box.getMax().clone();
+        Math3DUtils.multiplyMV(min,0,modelMatrix,0,min,0);
+        Math3DUtils.multiplyMV(max,0,modelMatrix,0,max,0);
+        return new BoundingBox(id, min[0], max[0], min[1], max[1], min[2], max[2]);
+    }
+
+    /**
+     * @param id           the id of the box
+     * @param vertexBuffer the vertices, 3 floats each
+     * @return the box of the vertices, as they are (in model space)
+     */
+    public static BoundingBox create(String id, FloatBuffer vertexBuffer) {
         float xMin = Float.MAX_VALUE, xMax = -Float.MAX_VALUE, yMin = Float.MAX_VALUE, yMax = -Float.MAX_VALUE, zMin =
                 Float.MAX_VALUE, zMax = -Float.MAX_VALUE;
         vertexBuffer = vertexBuffer.asReadOnlyBuffer();
@@ -48,11 +62,7 @@ public final class BoundingBox {
                 zMax = vertexz;
             }
         }
-        float[] min = new float[]{xMin, yMin, zMin, 1};
-        float[] max = new float[]{xMax, yMax, zMax, 1};
-        Matrix.multiplyMV(min,0,modelMatrix,0,min,0);
-        Matrix.multiplyMV(max,0,modelMatrix,0,max,0);
-        return new BoundingBox(id, min[0], max[0], min[1], max[1], min[2], max[2]);
+        return new BoundingBox(id, xMin, xMax, yMin, yMax, zMin, zMax);
     }
 
     public BoundingBox(String id, float xMin, float xMax, float yMin, float yMax, float zMin, float zMax) {
@@ -67,6 +77,33 @@ public final class BoundingBox {
         this.max = new float[]{xMax, yMax, zMax, 1};
     }
 
+    /**
+     * Transform the 8 corners of the box, so the result contains the whole box even if it's rotated
+     *
+     * @param matrix the transformation
+     * @return the axis aligned box containing the transformed box
+     */
+    public BoundingBox transform(float[] matrix) {
+        float xMin = Float.MAX_VALUE, xMax = -Float.MAX_VALUE, yMin = Float.MAX_VALUE, yMax = -Float.MAX_VALUE, zMin =
+                Float.MAX_VALUE, zMax = -Float.MAX_VALUE;
+        float[] corner = new float[4];
+        float[] transformed = new float[4];
+        for (int i = 0; i < 8; i++) {
+            corner[0] = (i & 1) == 0 ? this.xMin : this.xMax;
+            corner[1] = (i & 2) == 0 ? this.yMin : this.yMax;
+            corner[2] = (i & 4) == 0 ? this.zMin : this.zMax;
+            corner[3] = 1;
+            Math3DUtils.multiplyMV(transformed, 0, matrix, 0, corner, 0);
+            xMin = Math.min(xMin, transformed[0]);
+            xMax = Math.max(xMax, transformed[0]);
+            yMin = Math.min(yMin, transformed[1]);
+            yMax = Math.max(yMax, transformed[1]);
+            zMin = Math.min(zMin, transformed[2]);
+            zMax = Math.max(zMax, transformed[2]);
+        }
+        return new BoundingBox(id, xMin, xMax, yMin, yMax, zMin, zMax);
+    }
+
     public float[] getMin() {
         return min;
     }
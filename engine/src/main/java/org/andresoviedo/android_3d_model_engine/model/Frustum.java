@@ -0,0 +1,54 @@
+package org.andresoviedo.android_3d_model_engine.model;
+
+/**
+ * The 6 planes of the camera view volume, used to discard the objects that are not visible before drawing them.
+ * <p>
+ * Planes are extracted from the projection x view matrix (Gribb &amp; Hartmann), so they are in world space and
+ * objects can be tested using their world bounding box.
+ *
+ * @author andresoviedo
+ */
+public final class Frustum {
+
+    // left, right, bottom, top, near, far. (a,b,c,d) for every plane, pointing inside
+    private final float[] planes = new float[24];
+
+    /**
+     * @param projectionViewMatrix the projection x view matrix
+     */
+    public void update(float[] projectionViewMatrix) {
+        float[] m = projectionViewMatrix;
+        for (int i = 0; i < 3; i++) {
+            // matrix is column major, so row i is m[i], m[4+i], m[8+i], m[12+i]
+            for (int j = 0; j < 4; j++) {
+                planes[i * 8 + j] = m[j * 4 + 3] + m[j * 4 + i];
+                planes[i * 8 + 4 + j] = m[j * 4 + 3] - m[j * 4 + i];
+            }
+        }
+    }
+
+    /**
+     * @param box the box in world space
+     * @return <code>false</code> if the box is completely outside the frustum, <code>true</code> otherwise
+     */
+    public boolean intersects(BoundingBox box) {
+        return intersects(box.getxMin(), box.getyMin(), box.getzMin(), box.getxMax(), box.getyMax(), box.getzMax());
+    }
+
+    /**
+     * @return <code>false</code> if the box is completely outside the frustum, <code>true</code> otherwise
+     */
+    public boolean intersects(float xMin, float yMin, float zMin, float xMax, float yMax, float zMax) {
+        for (int i = 0; i < 24; i += 4) {
+            float a = planes[i], b = planes[i + 1], c = planes[i + 2], d = planes[i + 3];
+            // the corner of the box furthest along the plane normal
+            float x = a >= 0 ? xMax : xMin;
+            float y = b >= 0 ? yMax : yMin;
+            float z = c >= 0 ? zMax : zMin;
+            if (a * x + b * y + c * z + d < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
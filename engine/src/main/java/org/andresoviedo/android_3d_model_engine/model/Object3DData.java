@@ -75,10 +75,15 @@ public class Object3DData {
 	private FloatBuffer vertexNormalsArrayBuffer = null;
 	private FloatBuffer textureCoordsArrayBuffer = null;
 	private List<int[]> drawModeList = null;
-	private byte[] textureData = null;
+	private ByteBuffer textureData = null;
+	// ranges of vertices drawn with different textures. null if the whole model uses the same texture
+	private List<TextureGroup> textureGroups = null;
 	private List<InputStream> textureStreams = null;
 
 	// derived data
+	// bounding box of the vertices, without any transformation
+	private BoundingBox modelBoundingBox;
+	// bounding box in world space. calculated again when the model matrix changes
 	private BoundingBox boundingBox;
 
 	// Transformation data
@@ -98,8 +103,8 @@ public class Object3DData {
 	private WavefrontLoader.ModelDimensions modelDimensions;
 	private WavefrontLoader loader;
 
-	// collision detection
-	private Octree octree = null;
+	// collision detection. in object space, built in background
+	private volatile Octree octree = null;
 
 	// errors detected
 	private List<String> errors = new ArrayList<>();
@@ -115,7 +120,7 @@ public class Object3DData {
 		this.version = 2;
 	}
 
-	public Object3DData(FloatBuffer vertexArrayBuffer, FloatBuffer textureCoordsArrayBuffer, byte[] texData) {
+	public Object3DData(FloatBuffer vertexArrayBuffer, FloatBuffer textureCoordsArrayBuffer, ByteBuffer texData) {
 		this.vertexArrayBuffer = vertexArrayBuffer;
 		this.textureCoordsArrayBuffer = textureCoordsArrayBuffer;
 		this.textureData = texData;
@@ -123,7 +128,7 @@ public class Object3DData {
 	}
 
 	public Object3DData(FloatBuffer vertexArrayBuffer, FloatBuffer vertexColorsArrayBuffer,
-			FloatBuffer textureCoordsArrayBuffer, byte[] texData) {
+			FloatBuffer textureCoordsArrayBuffer, ByteBuffer texData) {
 		this.vertexArrayBuffer = vertexArrayBuffer;
 		this.vertexColorsArrayBuffer = vertexColorsArrayBuffer;
 		this.textureCoordsArrayBuffer = textureCoordsArrayBuffer;
@@ -159,6 +164,9 @@ public class Object3DData {
 		return modelDimensions;
 	}
 
+	/**
+	 * @param octree the octree of the vertices in object space, so it's still valid when the object is moved
+	 */
 	public void setOctree(Octree octree){
 		this.octree = octree;
 	}
@@ -199,6 +207,17 @@ public class Object3DData {
 		return changed;
 	}
 
+	/**
+	 * Mark the object as changed, so the buffers already uploaded to the GPU are uploaded again
+	 *
+	 * @param changed whether the buffers of the object were modified
+	 * @return this object
+	 */
+	public Object3DData setChanged(boolean changed) {
+		this.changed = changed;
+		return this;
+	}
+
 	public Object3DData setId(String id) {
 		this.id = id;
 		return this;
@@ -239,11 +258,14 @@ public class Object3DData {
 
 	// -----------
 
-	public byte[] getTextureData() {
+	/**
+	 * @return the encoded image of the texture, usually the memory mapped file, or null if the model has no texture
+	 */
+	public ByteBuffer getTextureData() {
 		return textureData;
 	}
 
-	public void setTextureData(byte[] textureData) {
+	public void setTextureData(ByteBuffer textureData) {
 		this.textureData = textureData;
 	}
 
@@ -320,12 +342,19 @@ public class Object3DData {
 	}
 
 	private void updateModelMatrix(){
+		// same transformation used by the drawers (Object3DImpl.getMMatrix)
 		Matrix.setIdentityM(modelMatrix,0);
-		Matrix.setRotateM(modelMatrix,0,getRotationX(),1,0,0);
-		Matrix.setRotateM(modelMatrix,0,getRotationY(),0,1,0);
-		Matrix.setRotateM(modelMatrix,0,getRotationY(),0,0,1);
-		Matrix.scaleM(modelMatrix,0,getScaleX(),getScaleY(),getScaleZ());
+		if (getRotation() != null) {
+			Matrix.rotateM(modelMatrix, 0, getRotationX(), 1, 0, 0);
+			Matrix.rotateM(modelMatrix, 0, getRotationY(), 0, 1, 0);
+			Matrix.rotateM(modelMatrix, 0, getRotationZ(), 0, 0, 1);
+		}
+		if (getScale() != null) {
+			Matrix.scaleM(modelMatrix, 0, getScaleX(), getScaleY(), getScaleZ());
+		}
 		Matrix.translateM(modelMatrix,0,getPositionX(),getPositionY(),getPositionZ());
+		// the world bounding box must be calculated again
+		boundingBox = null;
 	}
 
 	public float[] getModelMatrix(){
@@ -485,6 +514,19 @@ public class Object3DData {
 		return textureFile;
 	}
 
+	/**
+	 * @return the ranges of vertices drawn with different textures, or null if the whole model uses the texture
+	 * {@link #getTextureData()}
+	 */
+	public List<TextureGroup> getTextureGroups() {
+		return textureGroups;
+	}
+
+	public Object3DData setTextureGroups(List<TextureGroup> textureGroups) {
+		this.textureGroups = textureGroups;
+		return this;
+	}
+
 	public Object3DData centerAndScale(float maxSize) {
 		float leftPt = Float.MAX_VALUE, rightPt = Float.MIN_VALUE; // on x-axis
 		float topPt = Float.MIN_VALUE, bottomPt = Float.MAX_VALUE; // on y-axis
@@ -556,6 +598,10 @@ public class Object3DData {
 			vertexBuffer.put(i + 1, y);
 			vertexBuffer.put(i + 2, z);
 		}
+		changed = true;
+		modelBoundingBox = null;
+		boundingBox = null;
+		octree = null;
 
 		return this;
 	}
@@ -632,6 +678,10 @@ public class Object3DData {
 			vertexBufferNew.put(i + 1, y * explodeFactor);
 			vertexBufferNew.put(i + 2, z * explodeFactor);
 		}
+		changed = true;
+		modelBoundingBox = null;
+		boundingBox = null;
+		octree = null;
 
 		if (drawOrderBuffer != null) {
 			Log.e("Object3DData", "Cant explode object composed of indexes '" + getId() + "'");
@@ -685,13 +735,37 @@ public class Object3DData {
 		return bb;
 	}
 
-	public BoundingBox getBoundingBox() {
-		FloatBuffer vertexBuffer = getVertexBuffer();
-		if (vertexBuffer == null){
-			vertexBuffer = getVertexArrayBuffer();
+	/**
+	 * @param boundingBox the bounding box of the vertices in model space, if it's already known (i.e. it was cached),
+	 *                    so there is no need to calculate it
+	 */
+	public Object3DData setBoundingBox(BoundingBox boundingBox) {
+		this.modelBoundingBox = boundingBox;
+		this.boundingBox = null;
+		return this;
+	}
+
+	/**
+	 * @return the bounding box of the vertices in model space
+	 */
+	public BoundingBox getModelBoundingBox() {
+		if (modelBoundingBox == null) {
+			FloatBuffer vertexBuffer = getVertexBuffer();
+			if (vertexBuffer == null){
+				vertexBuffer = getVertexArrayBuffer();
+			}
+			modelBoundingBox = BoundingBox.create(getId()+"_BoundingBox", vertexBuffer);
 		}
+		return modelBoundingBox;
+	}
+
+	/**
+	 * @return the bounding box in world space, transformed with the model matrix. It's cached until the object is
+	 * moved, scaled or rotated
+	 */
+	public BoundingBox getBoundingBox() {
 		if (boundingBox == null) {
-			boundingBox = BoundingBox.create(getId()+"_BoundingBox", vertexBuffer, getModelMatrix());
+			boundingBox = getModelBoundingBox().transform(getModelMatrix());
 		}
 		return boundingBox;
 	}
@@ -0,0 +1,52 @@
+package org.andresoviedo.android_3d_model_engine.model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A range of the vertices of a model drawn with the same texture. The triangles of a model having materials with
+ * different textures are sorted by texture, so the whole model is drawn from the same buffers with a draw call per
+ * texture.
+ *
+ * @author andresoviedo
+ */
+public final class TextureGroup {
+
+    private final String textureFile;
+    private final int start;
+    private final int count;
+    private ByteBuffer textureData;
+
+    /**
+     * @param textureFile the texture of the triangles, or null if they have no texture
+     * @param start       the first vertex (or index if the model is indexed) of the range
+     * @param count       the number of vertices (or indices) of the range
+     */
+    public TextureGroup(String textureFile, int start, int count) {
+        this.textureFile = textureFile;
+        this.start = start;
+        this.count = count;
+    }
+
+    public String getTextureFile() {
+        return textureFile;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the encoded image of the texture, or null if it's not loaded
+     */
+    public ByteBuffer getTextureData() {
+        return textureData;
+    }
+
+    public void setTextureData(ByteBuffer textureData) {
+        this.textureData = textureData;
+    }
+}
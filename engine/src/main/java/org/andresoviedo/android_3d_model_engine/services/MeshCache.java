@@ -0,0 +1,351 @@
+package org.andresoviedo.android_3d_model_engine.services;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import org.andresoviedo.android_3d_model_engine.model.BoundingBox;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.model.TextureGroup;
+import org.andresoviedo.android_3d_model_engine.services.wavefront.WavefrontLoader.Faces;
+import org.andresoviedo.android_3d_model_engine.services.wavefront.WavefrontLoader.ModelDimensions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Binary cache of the arrays generated for a model, so next time the same model is loaded there is no need to parse
+ * it and to generate the arrays again.
+ * <p>
+ * There is one file for every model uri. The file stores the hash of the model and material contents, so it is ignored
+ * (and later overwritten) whenever any of them changes. The arrays are read with a memory mapped file, so they are loaded lazily by
+ * the operating system and there is no copy in the java heap.
+ * <p>
+ * File layout (native byte order):
+ * <pre>
+ * int      magic
+ * int      format version
+ * byte[20] content hash (SHA-1) of the model and its materials
+ * int      number of triangles
+ * int      model dimensions number of vertices
+ * float[9] model dimensions (left, right, top, bottom, near, far, center x, y, z)
+ * float[6] bounding box (min x, max x, min y, max y, min z, max z)
+ * int[4]   number of floats of the vertex, normals, colors and texture coordinates arrays (0 if there is no array)
+ * int      number of indices (0 if the model is drawn using arrays)
+ * int      length of the texture name in bytes (-1 if there is no texture)
+ * byte[]   texture name (utf-8), padded to 4 bytes
+ * int      number of texture groups (0 if the model has only 1 texture)
+ * for every texture group:
+ *   int    first vertex (or index)
+ *   int    number of vertices (or indices)
+ *   int    length of the texture name in bytes (-1 if the group has no texture)
+ *   byte[] texture name (utf-8), padded to 4 bytes
+ * float[]  the arrays
+ * int[]    the indices
+ * </pre>
+ *
+ * @author andresoviedo
+ */
+public final class MeshCache {
+
+    private static final int MAGIC = 0x4F424A43;
+    private static final int VERSION = 3;
+    private static final int HASH_LENGTH = 20;
+
+    /**
+     * Folder where the cache files are stored
+     */
+    private final File dir;
+
+    public MeshCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @param contents the files the arrays are generated from, from their position: the model and its materials
+     *                 (colors and textures), so the cache is ignored when any of them changes. Missing files are null.
+     *                 The buffers are not modified
+     * @return the hash of the contents
+     */
+    public static byte[] hash(ByteBuffer... contents) {
+        MessageDigest digest = newDigest();
+        for (ByteBuffer content : contents) {
+            // the length separates the files, so moving lines from one file to the next one changes the hash
+            digest.update(ByteBuffer.allocate(4).putInt(content != null ? content.remaining() : -1).array());
+            if (content != null) {
+                digest.update(content.duplicate());
+            }
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // all platforms support SHA-1
+            throw new RuntimeException(e);
+        }
+    }
+
+    private File getFile(String id) {
+        byte[] idHash = newDigest().digest(id.getBytes());
+        StringBuilder name = new StringBuilder();
+        for (byte b : idHash) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return new File(dir, name.append(".mesh").toString());
+    }
+
+    /**
+     * Load the model arrays from the cache
+     *
+     * @param id   id of the model (i.e. its uri)
+     * @param hash hash of the current contents of the model and its materials (see {@link #hash(ByteBuffer...)})
+     * @return the model with its arrays (but not the texture data), or <code>null</code> if the model is not cached
+     * or it changed after it was cached
+     */
+    public Object3DData load(String id, byte[] hash) {
+        File file = getFile(id);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            // buffers are read only. models are transformed using the model matrix
+            MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            mapped.order(ByteOrder.nativeOrder());
+
+            if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+                Log.i("MeshCache", "Ignoring cache with unknown format: " + id);
+                return null;
+            }
+            byte[] cachedHash = new byte[HASH_LENGTH];
+            mapped.get(cachedHash);
+            if (!Arrays.equals(hash, cachedHash)) {
+                Log.i("MeshCache", "Model changed. Ignoring cache: " + id);
+                return null;
+            }
+
+            int numFaces = mapped.getInt();
+            ModelDimensions dimensions = new ModelDimensions();
+            dimensions.numVerts = mapped.getInt();
+            dimensions.leftPt = mapped.getFloat();
+            dimensions.rightPt = mapped.getFloat();
+            dimensions.topPt = mapped.getFloat();
+            dimensions.bottomPt = mapped.getFloat();
+            dimensions.nearPt = mapped.getFloat();
+            dimensions.farPt = mapped.getFloat();
+            dimensions.centerX = mapped.getFloat();
+            dimensions.centerY = mapped.getFloat();
+            dimensions.centerZ = mapped.getFloat();
+            BoundingBox boundingBox = new BoundingBox(id + "_BoundingBox", mapped.getFloat(), mapped.getFloat(),
+                    mapped.getFloat(), mapped.getFloat(), mapped.getFloat(), mapped.getFloat());
+            int vertexCount = mapped.getInt();
+            int normalsCount = mapped.getInt();
+            int colorsCount = mapped.getInt();
+            int textureCoordsCount = mapped.getInt();
+            int indicesCount = mapped.getInt();
+            String texture = getString(mapped);
+            List<TextureGroup> textureGroups = null;
+            int textureGroupsCount = mapped.getInt();
+            if (textureGroupsCount > 0) {
+                textureGroups = new ArrayList<>(textureGroupsCount);
+                for (int i = 0; i < textureGroupsCount; i++) {
+                    int start = mapped.getInt();
+                    int count = mapped.getInt();
+                    textureGroups.add(new TextureGroup(getString(mapped), start, count));
+                }
+            }
+
+            // faces are not needed anymore, but they tell how many triangles are there to draw
+            Object3DData data3D = new Object3DData(null, null, null, new Faces(numFaces), null, null);
+            data3D.setId(id);
+            data3D.setDimensions(dimensions);
+            data3D.setBoundingBox(boundingBox);
+            data3D.setDrawMode(GLES20.GL_TRIANGLES);
+            data3D.setDrawUsingArrays(true);
+            data3D.setVertexArrayBuffer(slice(mapped, vertexCount));
+            data3D.setVertexNormalsArrayBuffer(slice(mapped, normalsCount));
+            data3D.setVertexColorsArrayBuffer(slice(mapped, colorsCount));
+            data3D.setTextureCoordsArrayBuffer(slice(mapped, textureCoordsCount));
+            if (indicesCount > 0) {
+                ByteBuffer indices = mapped.slice().order(ByteOrder.nativeOrder());
+                indices.limit(indicesCount * 4);
+                // the draw order refers to this buffer
+                data3D.setVertexBuffer(data3D.getVertexArrayBuffer());
+                data3D.setDrawOrder(indices.asIntBuffer());
+                data3D.setDrawUsingArrays(false);
+            }
+            data3D.setTextureFile(texture);
+            data3D.setTextureGroups(textureGroups);
+            Log.i("MeshCache", "Loaded from cache: " + id);
+            return data3D;
+        } catch (Exception ex) {
+            // a corrupted cache is not a problem. the model will be parsed again
+            Log.e("MeshCache", "Problem reading cache of '" + id + "': " + ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * Save the model arrays, so next time they are loaded with {@link #load(String, byte[])}
+     *
+     * @param hash   hash of the contents of the model and its materials
+     * @param data3D the model having all its arrays already generated
+     */
+    public void save(byte[] hash, Object3DData data3D) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e("MeshCache", "Couldn't create cache dir " + dir);
+            return;
+        }
+        File file = getFile(data3D.getId());
+        File tmpFile = new File(dir, file.getName() + ".tmp");
+        try {
+            List<TextureGroup> textureGroups = data3D.getTextureGroups() != null ? data3D.getTextureGroups() :
+                    Collections.<TextureGroup>emptyList();
+            FloatBuffer vertexArrayBuffer = data3D.getVertexArrayBuffer();
+            FloatBuffer normalsArrayBuffer = data3D.getVertexNormalsArrayBuffer();
+            FloatBuffer colorsArrayBuffer = data3D.getVertexColorsArrayBuffer();
+            FloatBuffer textureCoordsArrayBuffer = data3D.getTextureCoordsArrayBuffer();
+            IntBuffer indices = data3D.isDrawUsingArrays() ? null : data3D.getDrawOrder();
+            int indicesCount = indices != null ? indices.capacity() : 0;
+            int headerSize = 4 + 4 + HASH_LENGTH + 4 + 4 + 9 * 4 + 6 * 4 + 4 * 4 + 4;
+            headerSize += size(data3D.getTextureFile()) + 4;
+            for (TextureGroup group : textureGroups) {
+                headerSize += 4 + 4 + size(group.getTextureFile());
+            }
+            long size = headerSize + 4L * (count(vertexArrayBuffer) + count(normalsArrayBuffer) +
+                    count(colorsArrayBuffer) + count(textureCoordsArrayBuffer) + indicesCount);
+
+            try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw")) {
+                raf.setLength(size);
+                MappedByteBuffer out = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                out.order(ByteOrder.nativeOrder());
+                out.putInt(MAGIC).putInt(VERSION).put(hash);
+
+                out.putInt(data3D.getFaces().getSize());
+                ModelDimensions dimensions = data3D.getDimensions();
+                out.putInt(dimensions.numVerts);
+                out.putFloat(dimensions.leftPt).putFloat(dimensions.rightPt);
+                out.putFloat(dimensions.topPt).putFloat(dimensions.bottomPt);
+                out.putFloat(dimensions.nearPt).putFloat(dimensions.farPt);
+                out.putFloat(dimensions.centerX).putFloat(dimensions.centerY).putFloat(dimensions.centerZ);
+                BoundingBox boundingBox = getBoundingBox(data3D);
+                out.putFloat(boundingBox.getxMin()).putFloat(boundingBox.getxMax());
+                out.putFloat(boundingBox.getyMin()).putFloat(boundingBox.getyMax());
+                out.putFloat(boundingBox.getzMin()).putFloat(boundingBox.getzMax());
+                out.putInt(count(vertexArrayBuffer)).putInt(count(normalsArrayBuffer));
+                out.putInt(count(colorsArrayBuffer)).putInt(count(textureCoordsArrayBuffer));
+                out.putInt(indicesCount);
+                putString(out, data3D.getTextureFile());
+                out.putInt(textureGroups.size());
+                for (TextureGroup group : textureGroups) {
+                    out.putInt(group.getStart()).putInt(group.getCount());
+                    putString(out, group.getTextureFile());
+                }
+
+                put(out, vertexArrayBuffer);
+                put(out, normalsArrayBuffer);
+                put(out, colorsArrayBuffer);
+                put(out, textureCoordsArrayBuffer);
+                if (indices != null) {
+                    IntBuffer src = indices.duplicate();
+                    src.clear();
+                    out.slice().order(ByteOrder.nativeOrder()).asIntBuffer().put(src);
+                }
+                out.force();
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Couldn't rename " + tmpFile + " to " + file);
+            }
+            Log.i("MeshCache", "Saved to cache: " + data3D.getId() + " (" + size + " bytes)");
+        } catch (Exception ex) {
+            Log.e("MeshCache", "Problem writing cache of '" + data3D.getId() + "': " + ex.getMessage(), ex);
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * @return the bounding box in model space. Not calling {@link Object3DData#getBoundingBox()}, since that would
+     * keep it calculated with the current model matrix
+     */
+    private static BoundingBox getBoundingBox(Object3DData data3D) {
+        FloatBuffer vertexBuffer = data3D.getVertexBuffer() != null ? data3D.getVertexBuffer() :
+                data3D.getVertexArrayBuffer();
+        return BoundingBox.create(data3D.getId() + "_BoundingBox", vertexBuffer);
+    }
+
+    /**
+     * @return the bytes used by the string: its length, and its bytes padded to 4 bytes
+     */
+    private static int size(String string) throws UnsupportedEncodingException {
+        if (string == null) {
+            return 4;
+        }
+        int length = string.getBytes("UTF-8").length;
+        return 4 + length + padding(length);
+    }
+
+    private static void putString(ByteBuffer out, String string) throws UnsupportedEncodingException {
+        if (string == null) {
+            out.putInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes("UTF-8");
+        out.putInt(bytes.length).put(bytes);
+        out.position(out.position() + padding(bytes.length));
+    }
+
+    private static String getString(ByteBuffer in) throws UnsupportedEncodingException {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        in.position(in.position() + padding(length));
+        return new String(bytes, "UTF-8");
+    }
+
+    private static int padding(int length) {
+        return (4 - length % 4) % 4;
+    }
+
+    private static int count(FloatBuffer buffer) {
+        return buffer != null ? buffer.capacity() : 0;
+    }
+
+    private static FloatBuffer slice(ByteBuffer mapped, int count) {
+        if (count == 0) {
+            return null;
+        }
+        ByteBuffer slice = mapped.slice().order(ByteOrder.nativeOrder());
+        slice.limit(count * 4);
+        mapped.position(mapped.position() + count * 4);
+        return slice.asFloatBuffer();
+    }
+
+    private static void put(ByteBuffer out, FloatBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        ByteBuffer slice = out.slice().order(ByteOrder.nativeOrder());
+        FloatBuffer src = buffer.duplicate();
+        src.clear();
+        slice.asFloatBuffer().put(src);
+        out.position(out.position() + buffer.capacity() * 4);
+    }
+}
@@ -8,6 +8,7 @@ import android.util.Log;
 
 import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
 import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.model.TextureGroup;
 import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
 import org.andresoviedo.android_3d_model_engine.services.wavefront.WavefrontLoader;
 import org.andresoviedo.android_3d_model_engine.services.wavefront.WavefrontLoader.FaceMaterials;
@@ -16,20 +17,21 @@ import org.andresoviedo.android_3d_model_engine.services.wavefront.WavefrontLoad
 import org.andresoviedo.android_3d_model_engine.services.wavefront.WavefrontLoader.Materials;
 import org.andresoviedo.android_3d_model_engine.services.wavefront.WavefrontLoader.Tuple3;
 import org.andresoviedo.util.android.ContentUtils;
-import org.andresoviedo.util.io.IOUtils;
 import org.andresoviedo.util.math.Math3DUtils;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.URL;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public final class Object3DBuilder {
 
@@ -341,7 +343,7 @@ public final class Object3DBuilder {
 				.centerAndScale(1.0f).setFaces(new Faces(8)).setDrawOrder(drawBuffer).setVertexArrayBuffer(vertexBuffer);
 	}
 
-	public static Object3DData buildCubeV3(byte[] textureData) {
+	public static Object3DData buildCubeV3(ByteBuffer textureData) {
 		return new Object3DData(
 				createNativeByteBuffer(cubePositionData.length * 4).asFloatBuffer().put(cubePositionData),
 				createNativeByteBuffer(cubeTextureCoordinateData.length * 4).asFloatBuffer()
@@ -349,7 +351,7 @@ public final class Object3DBuilder {
 				textureData).setDrawMode(GLES20.GL_TRIANGLES).setId("cubeV3").centerAndScale(1.0f).setFaces(new Faces(8));
 	}
 
-	public static Object3DData buildCubeV4(byte[] textureData) {
+	public static Object3DData buildCubeV4(ByteBuffer textureData) {
 		return new Object3DData(
 				createNativeByteBuffer(cubePositionData.length * 4).asFloatBuffer().put(cubePositionData),
 				createNativeByteBuffer(cubeColorData.length * 4).asFloatBuffer().put(cubeColorData).asReadOnlyBuffer(),
@@ -359,19 +361,63 @@ public final class Object3DBuilder {
 	}
 
 	public static Object3DData loadV5(Activity activity, Uri modelUri) {
+		return loadV5(activity, modelUri, false);
+	}
+
+	/**
+	 * Load the model and generate its arrays
+	 *
+	 * @param activity the activity used to open the model and to get the cache dir
+	 * @param modelUri the model to load
+	 * @param indexed  whether to draw the model using an index buffer with the unique vertices (see
+	 *                 {@link #generateIndexedArrays(Object3DData)})
+	 * @return the model ready to be drawn
+	 */
+	public static Object3DData loadV5(Activity activity, Uri modelUri, boolean indexed) {
 		try {
 			//final String modelId = assetDir + "/" + assetFilename;
 
-			InputStream is = new URL(modelUri.toString()).openStream();
-			WavefrontLoader wfl = new WavefrontLoader(modelUri.toString());
-			wfl.analyzeModel(is);
-			is.close();
-
-			wfl.allocateBuffers();
+			// skip parsing if the model was already loaded and it didn't change
+			MeshCache cache = activity != null ? new MeshCache(new File(activity.getCacheDir(), "meshes")) : null;
+			// mapped once: the hash and the parser read the same pages, with no copy of the file in the heap
+			ByteBuffer model = ContentUtils.getByteBuffer(modelUri);
+			byte[] hash = null;
+			if (cache != null) {
+				// colors, textures and texture groups come from the materials, so they are part of the hash too
+				String materialLib = WavefrontLoader.getMaterialLib(model);
+				ByteBuffer materialData = null;
+				if (materialLib != null) {
+					try {
+						materialData = ContentUtils.getByteBuffer(materialLib);
+					} catch (IOException ex) {
+						// same as not provided: the model is loaded without materials
+						Log.e("Object3DBuilder", "Couldn't read material file " + materialLib + ". " + ex.getMessage());
+					}
+				}
+				hash = MeshCache.hash(model, materialData);
+				Object3DData cached = cache.load(modelUri.toString(), hash);
+				if (cached != null && cached.isDrawUsingArrays() == !indexed) {
+					cached.setUri(modelUri);
+					if (materialLib != null && materialData == null) {
+						cached.addError(materialLib + ": not found");
+					}
+					if (cached.getTextureFile() != null) {
+						cached.setTextureData(loadTexture(cached, cached.getTextureFile()));
+					}
+					if (cached.getTextureGroups() != null) {
+						for (TextureGroup group : cached.getTextureGroups()) {
+							if (group.getTextureFile() != null) {
+								group.setTextureData(group.getTextureFile().equals(cached.getTextureFile()) ?
+										cached.getTextureData() : loadTexture(cached, group.getTextureFile()));
+							}
+						}
+					}
+					return cached;
+				}
+			}
 
-			is = new URL(modelUri.toString()).openStream();
-			wfl.loadModel(is);
-			is.close();
+			WavefrontLoader wfl = new WavefrontLoader(modelUri.toString());
+			wfl.loadModel(model);
 
 			Object3DData data3D = new Object3DData(wfl.getVerts(), wfl.getNormals(), wfl.getTexCoords(), wfl.getFaces(),
 					wfl.getFaceMats(), wfl.getMaterials());
@@ -383,7 +429,16 @@ public final class Object3DBuilder {
 			data3D.centerScale();
 
 			data3D.setDrawMode(GLES20.GL_TRIANGLES);
-			generateArrays(data3D);
+			if (indexed) {
+				generateIndexedArrays(data3D);
+			} else {
+				generateArrays(data3D);
+			}
+
+			// a missing material or texture is fine: the material is part of the hash and the textures aren't cached
+			if (cache != null && !wfl.hasLoadErrors() && data3D.getVertexArrayBuffer() != null) {
+				cache.save(hash, data3D);
+			}
 
 			return data3D;
 		} catch (IOException ex) {
@@ -391,6 +446,20 @@ public final class Object3DBuilder {
 		}
 	}
 
+	/**
+	 * Same as {@link #generateArrays(Object3DData)}, but vertices shared by several triangles are stored only once
+	 * and the triangles are drawn using an index buffer. Once loaded, this takes less memory and the vertex shader is
+	 * run less times, so it's better for big models. While loading it takes more memory, though: the arrays are first
+	 * generated with a copy of the vertex for every triangle, and then welded (see {@link VertexWelder}).
+	 *
+	 * @param obj the model
+	 * @return the same model, ready to be drawn with glDrawElements
+	 * @throws IOException if there is an error reading the materials or the texture
+	 */
+	public static Object3DData generateIndexedArrays(Object3DData obj) throws IOException {
+		return VertexWelder.weld(generateArrays(obj));
+	}
+
 	public static Object3DData generateArrays(Object3DData obj) throws IOException {
 
 	    Log.i("Object3DBuilder","Generating arrays for "+obj.getId());
@@ -476,10 +545,15 @@ public final class Object3DBuilder {
 		if (materials != null) {
 			Log.i("Object3DBuilder", "Reading materials...");
 			try(InputStream inputStream = ContentUtils.getInputStream(materials.mfnm)) {
-				BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-				materials.readMaterials(br);
-				materials.showMaterials();
-				br.close();
+				if (inputStream != null) {
+					BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
+					materials.readMaterials(br);
+					materials.showMaterials();
+					br.close();
+				} else {
+					Log.e("Object3DBuilder", "Material file not found: " + materials.mfnm);
+					obj.addError(materials.mfnm + ": not found");
+				}
 			} catch (Exception ex){
 			    Log.e("Object3DBuilder","Couldn't load material file "+materials.mfnm+". "+ex.getMessage(), ex);
 			    obj.addError(materials.mfnm+":"+ex.getMessage());
@@ -513,10 +587,9 @@ public final class Object3DBuilder {
 
 
 		String texture = null;
-		byte[] textureData = null;
+		ByteBuffer textureData = null;
 		if (materials != null && !materials.materials.isEmpty()) {
 
-			// TODO: process all textures
 			for (Material mat : materials.materials.values()) {
 				if (mat.getTexture() != null) {
 					texture = mat.getTexture();
@@ -524,14 +597,8 @@ public final class Object3DBuilder {
 				}
 			}
 			if (texture != null) {
-			    Log.i("Object3DBuilder","Loading texture "+texture);
-			    InputStream is = ContentUtils.getInputStream(texture);
-			    if (is != null) {
-                    textureData = IOUtils.read(is);
-                    is.close();
-                } else {
-			        obj.addError("Texture '"+texture+"' not found in provided files");
-                }
+				obj.setTextureFile(texture);
+				textureData = loadTexture(obj, texture);
 			} else {
 				Log.i("Object3DBuilder", "Found material(s) but no texture");
 			}
@@ -539,6 +606,19 @@ public final class Object3DBuilder {
 			Log.i("Object3DBuilder", "No materials -> No texture");
 		}
 
+		final String[] faceTextures;
+		final List<String> textures = new ArrayList<>();
+		if (texture != null && !faceMats.isEmpty()) {
+			faceTextures = getFaceTextures(faces, faceMats, materials, textures);
+		} else {
+			faceTextures = new String[faces.getSize()];
+		}
+		// several textures: the faces are drawn grouped by texture
+		final boolean multiTexture = textures.size() > 1;
+		if (multiTexture) {
+			Log.i("Object3DBuilder", "Using " + textures.size() + " textures: " + textures);
+		}
+
 
 		//if (textureData != null) {
 			ArrayList<Tuple3> texCoords = obj.getTexCoords();
@@ -558,23 +638,17 @@ public final class Object3DBuilder {
 				try {
 
 					boolean anyTextureOk = false;
-					String currentTexture = null;
 
 					Log.i("Object3DBuilder", "Populating texture array buffer...");
 					int counter = 0;
 					for (int i = 0; i < faces.facesTexIdxs.size(); i++) {
 
 						// get current texture
-						if (!faceMats.isEmpty() && faceMats.findMaterial(i) != null) {
-							Material mat = materials.getMaterial(faceMats.findMaterial(i));
-							if (mat != null && mat.getTexture() != null) {
-								currentTexture = mat.getTexture();
-							}
-						}
+						String currentTexture = i < faceTextures.length ? faceTextures[i] : null;
 
-						// check if texture is ok (Because we only support 1 texture currently)
+						// check if texture is ok (in case there are faces without texture. see face.obj example)
 						boolean textureOk = false;
-						if (currentTexture != null && currentTexture.equals(texture)) {
+						if (currentTexture != null && (multiTexture || currentTexture.equals(texture))) {
 							textureOk = true;
 						}
 
@@ -614,11 +688,120 @@ public final class Object3DBuilder {
 				}
 			}
 		//}
+
+		if (multiTexture && obj.getTextureCoordsArrayBuffer() != null) {
+			List<TextureGroup> groups = sortFacesByTexture(obj, faceTextures, textures);
+			for (TextureGroup group : groups) {
+				if (group.getTextureFile() != null) {
+					group.setTextureData(group.getTextureFile().equals(texture) ? textureData
+							: loadTexture(obj, group.getTextureFile()));
+				}
+			}
+			obj.setTextureGroups(groups);
+		}
 		obj.setTextureData(textureData);
 
 		return obj;
 	}
 
+	/**
+	 * Get the texture of every triangle. A triangle uses the texture of the last material with texture
+	 *
+	 * @param faces     the triangles of the model
+	 * @param faceMats  the materials used, by triangle index
+	 * @param materials the materials, already read
+	 * @param textures  where the textures are added, in the order they are first used
+	 * @return the texture of every triangle, or null if the triangle has no texture
+	 */
+	static String[] getFaceTextures(Faces faces, FaceMaterials faceMats, Materials materials, List<String> textures) {
+		final String[] faceTextures = new String[faces.getSize()];
+		String currentTexture = null;
+		for (int i = 0; i < faces.getSize(); i++) {
+			if (faceMats.findMaterial(i) != null) {
+				Material mat = materials.getMaterial(faceMats.findMaterial(i));
+				if (mat != null && mat.getTexture() != null) {
+					currentTexture = mat.getTexture();
+				}
+			}
+			faceTextures[i] = currentTexture;
+			if (currentTexture != null && !textures.contains(currentTexture)) {
+				textures.add(currentTexture);
+			}
+		}
+		return faceTextures;
+	}
+
+	/**
+	 * Sort the arrays of the faces by texture, so the faces with the same texture can be drawn together
+	 *
+	 * @param obj          the model, with its arrays already generated (3 vertices per face)
+	 * @param faceTextures the texture of every face, or null if the face has no texture
+	 * @param textures     the textures, in the order they are drawn
+	 * @return the range of vertices of every texture. The faces without texture go last
+	 */
+	static List<TextureGroup> sortFacesByTexture(Object3DData obj, String[] faceTextures, List<String> textures) {
+		final int faceCount = faceTextures.length;
+		final int groupCount = textures.size() + 1;
+		// counting sort, keeping the order of the faces of every texture
+		final int[] faceGroups = new int[faceCount];
+		final int[] starts = new int[groupCount + 1];
+		for (int i = 0; i < faceCount; i++) {
+			faceGroups[i] = faceTextures[i] != null ? textures.indexOf(faceTextures[i]) : textures.size();
+			starts[faceGroups[i] + 1]++;
+		}
+		for (int g = 0; g < groupCount; g++) {
+			starts[g + 1] += starts[g];
+		}
+		final int[] newFaces = new int[faceCount];
+		final int[] next = Arrays.copyOf(starts, groupCount);
+		for (int i = 0; i < faceCount; i++) {
+			newFaces[i] = next[faceGroups[i]]++;
+		}
+
+		obj.setVertexArrayBuffer(sortFaces(obj.getVertexArrayBuffer(), 3, newFaces));
+		obj.setVertexNormalsArrayBuffer(sortFaces(obj.getVertexNormalsArrayBuffer(), 3, newFaces));
+		obj.setVertexColorsArrayBuffer(sortFaces(obj.getVertexColorsArrayBuffer(), 4, newFaces));
+		obj.setTextureCoordsArrayBuffer(sortFaces(obj.getTextureCoordsArrayBuffer(), 2, newFaces));
+
+		List<TextureGroup> groups = new ArrayList<>();
+		for (int g = 0; g < groupCount; g++) {
+			if (starts[g + 1] > starts[g]) {
+				groups.add(new TextureGroup(g < textures.size() ? textures.get(g) : null, starts[g] * 3,
+						(starts[g + 1] - starts[g]) * 3));
+			}
+		}
+		return groups;
+	}
+
+	/**
+	 * @param buffer   the array of the faces, or null
+	 * @param size     the number of floats of every vertex
+	 * @param newFaces the new position of every face
+	 * @return a new array with the faces in the new positions
+	 */
+	private static FloatBuffer sortFaces(FloatBuffer buffer, int size, int[] newFaces) {
+		if (buffer == null) {
+			return null;
+		}
+		final int faceSize = size * 3;
+		final FloatBuffer sorted = createNativeByteBuffer(buffer.capacity() * 4).asFloatBuffer();
+		for (int i = 0; i < newFaces.length; i++) {
+			for (int j = 0; j < faceSize; j++) {
+				sorted.put(newFaces[i] * faceSize + j, buffer.get(i * faceSize + j));
+			}
+		}
+		return sorted;
+	}
+
+	private static ByteBuffer loadTexture(Object3DData obj, String texture) throws IOException {
+		Log.i("Object3DBuilder","Loading texture "+texture);
+		ByteBuffer textureData = ContentUtils.getByteBuffer(texture);
+		if (textureData == null) {
+			obj.addError("Texture '"+texture+"' not found in provided files");
+		}
+		return textureData;
+	}
+
 	private static ByteBuffer createNativeByteBuffer(int length) {
 		// initialize vertex byte buffer for shape coordinates
 		ByteBuffer bb = ByteBuffer.allocateDirect(length);
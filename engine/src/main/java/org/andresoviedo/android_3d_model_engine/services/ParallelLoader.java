@@ -0,0 +1,165 @@
+package org.andresoviedo.android_3d_model_engine.services;
+
+import android.app.Activity;
+import android.net.Uri;
+import android.util.Log;
+
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.util.android.ContentUtils;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This component loads several models at the same time using a pool of workers sized to the number of cores.
+ * Every model is parsed and its arrays are generated in one of the workers, and it is notified as soon as it is
+ * ready, so the scene can be drawn progressively.
+ *
+ * @author andresoviedo
+ */
+public final class ParallelLoader {
+
+    /**
+     * Parent activity. Required by the workers to open the assets
+     */
+    private final Activity parent;
+    /**
+     * Number of workers
+     */
+    private final int poolSize;
+    /**
+     * Workers of the current load
+     */
+    private ExecutorService executor;
+    /**
+     * Notifies the end of the current load, only once, whether all the models are loaded or the load is cancelled
+     */
+    private Runnable completion;
+    /**
+     * Whether to generate indexed geometry
+     */
+    private boolean indexed;
+
+    public ParallelLoader(Activity parent) {
+        this(parent, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelLoader(Activity parent, int poolSize) {
+        this.parent = parent;
+        this.poolSize = Math.max(1, poolSize);
+    }
+
+    /**
+     * @param indexed whether models are drawn using an index buffer with their unique vertices. This takes less
+     *                memory and it's faster for big models
+     * @return this loader
+     */
+    public ParallelLoader setIndexedGeometry(boolean indexed) {
+        this.indexed = indexed;
+        return this;
+    }
+
+    /**
+     * Load all the models in parallel. This method returns immediately.
+     *
+     * @param uris     the models to load
+     * @param callback notified from the worker threads every time a model is loaded. The load is always completed,
+     *                 even if it's cancelled (see {@link #cancel()})
+     */
+    public synchronized void load(final List<Uri> uris, final Callback callback) {
+        final AtomicInteger pending = new AtomicInteger(uris.size());
+        final AtomicInteger loaded = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicBoolean completed = new AtomicBoolean();
+        final Runnable complete = new Runnable() {
+            @Override
+            public void run() {
+                if (completed.compareAndSet(false, true)) {
+                    callback.onLoadComplete(loaded.get(), errors.get());
+                }
+            }
+        };
+        completion = complete;
+        if (uris.isEmpty()) {
+            complete.run();
+            return;
+        }
+
+        Log.i("ParallelLoader", "Loading " + uris.size() + " models using " + poolSize + " workers...");
+        executor = Executors.newFixedThreadPool(Math.min(poolSize, uris.size()), new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ParallelLoader-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (final Uri uri : uris) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // assets are opened using the activity of the current thread
+                    ContentUtils.setThreadActivity(parent);
+                    try {
+                        Object3DData data = Object3DBuilder.loadV5(parent, uri, indexed);
+                        // nothing is notified once the load is cancelled
+                        if (!completed.get()) {
+                            loaded.incrementAndGet();
+                            callback.onLoad(data);
+                        }
+                    } catch (Exception ex) {
+                        Log.e("ParallelLoader", "Problem loading '" + uri + "': " + ex.getMessage(), ex);
+                        if (!completed.get()) {
+                            errors.incrementAndGet();
+                            callback.onLoadError(uri, ex);
+                        }
+                    } finally {
+                        ContentUtils.setThreadActivity(null);
+                        if (pending.decrementAndGet() == 0) {
+                            complete.run();
+                        }
+                    }
+                }
+            });
+        }
+        // workers will finish once all the models are loaded
+        executor.shutdown();
+    }
+
+    /**
+     * Stop loading the models that are still pending. The load is completed from the calling thread with the models
+     * loaded so far, unless it was already completed
+     */
+    public synchronized void cancel() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (completion != null) {
+            completion.run();
+        }
+    }
+
+    public interface Callback {
+
+        /**
+         * @param data the model just loaded and ready to be drawn
+         */
+        void onLoad(Object3DData data);
+
+        void onLoadError(Uri uri, Exception ex);
+
+        /**
+         * Called once, when all the models are loaded or when the load is cancelled
+         *
+         * @param loaded number of models loaded
+         * @param failed number of models that couldn't be loaded
+         */
+        void onLoadComplete(int loaded, int failed);
+    }
+}
@@ -0,0 +1,166 @@
+package org.andresoviedo.android_3d_model_engine.services;
+
+import android.util.Log;
+
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Converts the arrays generated by {@link Object3DBuilder#generateArrays(Object3DData)}, where every triangle has its
+ * own copy of the vertex data, into indexed geometry. Vertices having the same position, normal, color and texture
+ * coordinates are stored only once, and the triangles are drawn using an index buffer.
+ * <p>
+ * Vertices are compared using an open addressing hash table of <code>int</code>, so no objects are allocated per
+ * vertex. The arrays with every vertex reference, the welded ones and the table are in memory at the same time, so the
+ * peak memory while loading is higher than without welding. The arrays with every vertex reference can be garbage
+ * collected as soon as the welding is done.
+ *
+ * @author andresoviedo
+ */
+final class VertexWelder {
+
+    private static final int EMPTY = -1;
+
+    // arrays with one element per vertex reference
+    private final FloatBuffer positions;
+    private final FloatBuffer normals;
+    private final FloatBuffer colors;
+    private final FloatBuffer textureCoords;
+    private final int count;
+
+    private VertexWelder(Object3DData obj) {
+        this.positions = obj.getVertexArrayBuffer();
+        this.normals = obj.getVertexNormalsArrayBuffer();
+        this.colors = obj.getVertexColorsArrayBuffer();
+        this.textureCoords = obj.getTextureCoordsArrayBuffer();
+        this.count = positions.capacity() / 3;
+    }
+
+    /**
+     * Replace the arrays of the object with the unique vertices and set the index buffer to draw them.
+     *
+     * @param obj the object with the arrays already generated
+     * @return the same object
+     */
+    static Object3DData weld(Object3DData obj) {
+        if (obj.getVertexArrayBuffer() == null || !obj.isDrawUsingArrays()) {
+            return obj;
+        }
+        return new VertexWelder(obj).replaceArrays(obj);
+    }
+
+    private Object3DData replaceArrays(Object3DData obj) {
+        // unique vertex of every vertex reference
+        final IntBuffer indices = createNativeByteBuffer(count * 4).asIntBuffer();
+        // first vertex reference of every unique vertex
+        final int[] uniqueRefs = new int[count];
+        int uniqueCount = 0;
+
+        // table of unique vertex ids. size is a power of 2, at least twice the number of references
+        int tableSize = Integer.highestOneBit(Math.max(count, 1)) << 2;
+        final int[] table = new int[tableSize];
+        for (int i = 0; i < tableSize; i++) {
+            table[i] = EMPTY;
+        }
+        final int mask = tableSize - 1;
+
+        for (int ref = 0; ref < count; ref++) {
+            int slot = hash(ref) & mask;
+            while (true) {
+                int unique = table[slot];
+                if (unique == EMPTY) {
+                    unique = uniqueCount++;
+                    uniqueRefs[unique] = ref;
+                    table[slot] = unique;
+                    indices.put(ref, unique);
+                    break;
+                }
+                if (same(uniqueRefs[unique], ref)) {
+                    indices.put(ref, unique);
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        Log.i("VertexWelder", "Welded '" + obj.getId() + "': " + count + " vertex references -> " + uniqueCount +
+                " vertices");
+
+        FloatBuffer uniquePositions = copy(positions, 3, uniqueRefs, uniqueCount);
+        // the draw order refers to this buffer
+        obj.setVertexBuffer(uniquePositions);
+        obj.setVertexArrayBuffer(uniquePositions);
+        obj.setVertexNormalsArrayBuffer(copy(normals, 3, uniqueRefs, uniqueCount));
+        obj.setVertexColorsArrayBuffer(copy(colors, 4, uniqueRefs, uniqueCount));
+        obj.setTextureCoordsArrayBuffer(copy(textureCoords, 2, uniqueRefs, uniqueCount));
+        obj.setDrawOrder(indices);
+        obj.setDrawUsingArrays(false);
+        return obj;
+    }
+
+    private int hash(int ref) {
+        int h = hash(1, positions, ref, 3);
+        h = hash(h, normals, ref, 3);
+        h = hash(h, colors, ref, 4);
+        h = hash(h, textureCoords, ref, 2);
+        // spread the bits (murmur3 finalizer) since the table size is a power of 2
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int hash(int h, FloatBuffer buffer, int ref, int size) {
+        if (buffer == null) {
+            return h;
+        }
+        for (int i = ref * size; i < ref * size + size; i++) {
+            h = 31 * h + Float.floatToIntBits(buffer.get(i));
+        }
+        return h;
+    }
+
+    private boolean same(int ref1, int ref2) {
+        return same(positions, ref1, ref2, 3) && same(normals, ref1, ref2, 3) && same(colors, ref1, ref2, 4)
+                && same(textureCoords, ref1, ref2, 2);
+    }
+
+    private static boolean same(FloatBuffer buffer, int ref1, int ref2, int size) {
+        if (buffer == null) {
+            return true;
+        }
+        for (int i = 0; i < size; i++) {
+            if (Float.floatToIntBits(buffer.get(ref1 * size + i)) != Float.floatToIntBits(buffer.get(ref2 * size + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static FloatBuffer copy(FloatBuffer buffer, int size, int[] uniqueRefs, int uniqueCount) {
+        if (buffer == null) {
+            return null;
+        }
+        FloatBuffer ret = createNativeByteBuffer(uniqueCount * size * 4).asFloatBuffer();
+        for (int unique = 0; unique < uniqueCount; unique++) {
+            for (int i = 0; i < size; i++) {
+                ret.put(unique * size + i, buffer.get(uniqueRefs[unique] * size + i));
+            }
+        }
+        return ret;
+    }
+
+    private static ByteBuffer createNativeByteBuffer(int length) {
+        // initialize vertex byte buffer for shape coordinates
+        ByteBuffer bb = ByteBuffer.allocateDirect(length);
+        // use the device hardware's native byte order
+        bb.order(ByteOrder.nativeOrder());
+        return bb;
+    }
+}
@@ -13,15 +13,13 @@ import java.util.List;
  * joint is loaded up to. It also contains the name of the bone, and a list of
  * all the child joints.
  * <p>
- * The "animatedTransform" matrix is the joint transform that I keep referring
- * to in the tutorial. This is the transform that gets loaded up to the vertex
- * shader and is used to transform vertices. It is a model-space transform that
- * transforms the joint from it's bind (original position, no animation applied)
- * position to it's current position in the current pose. Changing this
- * transform changes the position/rotation of the joint in the animated entity.
+ * The joint doesn't hold any animation state, so the same joints can be shared
+ * by several models. The "animated transform" that gets loaded up to the vertex
+ * shader is kept by every model in its
+ * {@link org.andresoviedo.android_3d_model_engine.animation.Pose}.
  * <p>
- * The two other matrices are transforms that are required to calculate the
- * "animatedTransform" in the {@link org.andresoviedo.android_3d_model_engine.animation.Animator}
+ * The two matrices of the joint are transforms that are required to calculate the
+ * animated transform in the {@link org.andresoviedo.android_3d_model_engine.animation.Animator}
  * class. It also has the local bind
  * transform which is the original (no pose/animation applied) transform of the
  * joint relative to the parent joint (in bone-space).
@@ -41,8 +39,6 @@ public class Joint {
 
     private float[] inverseBindTransform;
 
-    private final float[] animatedTransform = new float[16];
-
     /**
      * @param index                - the joint's index (ID).
      * @param name                 - the name of the joint. This is how the joint is named in the
@@ -86,22 +82,6 @@ public class Joint {
         this.children.add(child);
     }
 
-    /**
-     * The animated transform is the transform that gets loaded up to the shader
-     * and is used to deform the vertices of the "skin". It represents the
-     * transformation from the joint's bind position (original position in
-     * model-space) to the joint's desired animation pose (also in model-space).
-     * This matrix is calculated by taking the desired model-space transform of
-     * the joint and multiplying it by the inverse of the starting model-space
-     * transform of the joint.
-     *
-     * @return The transformation matrix of the joint which is used to deform
-     * associated vertices of the skin in the shaders.
-     */
-    public float[] getAnimatedTransform() {
-        return animatedTransform;
-    }
-
     /**
      * This returns the inverted model-space bind transform. The bind transform
      * is the original model-space transform of the joint (when no animation is
@@ -29,12 +29,16 @@
 
 package org.andresoviedo.android_3d_model_engine.services.wavefront;
 
+import android.annotation.TargetApi;
 import android.net.Uri;
+import android.os.Build;
 import android.opengl.GLES20;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import org.andresoviedo.util.android.ContentUtils;
+import org.andresoviedo.util.io.ByteBufferInputStream;
+import org.andresoviedo.util.io.IOUtils;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -49,9 +53,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class WavefrontLoader {
 
@@ -86,6 +93,18 @@ public class WavefrontLoader {
 
 	// flags
 	private static final int triangleMode = GLES20.GL_TRIANGLE_FAN;
+	// initial number of elements of the buffers when parsing in a single pass
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+	// whether buffers are grown while parsing (single pass mode)
+	private boolean growBuffers = false;
+	// size of the chunks when parsing in parallel
+	private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+	// smaller models are parsed faster in a single pass than splitting them
+	private static final int PARALLEL_MIN_SIZE = 2 * DEFAULT_CHUNK_SIZE;
+	// whether the first tex coord line tells if they are 3D (not the case for the chunks, except the first one)
+	private boolean checkTCs3D = true;
+	// whether some line couldn't be parsed
+	private boolean loadErrors = false;
 
 	public WavefrontLoader(String nm) {
 		modelNm = nm;
@@ -122,6 +141,13 @@ public class WavefrontLoader {
 		return materials;
 	}
 
+	/**
+	 * @return whether some vertex, normal, texture coordinate or face couldn't be parsed
+	 */
+	public boolean hasLoadErrors() {
+		return loadErrors;
+	}
+
 	public ModelDimensions getDimensions() {
 		return modelDims;
 	}
@@ -131,6 +157,29 @@ public class WavefrontLoader {
 		return getParameter(uri, "mtllib ");
 	}
 
+	/**
+	 * Find the material library of the model without parsing it. Like the parser does, the last one wins
+	 *
+	 * @param model the model contents, from its position. The buffer is not modified
+	 * @return the material library file name, or null if the model has no materials
+	 */
+	@Nullable
+	public static String getMaterialLib(ByteBuffer model) {
+		String ret = null;
+		try {
+			WavefrontScanner line = new WavefrontScanner(new ByteBufferInputStream(model));
+			while (line.nextLine()) {
+				if (line.startsWith("mtllib ")) {
+					ret = line.substring(7);
+				}
+			}
+		} catch (IOException e) {
+			// never happens since the data is in memory
+			throw new RuntimeException(e);
+		}
+		return ret;
+	}
+
 	@Nullable
 	public static String getTextureFile(Uri uri){
 		return getParameter(uri, "map_Kd ");
@@ -159,17 +208,13 @@ public class WavefrontLoader {
 	 */
 	public void analyzeModel(InputStream is) {
 		int lineNum = 0;
-		String line;
-
 
-		BufferedReader br = null;
 		try {
-			br = new BufferedReader(new InputStreamReader(is));
+			WavefrontScanner line = new WavefrontScanner(is);
 
-			while ((line = br.readLine()) != null) {
+			while (line.nextLine()) {
 				lineNum++;
-				line = line.trim();
-				if (line.length() > 0) {
+				{
 
 					if (line.startsWith("v ")) { // vertex
 						numVerts++;
@@ -179,12 +224,7 @@ public class WavefrontLoader {
 					} else if (line.startsWith("vn")) {// normal
 						numNormals++;
 					} else if (line.startsWith("f ")) { // face
-						final int faceSize;
-						if (line.contains("  ")) {
-							faceSize = line.split(" +").length - 1;
-						} else {
-							faceSize = line.split(" ").length - 1;
-						}
+						final int faceSize = line.countTokens() - 1;
 						numFaces += (faceSize - 2);
 						// (faceSize-2)x3 = converting polygon to triangles
 						numVertsReferences += (faceSize - 2) * 3;
@@ -209,12 +249,10 @@ public class WavefrontLoader {
 			Log.e("WavefrontLoader", e.getMessage(), e);
 			throw new RuntimeException(e);
 		} finally {
-			if (br != null) {
-				try {
-					br.close();
-				} catch (IOException e) {
-					Log.e("WavefrontLoader", e.getMessage(), e);
-				}
+			try {
+				is.close();
+			} catch (IOException e) {
+				Log.e("WavefrontLoader", e.getMessage(), e);
 			}
 		}
 
@@ -241,20 +279,274 @@ public class WavefrontLoader {
 
 	public void loadModel(InputStream is) {
 		// String fnm = MODEL_DIR + modelNm + ".obj";
-		BufferedReader br = null;
 		try {
-			br = new BufferedReader(new InputStreamReader(is));
-			readModel(br);
+			readModel(new WavefrontScanner(is));
 		} finally{
-			if (br != null){
-				try {
-					br.close();
-				} catch (IOException e) {
-					e.printStackTrace();
+			try {
+				is.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+	}
+
+	/**
+	 * Parse the model reading the stream only once. Buffers start with a small size and are doubled whenever they get
+	 * full, so there is no need to call {@link #analyzeModel(InputStream)} and {@link #allocateBuffers()} before.
+	 * Once the whole stream is read, the buffers are trimmed to their exact size.
+	 *
+	 * @param is data source
+	 */
+	public void loadModelSinglePass(InputStream is) {
+		growBuffers = true;
+		vertsBuffer = createNativeByteBuffer(INITIAL_BUFFER_SIZE * 3 * 4).asFloatBuffer();
+		faces = new Faces(0, createNativeByteBuffer(INITIAL_BUFFER_SIZE * 3 * 4).asIntBuffer(), null, null, texCoords);
+		try {
+			loadModel(is);
+		} finally {
+			growBuffers = false;
+		}
+
+		// buffers must have the exact size because capacity() is used to know the number of elements
+		vertsBuffer = trimToSize(vertsBuffer, numVerts * 3);
+		if (normalsBuffer != null) {
+			normalsBuffer = trimToSize(normalsBuffer, numNormals * 3);
+		}
+		numTextures = texCoords.size();
+		if (faces.getFacesLoadCounter() > 0) {
+			faces = faces.trimToSize(vertsBuffer, normalsBuffer);
+			numFaces = faces.getSize();
+			numVertsReferences = faces.getVerticesReferencesCount();
+		} else {
+			faces = null;
+		}
+
+		Log.i("WavefrontLoader","Number of vertices:"+numVerts);
+		Log.i("WavefrontLoader","Number of faces:"+numFaces);
+	}
+
+	/**
+	 * Parse the model with the fastest method supported by the device: big models are parsed in parallel (see {@link
+	 * #loadModelParallel(InputStream)}) and the rest in a single pass (see {@link #loadModelSinglePass(InputStream)})
+	 *
+	 * @param model the model contents, from its position. The buffer is not modified
+	 */
+	public void loadModel(ByteBuffer model) {
+		if (model.remaining() >= PARALLEL_MIN_SIZE && isParallelSupported()) {
+			// the chunks are scanned from a byte[], so the data is copied once
+			byte[] data = new byte[model.remaining()];
+			model.duplicate().get(data);
+			loadModelParallel(data, DEFAULT_CHUNK_SIZE);
+		} else {
+			loadModelSinglePass(new ByteBufferInputStream(model));
+		}
+	}
+
+	/**
+	 * @return true if there are several cores and the fork-join pool is available (API 21)
+	 */
+	private static boolean isParallelSupported() {
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && Runtime.getRuntime().availableProcessors() > 1;
+	}
+
+	/**
+	 * Parse the model using all the cores. The data is split in line aligned chunks that are parsed in a fork-join pool
+	 * and then merged in order, so the result is the same as parsing it with {@link #loadModelSinglePass(InputStream)}.
+	 * This is only worth it for big files, since the whole file is read into memory before parsing it. It needs the
+	 * fork-join pool (API 21), {@link #loadModel(ByteBuffer)} checks it before calling this.
+	 *
+	 * @param is data source
+	 */
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	public void loadModelParallel(InputStream is) {
+		byte[] data;
+		try {
+			data = IOUtils.read(is);
+		} catch (IOException e) {
+			Log.e("WavefrontLoader", e.getMessage(), e);
+			throw new RuntimeException(e);
+		} finally {
+			try {
+				is.close();
+			} catch (IOException e) {
+				Log.e("WavefrontLoader", e.getMessage(), e);
+			}
+		}
+		loadModelParallel(data, DEFAULT_CHUNK_SIZE);
+	}
+
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	void loadModelParallel(byte[] data, int chunkSize) {
+		// 2D or 3D tex coords depends on the first tex coord line, that may not be in the first chunk
+		boolean hasTCs3D = this.hasTCs3D;
+		try {
+			WavefrontScanner line = new WavefrontScanner(data, 0, data.length);
+			while (line.nextLine()) {
+				if (line.startsWith("vt")) {
+					hasTCs3D = checkTC3D(line);
+					Log.i("WavefrontLoader", "Using 3D tex coords: " + hasTCs3D);
+					break;
 				}
 			}
+		} catch (IOException e) {
+			// never happens since there is no stream
+			throw new RuntimeException(e);
 		}
 
+		ForkJoinPool pool = new ForkJoinPool();
+		List<WavefrontLoader> chunks;
+		try {
+			chunks = pool.invoke(new ChunkTask(data, 0, data.length, chunkSize, hasTCs3D));
+		} finally {
+			pool.shutdown();
+		}
+		Log.i("WavefrontLoader", "Parsed " + data.length + " bytes in " + chunks.size() + " chunks");
+		merge(chunks);
+
+		Log.i("WavefrontLoader","Number of vertices:"+numVerts);
+		Log.i("WavefrontLoader","Number of faces:"+numFaces);
+	}
+
+	/**
+	 * Parse the specified line aligned range of the data in a single pass
+	 *
+	 * @return the loader holding the data of the chunk
+	 */
+	private static WavefrontLoader parseChunk(byte[] data, int start, int end, boolean hasTCs3D) {
+		WavefrontLoader chunk = new WavefrontLoader("chunk");
+		chunk.hasTCs3D = hasTCs3D;
+		chunk.checkTCs3D = false;
+		chunk.growBuffers = true;
+		// a line has at least a few bytes, so small chunks don't need the default size
+		int initialSize = Math.max(1, Math.min(INITIAL_BUFFER_SIZE, (end - start) / 8));
+		chunk.vertsBuffer = createNativeByteBuffer(initialSize * 3 * 4).asFloatBuffer();
+		chunk.faces = new Faces(0, createNativeByteBuffer(initialSize * 3 * 4).asIntBuffer(), null, null,
+				chunk.texCoords);
+		chunk.readModel(new WavefrontScanner(data, start, end));
+		return chunk;
+	}
+
+	/**
+	 * Join the data of all the chunks. Face indices are absolute, so only the position of the data of each chunk
+	 * has to be calculated, and the triangle number of every usemtl is offset by the triangles of the previous chunks.
+	 *
+	 * @param chunks the parsed chunks, in the same order as they are in the file
+	 */
+	private void merge(List<WavefrontLoader> chunks) {
+		int totalFaces = 0;
+		int totalFaceVertices = 0;
+		int triangleOffset = 0;
+		for (WavefrontLoader chunk : chunks) {
+			numVerts += chunk.numVerts;
+			numNormals += chunk.numNormals;
+			totalFaces += chunk.faces.facesLoadCounter;
+			totalFaceVertices += chunk.faces.faceVertexLoadCounter;
+		}
+
+		vertsBuffer = createNativeByteBuffer(numVerts * 3 * 4).asFloatBuffer();
+		if (numNormals > 0) {
+			normalsBuffer = createNativeByteBuffer(numNormals * 3 * 4).asFloatBuffer();
+		}
+		if (totalFaces > 0) {
+			faces = new Faces(totalFaces, createNativeByteBuffer(totalFaceVertices * 4).asIntBuffer(), vertsBuffer,
+					normalsBuffer, texCoords);
+		}
+
+		for (WavefrontLoader chunk : chunks) {
+			copy(chunk.vertsBuffer, chunk.numVerts * 3, vertsBuffer);
+			if (chunk.numNormals > 0) {
+				copy(chunk.normalsBuffer, chunk.numNormals * 3, normalsBuffer);
+			}
+			texCoords.addAll(chunk.texCoords);
+			if (faces != null) {
+				Faces chunkFaces = chunk.faces;
+				IntBuffer src = chunkFaces.facesVertIdxs.duplicate();
+				src.position(0).limit(chunkFaces.faceVertexLoadCounter);
+				faces.facesVertIdxs.position(faces.faceVertexLoadCounter);
+				faces.facesVertIdxs.put(src);
+				faces.faceVertexLoadCounter += chunkFaces.faceVertexLoadCounter;
+				faces.facesTexIdxs.addAll(chunkFaces.facesTexIdxs);
+				faces.facesNormIdxs.addAll(chunkFaces.facesNormIdxs);
+				faces.facesLoadCounter += chunkFaces.facesLoadCounter;
+				faces.verticesReferencesCount += chunkFaces.verticesReferencesCount;
+			}
+			loadErrors = loadErrors || chunk.loadErrors;
+			faceMats.addUses(chunk.faceMats, triangleOffset);
+			triangleOffset += chunk.faces.facesLoadCounter;
+			if (chunk.materials != null) {
+				// the last mtllib wins, as when parsing sequentially
+				materials = chunk.materials;
+			}
+		}
+		vertsBuffer.position(0);
+		if (normalsBuffer != null) {
+			normalsBuffer.position(0);
+		}
+		if (faces != null) {
+			faces.facesVertIdxs.position(0);
+			numFaces = faces.getSize();
+			numVertsReferences = faces.getVerticesReferencesCount();
+		}
+		numTextures = texCoords.size();
+
+		// dimensions are calculated in the same order so the floating point sums are the same
+		for (int i = 0; i < numVerts; i++) {
+			float x = vertsBuffer.get(i * 3), y = vertsBuffer.get(i * 3 + 1), z = vertsBuffer.get(i * 3 + 2);
+			if (i == 0)
+				modelDims.set(x, y, z);
+			else
+				modelDims.update(x, y, z);
+			modelDims.addNumVerts();
+		}
+	}
+
+	private static void copy(FloatBuffer src, int size, FloatBuffer dst) {
+		FloatBuffer data = src.duplicate();
+		data.position(0).limit(size);
+		dst.put(data);
+	}
+
+	/**
+	 * Splits the data in two halves, at a line boundary, until the chunk is small enough to be parsed.
+	 */
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private static final class ChunkTask extends RecursiveTask<List<WavefrontLoader>> {
+
+		private final byte[] data;
+		private final int start;
+		private final int end;
+		private final int chunkSize;
+		private final boolean hasTCs3D;
+
+		ChunkTask(byte[] data, int start, int end, int chunkSize, boolean hasTCs3D) {
+			this.data = data;
+			this.start = start;
+			this.end = end;
+			this.chunkSize = chunkSize;
+			this.hasTCs3D = hasTCs3D;
+		}
+
+		@Override
+		protected List<WavefrontLoader> compute() {
+			int middle = start + (end - start) / 2;
+			while (middle < end && data[middle] != '\n' && data[middle] != '\r') {
+				middle++;
+			}
+			if (end - start <= chunkSize || middle >= end - 1) {
+				List<WavefrontLoader> ret = new ArrayList<>(1);
+				ret.add(parseChunk(data, start, end, hasTCs3D));
+				return ret;
+			}
+			// the new line belongs to the first half
+			middle++;
+			ChunkTask first = new ChunkTask(data, start, middle, chunkSize, hasTCs3D);
+			first.fork();
+			List<WavefrontLoader> ret = new ChunkTask(data, middle, end, chunkSize, hasTCs3D).compute();
+			List<WavefrontLoader> firstChunks = first.join();
+			firstChunks.addAll(ret);
+			return firstChunks;
+		}
 	}
 
 	private static ByteBuffer createNativeByteBuffer(int length) {
@@ -265,28 +557,86 @@ public class WavefrontLoader {
 		return bb;
 	}
 
-	private void readModel(BufferedReader br)
+	/**
+	 * Make sure the buffer can hold the specified number of floats. If not, a new buffer of double size is allocated
+	 * and the current data is copied into it.
+	 *
+	 * @param buffer   the current buffer
+	 * @param capacity the required capacity
+	 * @return the same buffer if it was big enough, otherwise the new one
+	 */
+	static FloatBuffer ensureCapacity(FloatBuffer buffer, int capacity) {
+		if (buffer.capacity() >= capacity) {
+			return buffer;
+		}
+		FloatBuffer ret = createNativeByteBuffer(Math.max(capacity, buffer.capacity() * 2) * 4).asFloatBuffer();
+		FloatBuffer src = buffer.duplicate();
+		src.clear();
+		ret.put(src);
+		ret.position(0);
+		return ret;
+	}
+
+	static IntBuffer ensureCapacity(IntBuffer buffer, int capacity) {
+		if (buffer.capacity() >= capacity) {
+			return buffer;
+		}
+		IntBuffer ret = createNativeByteBuffer(Math.max(capacity, buffer.capacity() * 2) * 4).asIntBuffer();
+		IntBuffer src = buffer.duplicate();
+		src.clear();
+		ret.put(src);
+		ret.position(0);
+		return ret;
+	}
+
+	static FloatBuffer trimToSize(FloatBuffer buffer, int size) {
+		if (buffer.capacity() == size) {
+			return buffer;
+		}
+		FloatBuffer ret = createNativeByteBuffer(size * 4).asFloatBuffer();
+		FloatBuffer src = buffer.duplicate();
+		src.position(0).limit(size);
+		ret.put(src);
+		ret.position(0);
+		return ret;
+	}
+
+	static IntBuffer trimToSize(IntBuffer buffer, int size) {
+		if (buffer.capacity() == size) {
+			return buffer;
+		}
+		IntBuffer ret = createNativeByteBuffer(size * 4).asIntBuffer();
+		IntBuffer src = buffer.duplicate();
+		src.position(0).limit(size);
+		ret.put(src);
+		ret.position(0);
+		return ret;
+	}
+
+	private void readModel(WavefrontScanner line)
 	// parse the OBJ file line-by-line
 	{
 		boolean isLoaded = true; // hope things will go okay
 
 		int lineNum = 0;
-		String line;
 		boolean isFirstCoord = true;
 		boolean isFirstTC = true;
-		int numFaces = 0;
 
 		int vertNumber = 0;
 		int normalNumber = 0;
 
 
 		try {
-			while (((line = br.readLine()) != null)) {
+			while (line.nextLine()) {
 				lineNum++;
-				line = line.trim();
-				if (line.length() > 0) {
+				{
 
 					if (line.startsWith("v ")) { // vertex
+						if (growBuffers) {
+							vertsBuffer = ensureCapacity(vertsBuffer, (vertNumber + 1) * 3);
+							numVerts++;
+							modelDims.addNumVerts();
+						}
 						isLoaded = addVert(vertsBuffer, vertNumber++ * 3, line, isFirstCoord, modelDims) && isLoaded;
 						if (isFirstCoord)
 							isFirstCoord = false;
@@ -294,18 +644,26 @@ public class WavefrontLoader {
 						isLoaded = addTexCoord(line, isFirstTC) && isLoaded;
 						if (isFirstTC)
 							isFirstTC = false;
-					} else if (line.startsWith("vn")) // normal
-						isLoaded = addVert(normalsBuffer, normalNumber++ * 3,line, isFirstCoord, null) && isLoaded;
-					else if (line.startsWith("f ")) { // face
+					} else if (line.startsWith("vn")) { // normal
+						if (growBuffers) {
+							normalsBuffer = normalsBuffer == null ? createNativeByteBuffer(INITIAL_BUFFER_SIZE * 3 * 4)
+									.asFloatBuffer() : ensureCapacity(normalsBuffer, (normalNumber + 1) * 3);
+							numNormals++;
+						}
+						isLoaded = addVert(normalsBuffer, normalNumber++ * 3, line, isFirstCoord, null) && isLoaded;
+					} else if (line.startsWith("f ")) { // face
 						isLoaded = faces.addFace(line) && isLoaded;
-						numFaces++;
 					} else if (line.startsWith("mtllib ")) // build material
 					{
 						// materials = new Materials(new File(modelFile.getParent(),
 						// line.substring(7)).getAbsolutePath());
-						// materials = new Materials(line.substring(7));
+						if (growBuffers) {
+							// in single pass mode there is no previous analysis to build this
+							materials = new Materials(line.substring(7));
+						}
 					} else if (line.startsWith("usemtl ")) // use material
-						faceMats.addUse(numFaces, line.substring(7));
+						// polygons are converted to triangles, so the index is the one of the next triangle
+						faceMats.addUse(faces != null ? faces.getFacesLoadCounter() : 0, line.substring(7));
 					else if (line.charAt(0) == 'g') { // group name
 						// not implemented
 					} else if (line.charAt(0) == 's') { // smoothing group
@@ -324,6 +682,7 @@ public class WavefrontLoader {
 		}
 
 		if (!isLoaded) {
+			loadErrors = true;
 			Log.e("WavefrontLoader","Error loading model");
 			// throw new RuntimeException("Error loading model");
 		}
@@ -340,23 +699,17 @@ public class WavefrontLoader {
 	 * @param dimensions the model dimesions so they are updated (TODO move this out of this method)
 	 * @return <code>true</code> if the vertex could be parsed, <code>false</code> otherwise
 	 */
-	private boolean addVert(FloatBuffer buffer, int offset, String line, boolean isFirstCoord, ModelDimensions dimensions)
+	private boolean addVert(FloatBuffer buffer, int offset, WavefrontScanner line, boolean isFirstCoord, ModelDimensions dimensions)
 	/*
 	 * Add vertex from line "v x y z" to vert ArrayList, and update the model dimension's info.
 	 */
 	{
 		float x=0,y=0,z=0;
 		try{
-			String[] tokens = null;
-			if (line.contains("  ")){
-				tokens = line.split(" +");
-			}
-			else{
-				tokens = line.split(" ");
-			}
-			x = Float.parseFloat(tokens[1]);
-			y = Float.parseFloat(tokens[2]);
-			z = Float.parseFloat(tokens[3]);
+			line.skipKeyword();
+			x = line.nextFloat();
+			y = line.nextFloat();
+			z = line.nextFloat();
 
 			if (dimensions != null) {
 				if (isFirstCoord)
@@ -377,13 +730,13 @@ public class WavefrontLoader {
 		return false;
 	} // end of addVert()
 
-	private boolean addTexCoord(String line, boolean isFirstTC)
+	private boolean addTexCoord(WavefrontScanner line, boolean isFirstTC)
 	/*
 	 * Add the texture coordinate from the line "vt u v w" to the texCoords ArrayList. There may only be two tex coords
 	 * on the line, which is determined by looking at the first tex coord line.
 	 */
 	{
-		if (isFirstTC) {
+		if (isFirstTC && checkTCs3D) {
 			hasTCs3D = checkTC3D(line);
 			System.out.println("Using 3D tex coords: " + hasTCs3D);
 		}
@@ -397,31 +750,29 @@ public class WavefrontLoader {
 		return false;
 	} // end of addTexCoord()
 
-	private boolean checkTC3D(String line)
+	private boolean checkTC3D(WavefrontScanner line)
 	/*
 	 * Check if the line has 4 tokens, which will be the "vt" token and 3 tex coords in this case.
 	 */
 	{
-		String[] tokens = line.split("\\s+");
-		return (tokens.length == 4);
+		return (line.countTokens() == 4);
 	} // end of checkTC3D()
 
-	private Tuple3 readTCTuple(String line)
+	private Tuple3 readTCTuple(WavefrontScanner line)
 	/*
 	 * The line starts with a "vt" OBJ word and two or three floats (x, y, z) for the tex coords separated by spaces. If
 	 * there are only two coords, then the z-value is assigned a dummy value, DUMMY_Z_TC.
 	 */
 	{
-		StringTokenizer tokens = new StringTokenizer(line, " ");
-		tokens.nextToken(); // skip "vt" OBJ word
+		line.skipKeyword(); // skip "vt" OBJ word
 
 		try {
-			float x = Float.parseFloat(tokens.nextToken());
-			float y = Float.parseFloat(tokens.nextToken());
+			float x = line.nextFloat();
+			float y = line.nextFloat();
 
 			float z = DUMMY_Z_TC;
 			if (hasTCs3D)
-				z = Float.parseFloat(tokens.nextToken());
+				z = line.nextFloat();
 			return new Tuple3(x, y, z);
 		} catch (NumberFormatException e) {
 			System.out.println(e.getMessage());
@@ -886,6 +1237,11 @@ public class WavefrontLoader {
 		private FloatBuffer normals;
 		private ArrayList<Tuple3> texCoords;
 
+		// reused for parsing v/vt/vn tokens: {v, vt, vn, number of values}
+		private final int[] firstToken = new int[4];
+		private int[] prevToken = new int[4];
+		private int[] prevPrevToken = new int[4];
+
 		// Total number of vertices references. That is, each face references 3 or more vectors. This is the sum for all
 		// faces
 		private int facesLoadCounter;
@@ -925,26 +1281,21 @@ public class WavefrontLoader {
 		 * get this face's indicies from line "f v/vt/vn ..." with vt or vn index values perhaps being absent.
 		 */
 		public boolean addFace(String line) {
-			try {
-				line = line.substring(2); // skip the "f "
-				String[] tokens = null;
-
-				// cpu optimization
-				if (line.contains("  ")){
-					tokens = line.split(" +");
-				}
-				else{
-					tokens = line.split(" ");
-				}
+			return addFace(new WavefrontScanner(line));
+		}
 
-				int numTokens = tokens.length; // number of v/vt/vn tokens
-				// create arrays to hold the v, vt, vn indicies
+		/**
+		 * get this face's indicies from the current line of the scanner. Indices are parsed directly from the scanner
+		 * buffer, so no strings are allocated.
+		 */
+		boolean addFace(WavefrontScanner line) {
+			try {
+				line.skipKeyword(); // skip the "f "
 
 				int vt[] = null;
 				int vn[] = null;
 
-
-				for (int i = 0, faceIndex = 0; i < numTokens; i++, faceIndex++) {
+				for (int i = 0, faceIndex = 0; line.hasNextToken(); i++, faceIndex++) {
 
 					// convert to triangles all polygons
 					if (faceIndex > 2){
@@ -959,61 +1310,29 @@ public class WavefrontLoader {
 						vt = null;
 						vn = null;
 
-						i -= 2;
-					}
-
-					// convert to triangles all polygons
-					String faceToken = null;
-					if (WavefrontLoader.triangleMode == GLES20.GL_TRIANGLE_FAN) {
-						if (faceIndex == 0){
-							// In FAN mode all faces shares the initial vertex
-							faceToken = tokens[0];// get a v/vt/vn
-						}else{
-							faceToken = tokens[i]; // get a v/vt/vn
-						}
-					}
-					else {
+						// In FAN mode all faces shares the initial vertex
 						// GL.GL_TRIANGLES | GL.GL_TRIANGLE_STRIP
-						faceToken = tokens[i]; // get a v/vt/vn
-					}
-					// token
-					// System.out.println(faceToken);
-
-					String[] faceTokens = faceToken.split("/");
-					int numSeps = faceTokens.length; // how many '/'s are there in
-					// the token
-
-					int vertIdx = Integer.parseInt(faceTokens[0]);
-					/*if (vertIdx > 65535){
-						Log.e("WavefrontLoader","Ignoring face because its out of range (>65535)");
-						continue;
-					}*/
-					if (numSeps > 1){
-						if (vt == null)	vt = new int[3];
-						try{
-							vt[faceIndex] = Integer.parseInt(faceTokens[1]);
-						}catch(NumberFormatException ex){
-							vt[faceIndex] = 0;
+						int[] faceToken = WavefrontLoader.triangleMode == GLES20.GL_TRIANGLE_FAN ? firstToken :
+								prevPrevToken;
+						for (int[] token = faceToken; token != null; token = token == faceToken ? prevToken : null) {
+							if (token[3] > 1 && vt == null) vt = new int[3];
+							if (token[3] > 2 && vn == null) vn = new int[3];
+							addFaceVertex(faceIndex++, token, vt, vn);
 						}
 					}
-					if (numSeps > 2){
-						if (vn == null)	vn = new int[3];
-						try{
-							vn[faceIndex] = Integer.parseInt(faceTokens[2]);
-						}catch(NumberFormatException ex){
-							vn[faceIndex] = 0;
-						}
-					}
-					// add 0's if the vt or vn index values are missing;
-					// 0 is a good choice since real indices start at 1
 
-					if (WavefrontLoader.INDEXES_START_AT_1) {
-						vertIdx--;
-						if (vt != null)	vt[faceIndex] = vt[faceIndex] - 1;
-						if (vn != null) vn[faceIndex] = vn[faceIndex] - 1;
+					// get a v/vt/vn token. last value is how many values are there in the token
+					int[] faceToken = prevPrevToken;
+					prevPrevToken = prevToken;
+					prevToken = faceToken;
+					faceToken[3] = line.nextFaceIndices(faceToken);
+					if (i == 0) {
+						System.arraycopy(faceToken, 0, firstToken, 0, 4);
 					}
-					// store the indices for this face
-					facesVertIdxs.put(faceVertexLoadCounter++,vertIdx);
+
+					if (faceToken[3] > 1 && vt == null) vt = new int[3];
+					if (faceToken[3] > 2 && vn == null) vn = new int[3];
+					addFaceVertex(faceIndex, faceToken, vt, vn);
 				}
 				if (vt != null)  facesTexIdxs.add(vt);
 				if (vn != null) facesNormIdxs.add(vn);
@@ -1028,12 +1347,59 @@ public class WavefrontLoader {
 			return true;
 		}
 
+		private void addFaceVertex(int faceIndex, int[] faceToken, int[] vt, int[] vn) {
+			int vertIdx = faceToken[0];
+			int numSeps = faceToken[3];
+			if (numSeps > 1){
+				vt[faceIndex] = faceToken[1];
+			}
+			if (numSeps > 2){
+				vn[faceIndex] = faceToken[2];
+			}
+			// add 0's if the vt or vn index values are missing;
+			// 0 is a good choice since real indices start at 1
+
+			if (WavefrontLoader.INDEXES_START_AT_1) {
+				vertIdx--;
+				if (vt != null)	vt[faceIndex] = vt[faceIndex] - 1;
+				if (vn != null) vn[faceIndex] = vn[faceIndex] - 1;
+			}
+			// store the indices for this face
+			if (faceVertexLoadCounter == facesVertIdxs.capacity()) {
+				// only happens when parsing in a single pass
+				facesVertIdxs = ensureCapacity(facesVertIdxs, faceVertexLoadCounter + 1);
+			}
+			facesVertIdxs.put(faceVertexLoadCounter++,vertIdx);
+		}
 
 		public int getVerticesReferencesCount() {
 			// we have only triangles
 			return getSize()*3;
 		}
 
+		int getFacesLoadCounter() {
+			return facesLoadCounter;
+		}
+
+		/**
+		 * Build the final faces once they were parsed in a single pass, that is, when the total number of faces was not
+		 * known in advance.
+		 *
+		 * @param vs the final vertex buffer
+		 * @param ns the final normals buffer
+		 * @return new faces having the index buffer trimmed to the exact size
+		 */
+		Faces trimToSize(FloatBuffer vs, FloatBuffer ns) {
+			Faces ret = new Faces(facesLoadCounter, WavefrontLoader.trimToSize(facesVertIdxs, faceVertexLoadCounter),
+					vs, ns, texCoords);
+			ret.facesTexIdxs = facesTexIdxs;
+			ret.facesNormIdxs = facesNormIdxs;
+			ret.facesLoadCounter = facesLoadCounter;
+			ret.faceVertexLoadCounter = faceVertexLoadCounter;
+			ret.verticesReferencesCount = verticesReferencesCount;
+			return ret;
+		}
+
 		public IntBuffer getIndexBuffer(){return facesVertIdxs;}
 
 	} // end of Faces class
@@ -1047,6 +1413,10 @@ public class WavefrontLoader {
 
 		// how many times a material (string) is used
 
+		// every use, in the same order as in the file
+		private final List<Integer> useFaceIdxs = new ArrayList<Integer>();
+		private final List<String> useMatNames = new ArrayList<String>();
+
 		public FaceMaterials() {
 			faceMats = new HashMap<Integer, String>();
 			matCount = new HashMap<String, Integer>();
@@ -1057,6 +1427,8 @@ public class WavefrontLoader {
 			if (faceMats.containsKey(faceIdx)) // face index already present
 				System.out.println("Face index " + faceIdx + " changed to use material " + matName);
 			faceMats.put(faceIdx, matName);
+			useFaceIdxs.add(faceIdx);
+			useMatNames.add(matName);
 
 			// store how many times matName has been used by faces
 			if (matCount.containsKey(matName)) {
@@ -1066,6 +1438,18 @@ public class WavefrontLoader {
 				matCount.put(matName, 1);
 		} // end of addUse()
 
+		/**
+		 * Add all the uses of the other materials, in the same order they were added to it
+		 *
+		 * @param other      the materials used by the faces of a chunk of the file
+		 * @param faceOffset number of faces before the chunk
+		 */
+		void addUses(FaceMaterials other, int faceOffset) {
+			for (int i = 0; i < other.useFaceIdxs.size(); i++) {
+				addUse(faceOffset + other.useFaceIdxs.get(i), other.useMatNames.get(i));
+			}
+		}
+
 		public String findMaterial(int faceIdx) {
 			return (String) faceMats.get(faceIdx);
 		}
@@ -11,7 +11,7 @@ import org.andresoviedo.android_3d_model_engine.services.LoaderTask;
 import org.andresoviedo.util.android.ContentUtils;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 
@@ -29,17 +29,13 @@ public class WavefrontLoaderTask extends LoaderTask {
 
     @Override
     protected List<Object3DData> build() throws IOException {
-        InputStream params0 = ContentUtils.getInputStream(uri);
+        // the model is memory mapped when possible, so it's not copied to the heap
+        ByteBuffer model = ContentUtils.getByteBuffer(uri);
         WavefrontLoader wfl = new WavefrontLoader("");
 
-        // allocate memory
-        publishProgress(0);
-        wfl.analyzeModel(params0);
-        params0.close();
-
-        // Allocate memory
-        publishProgress(1);
-        wfl.allocateBuffers();
+        // parse model in a single pass or in parallel if it's big (buffers are allocated on the fly)
+        publishProgress(2);
+        wfl.loadModel(model);
         wfl.reportOnModel();
 
         // create the 3D object
@@ -56,15 +52,9 @@ public class WavefrontLoaderTask extends LoaderTask {
 
     @Override
     protected void build(List<Object3DData> datas) throws Exception {
-        InputStream stream = ContentUtils.getInputStream(uri);
         try {
             Object3DData data = datas.get(0);
 
-            // parse model
-            publishProgress(2);
-            data.getLoader().loadModel(stream);
-            stream.close();
-
             // scale object
             publishProgress(3);
             data.centerScale();
@@ -0,0 +1,353 @@
+package org.andresoviedo.android_3d_model_engine.services.wavefront;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Line scanner for wavefront files that works directly on a reused <code>byte[]</code> buffer, so parsing lines,
+ * floats and <code>v/vt/vn</code> indices doesn't allocate any <code>String</code> or array per token.
+ * <p>
+ * Lines are trimmed and empty lines are skipped, as it was done before with
+ * <code>BufferedReader.readLine().trim()</code>.
+ *
+ * @author andresoviedo
+ */
+final class WavefrontScanner {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Exact powers of ten that can be represented by a float
+     */
+    private static final float[] POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    /**
+     * Biggest mantissa that can be represented exactly by a float (24 bits)
+     */
+    private static final long MAX_EXACT_MANTISSA = 1 << 24;
+
+    private final InputStream is;
+    private byte[] buffer;
+    // buffer window with data read from the stream
+    private int bufferPos;
+    private int bufferLimit;
+    private boolean eof;
+
+    // current line
+    private int lineStart;
+    private int lineEnd;
+    private int pos;
+
+    WavefrontScanner(InputStream is) {
+        this(is, DEFAULT_BUFFER_SIZE);
+    }
+
+    WavefrontScanner(InputStream is, int bufferSize) {
+        this.is = is;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Scan a single line. Useful to parse lines that are already in memory
+     *
+     * @param line the line to scan
+     */
+    WavefrontScanner(String line) {
+        this.is = null;
+        this.buffer = line.trim().getBytes();
+        this.bufferLimit = buffer.length;
+        this.eof = true;
+        this.lineStart = 0;
+        this.lineEnd = buffer.length;
+        this.pos = 0;
+    }
+
+    /**
+     * Scan the bytes in the specified range. The caller must make sure the range is line aligned
+     *
+     * @param data  the data to scan
+     * @param start first byte of the range
+     * @param end   first byte after the range
+     */
+    WavefrontScanner(byte[] data, int start, int end) {
+        this.is = null;
+        this.buffer = data;
+        this.bufferPos = start;
+        this.bufferLimit = end;
+        this.eof = true;
+    }
+
+    /**
+     * Move to the next non empty line
+     *
+     * @return <code>true</code> if there is a new line, <code>false</code> if the end of the data was reached
+     * @throws IOException if there is an error reading the stream
+     */
+    boolean nextLine() throws IOException {
+        while (true) {
+            // find the end of the line
+            int end = bufferPos;
+            while (end < bufferLimit && buffer[end] != '\n' && buffer[end] != '\r') {
+                end++;
+            }
+            if (end == bufferLimit && !eof) {
+                // line is not complete. read more data
+                fill();
+                continue;
+            }
+            if (end == bufferPos && end == bufferLimit) {
+                return false;
+            }
+            int start = bufferPos;
+            bufferPos = end < bufferLimit ? end + 1 : end;
+
+            // trim
+            while (start < end && (buffer[start] & 0xff) <= ' ') {
+                start++;
+            }
+            while (end > start && (buffer[end - 1] & 0xff) <= ' ') {
+                end--;
+            }
+            if (start == end) {
+                continue;
+            }
+            lineStart = start;
+            lineEnd = end;
+            pos = start;
+            return true;
+        }
+    }
+
+    private void fill() throws IOException {
+        // move the pending bytes to the beginning of the buffer
+        int pending = bufferLimit - bufferPos;
+        if (pending == buffer.length) {
+            // line is longer than the buffer
+            byte[] newBuffer = new byte[buffer.length * 2];
+            System.arraycopy(buffer, bufferPos, newBuffer, 0, pending);
+            buffer = newBuffer;
+        } else if (bufferPos > 0) {
+            System.arraycopy(buffer, bufferPos, buffer, 0, pending);
+        }
+        bufferPos = 0;
+        bufferLimit = pending;
+        int read = is.read(buffer, bufferLimit, buffer.length - bufferLimit);
+        if (read == -1) {
+            eof = true;
+        } else {
+            bufferLimit += read;
+        }
+    }
+
+    int length() {
+        return lineEnd - lineStart;
+    }
+
+    char charAt(int index) {
+        return (char) (buffer[lineStart + index] & 0xff);
+    }
+
+    /**
+     * @param prefix ascii prefix
+     * @return <code>true</code> if the current line starts with the prefix
+     */
+    boolean startsWith(String prefix) {
+        if (prefix.length() > length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buffer[lineStart + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param index position in the line
+     * @return the line from the specified position. This allocates a new string
+     */
+    String substring(int index) {
+        return new String(buffer, lineStart + index, lineEnd - lineStart - index);
+    }
+
+    @Override
+    public String toString() {
+        return substring(0);
+    }
+
+    /**
+     * Skip the first token of the line (i.e. the "v", "vt" or "f" keyword)
+     */
+    void skipKeyword() {
+        pos = lineStart;
+        while (pos < lineEnd && buffer[pos] != ' ' && buffer[pos] != '\t') {
+            pos++;
+        }
+    }
+
+    /**
+     * @return the number of tokens in the line, including the keyword
+     */
+    int countTokens() {
+        int count = 0;
+        boolean inToken = false;
+        for (int i = lineStart; i < lineEnd; i++) {
+            boolean separator = buffer[i] == ' ' || buffer[i] == '\t';
+            if (!separator && !inToken) {
+                count++;
+            }
+            inToken = !separator;
+        }
+        return count;
+    }
+
+    private boolean skipSpaces() {
+        while (pos < lineEnd && (buffer[pos] == ' ' || buffer[pos] == '\t')) {
+            pos++;
+        }
+        return pos < lineEnd;
+    }
+
+    /**
+     * @return <code>true</code> if there are more tokens in the current line
+     */
+    boolean hasNextToken() {
+        return skipSpaces();
+    }
+
+    /**
+     * Parse the next float of the line.
+     *
+     * @return the parsed float
+     * @throws NumberFormatException if the token is not a valid float
+     */
+    float nextFloat() {
+        if (!skipSpaces()) {
+            throw new NumberFormatException("Missing float in line '" + toString() + "'");
+        }
+        final int tokenStart = pos;
+        boolean negative = false;
+        if (buffer[pos] == '-' || buffer[pos] == '+') {
+            negative = buffer[pos] == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        for (; pos < lineEnd && buffer[pos] >= '0' && buffer[pos] <= '9'; pos++) {
+            anyDigit = true;
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (buffer[pos] - '0');
+                if (mantissa != 0) digits++;
+            } else {
+                exponent++;
+            }
+        }
+        if (pos < lineEnd && buffer[pos] == '.') {
+            pos++;
+            for (; pos < lineEnd && buffer[pos] >= '0' && buffer[pos] <= '9'; pos++) {
+                anyDigit = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (buffer[pos] - '0');
+                    if (mantissa != 0) digits++;
+                    exponent--;
+                }
+            }
+        }
+        if (anyDigit && pos < lineEnd && (buffer[pos] == 'e' || buffer[pos] == 'E')) {
+            pos++;
+            boolean negativeExp = false;
+            if (pos < lineEnd && (buffer[pos] == '-' || buffer[pos] == '+')) {
+                negativeExp = buffer[pos] == '-';
+                pos++;
+            }
+            int exp = 0;
+            boolean anyExpDigit = false;
+            for (; pos < lineEnd && buffer[pos] >= '0' && buffer[pos] <= '9'; pos++) {
+                anyExpDigit = true;
+                if (exp < 10000) exp = exp * 10 + (buffer[pos] - '0');
+            }
+            if (!anyExpDigit) {
+                anyDigit = false;
+            }
+            exponent += negativeExp ? -exp : exp;
+        }
+        if (!anyDigit || (pos < lineEnd && buffer[pos] != ' ' && buffer[pos] != '\t')) {
+            // not a plain number (i.e. "nan", "1.0f", "1/2"). let the jdk decide
+            while (pos < lineEnd && buffer[pos] != ' ' && buffer[pos] != '\t') {
+                pos++;
+            }
+            return Float.parseFloat(new String(buffer, tokenStart, pos - tokenStart));
+        }
+
+        final float ret;
+        if (mantissa == 0) {
+            ret = 0f;
+        } else if (mantissa <= MAX_EXACT_MANTISSA && exponent >= -10 && exponent <= 10) {
+            // both values are exact floats, so the single float operation is correctly rounded: the result is the
+            // same as Float.parseFloat(). this covers the usual 6 or 7 digits of the exporters
+            ret = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            ret = Float.parseFloat(new String(buffer, tokenStart, pos - tokenStart));
+            return ret;
+        }
+        return negative ? -ret : ret;
+    }
+
+    /**
+     * Parse the next <code>v/vt/vn</code> token of a face line. Missing or empty <code>vt</code> and
+     * <code>vn</code> values are returned as 0. Trailing empty values are ignored, like
+     * <code>String.split("/")</code> does.
+     *
+     * @param indices array where to store the 3 parsed values (it may be bigger)
+     * @return the number of values found in the token (1 to 3)
+     * @throws NumberFormatException if the vertex index is not valid
+     */
+    int nextFaceIndices(int[] indices) {
+        if (!skipSpaces()) {
+            throw new NumberFormatException("Missing face index in line '" + toString() + "'");
+        }
+        int count = 0;
+        int lastNonEmpty = 0;
+        indices[0] = indices[1] = indices[2] = 0;
+        while (true) {
+            int start = pos;
+            boolean negative = false;
+            if (pos < lineEnd && buffer[pos] == '-') {
+                negative = true;
+                pos++;
+            }
+            int value = 0;
+            boolean anyDigit = false;
+            for (; pos < lineEnd && buffer[pos] >= '0' && buffer[pos] <= '9'; pos++) {
+                anyDigit = true;
+                value = value * 10 + (buffer[pos] - '0');
+            }
+            boolean endOfValue = pos == lineEnd || buffer[pos] == '/' || buffer[pos] == ' ' || buffer[pos] == '\t';
+            if (count == 0 && (!anyDigit || !endOfValue)) {
+                throw new NumberFormatException("Wrong vertex index in line '" + toString() + "'");
+            }
+            if (count < 3) {
+                // a non numeric vt or vn is considered 0
+                indices[count] = anyDigit && endOfValue ? (negative ? -value : value) : 0;
+            }
+            if (pos > start) {
+                lastNonEmpty = count + 1;
+            }
+            count++;
+            // skip garbage till the next separator
+            while (pos < lineEnd && buffer[pos] != '/' && buffer[pos] != ' ' && buffer[pos] != '\t') {
+                pos++;
+            }
+            if (pos < lineEnd && buffer[pos] == '/') {
+                pos++;
+                continue;
+            }
+            break;
+        }
+        return Math.min(lastNonEmpty, 3);
+    }
+}
@@ -7,17 +7,25 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
 import android.os.Build;
 import android.util.Log;
 
+import org.andresoviedo.util.io.IOUtils;
+
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -89,16 +97,33 @@ public class ContentUtils {
      * @throws IOException if there is an error opening stream
      */
     public static InputStream getInputStream(String path) throws IOException {
+        Uri uri = findUri(path);
+        return uri != null ? getInputStream(uri) : null;
+    }
+
+    /**
+     * Find the relative file that should be already selected by the user, without copying it when possible (see
+     * {@link #getByteBuffer(Uri)})
+     *
+     * @param path relative file
+     * @return read only view of the file, or null if it's not found
+     * @throws IOException if there is an error reading the file
+     */
+    public static ByteBuffer getByteBuffer(String path) throws IOException {
+        Uri uri = findUri(path);
+        return uri != null ? getByteBuffer(uri) : null;
+    }
+
+    private static Uri findUri(String path) {
         Uri uri = getUri(path);
         if (uri == null && currentDir != null) {
             uri = Uri.parse("file://" + new File(currentDir, path).getAbsolutePath());
         }
-        if (uri != null) {
-            return getInputStream(uri);
+        if (uri == null) {
+            Log.w("ContentUtils", "Media not found: " + path);
+            Log.w("ContentUtils", "Available media: " + documentsProvided);
         }
-        Log.w("ContentUtils","Media not found: "+path);
-        Log.w("ContentUtils","Available media: "+documentsProvided);
-        return null;
+        return uri;
     }
 
     public static InputStream getInputStream(URI uri) throws IOException {
@@ -117,6 +142,71 @@ public class ContentUtils {
         return getCurrentActivity().getContentResolver().openInputStream(uri);
     }
 
+    /**
+     * Get the contents of the uri. Files, assets stored uncompressed in the apk and documents backed by a file are
+     * memory mapped: there is no copy in the java heap, the pages are read by the operating system when they are
+     * accessed and they can be reclaimed when memory is low. The rest are read from their stream.
+     *
+     * @param uri the uri
+     * @return read only view of the contents
+     * @throws IOException if there is an error reading the contents
+     */
+    public static ByteBuffer getByteBuffer(Uri uri) throws IOException {
+        ByteBuffer mapped = null;
+        if ("file".equals(uri.getScheme())) {
+            mapped = map(new File(uri.getPath()));
+        } else if ("assets".equals(uri.getScheme())) {
+            try {
+                mapped = map(getCurrentActivity().getAssets().openFd(uri.getPath().substring(1)));
+            } catch (FileNotFoundException ex) {
+                // compressed in the apk. it can only be streamed
+                Log.d("ContentUtils", "Asset is compressed: " + uri.getPath());
+            }
+        } else if ("content".equals(uri.getScheme())) {
+            mapped = map(getCurrentActivity().getContentResolver().openAssetFileDescriptor(uri, "r"));
+        }
+        if (mapped != null) {
+            Log.i("ContentUtils", "Mapped " + uri + " (" + mapped.capacity() + " bytes)");
+            return mapped;
+        }
+        try (InputStream is = getInputStream(uri)) {
+            return IOUtils.read(is, is.available()).asReadOnlyBuffer();
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            // the mapping is still valid once the file is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+    }
+
+    /**
+     * @return the mapped contents of the descriptor, or null if the descriptor is not a regular file (i.e. a pipe)
+     */
+    private static ByteBuffer map(AssetFileDescriptor descriptor) {
+        if (descriptor == null) {
+            return null;
+        }
+        try {
+            if (descriptor.getLength() == AssetFileDescriptor.UNKNOWN_LENGTH) {
+                return null;
+            }
+            // the stream is not closed: that would close the descriptor, which is closed below
+            FileChannel channel = new FileInputStream(descriptor.getFileDescriptor()).getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, descriptor.getStartOffset(), descriptor.getLength());
+        } catch (IOException ex) {
+            Log.d("ContentUtils", "Descriptor can't be mapped: " + ex.getMessage());
+            return null;
+        } finally {
+            try {
+                descriptor.close();
+            } catch (IOException ex) {
+                Log.w("ContentUtils", "Problem closing descriptor: " + ex.getMessage());
+            }
+        }
+    }
+
 
     public static Intent createGetContentIntent(String mimeType) {
         // check here to KITKAT or new version
@@ -12,10 +12,27 @@ public final class GLUtil {
 
 	private static final String TAG = "GLUtil";
 
+	/**
+	 * Whether to check for OpenGL errors after every call. Every check is a round-trip to the driver, so this is
+	 * disabled by default
+	 */
+	private static boolean debug = false;
+
 	private GLUtil() {
 
 	}
 
+	public static boolean isDebug() {
+		return debug;
+	}
+
+	/**
+	 * @param debug <code>true</code> to check for OpenGL errors in {@link #checkGlError(String)}
+	 */
+	public static void setDebug(boolean debug) {
+		GLUtil.debug = debug;
+	}
+
 	/**
 	 * Helper function to compile and link a program.
 	 * 
@@ -152,11 +169,26 @@ public final class GLUtil {
 	 * </pre>
 	 * 
 	 * If the operation is not successful, the check throws an error.
+	 * <p>
+	 * Errors are only checked if {@link #isDebug()} is enabled. Use {@link #hasGlError(String)} when the result
+	 * is required.
 	 * 
 	 * @param glOperation
 	 *            - Name of the OpenGL call to check.
+	 * @return <code>true</code> if there was an error, <code>false</code> otherwise or if debug is disabled
 	 */
 	public static boolean checkGlError(String glOperation) {
+		return debug && hasGlError(glOperation);
+	}
+
+	/**
+	 * Check for OpenGL errors, even if debug is disabled
+	 *
+	 * @param glOperation
+	 *            - Name of the OpenGL call to check.
+	 * @return <code>true</code> if there was an error
+	 */
+	public static boolean hasGlError(String glOperation) {
 		int glError;
 		boolean error = false;
 		while ((glError = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
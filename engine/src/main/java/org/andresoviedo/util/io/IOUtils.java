@@ -5,9 +5,19 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 public final class IOUtils {
 
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Transfer buffers reused by the reads of streams, so loading several files doesn't allocate a new one every time
+     */
+    private static final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(4);
+
     public static byte[] read(File file) throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         FileInputStream fis = new FileInputStream(file);
@@ -25,4 +35,47 @@ public final class IOUtils {
         }
         return buffer.toByteArray();
     }
+
+    /**
+     * Read the stream till the end. If the size is known, the data is read directly into a buffer of that size, so
+     * there are no intermediate copies
+     *
+     * @param is       the stream. It's not closed
+     * @param sizeHint the expected size of the data, or 0 if it's not known
+     * @return the data, from position 0 to the limit
+     * @throws IOException if there is an error reading the stream
+     */
+    public static ByteBuffer read(InputStream is, int sizeHint) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(sizeHint > 0 ? sizeHint : CHUNK_SIZE);
+        byte[] chunk = chunks.poll();
+        if (chunk == null) {
+            chunk = new byte[CHUNK_SIZE];
+        }
+        try {
+            while (true) {
+                if (buffer.hasRemaining()) {
+                    // straight into the buffer
+                    int read = is.read(buffer.array(), buffer.position(), buffer.remaining());
+                    if (read == -1) {
+                        break;
+                    }
+                    buffer.position(buffer.position() + read);
+                } else {
+                    // more data than expected
+                    int read = is.read(chunk, 0, chunk.length);
+                    if (read == -1) {
+                        break;
+                    }
+                    ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.capacity() + read));
+                    buffer.flip();
+                    bigger.put(buffer).put(chunk, 0, read);
+                    buffer = bigger;
+                }
+            }
+        } finally {
+            chunks.offer(chunk);
+        }
+        buffer.flip();
+        return buffer;
+    }
 }
@@ -200,6 +200,37 @@ public class Math3DUtils {
         return new float[]{a[0] + b[0], a[1] + b[1], a[2] + b[2]};
     }
 
+    /**
+     * Multiply a 4x4 column-major matrix by a 4 element vector, like
+     * {@link Matrix#multiplyMV(float[], int, float[], int, float[], int)}, but without a native call. The result may
+     * be the vector itself.
+     */
+    public static void multiplyMV(float[] result, int resultOffset, float[] lhs, int lhsOffset, float[] rhs,
+                                  int rhsOffset) {
+        final float x = rhs[rhsOffset], y = rhs[rhsOffset + 1], z = rhs[rhsOffset + 2], w = rhs[rhsOffset + 3];
+        for (int j = 0; j < 4; j++) {
+            result[resultOffset + j] = lhs[lhsOffset + j] * x + lhs[lhsOffset + 4 + j] * y
+                    + lhs[lhsOffset + 8 + j] * z + lhs[lhsOffset + 12 + j] * w;
+        }
+    }
+
+    /**
+     * Multiply 2 4x4 column-major matrices, like {@link Matrix#multiplyMM(float[], int, float[], int, float[], int)},
+     * but without a native call, so it's cheaper in loops with many small matrices. The result must not overlap the
+     * inputs.
+     */
+    public static void multiplyMM(float[] result, int resultOffset, float[] lhs, int lhsOffset, float[] rhs,
+                                  int rhsOffset) {
+        for (int i = 0; i < 4; i++) {
+            final float r0 = rhs[rhsOffset + i * 4], r1 = rhs[rhsOffset + i * 4 + 1],
+                    r2 = rhs[rhsOffset + i * 4 + 2], r3 = rhs[rhsOffset + i * 4 + 3];
+            for (int j = 0; j < 4; j++) {
+                result[resultOffset + i * 4 + j] = lhs[lhsOffset + j] * r0 + lhs[lhsOffset + 4 + j] * r1
+                        + lhs[lhsOffset + 8 + j] * r2 + lhs[lhsOffset + 12 + j] * r3;
+            }
+        }
+    }
+
     /**
      * Matrices are 4 x 4 column-vector matrices stored in column-major order:
      * m[offset +  0] m[offset +  4] m[offset +  8] m[offset + 12]
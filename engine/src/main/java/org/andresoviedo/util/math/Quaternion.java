@@ -41,6 +41,22 @@ public class Quaternion {
 		normalize();
 	}
 
+	public float getX() {
+		return x;
+	}
+
+	public float getY() {
+		return y;
+	}
+
+	public float getZ() {
+		return z;
+	}
+
+	public float getW() {
+		return w;
+	}
+
 	/**
 	 * Normalizes the quaternion.
 	 */
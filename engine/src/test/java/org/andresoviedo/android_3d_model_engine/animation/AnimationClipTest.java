@@ -0,0 +1,113 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Vector3f;
+import org.andresoviedo.util.math.Quaternion;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the compression of the clips against the uncompressed clips
+ */
+public class AnimationClipTest {
+
+    private static final int JOINTS = 6;
+
+    @Test
+    public void packRotation_roundTrip() {
+        Random random = new Random(1);
+        float[] quaternion = new float[4];
+        float[] unpacked = new float[4];
+        for (int i = 0; i < 10000; i++) {
+            Quaternion q = new Quaternion(random.nextFloat() * 2 - 1, random.nextFloat() * 2 - 1,
+                    random.nextFloat() * 2 - 1, random.nextFloat() * 2 - 1);
+            quaternion[0] = q.getX();
+            quaternion[1] = q.getY();
+            quaternion[2] = q.getZ();
+            quaternion[3] = q.getW();
+            AnimationClip.unpackRotation(AnimationClip.packRotation(quaternion, 0), unpacked, 0);
+            // q and -q are the same rotation
+            float dot = 0;
+            for (int c = 0; c < 4; c++) {
+                dot += quaternion[c] * unpacked[c];
+            }
+            assertEquals("rotation " + q, 1, Math.abs(dot), 1e-6f);
+        }
+    }
+
+    @Test
+    public void compress_boundedError() {
+        Skeleton skeleton = newSkeleton();
+        AnimationClip clip = skeleton.getClip(newAnimation(2000));
+        AnimationClip compressed = clip.compress(1e-3f, 1e-3f);
+        assertTrue(compressed.isCompressed());
+
+        ClipCompressionReport report = ClipCompressionReport.create(skeleton, clip, compressed, 1000);
+        System.out.println("Clip compression. " + report);
+        assertTrue(report.toString(), report.getCompressedSize() * 4 < report.getOriginalSize());
+        // tolerance of every joint of the chain plus the quantization
+        assertTrue(report.toString(), report.getMaxPositionError() < 0.02f);
+        assertTrue(report.toString(), report.getMaxRotationError() < 2e-3f);
+        // the constant joint keeps only a key every some hundred keys
+        assertTrue(compressed.getKeyCount(JOINTS - 1) < 10);
+    }
+
+    @Test
+    public void compress_noTolerance_sameSamples() {
+        Skeleton skeleton = newSkeleton();
+        AnimationClip clip = skeleton.getClip(newAnimation(50));
+        AnimationClip compressed = clip.compress(0, 0);
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        for (int j = 0; j < JOINTS - 1; j++) {
+            for (float time = 0; time < clip.getLength(); time += 0.0173f) {
+                clip.getLocalTransform(j, time, clip.findKey(j, time, -1), expected, 0);
+                compressed.getLocalTransform(j, time, compressed.findKey(j, time, -1), actual, 0);
+                assertArrayEquals("joint " + j + ", time " + time, expected, actual, 1e-3f);
+            }
+        }
+    }
+
+    /**
+     * A chain of joints, 1 unit apart
+     */
+    private static Skeleton newSkeleton() {
+        Joint root = new Joint(0, "joint0", translation(0), translation(0));
+        Joint parent = root;
+        for (int j = 1; j < JOINTS; j++) {
+            Joint joint = new Joint(j, "joint" + j, translation(1), translation(-j));
+            parent.addChild(joint);
+            parent = joint;
+        }
+        return new Skeleton(root, JOINTS);
+    }
+
+    /**
+     * Smooth motion of all the joints but the last one, which doesn't move, sampled like a motion capture
+     */
+    private static Animation newAnimation(int keys) {
+        final float length = 4;
+        KeyFrame[] frames = new KeyFrame[keys];
+        for (int k = 0; k < keys; k++) {
+            float time = length * k / keys;
+            Map<String, JointTransform> pose = new HashMap<>();
+            for (int j = 0; j < JOINTS; j++) {
+                float angle = j < JOINTS - 1 ? (float) Math.sin(time * (j + 1)) * 0.5f : 0;
+                float y = j == 0 ? 0 : 1;
+                pose.put("joint" + j, new JointTransform(new Vector3f(j == 0 ? time : 0, y, 0),
+                        new Quaternion((float) Math.sin(angle / 2), 0, 0, (float) Math.cos(angle / 2))));
+            }
+            frames[k] = new KeyFrame(time, pose);
+        }
+        return new Animation(length, frames);
+    }
+
+    private static float[] translation(float y) {
+        return new float[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, y, 0, 1};
+    }
+}
@@ -0,0 +1,213 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.andresoviedo.android_3d_model_engine.model.AnimatedModel;
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Joint;
+import org.andresoviedo.android_3d_model_engine.services.collada.entities.Vector3f;
+import org.andresoviedo.util.math.Quaternion;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the pose calculated by the animator, and that updating it doesn't allocate memory
+ */
+public class AnimatorTest {
+
+    private static final Quaternion NO_ROTATION = new Quaternion(0, 0, 0, 1);
+    // 90 degrees around z
+    private static final Quaternion ROTATION = new Quaternion(0, 0, (float) Math.sqrt(0.5), (float) Math.sqrt(0.5));
+
+    @Test
+    public void update_interpolatesPose() {
+        AnimatedModel model = newModel();
+
+        new Animator().update(model, 0.5f);
+
+        float[] expected = Quaternion.interpolate(NO_ROTATION, ROTATION, 0.5f).toRotationMatrix(new float[16]);
+        expected[12] = 1;
+        assertArrayEquals("root", expected, model.getJointTransforms()[0], 1e-6f);
+        // the child has no key frame at 1s, so it keeps its key frame at 0s: same bind pose
+        assertArrayEquals("child", expected, model.getJointTransforms()[1], 1e-6f);
+    }
+
+    @Test
+    public void update_loops() {
+        AnimatedModel model = newModel();
+        Animator animator = new Animator();
+        animator.update(model, 0.25f);
+        float[] expected = model.getJointTransforms()[0].clone();
+        animator.update(model, 2.25f);
+        assertArrayEquals(expected, model.getJointTransforms()[0], 1e-6f);
+    }
+
+    @Test
+    public void update_independentChannels() {
+        // the child has a single key, so it keeps it during all the animation
+        AnimatedModel model = newLongModel(10, 10);
+        new Animator().update(model, 0.55f);
+        assertEquals("root", 0.55f, model.getJointTransforms()[0][12], 1e-5f);
+        assertEquals("child", 0.55f + 0.9f, model.getJointTransforms()[1][12], 1e-5f);
+    }
+
+    @Test
+    public void update_seekSameAsPlayback() {
+        AnimatedModel playback = newLongModel(5000, 7);
+        AnimatedModel seek = newInstance(playback);
+        Animator animator = new Animator();
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            // forward playback, crossing the end of the animation
+            float time = i * 0.0031f;
+            animator.update(playback, time);
+            // random jumps
+            animator.update(seek, random.nextFloat() * 2);
+            animator.update(seek, time);
+            assertArrayEquals("time " + time, playback.getPose().getModelTransforms(),
+                    seek.getPose().getModelTransforms(), 1e-6f);
+        }
+    }
+
+    @Test
+    public void update_sharedSkeleton() {
+        AnimatedModel model = newModel();
+        AnimatedModel instance = newInstance(model);
+        Animator animator = new Animator();
+        animator.update(model, 0.5f);
+        animator.update(instance, 0);
+
+        assertSame(model.getSkeleton(), instance.getSkeleton());
+        assertSame(model.getPose().getSkeleton().getClip(model.getAnimation()),
+                instance.getPose().getSkeleton().getClip(instance.getAnimation()));
+        assertEquals(1, model.getJointTransforms()[0][12], 1e-6f);
+        assertEquals(0, instance.getJointTransforms()[0][12], 1e-6f);
+    }
+
+    @Test
+    public void parallelAnimator_sameAsAnimator() {
+        AnimatedModel model = newLongModel(500, 3);
+        List<Object3DData> objects = new ArrayList<>();
+        List<AnimatedModel> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            AnimatedModel instance = newInstance(model);
+            instance.getPose().setSpeed(i * 0.1f);
+            objects.add(instance);
+            expected.add(newInstance(model));
+        }
+        ParallelAnimator parallelAnimator = new ParallelAnimator(4);
+        try {
+            // first poses at 0s, then at 1.5s
+            parallelAnimator.update(objects, 1000);
+            parallelAnimator.update(objects, 2500);
+            float[][] published = ((AnimatedModel) objects.get(1)).getJointTransforms();
+            float[] first = published[0].clone();
+            parallelAnimator.await();
+            // the published pose is not modified, the next one is in the other buffer
+            assertArrayEquals(first, published[0], 0);
+
+            Animator animator = new Animator();
+            for (int i = 0; i < objects.size(); i++) {
+                animator.update(expected.get(i), i * 0.1f * 1.5f);
+                float[][] actual = ((AnimatedModel) objects.get(i)).getJointTransforms();
+                for (int j = 0; j < actual.length; j++) {
+                    assertArrayEquals("model " + i + ", joint " + j, expected.get(i).getJointTransforms()[j],
+                            actual[j], 1e-6f);
+                }
+            }
+        } finally {
+            parallelAnimator.shutdown();
+        }
+    }
+
+    @Test
+    public void update_noAllocations() {
+        AnimatedModel model = newModel();
+        Animator animator = new Animator();
+        // warm up
+        for (int i = 0; i < 20000; i++) {
+            animator.update(model, i * 0.001f);
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        // allocations of the counter itself
+        long start = bean.getThreadAllocatedBytes(thread);
+        long overhead = bean.getThreadAllocatedBytes(thread) - start;
+
+        start = bean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 1000; i++) {
+            animator.update(model, i * 0.001f);
+        }
+        long allocated = bean.getThreadAllocatedBytes(thread) - start - overhead;
+        assertEquals("Bytes allocated by update()", 0, allocated);
+    }
+
+    /**
+     * A root joint moving from x=0 to x=2 while rotating 90 degrees in 1 second, and a child joint 1 unit above
+     */
+    private static AnimatedModel newModel() {
+        Joint root = new Joint(0, "root", translation(0, 0, 0), translation(0, 0, 0));
+        Joint child = new Joint(1, "child", translation(0, 1, 0), translation(0, -1, 0));
+        root.addChild(child);
+
+        Map<String, JointTransform> start = new HashMap<>();
+        start.put("root", new JointTransform(new Vector3f(0, 0, 0), NO_ROTATION));
+        start.put("child", new JointTransform(new Vector3f(0, 1, 0), NO_ROTATION));
+        Map<String, JointTransform> end = new HashMap<>();
+        end.put("root", new JointTransform(new Vector3f(2, 0, 0), ROTATION));
+        Animation animation = new Animation(1, new KeyFrame[]{new KeyFrame(0, start), new KeyFrame(1, end)});
+
+        AnimatedModel model = new AnimatedModel(FloatBuffer.allocate(0));
+        model.setRootJoint(root, 2, 2, false);
+        model.doAnimation(animation);
+        return model;
+    }
+
+    /**
+     * Another model with the same skeleton and animation
+     */
+    private static AnimatedModel newInstance(AnimatedModel model) {
+        AnimatedModel ret = new AnimatedModel(FloatBuffer.allocate(0));
+        ret.setSkeleton(model.getSkeleton());
+        ret.doAnimation(model.getAnimation());
+        return ret;
+    }
+
+    /**
+     * A root joint moving from x=0 to x=1 in 1 second, with many keys, and a rotating child joint with a key every
+     * some keys of the root
+     */
+    private static AnimatedModel newLongModel(int keys, int childKeyEvery) {
+        Joint root = new Joint(0, "root", translation(0, 0, 0), translation(0, 0, 0));
+        Joint child = new Joint(1, "child", translation(0, 1, 0), translation(0, -1, 0));
+        root.addChild(child);
+
+        KeyFrame[] frames = new KeyFrame[keys];
+        for (int k = 0; k < keys; k++) {
+            Map<String, JointTransform> pose = new HashMap<>();
+            pose.put("root", new JointTransform(new Vector3f((float) k / keys, 0, 0), NO_ROTATION));
+            if (k % childKeyEvery == 0) {
+                float angle = k * 0.01f;
+                pose.put("child", new JointTransform(new Vector3f(0.9f + (k / childKeyEvery % 3) * 0.1f, 1, 0),
+                        new Quaternion(0, 0, (float) Math.sin(angle / 2), (float) Math.cos(angle / 2))));
+            }
+            frames[k] = new KeyFrame((float) k / keys, pose);
+        }
+
+        AnimatedModel model = new AnimatedModel(FloatBuffer.allocate(0));
+        model.setRootJoint(root, 2, 2, false);
+        model.doAnimation(new Animation(1, frames));
+        return model;
+    }
+
+    private static float[] translation(float x, float y, float z) {
+        return new float[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, x, y, z, 1};
+    }
+}
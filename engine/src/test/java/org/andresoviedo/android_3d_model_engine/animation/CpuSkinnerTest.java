@@ -0,0 +1,125 @@
+package org.andresoviedo.android_3d_model_engine.animation;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the skinning in the CPU against the skinning of the skeleton shaders
+ */
+public class CpuSkinnerTest {
+
+    private static final int JOINTS = 80;
+
+    @Test
+    public void skin_sameAsShader() {
+        check(100);
+    }
+
+    @Test
+    public void skin_bigMesh_sameAsShader() {
+        // split in chunks if there are several processors
+        check(50000);
+    }
+
+    private static void check(int vertexCount) {
+        Random random = new Random(vertexCount);
+        float[] positions = new float[vertexCount * 3];
+        float[] normals = new float[vertexCount * 3];
+        float[] jointIds = new float[vertexCount * 3];
+        float[] weights = new float[vertexCount * 3];
+        for (int i = 0; i < vertexCount * 3; i++) {
+            positions[i] = random.nextFloat() * 10 - 5;
+            normals[i] = random.nextFloat() * 2 - 1;
+            jointIds[i] = random.nextInt(JOINTS);
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            // like the exported weights, which don't always add up to 1
+            float w0 = random.nextFloat();
+            float w1 = random.nextFloat() * (1 - w0);
+            weights[v * 3] = w0;
+            weights[v * 3 + 1] = w1;
+            weights[v * 3 + 2] = (1 - w0 - w1) * (0.9f + random.nextFloat() * 0.1f);
+        }
+        CpuSkinner skinner = new CpuSkinner(FloatBuffer.wrap(positions), FloatBuffer.wrap(normals),
+                FloatBuffer.wrap(jointIds), FloatBuffer.wrap(weights));
+        assertEquals(vertexCount, skinner.getVertexCount());
+
+        // the buffers are reused for every pose
+        for (int pose = 0; pose < 3; pose++) {
+            float[][] jointTransforms = newJointTransforms(random);
+            skinner.skin(jointTransforms);
+            FloatBuffer skinnedPositions = skinner.getPositions();
+            FloatBuffer skinnedNormals = skinner.getNormals();
+            float[] expected = new float[3];
+            for (int v = 0; v < vertexCount; v++) {
+                shaderPosition(jointTransforms, positions, jointIds, weights, v, expected);
+                for (int c = 0; c < 3; c++) {
+                    assertEquals("position " + v, expected[c], skinnedPositions.get(v * 3 + c), 1e-4f);
+                }
+                normal(jointTransforms, normals, jointIds, weights, v, expected);
+                for (int c = 0; c < 3; c++) {
+                    assertEquals("normal " + v, expected[c], skinnedNormals.get(v * 3 + c), 1e-4f);
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as the vertex shader of the skeleton drawers, followed by the perspective division
+     */
+    private static void shaderPosition(float[][] jointTransforms, float[] positions, float[] jointIds,
+                                       float[] weights, int v, float[] result) {
+        float[] totalLocalPos = new float[4];
+        float[] position = {positions[v * 3], positions[v * 3 + 1], positions[v * 3 + 2], 1};
+        for (int i = 0; i < 3; i++) {
+            float[] jointTransform = jointTransforms[(int) jointIds[v * 3 + i]];
+            for (int row = 0; row < 4; row++) {
+                float posePosition = 0;
+                for (int column = 0; column < 4; column++) {
+                    posePosition += jointTransform[column * 4 + row] * position[column];
+                }
+                totalLocalPos[row] += posePosition * weights[v * 3 + i];
+            }
+        }
+        for (int c = 0; c < 3; c++) {
+            result[c] = totalLocalPos[c] / totalLocalPos[3];
+        }
+    }
+
+    private static void normal(float[][] jointTransforms, float[] normals, float[] jointIds, float[] weights, int v,
+                               float[] result) {
+        float[] total = new float[3];
+        for (int i = 0; i < 3; i++) {
+            float[] jointTransform = jointTransforms[(int) jointIds[v * 3 + i]];
+            for (int row = 0; row < 3; row++) {
+                float normal = 0;
+                for (int column = 0; column < 3; column++) {
+                    normal += jointTransform[column * 4 + row] * normals[v * 3 + column];
+                }
+                total[row] += normal * weights[v * 3 + i];
+            }
+        }
+        float length = (float) Math.sqrt(total[0] * total[0] + total[1] * total[1] + total[2] * total[2]);
+        for (int c = 0; c < 3; c++) {
+            result[c] = total[c] / length;
+        }
+    }
+
+    /**
+     * Random affine transforms, column-major
+     */
+    private static float[][] newJointTransforms(Random random) {
+        float[][] jointTransforms = new float[JOINTS][16];
+        for (float[] transform : jointTransforms) {
+            for (int i = 0; i < 15; i++) {
+                transform[i] = i % 4 == 3 ? 0 : random.nextFloat() * 2 - 1;
+            }
+            transform[15] = 1;
+        }
+        return jointTransforms;
+    }
+}
@@ -0,0 +1,275 @@
+package org.andresoviedo.android_3d_model_engine.collision;
+
+import android.opengl.GLES20;
+
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.services.wavefront.WavefrontLoader;
+import org.andresoviedo.util.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the ray caster against a brute force test of all the triangles of the bundled models, and measures both
+ */
+public class RayCasterTest {
+
+    private static final int RAYS = 500;
+    private static final int BENCHMARK_RAYS = 5000;
+
+    @Test
+    public void intersectTriangle_barycentrics() {
+        float[] triangle = {0, 0, 0, 1, 0, 0, 0, 1, 0};
+        float[] uv = new float[2];
+        float t = RayCaster.intersectTriangle(triangle, 0, 0.25f, 0.5f, 2, 0, 0, -1, uv);
+        assertEquals(2, t, 0);
+        assertArrayEquals(new float[]{0.25f, 0.5f}, uv, 0);
+
+        // behind the origin and outside the triangle
+        assertEquals(Float.POSITIVE_INFINITY, RayCaster.intersectTriangle(triangle, 0, 0.25f, 0.5f, 2, 0, 0, 1, uv), 0);
+        assertEquals(Float.POSITIVE_INFINITY, RayCaster.intersectTriangle(triangle, 0, 1, 1, 2, 0, 0, -1, uv), 0);
+    }
+
+    @Test
+    public void intersectBox_slabs() {
+        // ray along x, from outside and from inside
+        assertEquals(1, RayCaster.intersectBox(-2, 0, 0, 1, 1 / 0f, 1 / 0f, -1, -1, -1, 1, 1, 1), 0);
+        assertEquals(0, RayCaster.intersectBox(0, 0, 0, 1, 1 / 0f, 1 / 0f, -1, -1, -1, 1, 1, 1), 0);
+        // box behind and box aside
+        assertEquals(Float.POSITIVE_INFINITY, RayCaster.intersectBox(2, 0, 0, 1, 1 / 0f, 1 / 0f, -1, -1, -1, 1, 1, 1), 0);
+        assertEquals(Float.POSITIVE_INFINITY, RayCaster.intersectBox(-2, 2, 0, 1, 1 / 0f, 1 / 0f, -1, -1, -1, 1, 1, 1), 0);
+    }
+
+    @Test
+    public void cast_sameAsBruteForce() throws IOException {
+        List<Object3DData> models = loadModels();
+        assertFalse("No models found", models.isEmpty());
+        RayCaster rayCaster = new RayCaster();
+        RayCaster.Hit hit = new RayCaster.Hit();
+        float[] origin = new float[3];
+        float[] direction = new float[3];
+        float[] uv = new float[2];
+        for (Object3DData model : models) {
+            Random random = new Random(model.getId().hashCode());
+            float[] triangles = getTriangles(model);
+            model.setOctree(Octree.build(model));
+            int hits = 0;
+            for (int i = 0; i < RAYS; i++) {
+                newRay(model.getOctree().getBounds(), random, origin, direction);
+
+                hit.reset();
+                boolean found = rayCaster.cast(model, origin, direction, hit);
+
+                // brute force
+                int expectedTriangle = -1;
+                float expectedDistance = Float.POSITIVE_INFINITY;
+                float[] expectedUv = new float[2];
+                for (int t = 0; t < triangles.length / Octree.TRIANGLE_SIZE; t++) {
+                    float distance = RayCaster.intersectTriangle(triangles, t * Octree.TRIANGLE_SIZE,
+                            origin[0], origin[1], origin[2], direction[0], direction[1], direction[2], uv);
+                    if (distance < expectedDistance) {
+                        expectedDistance = distance;
+                        expectedTriangle = t;
+                        expectedUv[0] = uv[0];
+                        expectedUv[1] = uv[1];
+                    }
+                }
+
+                String message = model.getId() + " ray " + i;
+                assertEquals(message, expectedTriangle >= 0, found);
+                if (!found) {
+                    continue;
+                }
+                hits++;
+                assertSame(message, model, hit.getObject());
+                assertEquals(message, expectedDistance, hit.getDistance(), 1e-6f * (1 + expectedDistance));
+                // several triangles may be hit at the same distance (shared edges or vertices)
+                if (expectedTriangle == hit.getTriangle()) {
+                    assertEquals(message, expectedUv[0], hit.getU(), 1e-4f);
+                    assertEquals(message, expectedUv[1], hit.getV(), 1e-4f);
+                }
+            }
+            assertTrue(model.getId() + " rays should hit the model", hits > 0);
+        }
+    }
+
+    @Test
+    public void cast_nearestObject() throws IOException {
+        // 2 copies of the same model, one behind the other
+        Object3DData front = loadModels().get(0);
+        front.setOctree(Octree.build(front));
+        float[] bounds = front.getOctree().getBounds();
+        Object3DData back = newModel(front.getId() + "_back", front.getVertexBuffer(), front.getDrawOrder());
+        back.getModelMatrix()[14] = -2 * (bounds[5] - bounds[2]) - 1;
+        back.setOctree(Octree.build(back));
+
+        float[] origin = {(bounds[0] + bounds[3]) / 2, (bounds[1] + bounds[4]) / 2, bounds[5] + 1};
+        RayCaster.Hit hit = new RayCaster().cast(Arrays.asList(back, front), origin, new float[]{0, 0, -1});
+        assertNotNull(hit);
+        assertSame(front, hit.getObject());
+    }
+
+    @Test
+    public void cast_octreeNotBuilt_boundingBox() {
+        float[] triangle = {0, 0, 0, 1, 0, 0, 0, 1, 0};
+        FloatBuffer vertices = ByteBuffer.allocateDirect(9 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        vertices.put(triangle);
+        IntBuffer drawOrder = ByteBuffer.allocateDirect(3 * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        drawOrder.put(new int[]{0, 1, 2});
+        Object3DData obj = newModel("triangle", vertices, drawOrder);
+
+        // out of the triangle, but inside its bounding box
+        RayCaster.Hit hit = new RayCaster.Hit();
+        assertTrue(new RayCaster().cast(obj, new float[]{0.9f, 0.9f, 5}, new float[]{0, 0, -1}, hit));
+        assertSame(obj, hit.getObject());
+        assertEquals(-1, hit.getTriangle());
+        assertEquals(5, hit.getDistance(), 1e-6f);
+        // the octree is left to the background builder
+        assertNull(obj.getOctree());
+    }
+
+    @Test
+    public void cast_movedObject_sameOctree() {
+        float[] triangle = {0, 0, 0, 1, 0, 0, 0, 1, 0};
+        FloatBuffer vertices = ByteBuffer.allocateDirect(9 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        vertices.put(triangle);
+        IntBuffer drawOrder = ByteBuffer.allocateDirect(3 * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        drawOrder.put(new int[]{0, 1, 2});
+        Object3DData obj = newModel("triangle", vertices, drawOrder);
+        Octree octree = Octree.build(obj);
+        obj.setOctree(octree);
+
+        // scaled x2 and moved to z=-5
+        float[] modelMatrix = obj.getModelMatrix();
+        modelMatrix[0] = modelMatrix[5] = modelMatrix[10] = 2;
+        modelMatrix[14] = -5;
+
+        RayCaster.Hit hit = new RayCaster.Hit();
+        assertTrue(new RayCaster().cast(obj, new float[]{0.5f, 1, 5}, new float[]{0, 0, -2}, hit));
+        assertSame(octree, obj.getOctree());
+        assertEquals(5, hit.getDistance(), 1e-6f);
+        assertEquals(0.25f, hit.getU(), 1e-6f);
+        assertEquals(0.5f, hit.getV(), 1e-6f);
+
+        // out of the scaled triangle
+        hit.reset();
+        assertFalse(new RayCaster().cast(obj, new float[]{1.5f, 1, 5}, new float[]{0, 0, -1}, hit));
+    }
+
+    @Test
+    public void benchmark_bundledModels() throws IOException {
+        RayCaster rayCaster = new RayCaster();
+        RayCaster.Hit hit = new RayCaster.Hit();
+        float[] origin = new float[3];
+        float[] direction = new float[3];
+        float[] uv = new float[2];
+        for (Object3DData model : loadModels()) {
+            float[] triangles = getTriangles(model);
+            long start = System.nanoTime();
+            model.setOctree(Octree.build(model));
+            long build = System.nanoTime() - start;
+
+            Random random = new Random(1);
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_RAYS; i++) {
+                newRay(model.getOctree().getBounds(), random, origin, direction);
+                hit.reset();
+                rayCaster.cast(model, origin, direction, hit);
+            }
+            long octree = System.nanoTime() - start;
+
+            random = new Random(1);
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_RAYS; i++) {
+                newRay(model.getOctree().getBounds(), random, origin, direction);
+                for (int t = 0; t < triangles.length; t += Octree.TRIANGLE_SIZE) {
+                    RayCaster.intersectTriangle(triangles, t, origin[0], origin[1], origin[2],
+                            direction[0], direction[1], direction[2], uv);
+                }
+            }
+            long bruteForce = System.nanoTime() - start;
+
+            System.out.println(String.format("%-20s triangles: %7d, nodes: %6d, build: %7.2f ms, "
+                            + "ray: %8.2f us (brute force: %9.2f us)", model.getId(),
+                    triangles.length / Octree.TRIANGLE_SIZE, model.getOctree().getNodeCount(), build / 1e6,
+                    octree / 1e3 / BENCHMARK_RAYS, bruteForce / 1e3 / BENCHMARK_RAYS));
+        }
+    }
+
+    /**
+     * Random ray from outside the bounds to a random point inside them
+     *
+     * @param bounds min x,y,z and max x,y,z
+     */
+    private static void newRay(float[] bounds, Random random, float[] origin, float[] direction) {
+        float size = Math.max(bounds[3] - bounds[0], Math.max(bounds[4] - bounds[1], bounds[5] - bounds[2]));
+        for (int i = 0; i < 3; i++) {
+            float center = (bounds[i] + bounds[3 + i]) / 2;
+            origin[i] = center + (random.nextFloat() - 0.5f) * 4 * size;
+            float target = bounds[i] + random.nextFloat() * (bounds[3 + i] - bounds[i]);
+            direction[i] = target - origin[i];
+        }
+    }
+
+    /**
+     * @return the triangles of the model, in the order of the draw order buffer
+     */
+    private static float[] getTriangles(Object3DData model) {
+        IntBuffer drawOrder = model.getDrawOrder();
+        FloatBuffer vertices = model.getVertexBuffer();
+        float[] ret = new float[drawOrder.capacity() / 3 * Octree.TRIANGLE_SIZE];
+        for (int i = 0; i < ret.length / 3; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                ret[i * 3 + axis] = vertices.get(drawOrder.get(i) * 3 + axis);
+            }
+        }
+        return ret;
+    }
+
+    private static List<Object3DData> loadModels() throws IOException {
+        // tests run from the module folder
+        File dir = new File("../models");
+        if (!dir.isDirectory()) {
+            dir = new File("models");
+        }
+        List<Object3DData> ret = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return ret;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (!file.getName().toLowerCase().endsWith(".obj")) {
+                continue;
+            }
+            WavefrontLoader loader = new WavefrontLoader(file.getName());
+            loader.loadModelSinglePass(new ByteArrayInputStream(IOUtils.read(file)));
+            if (loader.getFaces() == null || loader.getFaces().getSize() == 0) {
+                continue;
+            }
+            ret.add(newModel(file.getName(), loader.getVerts(), loader.getFaces().getIndexBuffer()));
+        }
+        return ret;
+    }
+
+    private static Object3DData newModel(String id, FloatBuffer vertices, IntBuffer drawOrder) {
+        Object3DData ret = new Object3DData(vertices, drawOrder).setDrawMode(GLES20.GL_TRIANGLES).setId(id);
+        // android.opengl.Matrix is not available in unit tests, so the model matrix is set here
+        float[] modelMatrix = ret.getModelMatrix();
+        Arrays.fill(modelMatrix, 0);
+        modelMatrix[0] = modelMatrix[5] = modelMatrix[10] = modelMatrix[15] = 1;
+        return ret;
+    }
+}
@@ -0,0 +1,171 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks when the buffers of the objects are uploaded and deleted, recording the GL calls
+ */
+public class BufferObjectsTest {
+
+    private RecordingGL gl;
+    private BufferObjects bufferObjects;
+
+    @Before
+    public void setUp() {
+        gl = new RecordingGL();
+        bufferObjects = new BufferObjects(gl);
+    }
+
+    @Test
+    public void upload_onlyOnce() {
+        Object3DData obj = newIndexedObject();
+
+        int[] handles = bufferObjects.getHandles(obj);
+        assertEquals(Arrays.asList(
+                "gen 1", "bind 34962 1", "data 34962 36", "bind 34962 0",
+                "gen 2", "bind 34962 2", "data 34962 36", "bind 34962 0",
+                "gen 3", "bind 34963 3", "data 34963 12", "bind 34963 0"), gl.calls);
+        assertArrayEquals(new int[]{1, 2, 0, 0, 3}, handles);
+
+        gl.calls.clear();
+        assertArrayEquals(handles, bufferObjects.getHandles(obj));
+        assertTrue(gl.calls.isEmpty());
+        assertEquals(1, bufferObjects.size());
+    }
+
+    @Test
+    public void upload_drawingArrays_noIndices() {
+        Object3DData obj = new Object3DData(newFloatBuffer(9)).setDrawUsingArrays(true);
+
+        assertArrayEquals(new int[]{1, 0, 0, 0, 0}, bufferObjects.getHandles(obj));
+        assertEquals(4, gl.calls.size());
+    }
+
+    @Test
+    public void upload_changed() {
+        Object3DData obj = newIndexedObject();
+        bufferObjects.getHandles(obj);
+        gl.calls.clear();
+
+        obj.setChanged(true);
+        int[] handles = bufferObjects.getHandles(obj);
+        assertEquals(Arrays.asList("delete 1", "delete 2", "delete 3"), gl.calls.subList(0, 3));
+        assertEquals(15, gl.calls.size());
+        assertArrayEquals(new int[]{4, 5, 0, 0, 6}, handles);
+        assertFalse(obj.isChanged());
+    }
+
+    @Test
+    public void upload_bufferReplaced() {
+        Object3DData obj = newIndexedObject();
+        bufferObjects.getHandles(obj);
+        gl.calls.clear();
+
+        obj.setVertexColorsArrayBuffer(newFloatBuffer(12));
+        assertArrayEquals(new int[]{4, 5, 6, 0, 7}, bufferObjects.getHandles(obj));
+        assertTrue(gl.calls.contains("data 34962 48"));
+    }
+
+    @Test
+    public void release() {
+        Object3DData obj1 = newIndexedObject();
+        Object3DData obj2 = newIndexedObject();
+        bufferObjects.getHandles(obj1);
+        bufferObjects.getHandles(obj2);
+        gl.calls.clear();
+
+        bufferObjects.release(obj1);
+        assertEquals(Arrays.asList("delete 1", "delete 2", "delete 3"), gl.calls);
+        assertEquals(1, bufferObjects.size());
+
+        gl.calls.clear();
+        bufferObjects.releaseAll();
+        assertEquals(Arrays.asList("delete 4", "delete 5", "delete 6"), gl.calls);
+        assertEquals(0, bufferObjects.size());
+    }
+
+    @Test
+    public void retain_deletesTheOthers() {
+        Object3DData obj1 = newIndexedObject();
+        Object3DData obj2 = newIndexedObject();
+        bufferObjects.getHandles(obj1);
+        bufferObjects.getHandles(obj2);
+        gl.calls.clear();
+
+        // obj1 was removed from the scene
+        bufferObjects.retain(Collections.singletonList(obj2));
+        assertEquals(Arrays.asList("delete 1", "delete 2", "delete 3"), gl.calls);
+        assertEquals(1, bufferObjects.size());
+
+        gl.calls.clear();
+        bufferObjects.retain(Collections.singletonList(obj2));
+        assertTrue(gl.calls.isEmpty());
+    }
+
+    @Test
+    public void invalidate_doesNotDelete() {
+        Object3DData obj = newIndexedObject();
+        bufferObjects.getHandles(obj);
+        gl.calls.clear();
+
+        bufferObjects.invalidate();
+        assertTrue(gl.calls.isEmpty());
+        assertEquals(0, bufferObjects.size());
+
+        // new context. buffers are uploaded again
+        bufferObjects.getHandles(obj);
+        assertEquals(12, gl.calls.size());
+    }
+
+    private static Object3DData newIndexedObject() {
+        IntBuffer drawOrder = ByteBuffer.allocateDirect(3 * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        drawOrder.put(new int[]{0, 1, 2});
+        return new Object3DData(newFloatBuffer(9), drawOrder).setVertexNormalsArrayBuffer(newFloatBuffer(9))
+                .setDrawUsingArrays(false);
+    }
+
+    private static FloatBuffer newFloatBuffer(int size) {
+        return ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    private static class RecordingGL implements BufferObjects.GL {
+
+        private final List<String> calls = new ArrayList<>();
+        private int lastBuffer;
+
+        @Override
+        public int genBuffer() {
+            calls.add("gen " + (++lastBuffer));
+            return lastBuffer;
+        }
+
+        @Override
+        public void bindBuffer(int target, int buffer) {
+            calls.add("bind " + target + " " + buffer);
+        }
+
+        @Override
+        public void bufferData(int target, int size, Buffer data, int usage) {
+            calls.add("data " + target + " " + size);
+        }
+
+        @Override
+        public void deleteBuffer(int buffer) {
+            calls.add("delete " + buffer);
+        }
+    }
+}
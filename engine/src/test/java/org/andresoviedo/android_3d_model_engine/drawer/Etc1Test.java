@@ -0,0 +1,115 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the images decoded after being encoded are close to the original ones
+ */
+public class Etc1Test {
+
+    @Test
+    public void encode_solidColor_close() {
+        ByteBuffer rgba = image(8, 8, new Pixels() {
+            @Override
+            public int rgb(int x, int y) {
+                return 0x3080C0;
+            }
+        });
+        ByteBuffer encoded = Etc1.encode(rgba, 8, 8);
+        assertEquals(4 * Etc1.BLOCK_SIZE, encoded.capacity());
+
+        ByteBuffer decoded = Etc1.decode(encoded, 8, 8);
+        // the base color has 5 bits per channel, and the same modifier is added to every channel
+        assertTrue(maxError(rgba, decoded) <= 6);
+        assertEquals(255, decoded.get(3) & 0xFF);
+    }
+
+    @Test
+    public void encode_twoColorsPerBlock() {
+        // left half red, right half blue: every half of the blocks has its own color
+        ByteBuffer rgba = image(4, 4, new Pixels() {
+            @Override
+            public int rgb(int x, int y) {
+                return x < 2 ? 0xFF0000 : 0x0000FF;
+            }
+        });
+        assertTrue(maxError(rgba, Etc1.decode(Etc1.encode(rgba, 4, 4), 4, 4)) <= 8);
+
+        // same, but top and bottom
+        rgba = image(4, 4, new Pixels() {
+            @Override
+            public int rgb(int x, int y) {
+                return y < 2 ? 0x00FF00 : 0x202020;
+            }
+        });
+        assertTrue(maxError(rgba, Etc1.decode(Etc1.encode(rgba, 4, 4), 4, 4)) <= 8);
+    }
+
+    @Test
+    public void encode_gradient_smallError() {
+        ByteBuffer rgba = image(32, 32, new Pixels() {
+            @Override
+            public int rgb(int x, int y) {
+                return (x * 8) << 16 | (y * 8) << 8 | (x + y) * 4;
+            }
+        });
+        ByteBuffer decoded = Etc1.decode(Etc1.encode(rgba, 32, 32), 32, 32);
+        // steep gradients in different directions for every channel are the worst case for ETC1
+        assertTrue("max error: " + maxError(rgba, decoded), maxError(rgba, decoded) <= 16);
+        assertTrue("mean error: " + meanError(rgba, decoded), meanError(rgba, decoded) <= 5);
+    }
+
+    @Test
+    public void encode_sizeNotMultipleOf4() {
+        ByteBuffer rgba = image(5, 3, new Pixels() {
+            @Override
+            public int rgb(int x, int y) {
+                return x == 4 ? 0xFFFFFF : 0x000000;
+            }
+        });
+        ByteBuffer encoded = Etc1.encode(rgba, 5, 3);
+        assertEquals(Etc1.getEncodedSize(5, 3), encoded.capacity());
+        assertEquals(2 * Etc1.BLOCK_SIZE, encoded.capacity());
+        assertTrue(maxError(rgba, Etc1.decode(encoded, 5, 3)) <= 8);
+    }
+
+    private interface Pixels {
+        int rgb(int x, int y);
+    }
+
+    private static ByteBuffer image(int width, int height, Pixels pixels) {
+        ByteBuffer rgba = TextureImage.newBuffer(width * height * 4);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = pixels.rgb(x, y);
+                rgba.put((byte) (rgb >> 16)).put((byte) (rgb >> 8)).put((byte) rgb).put((byte) 255);
+            }
+        }
+        rgba.position(0);
+        return rgba;
+    }
+
+    private static double meanError(ByteBuffer expected, ByteBuffer actual) {
+        long sum = 0;
+        for (int i = 0; i < expected.capacity(); i++) {
+            if (i % 4 != 3) {
+                sum += Math.abs((expected.get(i) & 0xFF) - (actual.get(i) & 0xFF));
+            }
+        }
+        return (double) sum / (expected.capacity() / 4 * 3);
+    }
+
+    private static int maxError(ByteBuffer expected, ByteBuffer actual) {
+        int max = 0;
+        for (int i = 0; i < expected.capacity(); i++) {
+            if (i % 4 != 3) {
+                max = Math.max(max, Math.abs((expected.get(i) & 0xFF) - (actual.get(i) & 0xFF)));
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,124 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the KTX and PKM files written are read back
+ */
+public class TextureContainerTest {
+
+    @Test
+    public void ktx_roundTrip() {
+        TextureImage image = TextureConverter.toEtc1(8, 4, pixels(8, 4), true);
+        assertEquals(4, image.getLevelCount());
+
+        byte[] ktx = TextureContainer.writeKtx(image);
+        assertTrue(TextureContainer.isContainer(ByteBuffer.wrap(ktx)));
+        // header + level sizes + levels: 8x4 -> 2 blocks, then 1 block for every level
+        assertEquals(64 + 4 * 4 + 16 + 8 + 8 + 8, ktx.length);
+
+        TextureImage read = TextureContainer.read(ByteBuffer.wrap(ktx));
+        assertEquals(TextureContainer.ETC1_RGB8, read.getFormat());
+        assertEquals(8, read.getWidth());
+        assertEquals(4, read.getHeight());
+        assertEquals(4, read.getLevelCount());
+        for (int level = 0; level < 4; level++) {
+            assertEquals(image.getLevel(level), read.getLevel(level));
+        }
+        assertTrue(read.getLevel(0).isDirect());
+    }
+
+    @Test
+    public void ktx_bigEndian() {
+        TextureImage image = TextureConverter.toEtc1(4, 4, pixels(4, 4), false);
+        byte[] ktx = TextureContainer.writeKtx(image);
+        // same file, as written by a big endian machine
+        ByteBuffer buffer = ByteBuffer.wrap(ktx);
+        for (int i = 12; i < 64 + 4; i += 4) {
+            buffer.putInt(i, Integer.reverseBytes(buffer.getInt(i)));
+        }
+
+        TextureImage read = TextureContainer.read(ByteBuffer.wrap(ktx));
+        assertEquals(TextureContainer.ETC1_RGB8, read.getFormat());
+        assertEquals(4, read.getWidth());
+        assertEquals(image.getLevel(0), read.getLevel(0));
+    }
+
+    @Test
+    public void ktx_missingLevels_firstLevelOnly() {
+        TextureImage image = TextureImage.createCompressed(TextureContainer.ETC2_RGB8, 8, 8, new ByteBuffer[]{
+                TextureImage.newBuffer(32), TextureImage.newBuffer(8)});
+        TextureImage read = TextureContainer.read(ByteBuffer.wrap(TextureContainer.writeKtx(image)));
+        assertEquals(TextureContainer.ETC2_RGB8, read.getFormat());
+        assertEquals(1, read.getLevelCount());
+    }
+
+    @Test
+    public void pkm_roundTrip() {
+        // not a multiple of 4: the blocks cover 8x4 pixels
+        TextureImage image = TextureConverter.toEtc1(6, 3, pixels(6, 3), false);
+        byte[] pkm = TextureContainer.writePkm(image);
+        assertTrue(TextureContainer.isContainer(ByteBuffer.wrap(pkm)));
+        assertEquals(16 + 2 * 8, pkm.length);
+        ByteBuffer header = ByteBuffer.wrap(pkm).order(ByteOrder.BIG_ENDIAN);
+        assertEquals(8, header.getShort(8));
+        assertEquals(4, header.getShort(10));
+
+        TextureImage read = TextureContainer.read(ByteBuffer.wrap(pkm));
+        assertEquals(TextureContainer.ETC1_RGB8, read.getFormat());
+        assertEquals(6, read.getWidth());
+        assertEquals(3, read.getHeight());
+        assertEquals(image.getLevel(0), read.getLevel(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void read_truncated() {
+        byte[] ktx = TextureContainer.writeKtx(TextureConverter.toEtc1(8, 8, pixels(8, 8), false));
+        TextureContainer.read(ByteBuffer.wrap(ktx, 0, ktx.length - 1));
+    }
+
+    @Test
+    public void isContainer_images() {
+        assertFalse(TextureContainer.isContainer(
+                ByteBuffer.wrap(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'})));
+        assertFalse(TextureContainer.isContainer(ByteBuffer.wrap(new byte[]{'P', 'K'})));
+    }
+
+    @Test
+    public void read_direct_levelsNotCopied() {
+        byte[] pkm = TextureContainer.writePkm(TextureConverter.toEtc1(4, 4, pixels(4, 4), false));
+        // like a memory mapped file, with some data before the texture
+        ByteBuffer file = ByteBuffer.allocateDirect(pkm.length + 10);
+        file.position(10);
+        file.put(pkm);
+        file.position(10);
+
+        TextureImage read = TextureContainer.read(file);
+        assertEquals(10, file.position());
+        file.put(10 + 16, (byte) 0x5A);
+        assertEquals(0x5A, read.getLevel(0).get(0));
+    }
+
+    @Test
+    public void converter_resizedToPowerOfTwo() {
+        TextureImage image = TextureConverter.toEtc1(300, 100, pixels(300, 100), true);
+        assertEquals(256, image.getWidth());
+        assertEquals(128, image.getHeight());
+        assertEquals(9, image.getLevelCount());
+        assertEquals(Etc1.getEncodedSize(256, 128), image.getLevel(0).capacity());
+    }
+
+    private static ByteBuffer pixels(int width, int height) {
+        ByteBuffer rgba = TextureImage.newBuffer(width * height * 4);
+        for (int i = 0; i < width * height; i++) {
+            rgba.put((byte) (i * 7)).put((byte) (i * 13)).put((byte) (i * 29)).put((byte) 255);
+        }
+        rgba.position(0);
+        return rgba;
+    }
+}
@@ -0,0 +1,64 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the mip levels of the decoded textures
+ */
+public class TextureImageTest {
+
+    @Test
+    public void create_mipmaps_averageBlocks() {
+        // 4x2: the left half black, the right half white
+        ByteBuffer pixels = TextureImage.newBuffer(4 * 2 * 4);
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 4; x++) {
+                byte value = (byte) (x < 2 ? 0 : 255);
+                pixels.put(value).put(value).put(value).put((byte) 255);
+            }
+        }
+        pixels.position(0);
+
+        TextureImage image = TextureImage.create(4, 2, pixels, true);
+        assertEquals(3, image.getLevelCount());
+        assertEquals(2, image.getWidth(1));
+        assertEquals(1, image.getHeight(1));
+        assertEquals(1, image.getWidth(2));
+        assertEquals(1, image.getHeight(2));
+        assertEquals(4 * 2 * 4 + 2 * 4 + 4, image.getSize());
+
+        ByteBuffer level1 = image.getLevel(1);
+        assertEquals(0, level1.get(0) & 0xFF);
+        assertEquals(255, level1.get(4) & 0xFF);
+        assertEquals(255, level1.get(3) & 0xFF);
+        // 1 pixel high: the 2 pixels are averaged
+        ByteBuffer level2 = image.getLevel(2);
+        assertEquals(128, level2.get(0) & 0xFF);
+        assertEquals(255, level2.get(3) & 0xFF);
+    }
+
+    @Test
+    public void create_noMipmaps() {
+        TextureImage image = TextureImage.create(3, 5, TextureImage.newBuffer(3 * 5 * 4), false);
+        assertEquals(1, image.getLevelCount());
+        assertEquals(60, image.getSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void create_mipmapsNotPowerOfTwo() {
+        TextureImage.create(3, 4, TextureImage.newBuffer(3 * 4 * 4), true);
+    }
+
+    @Test
+    public void toPowerOfTwo_nearest() {
+        assertEquals(1, TextureImage.toPowerOfTwo(1));
+        assertEquals(256, TextureImage.toPowerOfTwo(256));
+        assertEquals(256, TextureImage.toPowerOfTwo(300));
+        assertEquals(512, TextureImage.toPowerOfTwo(400));
+        assertEquals(1024, TextureImage.toPowerOfTwo(1000));
+    }
+}
@@ -0,0 +1,379 @@
+package org.andresoviedo.android_3d_model_engine.drawer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks when the textures are loaded, shared and deleted, recording the GL calls
+ */
+public class TextureManagerTest {
+
+    // every texture is 16x16 with its mipmaps: 1024 + 256 + 64 + 16 + 4 bytes
+    private static final int TEXTURE_SIZE = 1364;
+
+    private RecordingGL gl;
+    private List<Runnable> decodings;
+    private TextureManager textures;
+    private int decoderCalls;
+
+    @Before
+    public void setUp() {
+        gl = new RecordingGL();
+        decodings = new ArrayList<>();
+        textures = new TextureManager(TEXTURE_SIZE * 2, gl, new TextureManager.Decoder() {
+            @Override
+            public TextureImage decode(ByteBuffer data) {
+                decoderCalls++;
+                if (!data.hasRemaining()) {
+                    throw new RuntimeException("couldnt load bitmap");
+                }
+                if (TextureContainer.isContainer(data)) {
+                    return TextureContainer.read(data);
+                }
+                return TextureImage.create(16, 16, TextureImage.newBuffer(16 * 16 * 4), true);
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                decodings.add(command);
+            }
+        });
+        textures.setUploadBudget(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Acquire the texture and load it, like after some frames
+     */
+    private int load(Object user, String uri, ByteBuffer data) {
+        int texture = textures.acquire(user, uri, data);
+        for (Runnable decoding : decodings) {
+            decoding.run();
+        }
+        decodings.clear();
+        textures.update();
+        return texture != 0 ? texture : textures.get(user, data);
+    }
+
+    @Test
+    public void acquire_loadedInBackground() {
+        Object model = new Object();
+        ByteBuffer image = image(1);
+        assertEquals(0, textures.acquire(model, "1.jpg", image));
+        assertTrue(gl.calls.isEmpty());
+        assertFalse(textures.update());
+        assertEquals(0, textures.get(model, image));
+
+        // decoded, but not uploaded yet
+        decodings.get(0).run();
+        assertEquals(0, textures.get(model, image));
+        assertTrue(textures.update());
+        assertEquals(Arrays.asList("gen 1", "ready 1 mipmaps"), gl.calls);
+        assertEquals(1, textures.get(model, image));
+        assertEquals(TEXTURE_SIZE, textures.getUsedBytes());
+        // every level allocated and uploaded
+        assertEquals(Arrays.asList(16, 8, 4, 2, 1), gl.allocatedLevels);
+    }
+
+    @Test
+    public void update_timeSliced() {
+        Object model = new Object();
+        ByteBuffer image = image(1);
+        textures.acquire(model, "1.jpg", image);
+        decodings.get(0).run();
+
+        // 4 rows of level 0 every frame
+        textures.setUploadBudget(16 * 4 * 4);
+        int frames = 0;
+        while (textures.get(model, image) == 0) {
+            gl.uploadedBytes = 0;
+            assertTrue(textures.update());
+            assertTrue("frame " + frames + ": " + gl.uploadedBytes, gl.uploadedBytes <= 16 * 4 * 4);
+            frames++;
+        }
+        // 4 frames for level 0, 1 for level 1 and 1 for the rest
+        assertEquals(6, frames);
+        assertEquals(TEXTURE_SIZE, gl.totalBytes);
+        assertFalse(textures.update());
+    }
+
+    @Test
+    public void acquire_sameContent_shared() {
+        Object model1 = new Object();
+        Object model2 = new Object();
+        // every model has its own copy of the image
+        ByteBuffer truck1 = image(1);
+        ByteBuffer truck2 = image(1);
+
+        int texture = load(model1, "truck.jpg", truck1);
+        assertEquals(texture, load(model2, "truck.jpg", truck2));
+        assertEquals(Arrays.asList("gen 1", "ready 1 mipmaps"), gl.calls);
+        assertEquals(1, textures.getMisses());
+        assertEquals(1, textures.getHits());
+        assertEquals(TEXTURE_SIZE, textures.getUsedBytes());
+
+        assertEquals(texture, textures.get(model1, truck1));
+        assertEquals(texture, textures.get(model2, truck2));
+        assertEquals(0, textures.get(model2, truck1));
+    }
+
+    @Test
+    public void acquire_copy_hashedInBackground_notDecoded() {
+        Object model1 = new Object();
+        Object model2 = new Object();
+        int texture = load(model1, "truck.jpg", image(1));
+        decoderCalls = 0;
+
+        // not known to be the same image until it's hashed
+        ByteBuffer copy = image(1);
+        assertEquals(0, textures.acquire(model2, "truck.jpg", copy));
+        assertEquals(1, decodings.size());
+        decodings.get(0).run();
+        assertEquals(0, decoderCalls);
+        assertEquals(2, gl.calls.size());
+
+        textures.update();
+        assertEquals(texture, textures.get(model2, copy));
+        assertEquals(1, textures.size());
+        assertEquals(1, gl.textures);
+    }
+
+    @Test
+    public void acquire_copyOfEvicted_loadedAgain() {
+        textures.setBudget(0);
+        Object model1 = new Object();
+        Object model2 = new Object();
+        load(model1, "1.jpg", image(1));
+        ByteBuffer copy = image(1);
+        textures.acquire(model2, "1.jpg", copy);
+        decodings.get(0).run();
+        decodings.clear();
+
+        // evicted before the copy is shared
+        textures.release(model1);
+        textures.update();
+        assertEquals(1, decodings.size());
+        decodings.get(0).run();
+        textures.update();
+        assertEquals(2, textures.get(model2, copy));
+        assertEquals(1, textures.size());
+    }
+
+    @Test
+    public void acquire_sameData_sharedWithoutDecoding() {
+        // i.e. a texture group using the same texture as its model
+        Object model = new Object();
+        Object group = new Object();
+        ByteBuffer image = image(1);
+        textures.acquire(model, "1.jpg", image);
+        textures.acquire(group, "1.jpg", image);
+        assertEquals(1, decodings.size());
+        decodings.get(0).run();
+        textures.update();
+        assertEquals(1, textures.get(model, image));
+        assertEquals(1, textures.get(group, image));
+        assertEquals(1, textures.getHits());
+    }
+
+    @Test
+    public void acquire_differentContentOrUri_notShared() {
+        load(new Object(), "truck.jpg", image(1));
+        load(new Object(), "truck.jpg", image(2));
+        load(new Object(), "car.jpg", image(1));
+        assertEquals(3, gl.textures);
+        assertEquals(3, textures.size());
+    }
+
+    @Test
+    public void acquire_decodingFails_notUploaded() {
+        Object model = new Object();
+        ByteBuffer image = ByteBuffer.allocate(0);
+        assertEquals(0, load(model, "broken.jpg", image));
+        assertTrue(gl.calls.isEmpty());
+        assertEquals(0, textures.size());
+        // not decoded again every frame
+        assertEquals(0, textures.acquire(model, "broken.jpg", image));
+        assertTrue(decodings.isEmpty());
+    }
+
+    @Test
+    public void release_keptUntilOverBudget() {
+        Object model1 = new Object();
+        Object model2 = new Object();
+        Object model3 = new Object();
+        load(model1, "1.jpg", image(1));
+        load(model2, "2.jpg", image(2));
+        textures.release(model1);
+        textures.release(model2);
+        assertEquals(2, gl.textures);
+
+        // reused while it's in the GPU
+        assertEquals(1, load(model1, "1.jpg", image(1)));
+        assertEquals(1, textures.getHits());
+
+        // the least recently used texture not in use is evicted
+        load(model3, "3.jpg", image(3));
+        assertEquals("delete 2", gl.calls.get(gl.calls.size() - 1));
+        assertEquals(1, textures.getEvictions());
+        assertEquals(TEXTURE_SIZE * 2, textures.getUsedBytes());
+    }
+
+    @Test
+    public void evict_inUse_notDeleted() {
+        textures.setBudget(0);
+        Object model = new Object();
+        ByteBuffer image = image(1);
+        int texture = load(model, "1.jpg", image);
+        assertEquals(texture, textures.get(model, image));
+        assertEquals(1, textures.size());
+
+        textures.retain(Collections.emptyList());
+        assertEquals(Arrays.asList("gen 1", "ready 1 mipmaps", "delete 1"), gl.calls);
+        assertEquals(0, textures.size());
+        assertEquals(0, textures.getUsedBytes());
+    }
+
+    @Test
+    public void acquire_newData_releasesPrevious() {
+        textures.setBudget(TEXTURE_SIZE);
+        Object model = new Object();
+        load(model, "1.jpg", image(1));
+        load(model, "2.jpg", image(2));
+        assertEquals("delete 1", gl.calls.get(gl.calls.size() - 1));
+    }
+
+    @Test
+    public void invalidate_whileDecoding_discarded() {
+        textures.acquire(new Object(), "1.jpg", image(1));
+        textures.invalidate();
+        decodings.get(0).run();
+        assertFalse(textures.update());
+        assertTrue(gl.calls.isEmpty());
+    }
+
+    @Test
+    public void releaseAll_deletesAll() {
+        load(new Object(), "1.jpg", image(1));
+        load(new Object(), "2.jpg", image(2));
+        gl.calls.clear();
+        textures.releaseAll();
+        assertEquals(Arrays.asList("delete 1", "delete 2"), gl.calls);
+        assertEquals(0, textures.size());
+    }
+
+    @Test
+    public void update_compressed_levelByLevel() {
+        Object model = new Object();
+        // 16x16 ETC1 with its mipmaps: 128 + 32 + 8 + 8 + 8 bytes
+        ByteBuffer ktx = ByteBuffer.wrap(TextureContainer.writeKtx(TextureConverter.toEtc1(16, 16,
+                TextureImage.newBuffer(16 * 16 * 4), true)));
+        textures.acquire(model, "1.ktx", ktx);
+        decodings.get(0).run();
+
+        textures.setUploadBudget(1);
+        int frames = 0;
+        while (textures.get(model, ktx) == 0) {
+            assertTrue(textures.update());
+            frames++;
+        }
+        assertEquals(5, frames);
+        assertEquals(Arrays.asList(16, 8, 4, 2, 1), gl.compressedLevels);
+        assertTrue(gl.allocatedLevels.isEmpty());
+        assertEquals("ready 1 mipmaps", gl.calls.get(gl.calls.size() - 1));
+        assertEquals(184, textures.getUsedBytes());
+    }
+
+    @Test
+    public void update_compressedNotPowerOfTwo_clampedWithoutMipmaps() {
+        Object model = new Object();
+        // 12x20 ETC1 with its mipmaps
+        ByteBuffer[] levels = new ByteBuffer[TextureImage.getFullLevelCount(12, 20)];
+        for (int level = 0; level < levels.length; level++) {
+            levels[level] = TextureImage.newBuffer(Etc1.getEncodedSize(Math.max(1, 12 >> level),
+                    Math.max(1, 20 >> level)));
+        }
+        ByteBuffer ktx = ByteBuffer.wrap(TextureContainer.writeKtx(TextureImage.createCompressed(
+                TextureContainer.ETC1_RGB8, 12, 20, levels)));
+        textures.acquire(model, "1.ktx", ktx);
+        decodings.get(0).run();
+        while (textures.get(model, ktx) == 0) {
+            assertTrue(textures.update());
+        }
+        assertEquals("ready 1 clamped", gl.calls.get(gl.calls.size() - 1));
+    }
+
+    @Test
+    public void update_compressedNotSupported_notUploaded() {
+        gl.compressedFormat = 0;
+        Object model = new Object();
+        ByteBuffer pkm = ByteBuffer.wrap(TextureContainer.writePkm(TextureConverter.toEtc1(4, 4,
+                TextureImage.newBuffer(4 * 4 * 4), false)));
+        assertEquals(0, load(model, "1.pkm", pkm));
+        assertTrue(gl.calls.isEmpty());
+        assertEquals(0, textures.size());
+    }
+
+    private static ByteBuffer image(int content) {
+        return ByteBuffer.wrap(new byte[]{(byte) content, 1, 2, 3});
+    }
+
+    private static final class RecordingGL implements TextureManager.GL {
+
+        private final List<String> calls = new ArrayList<>();
+        private final List<Integer> allocatedLevels = new ArrayList<>();
+        private final List<Integer> compressedLevels = new ArrayList<>();
+        private int compressedFormat = TextureContainer.ETC1_RGB8;
+        private int textures;
+        private int uploadedBytes;
+        private int totalBytes;
+
+        @Override
+        public int genTexture() {
+            calls.add("gen " + ++textures);
+            return textures;
+        }
+
+        @Override
+        public void texImage2D(int texture, int level, int width, int height, Buffer pixels) {
+            allocatedLevels.add(width);
+        }
+
+        @Override
+        public void texSubImage2D(int texture, int level, int row, int width, int rows, Buffer pixels) {
+            assertTrue(pixels.remaining() >= width * rows * 4);
+            uploadedBytes += width * rows * 4;
+            totalBytes += width * rows * 4;
+        }
+
+        @Override
+        public void compressedTexImage2D(int texture, int level, int format, int width, int height, Buffer data) {
+            assertEquals(compressedFormat, format);
+            assertEquals(Etc1.getEncodedSize(width, height), data.capacity());
+            compressedLevels.add(width);
+        }
+
+        @Override
+        public boolean isSupported(int format) {
+            return format == compressedFormat;
+        }
+
+        @Override
+        public void setFilters(int texture, boolean mipmaps, boolean clampToEdge) {
+            calls.add("ready " + texture + (mipmaps ? " mipmaps" : "") + (clampToEdge ? " clamped" : ""));
+        }
+
+        @Override
+        public void deleteTexture(int texture) {
+            calls.add("delete " + texture);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.andresoviedo.android_3d_model_engine.services;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the cache key changes whenever the model or its materials change
+ */
+public class MeshCacheTest {
+
+    @Test
+    public void hash_modelAndMaterials() {
+        ByteBuffer model = bytes("mtllib model.mtl\nv 0 0 0\n");
+        ByteBuffer materials = bytes("newmtl wood\nmap_Kd wood.png\n");
+        byte[] hash = MeshCache.hash(model, materials);
+        assertArrayEquals(hash, MeshCache.hash(model, materials));
+        assertEquals(0, model.position());
+
+        assertFalse(Arrays.equals(hash, MeshCache.hash(model, bytes("newmtl wood\nmap_Kd metal.png\n"))));
+        assertFalse(Arrays.equals(hash, MeshCache.hash(model, null)));
+        // same bytes, in other files
+        assertFalse(Arrays.equals(MeshCache.hash(bytes("ab"), bytes("c")),
+                MeshCache.hash(bytes("a"), bytes("bc"))));
+    }
+
+    private static ByteBuffer bytes(String contents) {
+        return ByteBuffer.wrap(contents.getBytes());
+    }
+}
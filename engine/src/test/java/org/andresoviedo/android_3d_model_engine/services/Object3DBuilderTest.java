@@ -0,0 +1,108 @@
+package org.andresoviedo.android_3d_model_engine.services;
+
+import org.andresoviedo.android_3d_model_engine.model.Object3DData;
+import org.andresoviedo.android_3d_model_engine.model.TextureGroup;
+import org.andresoviedo.android_3d_model_engine.services.wavefront.WavefrontLoader;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the triangles of a model with several textures get the right texture and are sorted by texture
+ */
+public class Object3DBuilderTest {
+
+    @Test
+    public void sortFacesByTexture_groupedKeepingOrder() {
+        // 4 triangles. the vertices of every triangle have the x of the triangle number
+        Object3DData obj = new Object3DData(floats(4, 3), floats(4, 4), floats(4, 2), null);
+        String[] faceTextures = {"wood.png", null, "metal.png", "wood.png"};
+
+        List<TextureGroup> groups = Object3DBuilder.sortFacesByTexture(obj, faceTextures,
+                Arrays.asList("wood.png", "metal.png"));
+
+        assertEquals(3, groups.size());
+        assertGroup(groups.get(0), "wood.png", 0, 6);
+        assertGroup(groups.get(1), "metal.png", 6, 3);
+        assertGroup(groups.get(2), null, 9, 3);
+
+        // faces 0, 3, 2, 1
+        float[] expected = {0, 3, 2, 1};
+        for (int face = 0; face < 4; face++) {
+            for (int vertex = 0; vertex < 3; vertex++) {
+                int i = face * 3 + vertex;
+                assertEquals(expected[face], obj.getVertexArrayBuffer().get(i * 3), 0);
+                assertEquals(expected[face], obj.getVertexColorsArrayBuffer().get(i * 4), 0);
+                assertEquals(expected[face], obj.getTextureCoordsArrayBuffer().get(i * 2), 0);
+            }
+        }
+        assertNull(obj.getVertexNormalsArrayBuffer());
+    }
+
+    @Test
+    public void sortFacesByTexture_emptyGroupsSkipped() {
+        Object3DData obj = new Object3DData(floats(2, 3), null, floats(2, 2), null);
+
+        List<TextureGroup> groups = Object3DBuilder.sortFacesByTexture(obj, new String[]{"b.png", "b.png"},
+                Arrays.asList("a.png", "b.png"));
+
+        assertEquals(1, groups.size());
+        assertGroup(groups.get(0), "b.png", 0, 6);
+    }
+
+    @Test
+    public void getFaceTextures_quads() {
+        String model = "mtllib plane.mtl\n"
+                + "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\nv 0 2 0\n"
+                + "usemtl wood\n"
+                + "f 1 2 3 4\n"
+                + "f 1 2 3 4 5\n"
+                + "usemtl metal\n"
+                + "f 1 2 3 4\n"
+                + "usemtl wood\n"
+                + "f 1 2 3\n";
+        String mtl = "newmtl wood\nmap_Kd wood.png\nnewmtl metal\nmap_Kd metal.png\n";
+
+        WavefrontLoader loader = new WavefrontLoader("plane");
+        loader.loadModelSinglePass(new ByteArrayInputStream(model.getBytes()));
+        loader.getMaterials().readMaterials(new BufferedReader(new StringReader(mtl)));
+        assertEquals(8, loader.getFaces().getSize());
+
+        List<String> textures = new ArrayList<>();
+        String[] faceTextures = Object3DBuilder.getFaceTextures(loader.getFaces(), loader.getFaceMats(),
+                loader.getMaterials(), textures);
+
+        // every quad is 2 triangles and the pentagon 3
+        assertArrayEquals(new String[]{"wood.png", "wood.png", "wood.png", "wood.png", "wood.png",
+                "metal.png", "metal.png", "wood.png"}, faceTextures);
+        assertEquals(Arrays.asList("wood.png", "metal.png"), textures);
+    }
+
+    private static void assertGroup(TextureGroup group, String textureFile, int start, int count) {
+        assertEquals(textureFile, group.getTextureFile());
+        assertEquals(start, group.getStart());
+        assertEquals(count, group.getCount());
+    }
+
+    /**
+     * @return an array of the triangles, where the first component of every vertex is the triangle number
+     */
+    private static FloatBuffer floats(int faces, int size) {
+        FloatBuffer buffer = ByteBuffer.allocateDirect(faces * 3 * size * 4).order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        for (int i = 0; i < faces * 3; i++) {
+            buffer.put(i * size, i / 3);
+        }
+        return buffer;
+    }
+}
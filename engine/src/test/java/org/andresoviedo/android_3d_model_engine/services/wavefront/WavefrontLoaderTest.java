@@ -0,0 +1,159 @@
+package org.andresoviedo.android_3d_model_engine.services.wavefront;
+
+import org.andresoviedo.util.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that parsing the models in parallel gives the same result as the sequential parser
+ */
+public class WavefrontLoaderTest {
+
+    // small enough so every model is split in several chunks
+    private static final int CHUNK_SIZE = 4 * 1024;
+
+    @Test
+    public void parallel_sameAsSequential() throws IOException {
+        List<File> models = getModels();
+        assertFalse("No models found", models.isEmpty());
+        for (File model : models) {
+            byte[] data = IOUtils.read(model);
+
+            WavefrontLoader sequential = new WavefrontLoader(model.getName());
+            sequential.loadModelSinglePass(new ByteArrayInputStream(data));
+
+            WavefrontLoader parallel = new WavefrontLoader(model.getName());
+            parallel.loadModelParallel(data, CHUNK_SIZE);
+
+            assertSameModel(model.getName(), sequential, parallel);
+        }
+    }
+
+    @Test
+    public void loadModel_sameAsSequential() throws IOException {
+        for (File model : getModels()) {
+            byte[] data = IOUtils.read(model);
+
+            WavefrontLoader sequential = new WavefrontLoader(model.getName());
+            sequential.loadModelSinglePass(new ByteArrayInputStream(data));
+
+            // like a memory mapped file. the big models are parsed in parallel
+            ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+            buffer.put(data).flip();
+            WavefrontLoader loader = new WavefrontLoader(model.getName());
+            loader.loadModel(buffer);
+
+            assertSameModel(model.getName(), sequential, loader);
+            assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test
+    public void getMaterialLib_lastOne() {
+        ByteBuffer model = ByteBuffer.wrap("# model\nmtllib first.mtl\nv 0 0 0\n  mtllib second.mtl \nf 1 1 1\n".getBytes());
+        assertEquals("second.mtl", WavefrontLoader.getMaterialLib(model));
+        assertEquals(0, model.position());
+        assertNull(WavefrontLoader.getMaterialLib(ByteBuffer.wrap("v 0 0 0\n".getBytes())));
+    }
+
+    private static List<File> getModels() {
+        // tests run from the module folder
+        File dir = new File("../models");
+        if (!dir.isDirectory()) {
+            dir = new File("models");
+        }
+        List<File> ret = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().toLowerCase().endsWith(".obj")) {
+                    ret.add(file);
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static void assertSameModel(String name, WavefrontLoader expected, WavefrontLoader actual) {
+        assertEquals(name, expected.numVerts, actual.numVerts);
+        assertEquals(name, expected.numNormals, actual.numNormals);
+        assertEquals(name, expected.numTextures, actual.numTextures);
+        assertEquals(name, expected.numFaces, actual.numFaces);
+        assertSameBuffer(name + " vertices", expected.getVerts(), actual.getVerts());
+        assertSameBuffer(name + " normals", expected.getNormals(), actual.getNormals());
+
+        assertEquals(name, expected.getTexCoords().size(), actual.getTexCoords().size());
+        for (int i = 0; i < expected.getTexCoords().size(); i++) {
+            WavefrontLoader.Tuple3 e = expected.getTexCoords().get(i);
+            WavefrontLoader.Tuple3 a = actual.getTexCoords().get(i);
+            assertArrayEquals(name + " tex coord " + i, new float[]{e.getX(), e.getY(), e.getZ()},
+                    new float[]{a.getX(), a.getY(), a.getZ()}, 0f);
+        }
+
+        WavefrontLoader.Faces expectedFaces = expected.getFaces();
+        WavefrontLoader.Faces actualFaces = actual.getFaces();
+        if (expectedFaces == null) {
+            assertNull(name, actualFaces);
+        } else {
+            assertNotNull(name, actualFaces);
+            assertEquals(name, expectedFaces.getSize(), actualFaces.getSize());
+            assertTrue(name, actualFaces.loaded());
+            assertSameBuffer(name + " face indices", expectedFaces.getIndexBuffer(), actualFaces.getIndexBuffer());
+            assertSameIndices(name + " face tex coords", expectedFaces.facesTexIdxs, actualFaces.facesTexIdxs);
+            assertSameIndices(name + " face normals", expectedFaces.facesNormIdxs, actualFaces.facesNormIdxs);
+            for (int i = 0; i < expectedFaces.getSize(); i++) {
+                assertEquals(name + " material of face " + i, expected.getFaceMats().findMaterial(i),
+                        actual.getFaceMats().findMaterial(i));
+            }
+        }
+
+        if (expected.getMaterials() == null) {
+            assertNull(name, actual.getMaterials());
+        } else {
+            assertEquals(name, expected.getMaterials().mfnm, actual.getMaterials().mfnm);
+        }
+
+        WavefrontLoader.ModelDimensions e = expected.getDimensions();
+        WavefrontLoader.ModelDimensions a = actual.getDimensions();
+        assertEquals(name, e.numVerts, a.numVerts);
+        assertArrayEquals(name + " dimensions",
+                new float[]{e.leftPt, e.rightPt, e.topPt, e.bottomPt, e.nearPt, e.farPt, e.centerX, e.centerY, e.centerZ},
+                new float[]{a.leftPt, a.rightPt, a.topPt, a.bottomPt, a.nearPt, a.farPt, a.centerX, a.centerY, a.centerZ},
+                0f);
+    }
+
+    private static void assertSameBuffer(String message, FloatBuffer expected, FloatBuffer actual) {
+        if (expected == null) {
+            assertNull(message, actual);
+            return;
+        }
+        assertEquals(message, expected.capacity(), actual.capacity());
+        for (int i = 0; i < expected.capacity(); i++) {
+            assertEquals(message + " at " + i, Float.floatToIntBits(expected.get(i)), Float.floatToIntBits(actual.get(i)));
+        }
+    }
+
+    private static void assertSameBuffer(String message, IntBuffer expected, IntBuffer actual) {
+        assertEquals(message, expected.capacity(), actual.capacity());
+        for (int i = 0; i < expected.capacity(); i++) {
+            assertEquals(message + " at " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    private static void assertSameIndices(String message, List<int[]> expected, List<int[]> actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(message + " at " + i, expected.get(i), actual.get(i));
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.andresoviedo.android_3d_model_engine.services.wavefront;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the floats parsed by the scanner are the same as the ones parsed by the jdk
+ */
+public class WavefrontScannerTest {
+
+    @Test
+    public void nextFloat_sameAsParseFloat() {
+        String[] values = {"0", "-0.0", "1", "0.1", "-0.5", "16777216", "16777217", "0.16777217", "1e10", "1.5e-7",
+                "3.4028235e38", "1.4e-45", "123456789012345678901234", "0.000000000001", "+2.5", "1.0E+2", "NaN",
+                "-Infinity", "0.30000001192092896"};
+        for (String value : values) {
+            assertSame(value);
+        }
+
+        // the usual output of the exporters
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            float f = (random.nextFloat() - 0.5f) * (float) Math.pow(10, random.nextInt(8) - 3);
+            assertSame(String.format(Locale.US, "%." + random.nextInt(10) + "f", f));
+            assertSame(Float.toString(f));
+        }
+    }
+
+    private static void assertSame(String value) {
+        float expected = Float.parseFloat(value);
+        WavefrontScanner scanner = new WavefrontScanner("v " + value);
+        scanner.skipKeyword();
+        float actual = scanner.nextFloat();
+        assertEquals(value, Float.floatToIntBits(expected), Float.floatToIntBits(actual));
+    }
+}
@@ -0,0 +1,56 @@
+package org.andresoviedo.util.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the streams are read whatever their expected size, and the buffers are read as streams
+ */
+public class IOUtilsTest {
+
+    @Test
+    public void read_sizeHint() throws IOException {
+        byte[] data = data(100 * 1024);
+        // exact, smaller, bigger and unknown
+        for (int hint : new int[]{data.length, 10, data.length * 2, 0}) {
+            ByteBuffer read = IOUtils.read(new ByteArrayInputStream(data), hint);
+            assertEquals(0, read.position());
+            assertEquals(ByteBuffer.wrap(data), read);
+        }
+    }
+
+    @Test
+    public void byteBufferInputStream_bufferNotModified() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data(300));
+        buffer.position(100);
+        InputStream is = new ByteBufferInputStream(buffer);
+        assertEquals(200, is.available());
+        assertEquals(100, is.read());
+
+        is.mark(0);
+        assertEquals(10, is.skip(10));
+        assertEquals(111, is.read());
+        is.reset();
+        assertEquals(101, is.read());
+
+        byte[] rest = IOUtils.read(is);
+        assertEquals(198, rest.length);
+        assertEquals((byte) 299, rest[197]);
+        assertEquals(-1, is.read());
+        assertEquals(100, buffer.position());
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+}